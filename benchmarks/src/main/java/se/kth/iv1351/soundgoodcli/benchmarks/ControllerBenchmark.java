@@ -0,0 +1,128 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.integration.SGDBConfig;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.Quote;
+import se.kth.iv1351.soundgoodcli.model.QuoteRequest;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations of the controller against a database seeded with the project's
+ * sql scripts plus the number of synthetic rentals given by <code>rentals</code>. The
+ * database is selected with the <code>soundgood.db.*</code> system properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ControllerBenchmark {
+    private static final LocalDate START = LocalDate.of(2022, 1, 16);
+    private static final LocalDate END = LocalDate.of(2022, 5, 16);
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rentals;
+
+    private Controller ctrl;
+    private List<Integer> students;
+    private List<Integer> instruments;
+    private LocalDate firstStart;
+    private List<QuoteRequest> quoteRequests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SGDBConfig config = SGDBConfig.fromSystemProperties();
+        SeedDatabase.seed(config, rentals);
+        students = SeedDatabase.benchmarkStudents(config);
+        instruments = SeedDatabase.syntheticInstruments(config);
+        firstStart = SeedDatabase.firstUnusedStartDate(config);
+        ctrl = new Controller();
+        quoteRequests = new ArrayList<>();
+        for (int instrument : instruments) {
+            quoteRequests.add(QuoteRequest.rental(instrument, START, END));
+        }
+    }
+
+    @Benchmark
+    public List<RentalInstrument> getAvailableRentalInstruments() throws RentalException {
+        return ctrl.getAvailableRentalInstruments(START, END, "Guitar");
+    }
+
+    @Benchmark
+    public List<RentalInstrument> getAllAvailableRentalInstruments() throws RentalException {
+        return ctrl.getAllAvailableRentalInstruments(START, END);
+    }
+
+    @Benchmark
+    public List<Quote> quoteAllInstruments() {
+        return ctrl.quote(quoteRequests);
+    }
+
+    @Benchmark
+    public void createRental(RentingTerminal terminal) throws RentalException {
+        terminal.rent(ctrl);
+    }
+
+    @Benchmark
+    public void terminateRental(TerminatingTerminal terminal) throws RentalException {
+        terminal.terminate(ctrl);
+    }
+
+    /**
+     * A terminal that terminates each rental after it has been measured.
+     */
+    @State(Scope.Thread)
+    public static class RentingTerminal extends Terminal {
+        private ControllerBenchmark benchmark;
+
+        @Setup(Level.Trial)
+        public void assign(ControllerBenchmark benchmark) {
+            this.benchmark = benchmark;
+            assign(benchmark.students, benchmark.instruments, benchmark.firstStart);
+        }
+
+        @TearDown(Level.Invocation)
+        public void terminate() throws RentalException {
+            terminate(benchmark.ctrl);
+        }
+    }
+
+    /**
+     * A terminal that creates the rental to terminate before each measurement.
+     */
+    @State(Scope.Thread)
+    public static class TerminatingTerminal extends Terminal {
+        private ControllerBenchmark benchmark;
+
+        @Setup(Level.Trial)
+        public void assign(ControllerBenchmark benchmark) {
+            this.benchmark = benchmark;
+            assign(benchmark.students, benchmark.instruments, benchmark.firstStart.plusYears(50));
+        }
+
+        @Setup(Level.Invocation)
+        public void rent() throws RentalException {
+            rent(benchmark.ctrl);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.kth.iv1351.soundgoodcli.controller.BookingMode;
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.integration.SGDBConfig;
+import se.kth.iv1351.soundgoodcli.integration.SGDBException;
+import se.kth.iv1351.soundgoodcli.integration.SoundGoodDAO;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end latency of the rent flow, blocking, asynchronous, which is the
+ * blocking flow on a thread of the controller's rental executor, and with one call of the
+ * database function of migration V006, which is applied together with V001
+ * before the benchmarks. The check benchmarks compare reading the student's rental count
+ * and the instrument's price one after the other on one connection with reading them at
+ * the same time on two. Run with several threads, <code>-t 16</code>, to see the flows
+ * compete for connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RentFlowBenchmark {
+    @Param({"10000", "1000000"})
+    public int rentals;
+
+    private Controller ctrl;
+    private Controller singleStatementCtrl;
+    private SoundGoodDAO dao;
+    private List<Integer> students;
+    private List<Integer> instruments;
+    private LocalDate firstStart;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SGDBConfig config = SGDBConfig.fromSystemProperties();
+        SeedDatabase.seed(config, rentals);
+        students = SeedDatabase.benchmarkStudents(config);
+        instruments = SeedDatabase.syntheticInstruments(config);
+        SeedDatabase.migrate(config, "/migrations/V001__availability_indexes.sql", "/migrations/V006__create_rental_function.sql");
+        firstStart = SeedDatabase.firstUnusedStartDate(config);
+        ctrl = new Controller(BookingMode.LOCKING);
+        singleStatementCtrl = new Controller(BookingMode.SINGLE_STATEMENT);
+        dao = new SoundGoodDAO(config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.close();
+    }
+
+    @Benchmark
+    public RentalInstrument checkSequentially(RentingTerminal terminal) throws SGDBException {
+        return terminal.checkSequentially(dao);
+    }
+
+    @Benchmark
+    public RentalInstrument checkConcurrently(RentingTerminal terminal) {
+        return terminal.check(ctrl);
+    }
+
+    @Benchmark
+    public void rent(RentingTerminal terminal) throws RentalException {
+        terminal.rent(ctrl);
+    }
+
+    @Benchmark
+    public void rentAsync(RentingTerminal terminal) {
+        terminal.rentAsync(ctrl);
+    }
+
+    @Benchmark
+    public void rentInOneStatement(SingleStatementTerminal terminal) throws RentalException {
+        terminal.rent(singleStatementCtrl);
+    }
+
+    /**
+     * A terminal that terminates each rental after it has been measured.
+     */
+    @State(Scope.Thread)
+    public static class RentingTerminal extends Terminal {
+        private RentFlowBenchmark benchmark;
+
+        @Setup(Level.Trial)
+        public void assign(RentFlowBenchmark benchmark) {
+            this.benchmark = benchmark;
+            assign(benchmark.students, benchmark.instruments, benchmark.firstStart.plusYears(100));
+        }
+
+        @TearDown(Level.Invocation)
+        public void terminate() throws RentalException {
+            terminate(benchmark.ctrl);
+        }
+    }
+
+    /**
+     * A terminal of the single statement controller, which terminates each rental after it
+     * has been measured.
+     */
+    @State(Scope.Thread)
+    public static class SingleStatementTerminal extends Terminal {
+        private RentFlowBenchmark benchmark;
+
+        @Setup(Level.Trial)
+        public void assign(RentFlowBenchmark benchmark) {
+            this.benchmark = benchmark;
+            assign(benchmark.students, benchmark.instruments, benchmark.firstStart.plusYears(150));
+        }
+
+        @TearDown(Level.Invocation)
+        public void terminate() throws RentalException {
+            terminate(benchmark.singleStatementCtrl);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import se.kth.iv1351.soundgoodcli.integration.SGDBConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the sound good schema from the project's sql scripts and adds synthetic rental
+ * history on top of the seed data. Each synthetic rental instrument gets a hundred monthly,
+ * non-overlapping rentals in the past, so the number of instruments grows with the scale.
+ * A database that already holds the requested number of rentals is reused as it is.
+ */
+class SeedDatabase {
+    static final String BENCHMARK_STUDENT_PREFIX = "bench-";
+    private static final int RENTALS_PER_INSTRUMENT = 100;
+    private static final int NR_OF_BENCHMARK_STUDENTS = 256;
+    private static final String SYNTHETIC_MODEL = "Synthetic";
+
+    private SeedDatabase() {
+    }
+
+    /**
+     * Makes sure the database has the seed data plus the specified number of synthetic rentals.
+     *
+     * @param config       The database to seed.
+     * @param nrOfRentals  The number of synthetic rentals.
+     */
+    static void seed(SGDBConfig config, int nrOfRentals) throws Exception {
+        try (Connection connection = connect(config)) {
+            if (syntheticRentals(connection) == nrOfRentals) {
+                return;
+            }
+            connection.setAutoCommit(false);
+            SqlScript.run(connection, "/psql-sgdb-create-tables.sql");
+            SqlScript.run(connection, "/psql-sgdb-instert-data.sql");
+
+            int nrOfInstruments = Math.max(1, nrOfRentals / RENTALS_PER_INSTRUMENT);
+            try (PreparedStatement instruments = connection.prepareStatement(
+                    "INSERT INTO rental_instrument (model, notes, monthly_price, instrument_id) "
+                            + "SELECT '" + SYNTHETIC_MODEL + "', 'Synthetic ' || g, 100 + (g % 20) * 10, (g % 11) + 1 "
+                            + "FROM generate_series(1, ?) g")) {
+                instruments.setInt(1, nrOfInstruments);
+                instruments.executeUpdate();
+            }
+            try (PreparedStatement rentals = connection.prepareStatement(
+                    "INSERT INTO rental (rental_instrument_id, student_id, start_date, end_date, delivery, price, notes, terminated) "
+                            + "SELECT ri.ids[(g % ?) + 1], st.ids[(g % cardinality(st.ids)) + 1], "
+                            + "date '2014-01-01' + (g / ?) * 30, date '2014-01-01' + (g / ?) * 30 + 27, NULL, 100, NULL, false "
+                            + "FROM generate_series(0, ? - 1) g, "
+                            + "(SELECT array_agg(id ORDER BY id) as ids FROM rental_instrument where model = '" + SYNTHETIC_MODEL + "') ri, "
+                            + "(SELECT array_agg(student_id ORDER BY student_id) as ids FROM student where approved = true) st")) {
+                rentals.setInt(1, nrOfInstruments);
+                rentals.setInt(2, nrOfInstruments);
+                rentals.setInt(3, nrOfInstruments);
+                rentals.setInt(4, nrOfRentals);
+                rentals.executeUpdate();
+            }
+            try (PreparedStatement persons = connection.prepareStatement(
+                    "INSERT INTO person (person_number, user_role, first_name, last_name) "
+                            + "SELECT '" + BENCHMARK_STUDENT_PREFIX + "' || g, 'student', 'Bench', g::text FROM generate_series(1, ?) g")) {
+                persons.setInt(1, NR_OF_BENCHMARK_STUDENTS);
+                persons.executeUpdate();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("INSERT INTO student (student_id, skill_level, approved, instrument_id) "
+                        + "SELECT id, 'beginner', true, 1 FROM person where person_number like '" + BENCHMARK_STUDENT_PREFIX + "%'");
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE");
+            }
+        }
+    }
+
+    /**
+     * Applies the specified migrations, each of which can be applied again without harm.
+     *
+     * @param config     The database to migrate.
+     * @param migrations The names of the migration scripts, for example
+     *                   <code>/migrations/V006__create_rental_function.sql</code>.
+     */
+    static void migrate(SGDBConfig config, String... migrations) throws Exception {
+        try (Connection connection = connect(config)) {
+            for (String migration : migrations) {
+                SqlScript.run(connection, migration);
+            }
+        }
+    }
+
+    /**
+     * @return The ids of the students created for benchmark threads.
+     */
+    static List<Integer> benchmarkStudents(SGDBConfig config) throws SQLException {
+        return ids(config, "SELECT p.id FROM person p where p.person_number like '" + BENCHMARK_STUDENT_PREFIX + "%' order by p.id");
+    }
+
+    /**
+     * @return The ids of the synthetic rental instruments.
+     */
+    static List<Integer> syntheticInstruments(SGDBConfig config) throws SQLException {
+        return ids(config, "SELECT id FROM rental_instrument where model = '" + SYNTHETIC_MODEL + "' order by id");
+    }
+
+    /**
+     * @return A date after the start of every rental in the database, so that benchmark
+     *         rentals starting on or after it never collide with earlier runs.
+     */
+    static LocalDate firstUnusedStartDate(SGDBConfig config) throws SQLException {
+        try (Connection connection = connect(config);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT greatest(max(start_date), date '2099-12-31') + 1 FROM rental")) {
+            result.next();
+            return result.getDate(1).toLocalDate();
+        }
+    }
+
+    private static int syntheticRentals(Connection connection) {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT count(*) FROM rental r JOIN rental_instrument ri on ri.id = r.rental_instrument_id "
+                     + "where ri.model = '" + SYNTHETIC_MODEL + "' and r.start_date < date '2100-01-01'")) {
+            result.next();
+            return result.getInt(1);
+        } catch (SQLException noSchemaYet) {
+            return -1;
+        }
+    }
+
+    private static List<Integer> ids(SGDBConfig config, String sql) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = connect(config);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            while (result.next()) {
+                ids.add(result.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static Connection connect(SGDBConfig config) throws SQLException {
+        return DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+    }
+}
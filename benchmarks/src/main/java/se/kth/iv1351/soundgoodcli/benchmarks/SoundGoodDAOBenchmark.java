@@ -0,0 +1,65 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.kth.iv1351.soundgoodcli.integration.SGDBConfig;
+import se.kth.iv1351.soundgoodcli.integration.SGDBException;
+import se.kth.iv1351.soundgoodcli.integration.SoundGoodDAO;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the availability queries of the DAO, which the controller no longer uses for
+ * listings but which still show how the sql scales with rental history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SoundGoodDAOBenchmark {
+    private static final LocalDate START = LocalDate.of(2022, 1, 16);
+    private static final LocalDate END = LocalDate.of(2022, 5, 16);
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rentals;
+
+    private SoundGoodDAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SGDBConfig config = SGDBConfig.fromSystemProperties();
+        SeedDatabase.seed(config, rentals);
+        dao = new SoundGoodDAO(config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.close();
+    }
+
+    @Benchmark
+    public List<RentalInstrument> findAvailableRentalInstruments() throws SGDBException {
+        return dao.findAvailableRentalInstruments(START, END, "Guitar");
+    }
+
+    @Benchmark
+    public List<RentalInstrument> findAllAvailableRentalInstruments() throws SGDBException {
+        return dao.findAllAvailableRentalInstruments(START, END);
+    }
+}
@@ -0,0 +1,83 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the sql scripts shipped in the resources of the application.
+ */
+class SqlScript {
+    private SqlScript() {
+    }
+
+    /**
+     * Executes all statements of the specified script resource.
+     *
+     * @param connection The connection to execute the statements on.
+     * @param resource   The name of the script, for example <code>/psql-sgdb-create-tables.sql</code>.
+     */
+    static void run(Connection connection, String resource) throws IOException, SQLException {
+        String script;
+        try (InputStream in = SqlScript.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("No script named " + resource + " on the class path.");
+            }
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : split(script)) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Splits a script into statements on semicolons that are not inside a string literal,
+     * a <code>$$</code> quoted function body or a comment.
+     */
+    static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inString = false;
+        boolean inBody = false;
+        for (int i = 0; i < script.length(); i++) {
+            char c = script.charAt(i);
+            if (!inString && c == '-' && i + 1 < script.length() && script.charAt(i + 1) == '-') {
+                int endOfLine = script.indexOf('\n', i);
+                i = endOfLine < 0 ? script.length() : endOfLine;
+                current.append('\n');
+                continue;
+            }
+            if (!inString && c == '$' && i + 1 < script.length() && script.charAt(i + 1) == '$') {
+                inBody = !inBody;
+                current.append("$$");
+                i++;
+                continue;
+            }
+            if (c == '\'' && !inBody) {
+                inString = !inString;
+            }
+            if (c == ';' && !inString && !inBody) {
+                addIfNotBlank(statements, current);
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        addIfNotBlank(statements, current);
+        return statements;
+    }
+
+    private static void addIfNotBlank(List<String> statements, StringBuilder sql) {
+        String trimmed = sql.toString().trim();
+        if (!trimmed.isEmpty()) {
+            statements.add(trimmed);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package se.kth.iv1351.soundgoodcli.benchmarks;
+
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.integration.SGDBException;
+import se.kth.iv1351.soundgoodcli.integration.SoundGoodDAO;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A front desk terminal in a benchmark. Every terminal rents its own synthetic instrument
+ * for its own benchmark student, so terminals never compete for the same rows. Each rental
+ * lasts one day and starts two days after the previous one.
+ */
+class Terminal {
+    private static final AtomicInteger NEXT_TERMINAL = new AtomicInteger();
+    private int studentId;
+    private int instrumentId;
+    private LocalDate nextStart;
+    private LocalDate rentedStart;
+
+    void assign(List<Integer> students, List<Integer> instruments, LocalDate firstStart) {
+        int terminal = NEXT_TERMINAL.getAndIncrement();
+        studentId = students.get(terminal % students.size());
+        instrumentId = instruments.get(terminal % instruments.size());
+        nextStart = firstStart;
+    }
+
+    void rent(Controller ctrl) throws RentalException {
+        ctrl.createRental(studentId, instrumentId, nextStart, nextStart.plusDays(1), null, "Benchmark");
+        rentedStart = nextStart;
+        nextStart = nextStart.plusDays(2);
+    }
+
+    void rentAsync(Controller ctrl) {
+        ctrl.createRentalAsync(studentId, instrumentId, nextStart, nextStart.plusDays(1), null, "Benchmark").join();
+        rentedStart = nextStart;
+        nextStart = nextStart.plusDays(2);
+    }
+
+    RentalInstrument check(Controller ctrl) {
+        return ctrl.checkRental(studentId, instrumentId, nextStart, nextStart.plusDays(1)).join();
+    }
+
+    RentalInstrument checkSequentially(SoundGoodDAO dao) throws SGDBException {
+        dao.findStudentInstrumentCount(studentId);
+        RentalInstrument instrument = dao.findRentalInstrumentIfAvailable(instrumentId, nextStart, nextStart.plusDays(1));
+        dao.commit();
+        return instrument;
+    }
+
+    void terminate(Controller ctrl) throws RentalException {
+        if (rentedStart != null) {
+            ctrl.terminateRental(studentId, instrumentId, rentedStart);
+            rentedStart = null;
+        }
+    }
+}
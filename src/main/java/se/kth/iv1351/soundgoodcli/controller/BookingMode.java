@@ -0,0 +1,25 @@
+package se.kth.iv1351.soundgoodcli.controller;
+
+/**
+ * How {@link Controller#createRental} keeps concurrent rentals from breaking the rules.
+ * The mode is chosen with the system property <code>soundgood.booking.mode</code>.
+ */
+public enum BookingMode {
+    /**
+     * The student and instrument rows are locked for update before they are checked, so
+     * a conflicting rental waits until the first one is committed.
+     */
+    LOCKING,
+    /**
+     * The rental is checked and created in a serializable transaction without locking any
+     * rows. A rental that conflicts with a concurrent one fails at commit and is retried
+     * after a random delay.
+     */
+    OPTIMISTIC,
+    /**
+     * The rental is checked and created by one call of the database function
+     * <code>create_rental</code>, which locks the student and instrument rows like
+     * {@link #LOCKING}, in one statement instead of five. Requires migration V006.
+     */
+    SINGLE_STATEMENT
+}
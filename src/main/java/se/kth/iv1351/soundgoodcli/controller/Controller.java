@@ -1,15 +1,69 @@
 package se.kth.iv1351.soundgoodcli.controller;
 
+import se.kth.iv1351.soundgoodcli.integration.AsyncSoundGoodDAO;
+import se.kth.iv1351.soundgoodcli.integration.ConnectionPoolMetrics;
+import se.kth.iv1351.soundgoodcli.integration.PartitionMaintenance;
+import se.kth.iv1351.soundgoodcli.integration.RentalJournal;
+import se.kth.iv1351.soundgoodcli.integration.ReplicaRouter;
+import se.kth.iv1351.soundgoodcli.integration.SGDBConflictException;
 import se.kth.iv1351.soundgoodcli.integration.SGDBException;
 import se.kth.iv1351.soundgoodcli.integration.SoundGoodDAO;
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+import se.kth.iv1351.soundgoodcli.model.AvailabilityEngine;
+import se.kth.iv1351.soundgoodcli.model.CatalogInstrument;
+import se.kth.iv1351.soundgoodcli.model.ExportException;
+import se.kth.iv1351.soundgoodcli.model.FreeWindow;
+import se.kth.iv1351.soundgoodcli.model.Instructor;
+import se.kth.iv1351.soundgoodcli.model.InstructorLesson;
+import se.kth.iv1351.soundgoodcli.model.InstructorLessonCount;
+import se.kth.iv1351.soundgoodcli.model.LessonBookingException;
+import se.kth.iv1351.soundgoodcli.model.LessonMonthStatistics;
+import se.kth.iv1351.soundgoodcli.model.LessonPrice;
+import se.kth.iv1351.soundgoodcli.model.LessonSeatCount;
+import se.kth.iv1351.soundgoodcli.model.LessonSeats;
+import se.kth.iv1351.soundgoodcli.model.ListingCache;
+import se.kth.iv1351.soundgoodcli.model.QuotationEngine;
+import se.kth.iv1351.soundgoodcli.model.Quote;
+import se.kth.iv1351.soundgoodcli.model.QuoteRequest;
 import se.kth.iv1351.soundgoodcli.model.RentalException;
 import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+import se.kth.iv1351.soundgoodcli.model.RentalOutcome;
+import se.kth.iv1351.soundgoodcli.model.RentalPeriod;
+import se.kth.iv1351.soundgoodcli.model.RentalRequest;
+import se.kth.iv1351.soundgoodcli.model.RentalResult;
+import se.kth.iv1351.soundgoodcli.model.SchedulingEngine;
+import se.kth.iv1351.soundgoodcli.model.SchedulingException;
+import se.kth.iv1351.soundgoodcli.model.StatisticsException;
+import se.kth.iv1351.soundgoodcli.model.WorkTime;
 
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
-import static java.lang.Integer.parseInt;
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_ACTIVE_RENTALS;
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_NOTES_LENGTH;
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_RENTAL_MONTHS;
 import static se.kth.iv1351.soundgoodcli.model.Model.canStudentRentMoreInstruments;
-import static se.kth.iv1351.soundgoodcli.model.Model.getPriceById;
+import static se.kth.iv1351.soundgoodcli.model.Model.isRentalTooLong;
+import static se.kth.iv1351.soundgoodcli.model.Model.rentalMonths;
 
 /**
  * This is the application's only controller, all calls to the model pass here.
@@ -18,15 +72,94 @@ import static se.kth.iv1351.soundgoodcli.model.Model.getPriceById;
  * the data, and finally tells the DAO to store the updated data (if any).
  */
 public class Controller {
+    private static final int NR_OF_LOCK_STRIPES = 64;
+    /**
+     * The default number of rentals committed together by {@link #createRentals(List)}.
+     */
+    public static final int DEFAULT_RENTAL_CHUNK_SIZE = 500;
+    private static final int LISTING_CACHE_SIZE = Integer.getInteger("soundgood.cache.size", 1000);
+    private static final long LISTING_CACHE_TTL_SECONDS = Long.getLong("soundgood.cache.ttlSeconds", 300);
+    private static final int BOOKING_MAX_ATTEMPTS = Integer.getInteger("soundgood.booking.maxAttempts", 8);
+    private static final long BOOKING_BACKOFF_MILLIS = Long.getLong("soundgood.booking.backoffMs", 2);
+    private static final long BOOKING_MAX_BACKOFF_MILLIS = 200;
+    private static final String JOURNAL_FILE = System.getProperty("soundgood.journal.file");
+    private static final long JOURNAL_FLUSH_MILLIS = Long.getLong("soundgood.journal.flushMs", 200);
+    private static final int SCHEDULE_HISTORY_MONTHS = Integer.getInteger("soundgood.schedule.historyMonths", 12);
+    private static final int PARTITION_YEARS_AHEAD = Integer.getInteger("soundgood.partitions.yearsAhead", 1);
+    private static final long PARTITION_CHECK_HOURS = Long.getLong("soundgood.partitions.checkHours", 24);
+    private static final Integer ASYNC_THREADS = Integer.getInteger("soundgood.async.threads");
+    private static final Integer RENTAL_THREADS = Integer.getInteger("soundgood.async.rentalThreads");
+    private static final int AVAILABILITY_HISTORY_DAYS = Integer.getInteger("soundgood.availability.historyDays", 31);
+    private static final long PRICE_REFRESH_SECONDS = Long.getLong("soundgood.prices.refreshSeconds", 300);
+    private static final long LESSON_SEATS_TRUST_MILLIS = Long.getLong("soundgood.lessons.seatsTrustMs", 1000);
     private final SoundGoodDAO soundgoodDb;
+    private final AsyncSoundGoodDAO asyncDb;
+    private final ExecutorService rentalExecutor;
+    private final AvailabilityEngine availability;
+    private final QuotationEngine quotes;
+    private final Metrics metrics;
+    private final BookingMode bookingMode;
+    private final RentalJournal journal;
+    private final PartitionMaintenance partitions;
+    private final LessonSeats lessonSeats = new LessonSeats();
+    private final ListingCache listings = new ListingCache(LISTING_CACHE_SIZE, LISTING_CACHE_TTL_SECONDS);
+    private final StripedLocks studentLocks = new StripedLocks(NR_OF_LOCK_STRIPES);
+    private final StripedLocks instrumentLocks = new StripedLocks(NR_OF_LOCK_STRIPES);
+    private final StripedLocks instructorLocks = new StripedLocks(NR_OF_LOCK_STRIPES);
+    private final AtomicBoolean refreshingPrices = new AtomicBoolean();
+    private volatile long pricesRefreshedNanos;
+    private volatile SchedulingEngine scheduling;
 
     /**
-     * Creates a new instance, and retrieves a connection to the database.
+     * Creates a new instance, retrieves a connection to the database and loads the
+     * rental instrument catalog and the active rentals into the availability engine. Only
+     * rentals ending at most <code>soundgood.availability.historyDays</code> days ago, 31 by
+     * default, are loaded; listings of periods starting earlier are read from the database.
+     * Rentals are created in the booking mode named by the system property
+     * <code>soundgood.booking.mode</code>, which is <code>locking</code> by default. If the
+     * system property <code>soundgood.journal.file</code> is set, terminations and notes are
+     * written to that journal and reach the database later. The partitions of the rental
+     * and lesson tables for <code>soundgood.partitions.yearsAhead</code> years ahead are
+     * created every <code>soundgood.partitions.checkHours</code> hours, never if 0. The
+     * asynchronous operations are performed by <code>soundgood.async.threads</code> threads,
+     * by default as many as there are connections in the pool, and the asynchronous rentals by
+     * <code>soundgood.async.rentalThreads</code> other threads, by default as many as well.
+     * Prices are reloaded in the
+     * background when more than <code>soundgood.prices.refreshSeconds</code> seconds old,
+     * never if 0.
      *
      * @throws SGDBException If unable to connect to the database.
      */
     public Controller() throws SGDBException {
+        this(BookingMode.valueOf(System.getProperty("soundgood.booking.mode", "locking").toUpperCase()));
+    }
+
+    /**
+     * Creates a new instance that creates rentals in the specified booking mode.
+     *
+     * @param bookingMode How concurrent rentals are kept from breaking the rules.
+     * @throws SGDBException If unable to connect to the database.
+     */
+    public Controller(BookingMode bookingMode) throws SGDBException {
+        this.bookingMode = bookingMode;
         soundgoodDb = new SoundGoodDAO();
+        metrics = soundgoodDb.getMetrics();
+        asyncDb = new AsyncSoundGoodDAO(soundgoodDb, ASYNC_THREADS != null ? ASYNC_THREADS : soundgoodDb.getPoolMetrics().getMaxSize());
+        rentalExecutor = rentalExecutor(RENTAL_THREADS != null ? RENTAL_THREADS : soundgoodDb.getPoolMetrics().getMaxSize());
+        journal = JOURNAL_FILE == null ? null : RentalJournal.open(Path.of(JOURNAL_FILE), soundgoodDb, JOURNAL_FLUSH_MILLIS);
+        if (journal != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "rental-journal-shutdown"));
+        }
+        List<CatalogInstrument> catalog = soundgoodDb.findRentalInstrumentCatalog();
+        quotes = new QuotationEngine(catalog, soundgoodDb.findLessonPrices());
+        pricesRefreshedNanos = System.nanoTime();
+        LocalDate knownFrom = LocalDate.now().minusDays(AVAILABILITY_HISTORY_DAYS);
+        AvailabilityEngine.Builder loading = AvailabilityEngine.builder(catalog, quotes, knownFrom);
+        soundgoodDb.findActiveRentals(knownFrom, loading::add);
+        availability = loading.build();
+        partitions = PARTITION_CHECK_HOURS > 0
+                ? PartitionMaintenance.start(soundgoodDb, PARTITION_YEARS_AHEAD, PARTITION_CHECK_HOURS)
+                : null;
     }
 
     /**
@@ -38,12 +171,10 @@ public class Controller {
      * @return List of instruments available for rent.
      * @throws RentalException If failed to get rental instruments.
      */
-    public List<RentalInstrument> getAvailableRentalInstruments(String startDate, String endDate, String instrument) throws RentalException {
-        try {
-            return soundgoodDb.findAvailableRentalInstruments(startDate, endDate, instrument);
-        } catch (Exception e) {
-            throw new RentalException("Unable to list " + instrument + "s for the period " + startDate + " to " + endDate + ".", e);
-        }
+    public List<RentalInstrument> getAvailableRentalInstruments(LocalDate startDate, LocalDate endDate, String instrument) throws RentalException {
+        String failureMsg = "Unable to list " + instrument + "s for the period " + startDate + " to " + endDate + ".";
+        checkPeriod(startDate, endDate, failureMsg);
+        return findAvailable(startDate, endDate, instrument, failureMsg);
     }
 
     /**
@@ -54,73 +185,1282 @@ public class Controller {
      * @return List of instruments available for rent.
      * @throws RentalException If failed to get rental instruments.
      */
-    public List<RentalInstrument> getAllAvailableRentalInstruments(String startDate, String endDate) throws RentalException {
-        String failureMsg = "User did not enter start or end date.";
-        if (startDate == null || endDate == null) {
-            throw new RentalException(failureMsg);
+    public List<RentalInstrument> getAllAvailableRentalInstruments(LocalDate startDate, LocalDate endDate) throws RentalException {
+        String failureMsg = "Unable to list all available instruments for the period " + startDate + " to " + endDate + ".";
+        checkPeriod(startDate, endDate, failureMsg);
+        return findAvailable(startDate, endDate, null, failureMsg);
+    }
+
+    /**
+     * Retrieves one page of the available rental instruments for the specified time period,
+     * optionally of one instrument type. The next page is retrieved by passing the id of the
+     * last instrument of this page as <code>afterId</code>.
+     *
+     * @param startDate  The start date of the available check.
+     * @param endDate    The end date of the available check.
+     * @param instrument The instrument type to search for, or <code>null</code> for all types.
+     * @param afterId    The id after which the page starts, 0 for the first page.
+     * @param limit      The maximum number of instruments on the page.
+     * @return The page of instruments available for rent, ordered by id.
+     * @throws RentalException If failed to get rental instruments.
+     */
+    public List<RentalInstrument> getAvailableRentalInstrumentsPage(LocalDate startDate, LocalDate endDate, String instrument, int afterId, int limit) throws RentalException {
+        String failureMsg = "Unable to list available instruments for the period " + startDate + " to " + endDate + ".";
+        checkPeriod(startDate, endDate, failureMsg);
+        if (limit < 1) {
+            throw new RentalException(failureMsg + " The limit must be at least 1.");
+        }
+        refreshPricesIfStale();
+        long started = System.nanoTime();
+        List<RentalInstrument> page;
+        if (availability.covers(startDate)) {
+            page = availability.findAvailablePage(startDate, endDate, instrument, afterId, limit);
+        } else {
+            page = new ArrayList<>();
+            for (RentalInstrument available : findAvailableInDatabase(startDate, endDate, instrument, failureMsg)) {
+                if (available.getId() > afterId && page.size() < limit) {
+                    page.add(available);
+                }
+            }
         }
+        metrics.operation("controller.list_available_page").record(started, page.size());
+        return page;
+    }
+
+    /**
+     * Finds, from today until the horizon, every period of at least the specified number of
+     * days during which a rental instrument of the specified type is free.
+     *
+     * @param instrument The instrument type to search for, or <code>null</code> for all types.
+     * @param minDays    The smallest number of consecutive free days to include a window.
+     * @param horizon    The last day to search.
+     * @return The free windows, ordered by instrument id and then by start date.
+     * @throws RentalException If the search is not valid.
+     */
+    public List<FreeWindow> findFreeWindows(String instrument, int minDays, LocalDate horizon) throws RentalException {
+        return findFreeWindows(instrument, minDays, LocalDate.now(), horizon);
+    }
+
+    /**
+     * Finds, between two days, every period of at least the specified number of days during
+     * which a rental instrument of the specified type is free. One call answers what would
+     * otherwise take a listing per candidate period.
+     *
+     * @param instrument The instrument type to search for, or <code>null</code> for all types.
+     * @param minDays    The smallest number of consecutive free days to include a window.
+     * @param from       The first day to search.
+     * @param horizon    The last day to search.
+     * @return The free windows, ordered by instrument id and then by start date.
+     * @throws RentalException If the search is not valid.
+     */
+    public List<FreeWindow> findFreeWindows(String instrument, int minDays, LocalDate from, LocalDate horizon) throws RentalException {
+        String failureMsg = "Unable to find free windows from " + from + " to " + horizon + ".";
+        checkPeriod(from, horizon, failureMsg);
+        if (minDays < 1) {
+            throw new RentalException(failureMsg + " A window must be at least 1 day.");
+        }
+        if (!availability.covers(from)) {
+            throw new RentalException(failureMsg + " Free windows are only known from " + availability.getKnownFrom() + " on.");
+        }
+        refreshPricesIfStale();
+        long started = System.nanoTime();
+        List<FreeWindow> windows = availability.findFreeWindows(instrument, from, horizon, minDays);
+        metrics.operation("controller.find_free_windows").record(started, windows.size());
+        return windows;
+    }
+
+    /**
+     * Prices a batch of rentals and lessons from the prices in memory, without asking the
+     * database. Requests that can not be priced are answered with the reason, the other
+     * requests are priced anyway.
+     *
+     * @param requests The rentals and lessons to price.
+     * @return One quote per request, in the order of the requests.
+     */
+    public List<Quote> quote(List<QuoteRequest> requests) {
+        refreshPricesIfStale();
+        long started = System.nanoTime();
+        List<Quote> quoted = quotes.quote(requests);
+        metrics.operation("controller.quote").record(started, quoted.size());
+        return quoted;
+    }
+
+    /**
+     * @return The price list of lessons, ordered by lesson type and skill level.
+     */
+    public List<LessonPrice> getLessonPrices() {
+        refreshPricesIfStale();
+        return quotes.getLessonPrices();
+    }
+
+    /**
+     * Compares the instruments the availability engine lists as available for the specified
+     * period with those the database lists.
+     *
+     * @param startDate The start date of the available check.
+     * @param endDate   The end date of the available check.
+     * @return A description of each difference, empty if the engine agrees with the database.
+     * @throws RentalException If failed to get rental instruments from the database.
+     */
+    public List<String> compareAvailabilityWithDatabase(LocalDate startDate, LocalDate endDate) throws RentalException {
+        String failureMsg = "Unable to compare available instruments for the period " + startDate + " to " + endDate + ".";
+        List<RentalInstrument> fromEngine = getAllAvailableRentalInstruments(startDate, endDate);
+        List<RentalInstrument> fromDb;
         try {
-            return soundgoodDb.findAllAvailableRentalInstruments(startDate, endDate, false);
-        } catch (Exception e) {
-            throw new RentalException("Unable to list all available instruments for the period " + startDate + " to " + endDate + ".", e);
+            flushJournal();
+            soundgoodDb.startReadOnPrimary();
+            fromDb = soundgoodDb.findAllAvailableRentalInstruments(startDate, endDate);
+        } catch (SGDBException sgDBe) {
+            throw new RentalException(failureMsg, sgDBe);
+        }
+
+        List<String> differences = new ArrayList<>();
+        Map<Integer, RentalInstrument> engineById = new HashMap<>();
+        for (RentalInstrument instrument : fromEngine) {
+            engineById.put(instrument.getId(), instrument);
+        }
+        for (RentalInstrument dbInstrument : fromDb) {
+            RentalInstrument engineInstrument = engineById.remove(dbInstrument.getId());
+            if (engineInstrument == null) {
+                differences.add("Instrument " + dbInstrument.getId() + " is available in the database but not in the engine.");
+            } else if (engineInstrument.getMonths() != dbInstrument.getMonths()
+                    || engineInstrument.getPrice().compareTo(dbInstrument.getPrice()) != 0) {
+                differences.add("Instrument " + dbInstrument.getId() + " costs " + dbInstrument.getPrice()
+                        + " in the database but " + engineInstrument.getPrice() + " in the engine.");
+            }
+        }
+        for (int id : engineById.keySet()) {
+            differences.add("Instrument " + id + " is available in the engine but not in the database.");
         }
+        return differences;
     }
 
     /**
      * Creates an instrument rental for the specified student of the specified instrument.
+     * In {@link BookingMode#LOCKING} mode, only the specified student and the specified
+     * instrument are locked while the rental is created, so rentals of other instruments by
+     * other students proceed concurrently. In {@link BookingMode#OPTIMISTIC} mode nothing is
+     * locked, and a rental that conflicts with a concurrent one is retried. In
+     * {@link BookingMode#SINGLE_STATEMENT} mode the database locks, checks and creates the
+     * rental in one call. If there is a journal, the notes are journaled after the rental
+     * is created. Failing to journal them does not undo the rental, it is reported as a
+     * warning instead.
+     * <p>
+     * The availability engine only knows the rentals of this process, so the database
+     * decides whether the instrument is free. If the engine believed it was rented, its
+     * rentals of the instrument are read again from the database once the rental is made.
      *
      * @param studentId          The id of student.
      * @param rentalInstrumentId The id of rental instrument to rent.
      * @param startDate          The start date of the rental.
      * @param endDate            The end date of the rental.
      * @param delivery           The delivery date of the instrument.
-     * @param price              The price of the rental.
      * @param notes              The notes about the instrument or delivery.
+     * @return <code>null</code>, or a warning if the rental was created but its notes could
+     *         not be saved.
      * @throws RentalException If failed to create the rental.
      */
-    public void createRental(String studentId, String rentalInstrumentId, String startDate, String endDate, String delivery, String notes) throws RentalException {
+    public String createRental(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate, String delivery, String notes) throws RentalException {
         String failureMsg = "Could not create rental for student id: " + studentId;
+        checkPeriod(startDate, endDate, failureMsg);
+        if (isRentalTooLong(startDate, endDate)) {
+            throw new RentalException(failureMsg + " A rental lasts at most " + MAX_RENTAL_MONTHS + " months.");
+        }
+        if (notes != null && notes.length() > MAX_NOTES_LENGTH) {
+            throw new RentalException(failureMsg + " Notes can not be longer than " + MAX_NOTES_LENGTH + " characters.");
+        }
+        boolean believedRented = availability.covers(startDate) && !availability.isAvailable(rentalInstrumentId, startDate, endDate);
 
-        if (studentId == null || rentalInstrumentId == null || startDate == null || endDate == null) {
-            throw new RentalException(failureMsg);
+        long started = System.nanoTime();
+        try {
+            soundgoodDb.ensureRentalPartition(startDate.getYear());
+            if (journal != null && journal.hasUnflushedTermination(studentId, rentalInstrumentId)) {
+                journal.flush();
+            }
+            String insertedNotes = journal == null ? notes : null;
+            if (bookingMode == BookingMode.OPTIMISTIC) {
+                createRentalOptimistically(studentId, rentalInstrumentId, startDate, endDate, delivery, insertedNotes, failureMsg);
+            } else if (bookingMode == BookingMode.SINGLE_STATEMENT) {
+                createRentalInOneStatement(studentId, rentalInstrumentId, startDate, endDate, delivery, insertedNotes);
+            } else {
+                createRentalLocking(studentId, rentalInstrumentId, startDate, endDate, delivery, insertedNotes, failureMsg);
+            }
+            if (believedRented) {
+                reloadRentalsOf(rentalInstrumentId);
+            }
+        } catch (SGDBException sgDBe) {
+            throw new RentalException(failureMsg, sgDBe);
+        } finally {
+            metrics.operation("controller.create_rental").record(started, 1);
+        }
+        if (journal != null && notes != null) {
+            try {
+                journal.updateNotes(studentId, rentalInstrumentId, startDate, notes);
+            } catch (SGDBException sgDBe) {
+                metrics.increment("controller.rental_notes_failures");
+                return "The rental was made, but its notes were not saved: " + sgDBe.getMessage();
+            }
         }
+        return null;
+    }
 
+    private void createRentalLocking(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate,
+                                     String delivery, String notes, String failureMsg) throws RentalException {
+        Lock studentLock = studentLocks.get(studentId);
+        Lock instrumentLock = instrumentLocks.get(rentalInstrumentId);
+        long started = System.nanoTime();
+        studentLock.lock();
+        instrumentLock.lock();
+        metrics.operation("controller.lock_wait").record(started, 0);
         try {
             int activeRentals = soundgoodDb.getStudentInstrumentCount(studentId);
-            List<RentalInstrument>  instruments = soundgoodDb.findAllAvailableRentalInstruments(startDate, endDate, true);
-            double price = getPriceById(instruments, rentalInstrumentId);
+            canStudentRentMoreInstruments(activeRentals);
 
-            if (canStudentRentMoreInstruments(activeRentals)) {
-                soundgoodDb.createRental(studentId, rentalInstrumentId, startDate, endDate, delivery, price, notes);
+            RentalInstrument instrument = soundgoodDb.findRentalInstrumentIfAvailableLockingForUpdate(rentalInstrumentId, startDate, endDate);
+            if (instrument == null) {
+                throw new RentalException("Instrument " + rentalInstrumentId + " is already rented during the period " + startDate + " to " + endDate + ".");
             }
 
+            soundgoodDb.createRental(studentId, rentalInstrumentId, startDate, endDate, delivery, instrument.getPrice(), notes);
+            rentalAdded(new RentalPeriod(rentalInstrumentId, studentId, startDate, endDate));
         } catch (SGDBException sgDBe) {
             throw new RentalException(failureMsg, sgDBe);
         } catch (Exception e) {
             commit(failureMsg);
             throw e;
+        } finally {
+            instrumentLock.unlock();
+            studentLock.unlock();
+        }
+    }
+
+    /**
+     * Checks and creates the rental with one call of the database function
+     * <code>create_rental</code>. The function locks the rows itself, so neither the student
+     * nor the instrument is locked here.
+     */
+    private void createRentalInOneStatement(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate,
+                                            String delivery, String notes) throws RentalException, SGDBException {
+        RentalOutcome outcome = soundgoodDb.createRentalIfAllowed(studentId, rentalInstrumentId, startDate, endDate, delivery, notes, MAX_ACTIVE_RENTALS);
+        switch (outcome) {
+            case CREATED:
+                rentalAdded(new RentalPeriod(rentalInstrumentId, studentId, startDate, endDate));
+                return;
+            case STUDENT_NOT_APPROVED:
+                throw new RentalException("No approved student with id " + studentId + " found.");
+            case TOO_MANY_RENTALS:
+                throw new RentalException("The student already has " + MAX_ACTIVE_RENTALS + " active rentals.");
+            case INSTRUMENT_NOT_FOUND:
+                throw new RentalException("No rental instrument with id " + rentalInstrumentId + " found.");
+            default:
+                throw new RentalException("Instrument " + rentalInstrumentId + " is already rented during the period " + startDate + " to " + endDate + ".");
+        }
+    }
+
+    /**
+     * Checks and creates the rental in a serializable transaction. When the transaction
+     * fails because of a concurrent transaction, it is performed again after a random delay
+     * of up to twice as long as before, so that the conflicting threads spread out instead of
+     * colliding again. The exclusion constraint on <code>rental</code> still rejects an
+     * overlapping rental that gets past the checks.
+     */
+    private void createRentalOptimistically(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate,
+                                            String delivery, String notes, String failureMsg) throws RentalException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                soundgoodDb.startSerializableTransaction();
+                canStudentRentMoreInstruments(soundgoodDb.findStudentInstrumentCount(studentId));
+
+                RentalInstrument instrument = soundgoodDb.findRentalInstrumentIfAvailable(rentalInstrumentId, startDate, endDate);
+                if (instrument == null) {
+                    throw new RentalException("Instrument " + rentalInstrumentId + " is already rented during the period " + startDate + " to " + endDate + ".");
+                }
+
+                soundgoodDb.createRental(studentId, rentalInstrumentId, startDate, endDate, delivery, instrument.getPrice(), notes);
+                rentalAdded(new RentalPeriod(rentalInstrumentId, studentId, startDate, endDate));
+                return;
+            } catch (SGDBConflictException conflict) {
+                if (attempt >= BOOKING_MAX_ATTEMPTS) {
+                    throw new RentalException(failureMsg + " The rental conflicted with other rentals " + attempt + " times.", conflict);
+                }
+                metrics.increment("controller.booking_retries");
+                backOff(attempt);
+            } catch (SGDBException sgDBe) {
+                throw new RentalException(failureMsg, sgDBe);
+            } catch (RentalException e) {
+                commit(failureMsg);
+                throw e;
+            }
+        }
+    }
+
+    private void backOff(int attempt) throws RentalException {
+        long maxDelay = Math.min(BOOKING_MAX_BACKOFF_MILLIS, BOOKING_BACKOFF_MILLIS << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RentalException("Interrupted while waiting to retry the rental.", ie);
+        }
+    }
+
+    /**
+     * Checks that the specified student may rent the specified instrument during the
+     * specified period, without locking anything. The number of active rentals of the
+     * student and the instrument with its price are read at the same time, on separate
+     * connections, so the check takes one database round trip instead of two. A rental
+     * created concurrently may make the check outdated before it completes, it is only
+     * final when the rental is created.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument to rent.
+     * @param startDate          The start date of the rental.
+     * @param endDate            The end date of the rental.
+     * @return The instrument priced for the period, or a {@link RentalException} if the
+     *         rental is not allowed or the check failed.
+     */
+    public CompletableFuture<RentalInstrument> checkRental(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate) {
+        String failureMsg = "Could not check the rental for student id: " + studentId;
+        try {
+            checkPeriod(startDate, endDate, failureMsg);
+        } catch (RentalException invalid) {
+            return CompletableFuture.failedFuture(invalid);
+        }
+        if (isRentalTooLong(startDate, endDate)) {
+            return CompletableFuture.failedFuture(new RentalException(failureMsg + " A rental lasts at most " + MAX_RENTAL_MONTHS + " months."));
+        }
+        long started = System.nanoTime();
+        CompletableFuture<Integer> activeRentals = asyncDb.submit(() -> {
+            if (journal != null && journal.hasUnflushedTermination(studentId, rentalInstrumentId)) {
+                journal.flush();
+            }
+            return soundgoodDb.findStudentInstrumentCount(studentId);
+        });
+        CompletableFuture<RentalInstrument> instrument = asyncDb.findRentalInstrumentIfAvailable(rentalInstrumentId, startDate, endDate);
+        return activeRentals.thenCombine(instrument, (rentals, available) -> {
+            try {
+                canStudentRentMoreInstruments(rentals);
+            } catch (RentalException tooMany) {
+                throw new CompletionException(tooMany);
+            }
+            if (available == null) {
+                throw new CompletionException(new RentalException("Instrument " + rentalInstrumentId + " is already rented during the period " + startDate + " to " + endDate + "."));
+            }
+            return available;
+        }).handle((available, failure) -> {
+            metrics.operation("controller.check_rental").record(started, available == null ? 0 : 1);
+            if (failure != null) {
+                Throwable cause = causeOf(failure);
+                throw new CompletionException(cause instanceof RentalException ? cause : new RentalException(failureMsg, cause));
+            }
+            return available;
+        });
+    }
+
+    /**
+     * Creates an instrument rental like {@link #createRental(int, int, LocalDate, LocalDate, String, String)},
+     * without making the caller wait. The rental is created as usual, with the same round
+     * trips, on a thread of its own that waits for the database. Those threads are not the
+     * threads of the asynchronous DAO, so rentals waiting for locks do not delay the reads
+     * performed there.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument to rent.
+     * @param startDate          The start date of the rental.
+     * @param endDate            The end date of the rental.
+     * @param delivery           The delivery date of the instrument.
+     * @param notes              The notes about the instrument or delivery.
+     * @return Completed when the rental is created, with a warning if its notes could not be
+     *         saved, or with a {@link RentalException} if it could not be created.
+     */
+    public CompletableFuture<String> createRentalAsync(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate, String delivery, String notes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return createRental(studentId, rentalInstrumentId, startDate, endDate, delivery, notes);
+            } catch (RentalException failed) {
+                throw new CompletionException(failed);
+            }
+        }, rentalExecutor);
+    }
+
+    /**
+     * Creates a batch of rentals, committing {@link #DEFAULT_RENTAL_CHUNK_SIZE} rentals at a time.
+     *
+     * @param requests The rentals to create.
+     * @return The outcome of each request, in the same order as the requests.
+     * @throws RentalException If the database could not be reached.
+     * @see #createRentals(List, int)
+     */
+    public List<RentalResult> createRentals(List<RentalRequest> requests) throws RentalException {
+        return createRentals(requests, DEFAULT_RENTAL_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a batch of rentals. The requests are handled in chunks of the specified size.
+     * For each chunk, all involved students and instruments are locked and read in a few
+     * statements, all requests of the chunk are validated in memory against that snapshot
+     * and against each other, and the valid ones are inserted with one batched statement
+     * and one commit. A request that breaks a rule fails without affecting the others.
+     *
+     * @param requests  The rentals to create.
+     * @param chunkSize The maximum number of rentals committed together.
+     * @return The outcome of each request, in the same order as the requests.
+     * @throws RentalException If the database could not be reached.
+     */
+    public List<RentalResult> createRentals(List<RentalRequest> requests, int chunkSize) throws RentalException {
+        if (chunkSize < 1) {
+            throw new RentalException("The chunk size must be at least 1, not " + chunkSize + ".");
+        }
+        try {
+            flushJournal();
+        } catch (SGDBException sgDBe) {
+            throw new RentalException("Could not write journaled terminations before the batch.", sgDBe);
+        }
+        List<RentalResult> results = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            long started = System.nanoTime();
+            List<RentalResult> chunkResults = createRentalChunk(requests.subList(from, Math.min(requests.size(), from + chunkSize)));
+            metrics.operation("controller.create_rental_chunk").record(started, chunkResults.size());
+            results.addAll(chunkResults);
         }
+        return results;
+    }
+
+    private List<RentalResult> createRentalChunk(List<RentalRequest> chunk) throws RentalException {
+        RentalResult[] results = new RentalResult[chunk.size()];
+        TreeSet<Integer> studentIds = new TreeSet<>();
+        TreeSet<Integer> instrumentIds = new TreeSet<>();
+        TreeSet<Integer> years = new TreeSet<>();
+        LocalDate earliestStart = null;
+        for (int i = 0; i < chunk.size(); i++) {
+            RentalRequest request = chunk.get(i);
+            String invalid = invalidRequestReason(request);
+            if (invalid != null) {
+                results[i] = RentalResult.failed(request, invalid);
+            } else {
+                studentIds.add(request.getStudentId());
+                instrumentIds.add(request.getRentalInstrumentId());
+                years.add(request.getStartDate().getYear());
+                if (earliestStart == null || request.getStartDate().isBefore(earliestStart)) {
+                    earliestStart = request.getStartDate();
+                }
+            }
+        }
+        if (studentIds.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        String failureMsg = "Could not create a batch of " + chunk.size() + " rentals.";
+        List<RentalRequest> valid = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+        BigDecimal[] prices = new BigDecimal[chunk.size()];
+        try {
+            for (int year : years) {
+                soundgoodDb.ensureRentalPartition(year);
+            }
+            Map<Integer, Integer> activeRentals = soundgoodDb.findStudentInstrumentCountsLockingForUpdate(studentIds);
+            Map<Integer, CatalogInstrument> instruments = soundgoodDb.findRentalInstrumentsLockingForUpdate(instrumentIds);
+            AvailabilityEngine snapshot = new AvailabilityEngine(new ArrayList<>(instruments.values()),
+                    soundgoodDb.findActiveRentalsOfInstruments(instrumentIds, earliestStart));
+
+            for (int i = 0; i < chunk.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                RentalRequest request = chunk.get(i);
+                LocalDate start = request.getStartDate();
+                LocalDate end = request.getEndDate();
+                Integer rentals = activeRentals.get(request.getStudentId());
+                CatalogInstrument instrument = instruments.get(request.getRentalInstrumentId());
+                if (rentals == null) {
+                    results[i] = RentalResult.failed(request, "No approved student with id " + request.getStudentId() + " found.");
+                } else if (instrument == null) {
+                    results[i] = RentalResult.failed(request, "No rental instrument with id " + request.getRentalInstrumentId() + " found.");
+                } else if (!snapshot.isAvailable(instrument.getId(), start, end)) {
+                    results[i] = RentalResult.failed(request, "Instrument " + instrument.getId() + " is already rented during the period.");
+                } else {
+                    try {
+                        canStudentRentMoreInstruments(rentals);
+                    } catch (RentalException tooMany) {
+                        results[i] = RentalResult.failed(request, tooMany.getMessage());
+                        continue;
+                    }
+                    activeRentals.put(request.getStudentId(), rentals + 1);
+                    snapshot.addRental(new RentalPeriod(instrument.getId(), request.getStudentId(), start, end));
+                    prices[valid.size()] = instrument.priceFor(rentalMonths(start, end));
+                    valid.add(request);
+                    validIndexes.add(i);
+                }
+            }
+
+            if (valid.isEmpty()) {
+                soundgoodDb.commit();
+            } else {
+                soundgoodDb.createRentals(valid, prices);
+            }
+        } catch (SGDBException sgDBe) {
+            throw new RentalException(failureMsg, sgDBe);
+        }
+
+        for (int i : validIndexes) {
+            RentalRequest request = chunk.get(i);
+            rentalAdded(new RentalPeriod(request.getRentalInstrumentId(), request.getStudentId(),
+                    request.getStartDate(), request.getEndDate()));
+            results[i] = RentalResult.created(request);
+        }
+        return Arrays.asList(results);
+    }
+
+    private String invalidRequestReason(RentalRequest request) {
+        if (request.getStartDate() == null || request.getEndDate() == null) {
+            return "Start date and end date are required.";
+        }
+        if (request.getEndDate().isBefore(request.getStartDate())) {
+            return "The rental ends before it starts.";
+        }
+        if (request.getNotes() != null && request.getNotes().length() > MAX_NOTES_LENGTH) {
+            return "Notes can not be longer than " + MAX_NOTES_LENGTH + " characters.";
+        }
+        if (isRentalTooLong(request.getStartDate(), request.getEndDate())) {
+            return "A rental lasts at most " + MAX_RENTAL_MONTHS + " months.";
+        }
+        return null;
     }
 
     /**
-     * Terminates the rental specified.
+     * Terminates the rental specified. If there is a journal, the termination is journaled
+     * and written to the database later, otherwise it is written at once.
      *
-     * @param rentalInstrumentId The id of student.
-     * @param studentId          The id of rental instrument.
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
      * @param startDate          The start date of the rental.
      * @throws RentalException If failed to terminate the rental.
      */
-    public void terminateRental( String studentId, String rentalInstrumentId, String startDate) throws RentalException {
+    public void terminateRental(int studentId, int rentalInstrumentId, LocalDate startDate) throws RentalException {
         String failureMsg = "Could not terminate rental for instrument " + rentalInstrumentId + ", student " + studentId + " and date " + startDate;
 
-        if (studentId == null || rentalInstrumentId == null || startDate == null) {
+        if (startDate == null) {
             throw new RentalException(failureMsg);
         }
 
+        long started = System.nanoTime();
         try {
+            if (journal != null) {
+                terminateRentalInJournal(studentId, rentalInstrumentId, startDate, failureMsg);
+                return;
+            }
             soundgoodDb.terminateRental(studentId, rentalInstrumentId, startDate);
+            RentalPeriod removed = availability.removeRental(rentalInstrumentId, studentId, startDate);
+            if (removed != null) {
+                invalidateListings(removed);
+            }
+        } catch (RentalException e) {
+            throw e;
         } catch (Exception e) {
             throw new RentalException(failureMsg, e);
+        } finally {
+            metrics.operation("controller.terminate_rental").record(started, 1);
+        }
+    }
+
+    /**
+     * A rental the availability engine knows is journaled without asking the database. The
+     * engine only knows the rentals of this process that it has loaded or created, so a
+     * rental it does not know, made by another process or before the loaded history, is
+     * terminated in the database directly, which also tells whether it exists.
+     */
+    private void terminateRentalInJournal(int studentId, int rentalInstrumentId, LocalDate startDate, String failureMsg) throws RentalException {
+        RentalPeriod removed = availability.removeRental(rentalInstrumentId, studentId, startDate);
+        if (removed == null) {
+            try {
+                journal.flush();
+                soundgoodDb.terminateRental(studentId, rentalInstrumentId, startDate);
+            } catch (SGDBException sgDBe) {
+                throw new RentalException(failureMsg, sgDBe);
+            }
+            return;
+        }
+        try {
+            journal.terminateRental(studentId, rentalInstrumentId, startDate, LocalDate.now());
+        } catch (SGDBException sgDBe) {
+            availability.addRental(removed);
+            throw new RentalException(failureMsg, sgDBe);
+        }
+        invalidateListings(removed);
+    }
+
+    /**
+     * Replaces the notes of the rental specified. If there is a journal, the notes are
+     * journaled and written to the database later, otherwise they are written at once.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
+     * @param startDate          The start date of the rental.
+     * @param notes              The notes about the instrument or delivery.
+     * @throws RentalException If failed to update the notes.
+     */
+    public void updateRentalNotes(int studentId, int rentalInstrumentId, LocalDate startDate, String notes) throws RentalException {
+        String failureMsg = "Could not update the notes of the rental of instrument " + rentalInstrumentId + ", student " + studentId + " and date " + startDate;
+        long started = System.nanoTime();
+        try {
+            if (journal != null) {
+                journal.updateNotes(studentId, rentalInstrumentId, startDate, notes);
+            } else {
+                soundgoodDb.updateRentalNotes(studentId, rentalInstrumentId, startDate, notes);
+            }
+        } catch (SGDBException sgDBe) {
+            throw new RentalException(failureMsg, sgDBe);
+        } finally {
+            metrics.operation("controller.update_rental_notes").record(started, 1);
+        }
+    }
+
+    /**
+     * Books a seat of the specified lesson for the specified student. A lesson that is full
+     * according to its in-memory seat counter is rejected without a database call, so a
+     * rush for a popular lesson only reaches the database with as many bookings as there
+     * are seats. A counter that says the lesson is full is only trusted if it was loaded at
+     * most <code>soundgood.lessons.seatsTrustMs</code> milliseconds ago, 1000 by default,
+     * otherwise it is loaded again, since seats may have been freed by another process.
+     *
+     * @param studentId The id of student.
+     * @param lessonId  The id of the lesson.
+     * @throws LessonBookingException If the lesson is full or the booking failed.
+     */
+    public void bookLesson(int studentId, int lessonId) throws LessonBookingException {
+        String failureMsg = "Could not book lesson " + lessonId + " for student " + studentId + ".";
+        long started = System.nanoTime();
+        try {
+            if (!lessonSeats.isKnown(lessonId)) {
+                lessonSeats.load(soundgoodDb.findLessonSeats(lessonId));
+            }
+            if (!lessonSeats.tryReserve(lessonId) && !reloadAndReserveSeat(lessonId)) {
+                metrics.increment("controller.lesson_full_rejections");
+                throw new LessonBookingException("Lesson " + lessonId + " is fully booked.");
+            }
+            boolean booked;
+            try {
+                booked = soundgoodDb.bookLessonSeat(studentId, lessonId);
+            } catch (SGDBException sgDBe) {
+                lessonSeats.release(lessonId);
+                throw sgDBe;
+            }
+            if (!booked) {
+                lessonSeats.forget(lessonId);
+                throw new LessonBookingException("Lesson " + lessonId + " is fully booked.");
+            }
+        } catch (SGDBException sgDBe) {
+            throw new LessonBookingException(failureMsg, sgDBe);
+        } finally {
+            metrics.operation("controller.book_lesson").record(started, 1);
+        }
+    }
+
+    private boolean reloadAndReserveSeat(int lessonId) throws SGDBException {
+        if (lessonSeats.isLoadedWithin(lessonId, TimeUnit.MILLISECONDS.toNanos(LESSON_SEATS_TRUST_MILLIS))) {
+            return false;
+        }
+        lessonSeats.forget(lessonId);
+        lessonSeats.load(soundgoodDb.findLessonSeats(lessonId));
+        metrics.increment("controller.lesson_seat_reloads");
+        return lessonSeats.tryReserve(lessonId);
+    }
+
+    /**
+     * Cancels the booking of the specified student on the specified lesson, making its seat
+     * free for another student.
+     *
+     * @param studentId The id of student.
+     * @param lessonId  The id of the lesson.
+     * @throws LessonBookingException If the student has no booking of the lesson, or if
+     *                                failed to cancel it.
+     */
+    public void cancelLesson(int studentId, int lessonId) throws LessonBookingException {
+        String failureMsg = "Could not cancel lesson " + lessonId + " for student " + studentId + ".";
+        long started = System.nanoTime();
+        try {
+            soundgoodDb.cancelLessonSeat(studentId, lessonId);
+            lessonSeats.release(lessonId);
+        } catch (SGDBException sgDBe) {
+            throw new LessonBookingException(failureMsg, sgDBe);
+        } finally {
+            metrics.operation("controller.cancel_lesson").record(started, 1);
+        }
+    }
+
+    /**
+     * Retrieves the capacity and booked seats of the specified lesson from the database.
+     *
+     * @param lessonId The id of the lesson.
+     * @return The seats of the lesson.
+     * @throws LessonBookingException If failed to read the seats.
+     */
+    public LessonSeatCount getLessonSeats(int lessonId) throws LessonBookingException {
+        try {
+            return soundgoodDb.findLessonSeats(lessonId);
+        } catch (SGDBException sgDBe) {
+            throw new LessonBookingException("Could not read the seats of lesson " + lessonId + ".", sgDBe);
+        }
+    }
+
+    /**
+     * Retrieves the number of lessons of each type given per month during a year.
+     *
+     * @param year The year, for example 2022.
+     * @return One entry per month with lessons, ordered by month.
+     * @throws StatisticsException If failed to get the statistics.
+     */
+    public List<LessonMonthStatistics> getLessonsPerMonth(int year) throws StatisticsException {
+        String failureMsg = "Could not list the lessons per month of " + year + ".";
+        try {
+            return soundgoodDb.findLessonsPerMonth(year);
+        } catch (SGDBException e) {
+            throw new StatisticsException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Retrieves the instructors giving at least a number of lessons during a month, to find
+     * instructors risking to work too much.
+     *
+     * @param month      The month, for example 2022-01.
+     * @param minLessons The smallest number of lessons to include an instructor.
+     * @return The instructors, the one with most lessons first.
+     * @throws StatisticsException If failed to get the statistics.
+     */
+    public List<InstructorLessonCount> getInstructorsWithAtLeastLessons(YearMonth month, int minLessons) throws StatisticsException {
+        String failureMsg = "Could not list the instructors with at least " + minLessons + " lessons in " + month + ".";
+        if (month == null) {
+            throw new StatisticsException(failureMsg + " The month is required.");
+        }
+        try {
+            return soundgoodDb.findInstructorsWithLessonsInMonth(month, minLessons);
+        } catch (SGDBException e) {
+            throw new StatisticsException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Retrieves the number of lessons of each type given per month during a year, without
+     * making the caller wait. Reports started together are read on separate connections.
+     *
+     * @param year The year, for example 2022.
+     * @return One entry per month with lessons, ordered by month, or a
+     *         {@link StatisticsException} if failed to get the statistics.
+     */
+    public CompletableFuture<List<LessonMonthStatistics>> getLessonsPerMonthAsync(int year) {
+        return asyncDb.findLessonsPerMonth(year).exceptionally(failure -> {
+            throw new CompletionException(new StatisticsException("Could not list the lessons per month of " + year + ".", causeOf(failure)));
+        });
+    }
+
+    /**
+     * Retrieves the capacity and booked seats of the specified lesson from the database,
+     * without making the caller wait. Lessons read together are read on separate connections.
+     *
+     * @param lessonId The id of the lesson.
+     * @return The seats of the lesson, or a {@link LessonBookingException} if failed to read them.
+     */
+    public CompletableFuture<LessonSeatCount> getLessonSeatsAsync(int lessonId) {
+        return asyncDb.findLessonSeats(lessonId).exceptionally(failure -> {
+            throw new CompletionException(new LessonBookingException("Could not read the seats of lesson " + lessonId + ".", causeOf(failure)));
+        });
+    }
+
+    /**
+     * Finds the instructors that teach an instrument type and can give a lesson during a
+     * slot, that is work during the whole slot and give no other lesson during any part of
+     * it. The schedules are searched in memory, the database is not asked.
+     *
+     * @param instrument The instrument type, or <code>null</code> for any type.
+     * @param start      The start of the slot.
+     * @param end        The end of the slot, which is not part of it.
+     * @return The free instructors, ordered by id.
+     * @throws SchedulingException If the slot is invalid, or if the schedules could not be loaded.
+     */
+    public List<Instructor> findFreeInstructors(String instrument, LocalDateTime start, LocalDateTime end) throws SchedulingException {
+        String failureMsg = "Could not find free instructors from " + start + " to " + end + ".";
+        SchedulingEngine engine = scheduling(failureMsg);
+        checkSlot(engine, start, end, failureMsg);
+        long started = System.nanoTime();
+        List<Instructor> free = engine.findFreeInstructors(instrument, start, end);
+        metrics.operation("controller.find_free_instructors").record(started, free.size());
+        return free;
+    }
+
+    /**
+     * Finds the instructors giving more than a number of lessons during a month. The lessons
+     * are counted in memory, the database is not asked.
+     *
+     * @param month      The month, for example 2022-01.
+     * @param maxLessons The number of lessons an instructor may give during a month.
+     * @return The instructors over the limit, the one with most lessons first.
+     * @throws SchedulingException If the month is not loaded, or if the schedules could not be loaded.
+     */
+    public List<InstructorLessonCount> findInstructorsOverLimit(YearMonth month, int maxLessons) throws SchedulingException {
+        String failureMsg = "Could not list the instructors with more than " + maxLessons + " lessons in " + month + ".";
+        if (month == null) {
+            throw new SchedulingException(failureMsg + " The month is required.");
+        }
+        SchedulingEngine engine = scheduling(failureMsg);
+        if (month.atDay(1).atStartOfDay().isBefore(engine.getCoveredFrom())) {
+            throw new SchedulingException(failureMsg + " Only lessons from " + engine.getCoveredFrom().toLocalDate() + " are loaded.");
+        }
+        long started = System.nanoTime();
+        List<InstructorLessonCount> overLimit = engine.findInstructorsOverLimit(month, maxLessons);
+        metrics.operation("controller.find_instructors_over_limit").record(started, overLimit.size());
+        return overLimit;
+    }
+
+    /**
+     * Assigns a lesson to an instructor, if the instructor is free during the whole lesson.
+     * Assignments to the same instructor are serialized, so two lessons at the same time
+     * can not both be given to one instructor.
+     *
+     * @param instructorId The id of the instructor.
+     * @param lessonId     The id of the lesson.
+     * @throws SchedulingException If the instructor is not free, or if failed to assign the lesson.
+     */
+    public void assignLesson(int instructorId, int lessonId) throws SchedulingException {
+        String failureMsg = "Could not assign lesson " + lessonId + " to instructor " + instructorId + ".";
+        SchedulingEngine engine = scheduling(failureMsg);
+        if (engine.findInstructor(instructorId) == null) {
+            throw new SchedulingException(failureMsg + " There is no such instructor.");
+        }
+        long started = System.nanoTime();
+        Lock lock = instructorLocks.get(instructorId);
+        lock.lock();
+        try {
+            InstructorLesson lesson = soundgoodDb.findLesson(instructorId, lessonId);
+            checkSlot(engine, lesson.getStart(), lesson.getEnd(), failureMsg);
+            if (!engine.isFree(instructorId, lesson.getStart(), lesson.getEnd())) {
+                metrics.increment("controller.instructor_busy_rejections");
+                throw new SchedulingException(failureMsg + " The instructor does not work or has another lesson then.");
+            }
+            soundgoodDb.createJob(instructorId, lessonId);
+            engine.addLesson(lesson);
+        } catch (SGDBException sgDBe) {
+            throw new SchedulingException(failureMsg, sgDBe);
+        } finally {
+            lock.unlock();
+            metrics.operation("controller.assign_lesson").record(started, 1);
+        }
+    }
+
+    /**
+     * Takes a lesson away from an instructor.
+     *
+     * @param instructorId The id of the instructor.
+     * @param lessonId     The id of the lesson.
+     * @throws SchedulingException If the instructor does not give the lesson, or if failed to unassign it.
+     */
+    public void unassignLesson(int instructorId, int lessonId) throws SchedulingException {
+        String failureMsg = "Could not unassign lesson " + lessonId + " from instructor " + instructorId + ".";
+        SchedulingEngine engine = scheduling(failureMsg);
+        Lock lock = instructorLocks.get(instructorId);
+        lock.lock();
+        try {
+            soundgoodDb.deleteJob(instructorId, lessonId);
+            engine.removeLesson(instructorId, lessonId);
+        } catch (SGDBException sgDBe) {
+            throw new SchedulingException(failureMsg, sgDBe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a period during which an instructor works and can give lessons.
+     *
+     * @param instructorId The id of the instructor.
+     * @param start        The start of the work time.
+     * @param end          The end of the work time.
+     * @param title        What the instructor works with, or <code>null</code>.
+     * @throws SchedulingException If the period is invalid, or if failed to store it.
+     */
+    public void addWorkTime(int instructorId, LocalDateTime start, LocalDateTime end, String title) throws SchedulingException {
+        String failureMsg = "Could not add a work time of instructor " + instructorId + ".";
+        SchedulingEngine engine = scheduling(failureMsg);
+        if (engine.findInstructor(instructorId) == null) {
+            throw new SchedulingException(failureMsg + " There is no such instructor.");
+        }
+        checkSlot(engine, start, end, failureMsg);
+        WorkTime workTime = new WorkTime(instructorId, start, end);
+        Lock lock = instructorLocks.get(instructorId);
+        lock.lock();
+        try {
+            soundgoodDb.createWorkTime(workTime, title);
+            engine.addWorkTime(workTime);
+        } catch (SGDBException sgDBe) {
+            throw new SchedulingException(failureMsg, sgDBe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes every rental that is active during some day of the specified month to a csv
+     * file. The rows are streamed from the database to the file, so the export runs in
+     * constant memory however many rentals there are.
+     *
+     * @param month The month, for example 2022-01.
+     * @param file  The file to write, replaced if it exists.
+     * @param gzip  <code>true</code> if the file is gzip compressed.
+     * @return The number of exported rentals.
+     * @throws ExportException If failed to export the rentals.
+     */
+    public long exportRentals(YearMonth month, Path file, boolean gzip) throws ExportException {
+        String failureMsg = "Could not export the rentals of " + month + " to " + file + ".";
+        checkExport(month, file, failureMsg);
+        try {
+            flushJournal();
+            return soundgoodDb.exportRentals(month, file, gzip);
+        } catch (SGDBException e) {
+            throw new ExportException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Writes every booking of a lesson starting during the specified month to a csv file,
+     * together with the time and type of the lesson.
+     *
+     * @param month The month, for example 2022-01.
+     * @param file  The file to write, replaced if it exists.
+     * @param gzip  <code>true</code> if the file is gzip compressed.
+     * @return The number of exported bookings.
+     * @throws ExportException If failed to export the bookings.
+     */
+    public long exportBookings(YearMonth month, Path file, boolean gzip) throws ExportException {
+        String failureMsg = "Could not export the bookings of " + month + " to " + file + ".";
+        checkExport(month, file, failureMsg);
+        try {
+            return soundgoodDb.exportBookings(month, file, gzip);
+        } catch (SGDBException e) {
+            throw new ExportException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Writes the number of lessons of each type per month during a year to a csv file.
+     *
+     * @param year The year, for example 2022.
+     * @param file The file to write, replaced if it exists.
+     * @param gzip <code>true</code> if the file is gzip compressed.
+     * @return The number of exported months.
+     * @throws ExportException If failed to export the report.
+     */
+    public long exportLessonsPerMonth(int year, Path file, boolean gzip) throws ExportException {
+        String failureMsg = "Could not export the lessons per month of " + year + " to " + file + ".";
+        checkExport(year, file, failureMsg);
+        try {
+            return soundgoodDb.exportLessonsPerMonth(year, file, gzip);
+        } catch (SGDBException e) {
+            throw new ExportException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Writes the instructors giving at least a number of lessons during a month to a csv file.
+     *
+     * @param month      The month, for example 2022-01.
+     * @param minLessons The smallest number of lessons to include an instructor.
+     * @param file       The file to write, replaced if it exists.
+     * @param gzip       <code>true</code> if the file is gzip compressed.
+     * @return The number of exported instructors.
+     * @throws ExportException If failed to export the report.
+     */
+    public long exportInstructorsWithAtLeastLessons(YearMonth month, int minLessons, Path file, boolean gzip) throws ExportException {
+        String failureMsg = "Could not export the instructors with at least " + minLessons + " lessons in " + month + " to " + file + ".";
+        checkExport(month, file, failureMsg);
+        try {
+            return soundgoodDb.exportInstructorsWithLessonsInMonth(month, minLessons, file, gzip);
+        } catch (SGDBException e) {
+            throw new ExportException(failureMsg, e);
+        }
+    }
+
+    /**
+     * Prepares the application for its first commands. Every read statement is executed the
+     * specified number of times on every database connection, and the availability engine
+     * lists the instruments of a few periods as many times, bypassing the listing cache.
+     * Nothing is changed, neither in the database nor in the engine.
+     *
+     * @param executions How many times each statement and listing is executed, 10 is
+     *                   enough for the database to settle on a plan.
+     * @throws SGDBException If failed to execute a statement.
+     */
+    public void warmUp(int executions) throws SGDBException {
+        long started = System.nanoTime();
+        soundgoodDb.warmUp(executions);
+        LocalDate today = LocalDate.now();
+        int listed = 0;
+        for (int i = 0; i < executions; i++) {
+            for (int months = 1; months <= 12; months++) {
+                listed += availability.findAvailable(today, today.plusMonths(months), null).size();
+            }
+        }
+        metrics.operation("controller.warm_up").record(started, listed);
+    }
+
+    /**
+     * Lists the yearly partitions of the rental and lesson tables that are not archived.
+     *
+     * @return The name and bounds of each partition.
+     * @throws SGDBException If failed to list the partitions.
+     */
+    public List<String> getTimePartitions() throws SGDBException {
+        return soundgoodDb.findTimePartitions();
+    }
+
+    /**
+     * Creates the missing partitions of this year and the configured number of years ahead
+     * at once, instead of waiting for the next background run.
+     *
+     * @return The number of partitions created.
+     * @throws SGDBException If failed to create the partitions.
+     */
+    public int createTimePartitions() throws SGDBException {
+        return partitions != null ? partitions.runNow() : soundgoodDb.ensureTimePartitions(PARTITION_YEARS_AHEAD);
+    }
+
+    /**
+     * Moves the rentals and lessons of the years before the specified year out of the
+     * tables the application reads, into the schema <code>archive</code>. Statistics of
+     * archived lessons are kept.
+     *
+     * @param beforeYear The first year to keep, at most last year.
+     * @return The number of partitions archived.
+     * @throws SGDBException If failed to archive the partitions.
+     */
+    public int archiveTimePartitions(int beforeYear) throws SGDBException {
+        return soundgoodDb.archiveTimePartitions(beforeYear);
+    }
+
+    /**
+     * Reloads the monthly prices of the rental instruments and the price list of lessons at
+     * once, instead of waiting until they are old enough to be reloaded in the background.
+     * Cached listings are dropped, since they are priced with the old prices.
+     *
+     * @throws SGDBException If failed to read the prices.
+     */
+    public void refreshPrices() throws SGDBException {
+        pricesRefreshedNanos = System.nanoTime();
+        quotes.refresh(soundgoodDb.findRentalInstrumentCatalog(), soundgoodDb.findLessonPrices());
+        listings.clear();
+    }
+
+    /**
+     * @return When partitions were last created, or <code>null</code> if they are not
+     *         created in the background.
+     */
+    public PartitionMaintenance getPartitionMaintenance() {
+        return partitions;
+    }
+
+    /**
+     * @return The prices that rentals and lessons are quoted with.
+     */
+    public QuotationEngine getQuotationEngine() {
+        return quotes;
+    }
+
+    /**
+     * @return The hit, miss and eviction counters of the listing cache.
+     */
+    public ListingCache getListingCache() {
+        return listings;
+    }
+
+    /**
+     * @return How rentals are kept from breaking the rules when created concurrently.
+     */
+    public BookingMode getBookingMode() {
+        return bookingMode;
+    }
+
+    /**
+     * @return The latency and row statistics of controller operations and database statements.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The threads performing the asynchronous operations.
+     */
+    public AsyncSoundGoodDAO getAsyncDAO() {
+        return asyncDb;
+    }
+
+    /**
+     * @return The current state of the database connection pool.
+     */
+    public ConnectionPoolMetrics getConnectionPoolMetrics() {
+        return soundgoodDb.getPoolMetrics();
+    }
+
+    /**
+     * @return The lag and health of the read replicas.
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return soundgoodDb.getReplicaRouter();
+    }
+
+    /**
+     * @return The state of the rental journal, or <code>null</code> if changes are written
+     *         directly to the database.
+     */
+    public RentalJournal getJournal() {
+        return journal;
+    }
+
+    private List<RentalInstrument> findAvailable(LocalDate start, LocalDate end, String instrument, String failureMsg) throws RentalException {
+        refreshPricesIfStale();
+        long started = System.nanoTime();
+        List<RentalInstrument> available = availability.covers(start)
+                ? listings.get(start, end, instrument, () -> availability.findAvailable(start, end, instrument))
+                : findAvailableInDatabase(start, end, instrument, failureMsg);
+        metrics.operation("controller.list_available").record(started, available.size());
+        return available;
+    }
+
+    /**
+     * Lists the instruments available during a period the availability engine does not
+     * cover, as the database tells.
+     */
+    private List<RentalInstrument> findAvailableInDatabase(LocalDate start, LocalDate end, String instrument, String failureMsg) throws RentalException {
+        try {
+            flushJournal();
+            return instrument == null
+                    ? soundgoodDb.findAllAvailableRentalInstruments(start, end)
+                    : soundgoodDb.findAvailableRentalInstruments(start, end, instrument);
+        } catch (SGDBException sgDBe) {
+            throw new RentalException(failureMsg, sgDBe);
+        }
+    }
+
+    /**
+     * Starts reloading the prices on a thread of the asynchronous DAO if they are older than
+     * the configured age, unless a reload is already running. The caller does not wait, it
+     * is answered with the prices already loaded.
+     */
+    private void refreshPricesIfStale() {
+        if (PRICE_REFRESH_SECONDS <= 0
+                || System.nanoTime() - pricesRefreshedNanos < TimeUnit.SECONDS.toNanos(PRICE_REFRESH_SECONDS)
+                || !refreshingPrices.compareAndSet(false, true)) {
+            return;
+        }
+        asyncDb.submit(() -> {
+            refreshPrices();
+            return null;
+        }).whenComplete((refreshed, failure) -> {
+            if (failure != null) {
+                metrics.increment("controller.price_refresh_failures");
+            }
+            refreshingPrices.set(false);
+        });
+    }
+
+    /**
+     * Replaces the rentals the availability engine holds for the specified instrument with
+     * those in the database, after the engine was found to be out of date. Journaled
+     * terminations are written first, so the database does not bring them back. A failure
+     * leaves the engine as it was, it only serves as a hint.
+     */
+    private void reloadRentalsOf(int rentalInstrumentId) {
+        try {
+            flushJournal();
+            availability.replaceRentals(rentalInstrumentId, soundgoodDb.findActiveRentalsOfInstruments(List.of(rentalInstrumentId), availability.getKnownFrom()));
+            listings.clear();
+            metrics.increment("controller.availability_reloads");
+        } catch (SGDBException sgDBe) {
+            metrics.increment("controller.availability_reload_failures");
+        }
+    }
+
+    private void rentalAdded(RentalPeriod rental) {
+        availability.addRental(rental);
+        invalidateListings(rental);
+    }
+
+    private void invalidateListings(RentalPeriod rental) {
+        CatalogInstrument instrument = availability.findCatalogInstrument(rental.getRentalInstrumentId());
+        if (instrument == null) {
+            listings.clear();
+        } else {
+            listings.invalidate(instrument.getName(), rental.getStartDate(), rental.getEndDate());
+        }
+    }
+
+    private void checkPeriod(LocalDate startDate, LocalDate endDate, String failureMsg) throws RentalException {
+        if (startDate == null || endDate == null) {
+            throw new RentalException(failureMsg + " The start and end dates are required.");
+        }
+        if (endDate.isBefore(startDate)) {
+            throw new RentalException(failureMsg + " The period ends before it starts.");
+        }
+    }
+
+    /**
+     * Loads the scheduling engine the first time it is needed, with the work times and
+     * lessons from the start of the month <code>soundgood.schedule.historyMonths</code>
+     * months back, 12 by default.
+     */
+    private SchedulingEngine scheduling(String failureMsg) throws SchedulingException {
+        SchedulingEngine engine = scheduling;
+        if (engine != null) {
+            return engine;
+        }
+        synchronized (this) {
+            if (scheduling == null) {
+                long started = System.nanoTime();
+                LocalDateTime from = YearMonth.now().minusMonths(SCHEDULE_HISTORY_MONTHS).atDay(1).atStartOfDay();
+                try {
+                    List<InstructorLesson> lessons = soundgoodDb.findInstructorLessons(from);
+                    scheduling = new SchedulingEngine(soundgoodDb.findInstructors(), soundgoodDb.findWorkTimes(from), lessons, from);
+                    metrics.operation("controller.load_schedules").record(started, lessons.size());
+                } catch (SGDBException sgDBe) {
+                    throw new SchedulingException(failureMsg + " The schedules could not be loaded.", sgDBe);
+                }
+            }
+            return scheduling;
+        }
+    }
+
+    private void checkSlot(SchedulingEngine engine, LocalDateTime start, LocalDateTime end, String failureMsg) throws SchedulingException {
+        if (start == null || end == null) {
+            throw new SchedulingException(failureMsg + " The start and end times are required.");
+        }
+        if (!end.isAfter(start)) {
+            throw new SchedulingException(failureMsg + " The end is not after the start.");
+        }
+        if (start.isBefore(engine.getCoveredFrom())) {
+            throw new SchedulingException(failureMsg + " Only schedules from " + engine.getCoveredFrom().toLocalDate() + " are loaded.");
+        }
+    }
+
+    private void checkExport(Object period, Path file, String failureMsg) throws ExportException {
+        if (period == null || file == null) {
+            throw new ExportException(failureMsg + " The period and the file are required.");
+        }
+    }
+
+    private static ExecutorService rentalExecutor(int threads) {
+        AtomicInteger nextThread = new AtomicInteger(1);
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "rental-async-" + nextThread.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Throwable causeOf(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    private void flushJournal() throws SGDBException {
+        if (journal != null) {
+            journal.flush();
         }
     }
 
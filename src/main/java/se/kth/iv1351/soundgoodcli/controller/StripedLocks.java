@@ -0,0 +1,41 @@
+package se.kth.iv1351.soundgoodcli.controller;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by all keys. Each key always maps to the same lock, so
+ * operations on the same key are serialized while operations on different keys rarely
+ * wait for each other.
+ */
+class StripedLocks {
+    private final Lock[] stripes;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param nrOfStripes The number of locks to spread the keys over.
+     */
+    StripedLocks(int nrOfStripes) {
+        stripes = new Lock[nrOfStripes];
+        for (int i = 0; i < nrOfStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param key The key to lock.
+     * @return The lock guarding the specified key.
+     */
+    Lock get(Object key) {
+        return get(key.hashCode());
+    }
+
+    /**
+     * @param key The id to lock.
+     * @return The lock guarding the specified id, the same as for the boxed id.
+     */
+    Lock get(int key) {
+        return stripes[Math.floorMod(key, stripes.length)];
+    }
+}
@@ -0,0 +1,199 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+import se.kth.iv1351.soundgoodcli.model.InstructorLessonCount;
+import se.kth.iv1351.soundgoodcli.model.LessonMonthStatistics;
+import se.kth.iv1351.soundgoodcli.model.LessonSeatCount;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs calls of a {@link SoundGoodDAO} on threads of its own and returns their results
+ * as {@link CompletableFuture}s, so the caller does not wait for the database. Each call is
+ * a unit of work of its own: the DAO binds a pooled connection to the thread performing the
+ * call, and the unit of work is committed when the call returns. Calls started together
+ * therefore run concurrently, on separate connections.
+ * <p>
+ * Calls that lock rows and leave the transaction open for a later statement can not be
+ * made here, since the later statement may run on another thread. There are as many
+ * threads as connections in the pool by default, more threads would only wait for a
+ * connection. Calls beyond that wait in a queue, not in a thread of their own.
+ */
+public final class AsyncSoundGoodDAO {
+    private final SoundGoodDAO dao;
+    private final Metrics metrics;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * A unit of work performed by {@link #submit(UnitOfWork)}.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    public interface UnitOfWork<T> {
+        /**
+         * Calls the DAO on the thread performing the unit of work.
+         *
+         * @return The result of the unit of work.
+         * @throws SGDBException If a call of the DAO failed.
+         */
+        T perform() throws SGDBException;
+    }
+
+    /**
+     * Creates a new instance performing calls of the specified DAO.
+     *
+     * @param dao     The DAO to call.
+     * @param threads The number of calls performed at the same time.
+     */
+    public AsyncSoundGoodDAO(SoundGoodDAO dao, int threads) {
+        this.dao = dao;
+        this.metrics = dao.getMetrics();
+        AtomicInteger nextThread = new AtomicInteger(1);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "dao-async-" + nextThread.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Performs a unit of work on a thread of this instance, and commits it when it returns.
+     * If it fails with an {@link SGDBException}, the DAO has already rolled it back. If it
+     * fails with anything else, it is rolled back here. Either way the connection is
+     * returned to the pool and the future is completed.
+     *
+     * @param unitOfWork The calls of the DAO to perform.
+     * @param <T>        The type of the result.
+     * @return The result, or the exception or error the unit of work failed with.
+     */
+    public <T> CompletableFuture<T> submit(UnitOfWork<T> unitOfWork) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long queued = System.nanoTime();
+        executor.execute(() -> {
+            metrics.operation("async.queue_wait").record(queued, 0);
+            try {
+                T performed = unitOfWork.perform();
+                dao.commit();
+                result.complete(performed);
+            } catch (SGDBException failure) {
+                result.completeExceptionally(failure);
+            } catch (Throwable failure) {
+                try {
+                    dao.abort();
+                } finally {
+                    result.completeExceptionally(failure);
+                }
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Retrieves the number of active rental instruments of the specified student, without
+     * locking anything.
+     *
+     * @param studentId The id of student.
+     * @return The nr of active rentals.
+     * @see SoundGoodDAO#findStudentInstrumentCount(int)
+     */
+    public CompletableFuture<Integer> findStudentInstrumentCount(int studentId) {
+        return submit(() -> dao.findStudentInstrumentCount(studentId));
+    }
+
+    /**
+     * Retrieves the specified rental instrument, priced for the specified period, if no active
+     * rental of it overlaps the period. Nothing is locked.
+     *
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param startDate          The start date of the period.
+     * @param endDate            The end date of the period.
+     * @return The instrument priced for the period, or <code>null</code> if it is already
+     *         rented during the period.
+     * @see SoundGoodDAO#findRentalInstrumentIfAvailable(int, LocalDate, LocalDate)
+     */
+    public CompletableFuture<RentalInstrument> findRentalInstrumentIfAvailable(int rentalInstrumentId, LocalDate startDate, LocalDate endDate) {
+        return submit(() -> dao.findRentalInstrumentIfAvailable(rentalInstrumentId, startDate, endDate));
+    }
+
+    /**
+     * Finds all the available rental instruments for the specified time period and instrument type.
+     *
+     * @see SoundGoodDAO#findAvailableRentalInstruments(LocalDate, LocalDate, String)
+     */
+    public CompletableFuture<List<RentalInstrument>> findAvailableRentalInstruments(LocalDate startDate, LocalDate endDate, String instrument) {
+        return submit(() -> dao.findAvailableRentalInstruments(startDate, endDate, instrument));
+    }
+
+    /**
+     * Finds all the available rental instruments for the specified time period.
+     *
+     * @see SoundGoodDAO#findAllAvailableRentalInstruments(LocalDate, LocalDate)
+     */
+    public CompletableFuture<List<RentalInstrument>> findAllAvailableRentalInstruments(LocalDate startDate, LocalDate endDate) {
+        return submit(() -> dao.findAllAvailableRentalInstruments(startDate, endDate));
+    }
+
+    /**
+     * Retrieves the capacity and number of booked seats of the specified lesson.
+     *
+     * @see SoundGoodDAO#findLessonSeats(int)
+     */
+    public CompletableFuture<LessonSeatCount> findLessonSeats(int lessonId) {
+        return submit(() -> dao.findLessonSeats(lessonId));
+    }
+
+    /**
+     * Retrieves the number of lessons of each type given per month during a year.
+     *
+     * @see SoundGoodDAO#findLessonsPerMonth(int)
+     */
+    public CompletableFuture<List<LessonMonthStatistics>> findLessonsPerMonth(int year) {
+        return submit(() -> dao.findLessonsPerMonth(year));
+    }
+
+    /**
+     * Retrieves the instructors giving at least a number of lessons during a month.
+     *
+     * @see SoundGoodDAO#findInstructorsWithLessonsInMonth(YearMonth, int)
+     */
+    public CompletableFuture<List<InstructorLessonCount>> findInstructorsWithLessonsInMonth(YearMonth month, int minLessons) {
+        return submit(() -> dao.findInstructorsWithLessonsInMonth(month, minLessons));
+    }
+
+    /**
+     * @return The threads performing the calls, for work that continues a call without
+     *         waiting on the thread that started it.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stops accepting calls. Calls already submitted are completed.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return The number of threads and calls of this instance.
+     */
+    @Override
+    public String toString() {
+        return String.format("threads=%d active=%d queued=%d completed=%d",
+                executor.getPoolSize(), executor.getActiveCount(), executor.getQueue().size(), executor.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,125 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of connections to the sound good database. Connections are opened
+ * lazily, up to the configured maximum, and reused after they are released. A caller
+ * that finds no free connection waits until one is released or the checkout timeout
+ * expires. A connection that has been idle for longer than
+ * <code>soundgood.db.pool.validateIdleMs</code> is checked with a round trip before it is
+ * handed out, so a connection the server or the network has dropped is replaced instead of
+ * failing the next unit of work.
+ */
+class ConnectionPool {
+    private final SGDBConfig config;
+    private final Metrics metrics;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    ConnectionPool(SGDBConfig config, Metrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.permits = new Semaphore(config.getPoolSize(), true);
+    }
+
+    /**
+     * Checks out a connection, waiting for one to be released if all are in use.
+     *
+     * @return A connection that is owned by the caller until it is released.
+     * @throws SGDBException If no connection became free before the checkout timeout.
+     * @throws SQLException  If a new connection could not be opened.
+     */
+    PooledConnection checkout() throws SGDBException, SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(config.getCheckoutTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SGDBException("Interrupted while waiting for a database connection.", ie);
+        }
+        waitNanos.add(System.nanoTime() - start);
+        metrics.operation("pool.checkout_wait").record(start, 0);
+        if (!acquired) {
+            timeouts.increment();
+            throw new SGDBException("Timed out after " + config.getCheckoutTimeoutMs()
+                    + " ms waiting for a database connection.");
+        }
+
+        try {
+            PooledConnection pooled;
+            long validateIdleNanos = TimeUnit.MILLISECONDS.toNanos(config.getValidateIdleMs());
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.isUsable() && (!pooled.isIdleLongerThan(validateIdleNanos) || validate(pooled))) {
+                    break;
+                }
+                pooled.close();
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(this, DriverManager.getConnection(
+                        config.getUrl(), config.getUser(), config.getPassword()));
+            }
+            active.incrementAndGet();
+            checkouts.increment();
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the specified connection to the pool. The caller must have ended its
+     * transaction before releasing the connection.
+     *
+     * @param pooled The connection to release.
+     */
+    void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        if (pooled.isUsable()) {
+            pooled.markIdle();
+            idle.offerFirst(pooled);
+        } else {
+            pooled.close();
+        }
+        permits.release();
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        long started = System.nanoTime();
+        boolean valid = pooled.isValid();
+        metrics.operation("pool.validate").record(started, valid ? 1 : 0);
+        if (!valid) {
+            metrics.increment("pool.dead_connections");
+        }
+        return valid;
+    }
+
+    /**
+     * Closes all idle connections. Connections that are checked out are closed when released.
+     */
+    void close() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.close();
+        }
+    }
+
+    ConnectionPoolMetrics getMetrics() {
+        return new ConnectionPoolMetrics(config.getPoolSize(), active.get(), idle.size(),
+                checkouts.sum(), waitNanos.sum(), timeouts.sum());
+    }
+}
@@ -0,0 +1,77 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+/**
+ * A snapshot of the state of the connection pool.
+ */
+public class ConnectionPoolMetrics {
+    private final int maxSize;
+    private final int active;
+    private final int idle;
+    private final long checkouts;
+    private final long totalWaitNanos;
+    private final long checkoutTimeouts;
+
+    ConnectionPoolMetrics(int maxSize, int active, int idle, long checkouts, long totalWaitNanos, long checkoutTimeouts) {
+        this.maxSize = maxSize;
+        this.active = active;
+        this.idle = idle;
+        this.checkouts = checkouts;
+        this.totalWaitNanos = totalWaitNanos;
+        this.checkoutTimeouts = checkoutTimeouts;
+    }
+
+    /**
+     * @return The maximum number of connections the pool may open.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of connections currently checked out.
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * @return The number of open connections waiting in the pool.
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return The number of successful checkouts since the pool was created.
+     */
+    public long getCheckouts() {
+        return checkouts;
+    }
+
+    /**
+     * @return The total time callers have waited for a connection, in milliseconds.
+     */
+    public double getTotalWaitMillis() {
+        return totalWaitNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return The average time a checkout waited for a connection, in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        return checkouts == 0 ? 0 : getTotalWaitMillis() / checkouts;
+    }
+
+    /**
+     * @return The number of checkouts that gave up waiting for a connection.
+     */
+    public long getCheckoutTimeouts() {
+        return checkoutTimeouts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d max=%d checkouts=%d avgWaitMs=%.3f totalWaitMs=%.3f timeouts=%d",
+                active, idle, maxSize, checkouts, getAverageWaitMillis(), getTotalWaitMillis(), checkoutTimeouts);
+    }
+}
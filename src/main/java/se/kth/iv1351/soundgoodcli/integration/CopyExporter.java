@@ -0,0 +1,145 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the result of a query to a csv file with PostgreSQL <code>COPY ... TO STDOUT</code>.
+ * The rows arrive as csv from the server and are written to the file as they are, through
+ * a buffer that is written to the file channel each time it fills up. No row is turned into
+ * Java objects, so any number of rows is exported in constant memory.
+ * <p>
+ * The file is first written next to its final name, and only moved into place when the
+ * whole result has been written, so a failed export never leaves a truncated file behind.
+ */
+class CopyExporter {
+    private static final int BUFFER_SIZE_BYTES = 1 << 20;
+
+    private CopyExporter() {
+    }
+
+    /**
+     * Exports the result of the specified query, with a header line.
+     *
+     * @param connection The connection to copy on.
+     * @param query      The query, without bind parameters, see {@link #inline(String, Object...)}.
+     * @param file       The file to write, replaced if it exists.
+     * @param gzip       <code>true</code> if the file is gzip compressed.
+     * @return The number of exported rows.
+     * @throws SQLException If the query failed.
+     * @throws IOException  If the file could not be written.
+     */
+    static long export(Connection connection, String query, Path file, boolean gzip) throws SQLException, IOException {
+        String sql = "COPY (" + query + ") TO STDOUT (FORMAT csv, HEADER)";
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+        CopyOut copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql);
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            GzipStream gzipOut = gzip ? new GzipStream(Channels.newOutputStream(channel)) : null;
+            try {
+                WritableByteChannel target = gzip ? Channels.newChannel(gzipOut) : channel;
+                ByteBuffer buffer = gzip ? ByteBuffer.allocate(BUFFER_SIZE_BYTES) : ByteBuffer.allocateDirect(BUFFER_SIZE_BYTES);
+                byte[] data;
+                while ((data = copyOut.readFromCopy()) != null) {
+                    if (data.length > buffer.remaining()) {
+                        writeAll(buffer, target);
+                    }
+                    if (data.length > buffer.capacity()) {
+                        target.write(ByteBuffer.wrap(data));
+                    } else {
+                        buffer.put(data);
+                    }
+                }
+                writeAll(buffer, target);
+                if (gzip) {
+                    gzipOut.finish();
+                    gzipOut.flush();
+                }
+                channel.force(false);
+            } finally {
+                if (gzip) {
+                    gzipOut.end();
+                }
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        } finally {
+            if (copyOut.isActive()) {
+                copyOut.cancelCopy();
+            }
+        }
+        Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return copyOut.getHandledRowCount();
+    }
+
+    /**
+     * Replaces each <code>?</code> of the specified statement with a literal, since
+     * <code>COPY</code> takes no bind parameters. Only dates, timestamps and integers are accepted, their
+     * literals can not contain quotes, so nothing but a value can end up in the statement.
+     *
+     * @param sql    The statement, with one <code>?</code> per value and no other question mark.
+     * @param values The values, in order.
+     * @return The statement with the values inlined.
+     */
+    static String inline(String sql, Object... values) {
+        StringBuilder inlined = new StringBuilder(sql.length() + 16 * values.length);
+        int value = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c != '?') {
+                inlined.append(c);
+            } else if (values[value] instanceof LocalDate) {
+                inlined.append('\'').append(values[value++]).append("'::date");
+            } else if (values[value] instanceof LocalDateTime) {
+                inlined.append('\'').append(values[value++]).append("'::timestamp");
+            } else if (values[value] instanceof Integer) {
+                inlined.append(values[value++]);
+            } else {
+                throw new IllegalArgumentException("Can not inline " + values[value] + " in a COPY statement.");
+            }
+        }
+        if (value != values.length) {
+            throw new IllegalArgumentException("The statement has " + value + " parameters, not " + values.length + ".");
+        }
+        return inlined.toString();
+    }
+
+    private static void writeAll(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * A gzip stream whose deflater can be released without closing the stream, since closing
+     * it would also close the file channel before it is forced to disk.
+     */
+    private static final class GzipStream extends GZIPOutputStream {
+        private GzipStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE_BYTES);
+        }
+
+        private void end() {
+            def.end();
+        }
+    }
+}
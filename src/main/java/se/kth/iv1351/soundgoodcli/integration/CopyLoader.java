@@ -0,0 +1,101 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Streams rows into one table with PostgreSQL <code>COPY ... FROM STDIN</code>. Rows are
+ * encoded as csv into a buffer that is sent to the server each time it fills up, so any
+ * number of rows can be loaded in constant memory.
+ */
+class CopyLoader implements AutoCloseable {
+    private static final int BATCH_SIZE_BYTES = 1 << 20;
+    private final CopyIn copyIn;
+    private final StringBuilder batch = new StringBuilder(BATCH_SIZE_BYTES + 4096);
+    private long rows;
+
+    /**
+     * Starts copying into the specified table.
+     *
+     * @param connection The connection to copy on.
+     * @param table      The table to copy into.
+     * @param columns    The columns of each row, in the order values are given to {@link #row(Object...)}.
+     * @throws SQLException If the copy could not be started.
+     */
+    CopyLoader(Connection connection, String table, String... columns) throws SQLException {
+        String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN (FORMAT csv)";
+        copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+    }
+
+    /**
+     * Adds one row. A <code>null</code> value is stored as sql <code>NULL</code>, every other
+     * value as its <code>toString()</code>.
+     *
+     * @param values The values of the row.
+     * @throws SQLException If a full batch could not be sent.
+     */
+    void row(Object... values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                batch.append(',');
+            }
+            if (values[i] != null) {
+                appendQuoted(values[i].toString());
+            }
+        }
+        batch.append('\n');
+        rows++;
+        if (batch.length() >= BATCH_SIZE_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * @return The number of rows added so far.
+     */
+    long getRows() {
+        return rows;
+    }
+
+    /**
+     * Sends the remaining rows and ends the copy.
+     *
+     * @throws SQLException If the copy failed.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private void appendQuoted(String value) {
+        batch.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                batch.append('"');
+            }
+            batch.append(c);
+        }
+        batch.append('"');
+    }
+
+    private void flush() throws SQLException {
+        if (batch.length() == 0) {
+            return;
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        batch.setLength(0);
+    }
+}
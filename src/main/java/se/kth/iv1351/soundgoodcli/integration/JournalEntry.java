@@ -0,0 +1,177 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+/**
+ * One change of a rental recorded in the {@link RentalJournal}, either a termination or
+ * new notes. Applying an entry twice has the same effect as applying it once, so entries
+ * that may already be in the database can safely be replayed.
+ * <p>
+ * On disk an entry is the length of its payload, a CRC32 of the payload and the payload
+ * itself. An entry whose length or checksum does not match was torn by a crash and ends
+ * the journal.
+ */
+final class JournalEntry {
+    static final byte TERMINATION = 1;
+    static final byte NOTES = 2;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FIXED_PAYLOAD_SIZE = 1 + Long.BYTES + 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    private final byte type;
+    private final int studentId;
+    private final int rentalInstrumentId;
+    private final LocalDate startDate;
+    private final LocalDate terminationDate;
+    private final String notes;
+    private long sequence;
+
+    private JournalEntry(byte type, int studentId, int rentalInstrumentId, LocalDate startDate,
+                         LocalDate terminationDate, String notes) {
+        this.type = type;
+        this.studentId = studentId;
+        this.rentalInstrumentId = rentalInstrumentId;
+        this.startDate = startDate;
+        this.terminationDate = terminationDate;
+        this.notes = notes;
+    }
+
+    static JournalEntry termination(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate terminationDate) {
+        return new JournalEntry(TERMINATION, studentId, rentalInstrumentId, startDate, terminationDate, null);
+    }
+
+    static JournalEntry notes(int studentId, int rentalInstrumentId, LocalDate startDate, String notes) {
+        return new JournalEntry(NOTES, studentId, rentalInstrumentId, startDate, null, notes);
+    }
+
+    /**
+     * Reads the entry starting at the position of the specified buffer, and moves the
+     * position past it.
+     *
+     * @param buffer The journal contents.
+     * @return The entry, or <code>null</code> if the rest of the buffer is not a complete,
+     *         undamaged entry.
+     */
+    static JournalEntry readFrom(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < FIXED_PAYLOAD_SIZE || length > buffer.remaining()) {
+            return null;
+        }
+        ByteBuffer payload = buffer.slice().limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        buffer.position(buffer.position() + length);
+        try {
+            byte type = payload.get();
+            long sequence = payload.getLong();
+            int studentId = payload.getInt();
+            int rentalInstrumentId = payload.getInt();
+            LocalDate startDate = LocalDate.ofEpochDay(payload.getLong());
+            long terminationDay = payload.getLong();
+            String notes = null;
+            if (type == NOTES) {
+                int notesLength = payload.getInt();
+                if (notesLength >= 0) {
+                    byte[] notesBytes = new byte[notesLength];
+                    payload.get(notesBytes);
+                    notes = new String(notesBytes, StandardCharsets.UTF_8);
+                }
+            }
+            JournalEntry entry = new JournalEntry(type, studentId, rentalInstrumentId, startDate,
+                    type == TERMINATION ? LocalDate.ofEpochDay(terminationDay) : null, notes);
+            entry.sequence = sequence;
+            return entry;
+        } catch (BufferUnderflowException damaged) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the entry, with its header, at the position of the specified buffer.
+     *
+     * @param buffer Where to write the entry, with at least {@link #size()} bytes remaining.
+     */
+    void writeTo(ByteBuffer buffer) {
+        byte[] notesBytes = notes == null ? null : notes.getBytes(StandardCharsets.UTF_8);
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(type)
+                .putLong(sequence)
+                .putInt(studentId)
+                .putInt(rentalInstrumentId)
+                .putLong(startDate.toEpochDay())
+                .putLong(terminationDate == null ? 0 : terminationDate.toEpochDay());
+        if (type == NOTES) {
+            buffer.putInt(notesBytes == null ? -1 : notesBytes.length);
+            if (notesBytes != null) {
+                buffer.put(notesBytes);
+            }
+        }
+        int end = buffer.position();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start + HEADER_SIZE).limit(end));
+        buffer.putInt(start, end - start - HEADER_SIZE);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * @return The number of bytes written by {@link #writeTo(ByteBuffer)}.
+     */
+    int size() {
+        int size = HEADER_SIZE + FIXED_PAYLOAD_SIZE;
+        if (type == NOTES) {
+            size += Integer.BYTES + (notes == null ? 0 : notes.getBytes(StandardCharsets.UTF_8).length);
+        }
+        return size;
+    }
+
+    /**
+     * @return <code>true</code> if this is a termination of a rental of the specified
+     *         student or of the specified instrument.
+     */
+    boolean terminatesRentalOf(int studentId, int rentalInstrumentId) {
+        return type == TERMINATION && (this.studentId == studentId || this.rentalInstrumentId == rentalInstrumentId);
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    int getStudentId() {
+        return studentId;
+    }
+
+    int getRentalInstrumentId() {
+        return rentalInstrumentId;
+    }
+
+    LocalDate getStartDate() {
+        return startDate;
+    }
+
+    LocalDate getTerminationDate() {
+        return terminationDate;
+    }
+
+    String getNotes() {
+        return notes;
+    }
+}
@@ -0,0 +1,91 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the yearly partitions of the rental and lesson tables ahead of time. A background
+ * thread asks the database to create the partitions of this year and some years ahead when
+ * started and then at a fixed interval, so a new year never starts without partitions to
+ * insert rentals and lessons into. Creating a partition that exists does nothing.
+ */
+public final class PartitionMaintenance {
+    private final SoundGoodDAO dao;
+    private final int yearsAhead;
+    private final ScheduledExecutorService scheduler;
+    private volatile LocalDateTime lastRun;
+    private volatile int lastCreated;
+    private volatile String lastFailure;
+
+    private PartitionMaintenance(SoundGoodDAO dao, int yearsAhead, long intervalHours) {
+        this.dao = dao;
+        this.yearsAhead = yearsAhead;
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "partition-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, intervalHours, TimeUnit.HOURS);
+    }
+
+    /**
+     * Starts creating partitions in the background.
+     *
+     * @param dao           The DAO used to create the partitions.
+     * @param yearsAhead    The number of years after this year to create partitions for.
+     * @param intervalHours The number of hours between two runs.
+     * @return The running maintenance.
+     */
+    public static PartitionMaintenance start(SoundGoodDAO dao, int yearsAhead, long intervalHours) {
+        return new PartitionMaintenance(dao, yearsAhead, intervalHours);
+    }
+
+    /**
+     * Creates the missing partitions at once, on the calling thread.
+     *
+     * @return The number of partitions created.
+     * @throws SGDBException If failed to create the partitions.
+     */
+    public int runNow() throws SGDBException {
+        try {
+            int created = dao.ensureTimePartitions(yearsAhead);
+            lastCreated = created;
+            lastFailure = null;
+            return created;
+        } catch (SGDBException failed) {
+            lastFailure = failed.getMessage();
+            throw failed;
+        } finally {
+            lastRun = LocalDateTime.now();
+        }
+    }
+
+    /**
+     * Stops the background runs.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void runQuietly() {
+        try {
+            runNow();
+        } catch (SGDBException | RuntimeException failed) {
+            lastFailure = failed.getMessage();
+        }
+    }
+
+    /**
+     * @return When the partitions were last created and how that went.
+     */
+    @Override
+    public String toString() {
+        if (lastRun == null) {
+            return "not run yet, " + yearsAhead + " years ahead";
+        }
+        String outcome = lastFailure == null ? lastCreated + " partitions created" : "failed: " + lastFailure;
+        return "last run " + lastRun.withNano(0) + ", " + outcome + ", " + yearsAhead + " years ahead";
+    }
+}
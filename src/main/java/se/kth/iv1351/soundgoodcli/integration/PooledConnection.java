@@ -0,0 +1,115 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection owned by a {@link ConnectionPool}. Each pooled connection keeps its own
+ * prepared statements, so they are prepared only once per connection. An instance is
+ * used by one thread at a time, from checkout until it is released to the pool.
+ */
+class PooledConnection {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private long idleSince = System.nanoTime();
+
+    PooledConnection(ConnectionPool pool, Connection connection) throws SQLException {
+        this.pool = pool;
+        this.connection = connection;
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Returns the prepared statement for the specified sql, preparing it the first time
+     * it is used on this connection.
+     *
+     * @param sql The sql of the statement.
+     * @return The prepared statement.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * @return The pool this connection is released to.
+     */
+    ConnectionPool getPool() {
+        return pool;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    void commit() throws SQLException {
+        connection.commit();
+    }
+
+    void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    boolean isUsable() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records that the connection was returned to the pool.
+     */
+    void markIdle() {
+        idleSince = System.nanoTime();
+    }
+
+    /**
+     * @param idleNanos The longest idle time after which the connection is trusted unchecked.
+     * @return <code>true</code> if the connection has been idle for longer than the specified time.
+     */
+    boolean isIdleLongerThan(long idleNanos) {
+        return System.nanoTime() - idleSince > idleNanos;
+    }
+
+    /**
+     * Asks the server whether the connection still works. Unlike {@link #isUsable()}, this
+     * notices a dead socket or a backend terminated by the server, at the cost of a round trip.
+     *
+     * @return <code>true</code> if the server answered in time.
+     */
+    boolean isValid() {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // The connection is closed below anyway.
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Nothing more can be done with a broken connection.
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_NOTES_LENGTH;
+
+/**
+ * A local, append-only journal of rental terminations and notes, which are written to the
+ * database later by a background thread.
+ * <p>
+ * A change is acknowledged when it is durable in the journal file. Changes arriving while
+ * the journal is being forced to disk are written and forced together with the next write,
+ * so many concurrent callers share one <code>fsync</code>. Every flush interval, all
+ * journaled changes are applied to the database with one batched statement per kind of
+ * change and one commit. When every journaled change is in the database, the journal file
+ * is truncated. If the application stops before that, the changes left in the file are
+ * applied when the journal is opened again.
+ */
+public class RentalJournal implements AutoCloseable {
+    private static final int MAX_FLUSH_BATCH = 1000;
+    private static final long COMPACT_THRESHOLD_BYTES = 16L * 1024 * 1024;
+    private final Path file;
+    private final SoundGoodDAO dao;
+    private final Metrics metrics;
+    private final Object appendLock = new Object();
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private final Object flushLock = new Object();
+    private final List<JournalEntry> toWrite = new ArrayList<>();
+    private final ArrayDeque<JournalEntry> unflushed = new ArrayDeque<>();
+    private final Thread writer;
+    private final ScheduledExecutorService flusher;
+    private FileChannel channel;
+    private long nextSequence;
+    private long durableSequence;
+    private IOException writeFailure;
+    private boolean closed;
+    private long flushedEntries;
+
+    private RentalJournal(Path file, SoundGoodDAO dao, long flushIntervalMillis) throws IOException {
+        this.file = file;
+        this.dao = dao;
+        this.metrics = dao.getMetrics();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = new Thread(this::writeJournaledEntries, "rental-journal-writer");
+        this.writer.setDaemon(true);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rental-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.start();
+        this.flusher.scheduleWithFixedDelay(this::flushInBackground, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the specified journal. Changes left in the file by an earlier run are applied to
+     * the database before this method returns.
+     *
+     * @param file                The journal file, which is created if it does not exist.
+     * @param dao                 Used to write journaled changes to the database.
+     * @param flushIntervalMillis How long journaled changes may wait before they are written
+     *                            to the database.
+     * @return The opened journal.
+     * @throws SGDBException If the journal could not be read or replayed.
+     */
+    public static RentalJournal open(Path file, SoundGoodDAO dao, long flushIntervalMillis) throws SGDBException {
+        try {
+            replay(file, dao);
+            return new RentalJournal(file, dao, flushIntervalMillis);
+        } catch (IOException ioe) {
+            throw new SGDBException("Could not open the rental journal " + file + ".", ioe);
+        }
+    }
+
+    /**
+     * Journals the termination of the specified rental. Returns when the termination is
+     * durable in the journal, it is written to the database later.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
+     * @param startDate          The start date of the rental.
+     * @param terminationDate    The day the rental is terminated.
+     * @throws SGDBException If failed to write the journal.
+     */
+    public void terminateRental(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate terminationDate) throws SGDBException {
+        append(JournalEntry.termination(studentId, rentalInstrumentId, startDate, terminationDate));
+    }
+
+    /**
+     * Journals new notes of the specified rental. Returns when the notes are durable in the
+     * journal, they are written to the database later.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
+     * @param startDate          The start date of the rental.
+     * @param notes              The notes about the instrument or delivery.
+     * @throws SGDBException If the notes are too long, or if failed to write the journal.
+     */
+    public void updateNotes(int studentId, int rentalInstrumentId, LocalDate startDate, String notes) throws SGDBException {
+        if (notes != null && notes.length() > MAX_NOTES_LENGTH) {
+            throw new SGDBException("Notes can not be longer than " + MAX_NOTES_LENGTH + " characters.");
+        }
+        append(JournalEntry.notes(studentId, rentalInstrumentId, startDate, notes));
+    }
+
+    /**
+     * Tells whether a termination of a rental of the specified student or instrument is
+     * journaled but not yet written to the database. Until it is, the database still counts
+     * that rental as active.
+     *
+     * @param studentId          The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
+     * @return <code>true</code> if there is such a termination.
+     */
+    public boolean hasUnflushedTermination(int studentId, int rentalInstrumentId) {
+        synchronized (appendLock) {
+            for (JournalEntry entry : unflushed) {
+                if (entry.terminatesRentalOf(studentId, rentalInstrumentId)) {
+                    return true;
+                }
+            }
+            for (JournalEntry entry : toWrite) {
+                if (entry.terminatesRentalOf(studentId, rentalInstrumentId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes all changes that are durable in the journal to the database, without waiting
+     * for the background thread.
+     *
+     * @throws SGDBException If failed to write the changes.
+     */
+    public void flush() throws SGDBException {
+        synchronized (flushLock) {
+            while (flushBatch() == MAX_FLUSH_BATCH) {
+                // More changes are waiting.
+            }
+        }
+    }
+
+    /**
+     * Stops the background threads and writes the journaled changes to the database. Changes
+     * that can not be written stay in the journal and are applied when it is opened again.
+     */
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            closed = true;
+            appendLock.notifyAll();
+        }
+        flusher.shutdown();
+        try {
+            writer.join();
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+            flush();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (SGDBException flushFailed) {
+            metrics.increment("journal.flush_failures");
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Everything written is already forced to disk.
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (appendLock) {
+            return String.format("file=%s journaled=%d unflushed=%d flushed=%d",
+                    file, durableSequence, unflushed.size() + toWrite.size(), flushedEntries);
+        }
+    }
+
+    private void append(JournalEntry entry) throws SGDBException {
+        long started = System.nanoTime();
+        synchronized (appendLock) {
+            if (closed) {
+                throw new SGDBException("The rental journal is closed.");
+            }
+            entry.setSequence(++nextSequence);
+            toWrite.add(entry);
+            appendLock.notifyAll();
+            boolean interrupted = false;
+            while (durableSequence < entry.getSequence() && writeFailure == null) {
+                try {
+                    appendLock.wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durableSequence < entry.getSequence()) {
+                throw new SGDBException("Could not write the rental journal " + file + ".", writeFailure);
+            }
+        }
+        metrics.operation("journal.append").record(started, 1);
+    }
+
+    /**
+     * Runs in the writer thread. Takes all entries appended since the previous write, writes
+     * them with one call and forces them to disk once.
+     */
+    private void writeJournaledEntries() {
+        while (true) {
+            List<JournalEntry> batch;
+            synchronized (appendLock) {
+                while (toWrite.isEmpty() && !closed) {
+                    try {
+                        appendLock.wait();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                if (toWrite.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(toWrite);
+                toWrite.clear();
+            }
+
+            channelLock.lock();
+            try {
+                long started = System.nanoTime();
+                write(channel, batch);
+                metrics.operation("journal.fsync").record(started, batch.size());
+                synchronized (appendLock) {
+                    unflushed.addAll(batch);
+                    durableSequence = batch.get(batch.size() - 1).getSequence();
+                    appendLock.notifyAll();
+                }
+            } catch (IOException ioe) {
+                synchronized (appendLock) {
+                    writeFailure = ioe;
+                    closed = true;
+                    appendLock.notifyAll();
+                }
+                return;
+            } finally {
+                channelLock.unlock();
+            }
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (SGDBException | RuntimeException e) {
+            metrics.increment("journal.flush_failures");
+        }
+    }
+
+    /**
+     * Writes the oldest durable entries to the database, and then truncates or compacts the
+     * journal file if possible.
+     *
+     * @return The number of entries written.
+     */
+    private int flushBatch() throws SGDBException {
+        List<JournalEntry> batch = new ArrayList<>();
+        synchronized (appendLock) {
+            for (JournalEntry entry : unflushed) {
+                if (batch.size() == MAX_FLUSH_BATCH) {
+                    break;
+                }
+                batch.add(entry);
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        dao.applyJournalEntries(batch);
+        metrics.operation("journal.flush").record(started, batch.size());
+
+        channelLock.lock();
+        try {
+            synchronized (appendLock) {
+                for (int i = 0; i < batch.size(); i++) {
+                    unflushed.removeFirst();
+                }
+                flushedEntries += batch.size();
+            }
+            shrinkFile();
+        } catch (IOException ioe) {
+            metrics.increment("journal.truncate_failures");
+        } finally {
+            channelLock.unlock();
+        }
+        return batch.size();
+    }
+
+    /**
+     * Empties the journal file when all written entries are in the database, or rewrites it
+     * with only the entries that are not when it has grown large. Must be called holding
+     * <code>channelLock</code>, so that the writer thread does not write meanwhile.
+     */
+    private void shrinkFile() throws IOException {
+        List<JournalEntry> remaining;
+        synchronized (appendLock) {
+            remaining = new ArrayList<>(unflushed);
+        }
+        if (remaining.isEmpty()) {
+            channel.truncate(0);
+            channel.force(true);
+        } else if (channel.size() > COMPACT_THRESHOLD_BYTES) {
+            Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+            try (FileChannel compactedChannel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(compactedChannel, remaining);
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static void write(FileChannel channel, List<JournalEntry> entries) throws IOException {
+        int size = 0;
+        for (JournalEntry entry : entries) {
+            size += entry.size();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (JournalEntry entry : entries) {
+            entry.writeTo(buffer);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private static void replay(Path file, SoundGoodDAO dao) throws IOException, SGDBException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+        List<JournalEntry> batch = new ArrayList<>();
+        JournalEntry entry;
+        while ((entry = JournalEntry.readFrom(contents)) != null) {
+            batch.add(entry);
+            if (batch.size() == MAX_FLUSH_BATCH) {
+                dao.applyJournalEntries(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            dao.applyJournalEntries(batch);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+}
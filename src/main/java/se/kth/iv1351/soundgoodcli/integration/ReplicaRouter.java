@@ -0,0 +1,177 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the database a read-only statement is sent to. Each read replica has its own
+ * connection pool, and a background thread measures how far each replica is behind the
+ * primary. A read goes to a replica that answered its latest check and is at most the
+ * configured lag behind, chosen round-robin or by the latency of the check. If no replica
+ * qualifies, or the chosen one can not be reached, the read goes to the primary.
+ * <p>
+ * A database that is not in recovery reports no lag, so a second, independent PostgreSQL
+ * instance with the same data can stand in for a replica when testing locally.
+ */
+public final class ReplicaRouter {
+    private static final String MEASURE_LAG =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+            + "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE coalesce(EXTRACT(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END as lag_ms";
+    private static final int CHECKS_BEFORE_STALE = 3;
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReplicaRouting routing;
+    private final long maxLagMillis;
+    private final long checkMillis;
+    private final Metrics metrics;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    ReplicaRouter(ConnectionPool primary, SGDBConfig config, Metrics metrics) {
+        this.primary = primary;
+        this.routing = config.getReplicaRouting();
+        this.maxLagMillis = config.getMaxReplicaLagMs();
+        this.checkMillis = config.getReplicaCheckMs();
+        this.metrics = metrics;
+        for (String url : config.getReplicaUrls()) {
+            replicas.add(new Replica(url, new ConnectionPool(config.forReplica(url), metrics)));
+        }
+        if (replicas.isEmpty()) {
+            checker = null;
+            return;
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "replica-lag-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkReplicas, 0, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks out a connection for a read-only unit of work.
+     *
+     * @return A connection to a replica that is fresh enough, or to the primary.
+     * @throws SGDBException If no connection to the primary became free in time.
+     * @throws SQLException  If a new connection to the primary could not be opened.
+     */
+    PooledConnection checkoutForRead() throws SGDBException, SQLException {
+        Replica replica = choose();
+        if (replica != null) {
+            try {
+                PooledConnection pooled = replica.pool.checkout();
+                metrics.increment("dao.replica_reads");
+                return pooled;
+            } catch (SGDBException | SQLException unreachable) {
+                replica.healthy = false;
+                metrics.increment("dao.replica_failures");
+            }
+        }
+        if (!replicas.isEmpty()) {
+            metrics.increment("dao.replica_fallbacks");
+        }
+        return primary.checkout();
+    }
+
+    /**
+     * Stops the lag checks and closes the idle connections of all replicas.
+     */
+    void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private Replica choose() {
+        long staleBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(CHECKS_BEFORE_STALE * checkMillis);
+        List<Replica> fresh = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            if (replica.healthy && replica.lagMillis <= maxLagMillis && replica.checkedAt - staleBefore > 0) {
+                fresh.add(replica);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return null;
+        }
+        if (routing == ReplicaRouting.LEAST_LATENCY) {
+            Replica fastest = fresh.get(0);
+            for (Replica replica : fresh) {
+                if (replica.latencyNanos < fastest.latencyNanos) {
+                    fastest = replica;
+                }
+            }
+            return fastest;
+        }
+        return fresh.get(Math.floorMod(nextReplica.getAndIncrement(), fresh.size()));
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            long started = System.nanoTime();
+            try {
+                PooledConnection pooled = replica.pool.checkout();
+                try {
+                    PreparedStatement measureLag = pooled.prepare(MEASURE_LAG);
+                    try (ResultSet result = measureLag.executeQuery()) {
+                        result.next();
+                        replica.lagMillis = result.getLong("lag_ms");
+                    }
+                    pooled.rollback();
+                } finally {
+                    replica.pool.release(pooled);
+                }
+                replica.latencyNanos = System.nanoTime() - started;
+                replica.checkedAt = System.nanoTime();
+                replica.healthy = true;
+            } catch (SGDBException | SQLException | RuntimeException failed) {
+                replica.healthy = false;
+            }
+        }
+    }
+
+    /**
+     * @return The state of each replica.
+     */
+    @Override
+    public String toString() {
+        if (replicas.isEmpty()) {
+            return "no replicas";
+        }
+        StringBuilder description = new StringBuilder(routing.toString().toLowerCase()).append(", max lag ")
+                .append(maxLagMillis).append(" ms");
+        for (Replica replica : replicas) {
+            description.append("; ").append(replica.url).append(replica.healthy ? " up" : " down")
+                    .append(", lag ").append(replica.lagMillis).append(" ms")
+                    .append(String.format(", check %.2f ms", replica.latencyNanos / 1_000_000.0));
+        }
+        return description.toString();
+    }
+
+    private static final class Replica {
+        private final String url;
+        private final ConnectionPool pool;
+        private volatile boolean healthy;
+        private volatile long lagMillis = Long.MAX_VALUE;
+        private volatile long latencyNanos = Long.MAX_VALUE;
+        private volatile long checkedAt;
+
+        private Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+/**
+ * How {@link SoundGoodDAO} chooses among the read replicas that are fresh enough to read.
+ * The routing is chosen with the system property <code>soundgood.db.replicas.routing</code>.
+ */
+public enum ReplicaRouting {
+    /**
+     * The replicas are read in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The replica that answered the latest lag check fastest is read.
+     */
+    LEAST_LATENCY
+}
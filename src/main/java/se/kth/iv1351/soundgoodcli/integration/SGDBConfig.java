@@ -0,0 +1,154 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection settings for the sound good database. All values can be overridden with
+ * system properties, for example <code>-Dsoundgood.db.url=jdbc:postgresql://host:5432/soundgood</code>.
+ * <p>
+ * Read replicas are listed, comma separated, in <code>soundgood.db.replicas</code>. They
+ * are reached with the same user and password as the primary and get pools of the same size.
+ */
+public class SGDBConfig {
+    private static final String PREFIX = "soundgood.db.";
+    private static final String DEFAULT_URL = "jdbc:postgresql://localhost:5432/soundgood";
+    private static final String DEFAULT_USER = "postgres";
+    private static final String DEFAULT_PASSWORD = "Nttl32121";
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long DEFAULT_CHECKOUT_TIMEOUT_MS = 5000;
+    private static final long DEFAULT_MAX_REPLICA_LAG_MS = 1000;
+    private static final long DEFAULT_REPLICA_CHECK_MS = 500;
+    private static final long DEFAULT_VALIDATE_IDLE_MS = 1000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int poolSize;
+    private final long checkoutTimeoutMs;
+    private final List<String> replicaUrls;
+    private final ReplicaRouting replicaRouting;
+    private final long maxReplicaLagMs;
+    private final long replicaCheckMs;
+    private final long validateIdleMs;
+
+    /**
+     * Creates a new configuration with the specified settings and no read replicas.
+     *
+     * @param url               The JDBC url of the database.
+     * @param user              The database user.
+     * @param password          The password of the database user.
+     * @param poolSize          The maximum number of open connections.
+     * @param checkoutTimeoutMs How long to wait for a free connection before giving up.
+     */
+    public SGDBConfig(String url, String user, String password, int poolSize, long checkoutTimeoutMs) {
+        this(url, user, password, poolSize, checkoutTimeoutMs, List.of(), ReplicaRouting.ROUND_ROBIN,
+                DEFAULT_MAX_REPLICA_LAG_MS, DEFAULT_REPLICA_CHECK_MS, DEFAULT_VALIDATE_IDLE_MS);
+    }
+
+    /**
+     * Creates a new configuration with the specified settings.
+     *
+     * @param url               The JDBC url of the primary database.
+     * @param user              The database user.
+     * @param password          The password of the database user.
+     * @param poolSize          The maximum number of open connections to each database.
+     * @param checkoutTimeoutMs How long to wait for a free connection before giving up.
+     * @param replicaUrls       The JDBC urls of the read replicas, empty if there are none.
+     * @param replicaRouting    How a replica is chosen for a read.
+     * @param maxReplicaLagMs   How far behind the primary a replica may be and still be read.
+     * @param replicaCheckMs    How often the lag of each replica is measured.
+     * @param validateIdleMs    How long a connection may be idle before it is checked with a
+     *                          round trip to the server when it is checked out.
+     */
+    public SGDBConfig(String url, String user, String password, int poolSize, long checkoutTimeoutMs,
+                      List<String> replicaUrls, ReplicaRouting replicaRouting, long maxReplicaLagMs, long replicaCheckMs,
+                      long validateIdleMs) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.checkoutTimeoutMs = checkoutTimeoutMs;
+        this.replicaUrls = List.copyOf(replicaUrls);
+        this.replicaRouting = replicaRouting;
+        this.maxReplicaLagMs = maxReplicaLagMs;
+        this.replicaCheckMs = replicaCheckMs;
+        this.validateIdleMs = validateIdleMs;
+    }
+
+    /**
+     * @return A configuration read from system properties, using the defaults for
+     *         properties that are not set.
+     */
+    public static SGDBConfig fromSystemProperties() {
+        return new SGDBConfig(
+                System.getProperty(PREFIX + "url", DEFAULT_URL),
+                System.getProperty(PREFIX + "user", DEFAULT_USER),
+                System.getProperty(PREFIX + "password", DEFAULT_PASSWORD),
+                Integer.getInteger(PREFIX + "pool.size", DEFAULT_POOL_SIZE),
+                Long.getLong(PREFIX + "pool.timeoutMs", DEFAULT_CHECKOUT_TIMEOUT_MS),
+                splitUrls(System.getProperty(PREFIX + "replicas", "")),
+                ReplicaRouting.valueOf(System.getProperty(PREFIX + "replicas.routing", "round_robin").replace('-', '_').toUpperCase()),
+                Long.getLong(PREFIX + "replicas.maxLagMs", DEFAULT_MAX_REPLICA_LAG_MS),
+                Long.getLong(PREFIX + "replicas.checkMs", DEFAULT_REPLICA_CHECK_MS),
+                Long.getLong(PREFIX + "pool.validateIdleMs", DEFAULT_VALIDATE_IDLE_MS));
+    }
+
+    private static List<String> splitUrls(String urls) {
+        List<String> split = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.isBlank()) {
+                split.add(url.trim());
+            }
+        }
+        return split;
+    }
+
+    /**
+     * @return These settings for the database with the specified url, without read replicas.
+     */
+    SGDBConfig forReplica(String replicaUrl) {
+        return new SGDBConfig(replicaUrl, user, password, poolSize, checkoutTimeoutMs, List.of(), replicaRouting,
+                maxReplicaLagMs, replicaCheckMs, validateIdleMs);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getCheckoutTimeoutMs() {
+        return checkoutTimeoutMs;
+    }
+
+    public List<String> getReplicaUrls() {
+        return replicaUrls;
+    }
+
+    public ReplicaRouting getReplicaRouting() {
+        return replicaRouting;
+    }
+
+    public long getMaxReplicaLagMs() {
+        return maxReplicaLagMs;
+    }
+
+    public long getReplicaCheckMs() {
+        return replicaCheckMs;
+    }
+
+    public long getValidateIdleMs() {
+        return validateIdleMs;
+    }
+}
@@ -0,0 +1,19 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+/**
+ * Thrown when a transaction is rolled back because it conflicted with a concurrent
+ * transaction, either by a serialization failure or by a deadlock. Nothing was changed, and
+ * the same unit of work may succeed if it is performed again.
+ */
+public class SGDBConflictException extends SGDBException {
+
+    /**
+     * Create a new instance thrown because of the specified reason and exception.
+     *
+     * @param reason    Why the exception was thrown.
+     * @param rootCause The exception that caused this exception to be thrown.
+     */
+    public SGDBConflictException(String reason, Throwable rootCause) {
+        super(reason, rootCause);
+    }
+}
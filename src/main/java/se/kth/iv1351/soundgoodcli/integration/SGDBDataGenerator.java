@@ -0,0 +1,550 @@
+package se.kth.iv1351.soundgoodcli.integration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Fills every table of the sound good database with synthetic data, using
+ * <code>COPY</code> to stream the rows. The amount of data is proportional to a scale
+ * factor, at scale 1 there are 10M rentals and 10M lessons. Two runs with the same scale,
+ * seed and reference date produce identical data.
+ * <p>
+ * All foreign keys are satisfied. The rentals of each rental instrument never overlap,
+ * and no student has more than two rentals that are active on the reference date. Every
+ * row is derived from a random generator seeded with the row's table and number, so a
+ * table can be written in its own pass without remembering the rows of other tables.
+ */
+public class SGDBDataGenerator {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String[][] INSTRUMENTS = {
+            {"Piano", "Keyboard"}, {"Keyboard", "Keyboard"}, {"Guitar", "Strings"}, {"Ukulele", "Strings"},
+            {"Violin", "Strings"}, {"Drums", "Percussion"}, {"Saxophone", "Woodwind"}, {"Flute", "Woodwind"},
+            {"Cello", "Strings"}, {"Clarinet", "Woodwind"}, {"Trumpet", "Brass"}, {"Harp", "Strings"}};
+    private static final String[] BRANDS = {"Yamaha", "Fender", "Etude", "Luna", "Arvada", "Ludwig", "Knilling", "Epiphone"};
+    private static final String[] CONDITIONS = {"New condition", "Almost new condition", "Good condition"};
+    private static final String[] FIRST_NAMES = {"Elijah", "Travis", "Idona", "Desirae", "Indira", "Faith", "Jamalia",
+            "Dora", "Lesley", "Roth", "Alma", "Hugo", "Nora", "Ivar", "Selma", "Otto", "Maja", "Leo"};
+    private static final String[] LAST_NAMES = {"Herman", "Rice", "Baxter", "Sexton", "Watson", "Banks", "Bright",
+            "Dean", "Mclaughlin", "Horn", "Lind", "Berg", "Holm", "Ek", "Nyberg", "Falk"};
+    private static final String[] CITIES = {"Stockholm", "Uppsala", "Solna", "Huddinge", "Nacka", "Lidingö"};
+    private static final String[] GENRES = {"Jazz", "Rock", "Classical", "Pop", "Folk", "Blues", "Gospel"};
+    private static final String[] SKILL_LEVELS = {"beginner", "intermediate", "advanced"};
+    private static final String ALL_SKILL_LEVELS = "all skill levels";
+    private static final String INDIVIDUAL_LESSON = "individual lesson";
+    private static final String GROUP_LESSON = "group lesson";
+    private static final String ENSEMBLE = "ensemble";
+    private static final Object[][] PRICES = {
+            {GROUP_LESSON, "beginner", 150, 120, 30}, {GROUP_LESSON, "intermediate", 200, 160, 40},
+            {GROUP_LESSON, "advanced", 250, 200, 50}, {INDIVIDUAL_LESSON, "beginner", 200, 160, 40},
+            {INDIVIDUAL_LESSON, "intermediate", 250, 200, 50}, {INDIVIDUAL_LESSON, "advanced", 300, 240, 60},
+            {ENSEMBLE, ALL_SKILL_LEVELS, 100, 300, 20}};
+
+    private static final long STUDENTS_AT_SCALE_1 = 100_000;
+    private static final long PARENTS_AT_SCALE_1 = 30_000;
+    private static final long INSTRUCTORS_AT_SCALE_1 = 1_000;
+    private static final long RENTAL_INSTRUMENTS_AT_SCALE_1 = 250_000;
+    private static final long RENTALS_AT_SCALE_1 = 10_000_000;
+    private static final long LESSONS_AT_SCALE_1 = 10_000_000;
+    private static final int LESSON_HISTORY_YEARS = 10;
+    private static final int LESSON_FUTURE_DAYS = 90;
+    private static final int MAX_ACTIVE_RENTALS_PER_STUDENT = 2;
+
+    private static final long PERSON_STREAM = 1;
+    private static final long STUDENT_STREAM = 2;
+    private static final long INSTRUCTOR_STREAM = 3;
+    private static final long RENTAL_INSTRUMENT_STREAM = 4;
+    private static final long RENTAL_STREAM = 5;
+    private static final long WORK_TIME_STREAM = 6;
+    private static final long LESSON_STREAM = 7;
+
+    private final SGDBConfig config;
+    private final long seed;
+    private final LocalDate referenceDate;
+    private final int nrOfInstructors;
+    private final int nrOfParents;
+    private final int nrOfStudents;
+    private final int nrOfRentalInstruments;
+    private final long nrOfRentals;
+    private final long nrOfLessons;
+    private final Map<String, Object[]> pricesByLesson = new HashMap<>();
+    private int[] approvedStudents;
+
+    /**
+     * Creates a new generator.
+     *
+     * @param config        The database to fill.
+     * @param scale         The amount of data, 1 gives 10M rentals and 10M lessons.
+     * @param seed          The seed of all random choices.
+     * @param referenceDate The date regarded as today, rentals active on this date follow
+     *                      the rental rules and lessons are generated up to 90 days after it.
+     */
+    public SGDBDataGenerator(SGDBConfig config, double scale, long seed, LocalDate referenceDate) {
+        this.config = config;
+        this.seed = seed;
+        this.referenceDate = referenceDate;
+        this.nrOfInstructors = (int) scaled(INSTRUCTORS_AT_SCALE_1, scale);
+        this.nrOfParents = (int) scaled(PARENTS_AT_SCALE_1, scale);
+        this.nrOfStudents = (int) scaled(STUDENTS_AT_SCALE_1, scale);
+        this.nrOfRentalInstruments = (int) scaled(RENTAL_INSTRUMENTS_AT_SCALE_1, scale);
+        this.nrOfRentals = scaled(RENTALS_AT_SCALE_1, scale);
+        this.nrOfLessons = scaled(LESSONS_AT_SCALE_1, scale);
+        for (Object[] price : PRICES) {
+            pricesByLesson.put(price[0] + "/" + price[1], price);
+        }
+    }
+
+    /**
+     * Removes all existing rows and fills all tables with new data.
+     *
+     * @return The number of generated rows per table.
+     * @throws SGDBException If the data could not be stored.
+     */
+    public Map<String, Long> generate() throws SGDBException {
+        Map<String, Long> rowsPerTable = new LinkedHashMap<>();
+        try (Connection connection = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword())) {
+            connection.setAutoCommit(false);
+            truncateAll(connection);
+            createYearPartitions(connection);
+            rowsPerTable.put("instrument", generateInstruments(connection));
+            rowsPerTable.put("price", generatePrices(connection));
+            rowsPerTable.put("person", generatePersons(connection));
+            rowsPerTable.put("phone", generatePhones(connection));
+            rowsPerTable.put("email", generateEmails(connection));
+            rowsPerTable.put("adress", generateAdresses(connection));
+            rowsPerTable.put("instructor", generateInstructors(connection));
+            rowsPerTable.put("instructor_instrument", generateInstructorInstruments(connection));
+            rowsPerTable.put("student", generateStudents(connection));
+            rowsPerTable.put("parent", generateParents(connection));
+            rowsPerTable.put("rental_instrument", generateRentalInstruments(connection));
+            rowsPerTable.put("rental", generateRentals(connection));
+            rowsPerTable.put("work_time", generateWorkTimes(connection));
+            rowsPerTable.put("lesson", generateLessons(connection));
+            rowsPerTable.put("individual_lesson", generateLessonDetails(connection, INDIVIDUAL_LESSON));
+            rowsPerTable.put("group_lesson", generateLessonDetails(connection, GROUP_LESSON));
+            rowsPerTable.put("ensamble_lesson", generateLessonDetails(connection, ENSEMBLE));
+            rowsPerTable.put("job", generateJobs(connection));
+            rowsPerTable.put("booking", generateBookings(connection));
+            resetSequences(connection);
+            connection.commit();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE");
+            }
+        } catch (SQLException sqle) {
+            throw new SGDBException("Could not generate data.", sqle);
+        }
+        return rowsPerTable;
+    }
+
+    private void truncateAll(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE instrument, person, phone, price, rental_instrument, student, adress, email, "
+                    + "instructor, instructor_instrument, lesson, parent, rental, work_time, booking, ensamble_lesson, "
+                    + "group_lesson, individual_lesson, job RESTART IDENTITY CASCADE");
+        }
+    }
+
+    /**
+     * Creates the yearly partitions the generated rentals and lessons go into, if migration
+     * V005 has partitioned the tables. Each instrument's rentals follow each other backwards
+     * from around the reference date, each at most 6 months and 21 days long with the gap
+     * before it, which bounds how far back the rentals go.
+     */
+    private void createYearPartitions(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet result = statement.executeQuery("SELECT to_regproc('create_year_partition') IS NOT NULL")) {
+                result.next();
+                if (!result.getBoolean(1)) {
+                    return;
+                }
+            }
+            long rentalsPerInstrument = (nrOfRentals + nrOfRentalInstruments - 1) / Math.max(nrOfRentalInstruments, 1);
+            int lastYear = referenceDate.plusDays(Math.max(150, LESSON_FUTURE_DAYS)).getYear();
+            int firstRentalYear = referenceDate.minusMonths(rentalsPerInstrument * 7 + 1).getYear();
+            int firstLessonYear = firstLessonDay().getYear();
+            statement.execute("SELECT create_year_partition('rental', y) FROM generate_series(" + firstRentalYear + ", " + lastYear + ") y");
+            statement.execute("SELECT create_year_partition('lesson', y) FROM generate_series(" + firstLessonYear + ", " + lastYear + ") y");
+        }
+    }
+
+    private long generateInstruments(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "instrument", "id", "name", "cathegory")) {
+            for (int i = 0; i < INSTRUMENTS.length; i++) {
+                copy.row(i + 1, INSTRUMENTS[i][0], INSTRUMENTS[i][1]);
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generatePrices(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "price", "lesson_type", "skill_level", "price", "salary", "discount")) {
+            for (Object[] price : PRICES) {
+                copy.row(price);
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generatePersons(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "person", "id", "person_number", "user_role", "first_name", "last_name")) {
+            for (int id = 1; id <= nrOfPersons(); id++) {
+                SplittableRandom random = random(PERSON_STREAM, id);
+                LocalDate birth = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(365 * 60));
+                copy.row(id, birth.format(DateTimeFormatter.BASIC_ISO_DATE) + "-" + id, roleOf(id),
+                        pick(random, FIRST_NAMES), pick(random, LAST_NAMES));
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generatePhones(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "phone", "person_id", "phone_number")) {
+            for (int id = 1; id <= nrOfPersons(); id++) {
+                copy.row(id, String.format("07%d %03d %02d %02d", id % 10, (id / 10) % 1000, (id / 10_000) % 100, (id / 1_000_000) % 100));
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateEmails(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "email", "person_id", "email")) {
+            for (int id = 1; id <= nrOfPersons(); id++) {
+                copy.row(id, "person" + id + "@soundgood.example");
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateAdresses(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "adress", "person_id", "street", "zip", "city")) {
+            for (int id = 1; id <= nrOfPersons(); id++) {
+                SplittableRandom random = random(PERSON_STREAM, -id);
+                copy.row(id, "Musikvägen " + (1 + random.nextInt(200)), String.valueOf(10_000 + random.nextInt(90_000)),
+                        pick(random, CITIES));
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateInstructors(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "instructor", "instructor_id", "image", "description", "ensemble_instructor")) {
+            for (int id = 1; id <= nrOfInstructors; id++) {
+                SplittableRandom random = random(INSTRUCTOR_STREAM, id);
+                copy.row(id, null, (1 + random.nextInt(30)) + " years of experience.", random.nextInt(5) == 0);
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateInstructorInstruments(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "instructor_instrument", "instructor_id", "instrument_id")) {
+            for (int id = 1; id <= nrOfInstructors; id++) {
+                SplittableRandom random = random(INSTRUCTOR_STREAM, -id);
+                int first = random.nextInt(INSTRUMENTS.length);
+                int count = 1 + random.nextInt(3);
+                for (int i = 0; i < count; i++) {
+                    copy.row(id, (first + i) % INSTRUMENTS.length + 1);
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateStudents(Connection connection) throws SQLException {
+        int[] approved = new int[nrOfStudents];
+        int nrOfApproved = 0;
+        try (CopyLoader copy = new CopyLoader(connection, "student", "student_id", "skill_level", "approved", "instrument_id")) {
+            for (int i = 0; i < nrOfStudents; i++) {
+                int id = firstStudentId() + i;
+                SplittableRandom random = random(STUDENT_STREAM, id);
+                boolean isApproved = random.nextInt(10) != 0;
+                if (isApproved) {
+                    approved[nrOfApproved++] = id;
+                }
+                copy.row(id, pick(random, SKILL_LEVELS), isApproved, 1 + random.nextInt(INSTRUMENTS.length));
+            }
+        }
+        if (nrOfApproved == 0) {
+            throw new SQLException("The scale is too small to generate an approved student.");
+        }
+        approvedStudents = Arrays.copyOf(approved, nrOfApproved);
+        return nrOfStudents;
+    }
+
+    private long generateParents(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "parent", "person_id", "student_id")) {
+            for (int i = 0; i < nrOfStudents; i++) {
+                int studentId = firstStudentId() + i;
+                SplittableRandom random = random(STUDENT_STREAM, -studentId);
+                if (random.nextBoolean()) {
+                    copy.row(nrOfInstructors + 1 + random.nextInt(nrOfParents), studentId);
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateRentalInstruments(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "rental_instrument", "id", "model", "notes", "monthly_price", "instrument_id")) {
+            for (int id = 1; id <= nrOfRentalInstruments; id++) {
+                SplittableRandom random = random(RENTAL_INSTRUMENT_STREAM, id);
+                int instrument = random.nextInt(INSTRUMENTS.length);
+                copy.row(id, pick(random, BRANDS) + " " + INSTRUMENTS[instrument][0] + " " + (100 + random.nextInt(900)),
+                        pick(random, CONDITIONS), monthlyPrice(id), instrument + 1);
+            }
+            return copy.getRows();
+        }
+    }
+
+    /**
+     * Generates the rentals of each instrument backwards in time from around the reference
+     * date. Each rental ends before the next one starts. The latest rental of an instrument
+     * is active on the reference date as long as there are approved students with fewer
+     * than two active rentals.
+     */
+    private long generateRentals(Connection connection) throws SQLException {
+        long activeSlots = (long) approvedStudents.length * MAX_ACTIVE_RENTALS_PER_STUDENT;
+        long usedActiveSlots = 0;
+        try (CopyLoader copy = new CopyLoader(connection, "rental", "rental_instrument_id", "student_id", "start_date",
+                "end_date", "delivery", "price", "notes", "terminated", "termination_date")) {
+            for (int instrumentId = 1; instrumentId <= nrOfRentalInstruments; instrumentId++) {
+                SplittableRandom random = random(RENTAL_STREAM, instrumentId);
+                long rentals = nrOfRentals / nrOfRentalInstruments + (instrumentId <= nrOfRentals % nrOfRentalInstruments ? 1 : 0);
+                LocalDate end = referenceDate.plusDays(random.nextInt(150));
+                for (long n = 0; n < rentals; n++) {
+                    int months = 1 + random.nextInt(6);
+                    boolean active = !end.isBefore(referenceDate);
+                    if (active && usedActiveSlots >= activeSlots) {
+                        end = referenceDate.minusDays(1 + random.nextInt(30));
+                        active = false;
+                    }
+                    LocalDate start = end.minusMonths(months);
+                    int studentId;
+                    if (active) {
+                        studentId = approvedStudents[(int) (usedActiveSlots++ % approvedStudents.length)];
+                    } else {
+                        studentId = approvedStudents[random.nextInt(approvedStudents.length)];
+                    }
+                    boolean terminated = random.nextInt(20) == 0;
+                    LocalDate terminationDate = terminated ? start.plusDays(random.nextInt((int) (end.toEpochDay() - start.toEpochDay()) + 1)) : null;
+                    copy.row(instrumentId, studentId, start, end,
+                            start.atTime(10 + random.nextInt(7), 0).format(TIMESTAMP),
+                            months * monthlyPrice(instrumentId), terminated ? "Returned early" : pick(random, CONDITIONS),
+                            terminated, terminationDate);
+                    end = start.minusDays(1 + random.nextInt(20));
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateWorkTimes(Connection connection) throws SQLException {
+        LocalDate last = referenceDate.plusDays(LESSON_FUTURE_DAYS);
+        try (CopyLoader copy = new CopyLoader(connection, "work_time", "instructor_id", "title", "start_timestamp", "end_timestamp")) {
+            for (int id = 1; id <= nrOfInstructors; id++) {
+                SplittableRandom random = random(WORK_TIME_STREAM, id);
+                for (LocalDate day = firstLessonDay(); !day.isAfter(last); day = day.plusDays(1)) {
+                    if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY
+                            || random.nextInt(5) < 2) {
+                        continue;
+                    }
+                    copy.row(id, "Day shift", day.atTime(9, 0).format(TIMESTAMP), day.atTime(18, 0).format(TIMESTAMP));
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateLessons(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "lesson", "id", "start_timestamp", "end_timestamp", "room", "skill_level", "lesson_type")) {
+            for (long id = 1; id <= nrOfLessons; id++) {
+                Lesson lesson = new Lesson(id);
+                copy.row(id, lesson.start.format(TIMESTAMP), lesson.end.format(TIMESTAMP), lesson.room, lesson.skillLevel, lesson.type);
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateLessonDetails(Connection connection, String type) throws SQLException {
+        CopyLoader copy;
+        if (type.equals(INDIVIDUAL_LESSON)) {
+            copy = new CopyLoader(connection, "individual_lesson", "lesson_id", "instrument_id");
+        } else if (type.equals(GROUP_LESSON)) {
+            copy = new CopyLoader(connection, "group_lesson", "lesson_id", "max_cap", "min_cap", "instrument_id");
+        } else {
+            copy = new CopyLoader(connection, "ensamble_lesson", "lesson_id", "max_cap", "min_cap", "genre");
+        }
+        try (copy) {
+            for (long id = 1; id <= nrOfLessons; id++) {
+                Lesson lesson = new Lesson(id);
+                if (!lesson.type.equals(type)) {
+                    continue;
+                }
+                if (type.equals(INDIVIDUAL_LESSON)) {
+                    copy.row(id, lesson.instrumentId);
+                } else if (type.equals(GROUP_LESSON)) {
+                    copy.row(id, lesson.maxCap, lesson.minCap, lesson.instrumentId);
+                } else {
+                    copy.row(id, lesson.maxCap, lesson.minCap, lesson.genre);
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateJobs(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "job", "lesson_id", "instructor_id", "salary")) {
+            for (long id = 1; id <= nrOfLessons; id++) {
+                Lesson lesson = new Lesson(id);
+                copy.row(id, lesson.instructorId, lesson.price()[3]);
+            }
+            return copy.getRows();
+        }
+    }
+
+    private long generateBookings(Connection connection) throws SQLException {
+        try (CopyLoader copy = new CopyLoader(connection, "booking", "lesson_id", "student_id", "price", "discount", "canceled")) {
+            for (long id = 1; id <= nrOfLessons; id++) {
+                Lesson lesson = new Lesson(id);
+                Object[] price = lesson.price();
+                for (int studentId : lesson.students) {
+                    boolean discounted = lesson.random.nextInt(10) == 0;
+                    copy.row(id, studentId, price[2], discounted ? price[4] : 0, lesson.random.nextInt(30) == 0);
+                }
+            }
+            return copy.getRows();
+        }
+    }
+
+    private void resetSequences(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String table : new String[]{"instrument", "person", "rental_instrument", "lesson"}) {
+                statement.execute("SELECT setval(pg_get_serial_sequence('" + table + "', 'id'), "
+                        + "(SELECT coalesce(max(id), 0) + 1 FROM " + table + "), false)");
+            }
+        }
+    }
+
+    /**
+     * One generated lesson. All properties are derived from the lesson id, so the lesson
+     * is the same in every pass.
+     */
+    private final class Lesson {
+        private final SplittableRandom random;
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final String room;
+        private final String type;
+        private final String skillLevel;
+        private final int instrumentId;
+        private final int instructorId;
+        private final int maxCap;
+        private final int minCap;
+        private final String genre;
+        private final int[] students;
+
+        private Lesson(long id) {
+            random = random(LESSON_STREAM, id);
+            long days = referenceDate.plusDays(LESSON_FUTURE_DAYS).toEpochDay() - firstLessonDay().toEpochDay();
+            start = firstLessonDay().plusDays(random.nextLong(days + 1)).atTime(9 + random.nextInt(9), 0);
+            room = "Room " + (1 + random.nextInt(20));
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                type = INDIVIDUAL_LESSON;
+                skillLevel = pick(random, SKILL_LEVELS);
+                end = start.plusMinutes(60);
+                maxCap = 1;
+                minCap = 1;
+                genre = null;
+            } else if (kind < 9) {
+                type = GROUP_LESSON;
+                skillLevel = pick(random, SKILL_LEVELS);
+                end = start.plusMinutes(60);
+                maxCap = 5 + random.nextInt(8);
+                minCap = 2 + random.nextInt(3);
+                genre = null;
+            } else {
+                type = ENSEMBLE;
+                skillLevel = ALL_SKILL_LEVELS;
+                end = start.plusMinutes(90);
+                maxCap = 10 + random.nextInt(11);
+                minCap = 3 + random.nextInt(3);
+                genre = pick(random, GENRES);
+            }
+            instrumentId = 1 + random.nextInt(INSTRUMENTS.length);
+            instructorId = 1 + random.nextInt(nrOfInstructors);
+            int nrOfBookings = Math.min(approvedStudents.length, minCap + random.nextInt(maxCap - minCap + 1));
+            students = distinctStudents(nrOfBookings);
+        }
+
+        private Object[] price() {
+            return pricesByLesson.get(type + "/" + skillLevel);
+        }
+
+        private int[] distinctStudents(int count) {
+            int[] chosen = new int[count];
+            for (int i = 0; i < count; i++) {
+                int candidate;
+                boolean taken;
+                do {
+                    candidate = approvedStudents[random.nextInt(approvedStudents.length)];
+                    taken = false;
+                    for (int j = 0; j < i; j++) {
+                        taken |= chosen[j] == candidate;
+                    }
+                } while (taken);
+                chosen[i] = candidate;
+            }
+            return chosen;
+        }
+    }
+
+    private int nrOfPersons() {
+        return nrOfInstructors + nrOfParents + nrOfStudents;
+    }
+
+    private int firstStudentId() {
+        return nrOfInstructors + nrOfParents + 1;
+    }
+
+    private String roleOf(int personId) {
+        if (personId <= nrOfInstructors) {
+            return "instructor";
+        } else if (personId < firstStudentId()) {
+            return "parent";
+        }
+        return "student";
+    }
+
+    private LocalDate firstLessonDay() {
+        return referenceDate.minusYears(LESSON_HISTORY_YEARS);
+    }
+
+    private int monthlyPrice(int rentalInstrumentId) {
+        return 100 + random(RENTAL_INSTRUMENT_STREAM, -rentalInstrumentId).nextInt(21) * 10;
+    }
+
+    private SplittableRandom random(long stream, long index) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + stream * 0xBF58476D1CE4E5B9L + index);
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static long scaled(long atScale1, double scale) {
+        return Math.max(1, Math.round(atScale1 * scale));
+    }
+}
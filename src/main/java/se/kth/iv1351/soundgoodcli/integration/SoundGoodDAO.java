@@ -23,60 +23,335 @@
 
 package se.kth.iv1351.soundgoodcli.integration;
 
+import se.kth.iv1351.soundgoodcli.metrics.Metrics;
+import se.kth.iv1351.soundgoodcli.model.CatalogInstrument;
+import se.kth.iv1351.soundgoodcli.model.Instructor;
+import se.kth.iv1351.soundgoodcli.model.InstructorLesson;
+import se.kth.iv1351.soundgoodcli.model.InstructorLessonCount;
+import se.kth.iv1351.soundgoodcli.model.LessonPrice;
+import se.kth.iv1351.soundgoodcli.model.LessonSeatCount;
+import se.kth.iv1351.soundgoodcli.model.LessonMonthStatistics;
+import se.kth.iv1351.soundgoodcli.model.Model;
 import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+import se.kth.iv1351.soundgoodcli.model.RentalOutcome;
+import se.kth.iv1351.soundgoodcli.model.RentalPeriod;
+import se.kth.iv1351.soundgoodcli.model.RentalRequest;
+import se.kth.iv1351.soundgoodcli.model.WorkTime;
 
-import java.sql.*;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static java.lang.Integer.parseInt;
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_RENTAL_MONTHS;
 
 /**
  * This data access object (DAO) encapsulates all database calls in the sound good
  * application. No code outside this class shall have any knowledge about the
  * database.
+ * <p>
+ * Connections are taken from a bounded pool. A connection is checked out by the first
+ * call of a unit of work and stays bound to the calling thread until the unit of work
+ * is committed or rolled back, so several threads can run transactions concurrently.
+ * <p>
+ * Listings and reports that neither lock nor write are read from a replica if read
+ * replicas are configured and one of them is fresh enough, see {@link ReplicaRouter}.
+ * Everything else, and any read made in a unit of work that has already started, uses
+ * the primary.
  */
 public class SoundGoodDAO {
-    private Connection connection;
-    private PreparedStatement findAvaliableRentalInstruments;
-    private PreparedStatement findAllAvaliableRentalInstruments;
-    private PreparedStatement findAllAvaliableRentalInstrumentsLockingForUpdate;
-    private PreparedStatement findStudentNrRentalInstrmentsLockingForUpdate;
-    private PreparedStatement findStudentNrRentalInstrments;
-    private PreparedStatement createRental;
-    private PreparedStatement terminateRental;
+    /**
+     * The rentals of the instrument <code>ri</code> overlapping a period, with the parameters
+     * set by {@link #setPeriod(PreparedStatement, int, LocalDate, LocalDate)}. The bounds on
+     * the start date are implied by the overlap, since no rental lasts longer than
+     * {@link Model#MAX_RENTAL_MONTHS}, but unlike the overlap they let the database skip the
+     * partitions of other years.
+     */
+    private static final String OVERLAPPING_RENTAL =
+            "FROM rental r where r.rental_instrument_id = ri.id and r.terminated is not true and r.start_date >= ? and r.start_date <= ? "
+            + "and daterange(r.start_date, r.end_date, '[]') && daterange(?, ?, '[]')";
+    private static final String ACTIVE_RENTAL =
+            "r.terminated is not true and r.end_date >= CURRENT_DATE and r.start_date >= (CURRENT_DATE - interval '" + MAX_RENTAL_MONTHS + " months')::date";
+    private static final String FIND_AVAILABLE_RENTAL_INSTRUMENTS =
+            "SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price, i.image, i.description "
+            + "FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id where i.name = ? and "
+            + "NOT EXISTS (SELECT 1 " + OVERLAPPING_RENTAL + ") "
+            + "order by ri.id";
+    private static final String FIND_ALL_AVAILABLE_RENTAL_INSTRUMENTS =
+            "SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price, i.image, i.description "
+            + "FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id where "
+            + "NOT EXISTS (SELECT 1 " + OVERLAPPING_RENTAL + ") "
+            + "order by ri.id";
+    private static final String COUNT_STUDENT_RENTALS =
+            "SELECT (SELECT count(*) FROM rental r where r.student_id = s.student_id and " + ACTIVE_RENTAL + ") as active_rentals FROM student s where s.student_id = ? and s.approved = true";
+    /**
+     * Locks a student before its rentals are counted. The count must be a statement of its
+     * own: a statement that waited for the lock still reads from the snapshot it started
+     * with, and would miss the rental committed by the transaction it waited for.
+     */
+    private static final String LOCK_STUDENT =
+            "SELECT 1 FROM student s where s.student_id = ? and s.approved = true FOR UPDATE OF s";
+    private static final String FIND_RENTAL_INSTRUMENT_FOR_PERIOD =
+            "SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price, "
+            + "EXISTS (SELECT 1 " + OVERLAPPING_RENTAL + ") as booked "
+            + "FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id where ri.id = ?";
+    /**
+     * Locks a rental instrument before its rentals are probed, in a statement of its own for
+     * the same reason as {@link #LOCK_STUDENT}.
+     */
+    private static final String LOCK_RENTAL_INSTRUMENT =
+            "SELECT 1 FROM rental_instrument ri where ri.id = ? FOR UPDATE OF ri";
+    private static final String START_SERIALIZABLE_TRANSACTION = "SET TRANSACTION ISOLATION LEVEL SERIALIZABLE";
+    private static final String CREATE_RENTAL =
+            "INSERT INTO rental (student_id, rental_instrument_id, start_date, end_date, delivery, price, notes, terminated) VALUES (?, ?, ?, ?, ?::timestamp, ?, ?, false)";
+    private static final String CREATE_RENTAL_IF_ALLOWED = "SELECT create_rental(?, ?, ?, ?, ?::timestamp, ?, ?) as outcome";
+    private static final String TERMINATE_RENTAL =
+            "UPDATE rental SET terminated = true, termination_date = CURRENT_DATE where rental_instrument_id = ? and student_id = ? and start_date = ?";
+    private static final String TERMINATE_RENTAL_ON_DATE =
+            "UPDATE rental SET terminated = true, termination_date = ? where rental_instrument_id = ? and student_id = ? and start_date = ?";
+    private static final String UPDATE_RENTAL_NOTES =
+            "UPDATE rental SET notes = ? where rental_instrument_id = ? and student_id = ? and start_date = ?";
+    private static final String FIND_RENTAL_INSTRUMENT_CATALOG =
+            "SELECT ri.id, i.name, ri.model, i.cathegory, ri.monthly_price FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id order by ri.id";
+    private static final String FIND_LESSON_PRICES =
+            "SELECT lesson_type, skill_level, price, discount, salary FROM price";
+    private static final String FIND_ACTIVE_RENTALS =
+            "SELECT rental_instrument_id, student_id, start_date, end_date FROM rental where terminated is not true and end_date >= ? and start_date >= ?";
+    private static final String LOCK_STUDENTS =
+            "SELECT s.student_id FROM student s where s.student_id = ANY (?) and s.approved = true order by s.student_id FOR UPDATE OF s";
+    private static final String COUNT_RENTALS_OF_STUDENTS =
+            "SELECT r.student_id, count(*) as active_rentals FROM rental r where r.student_id = ANY (?) and " + ACTIVE_RENTAL + " group by r.student_id";
+    private static final String LOCK_RENTAL_INSTRUMENTS =
+            "SELECT ri.id, i.name, ri.model, i.cathegory, ri.monthly_price FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id where ri.id = ANY (?) order by ri.id FOR UPDATE OF ri";
+    private static final String FIND_ACTIVE_RENTALS_OF_INSTRUMENTS =
+            "SELECT rental_instrument_id, student_id, start_date, end_date FROM rental "
+            + "where rental_instrument_id = ANY (?) and terminated is not true and end_date >= ? and start_date >= ?";
+    private static final String FIND_LESSONS_PER_MONTH =
+            "SELECT month, SUM(case when lesson_type = 'individual lesson' then lessons else 0 end) as individual_lessons, "
+            + "SUM(case when lesson_type = 'group lesson' then lessons else 0 end) as group_lessons, "
+            + "SUM(case when lesson_type = 'ensemble' then lessons else 0 end) as ensembles "
+            + "FROM lesson_month_stats where month >= ? and month < ? group by month order by month";
+    private static final String FIND_INSTRUCTORS_WITH_LESSONS_IN_MONTH =
+            "SELECT s.instructor_id, concat(p.first_name, ' ', p.last_name) as full_name, sum(s.lessons) as lessons "
+            + "FROM instructor_month_stats s JOIN person p on p.id = s.instructor_id "
+            + "where s.month = ? group by s.instructor_id, p.first_name, p.last_name "
+            + "having sum(s.lessons) >= ? order by lessons desc, s.instructor_id";
+    private static final String CREATE_LESSON_SEATS =
+            "INSERT INTO lesson_seats (lesson_id, capacity, booked) "
+            + "SELECT l.id, coalesce(el.max_cap, gl.max_cap, 1), (SELECT count(*) FROM booking b where b.lesson_id = l.id and b.canceled is not true) "
+            + "FROM lesson l LEFT JOIN ensamble_lesson el on el.lesson_id = l.id LEFT JOIN group_lesson gl on gl.lesson_id = l.id "
+            + "where l.id = ? ON CONFLICT (lesson_id) DO NOTHING";
+    private static final String FIND_LESSON_SEATS =
+            "SELECT lesson_id, capacity, booked FROM lesson_seats where lesson_id = ?";
+    private static final String CREATE_BOOKING =
+            "INSERT INTO booking (lesson_id, student_id, price, discount, canceled) "
+            + "SELECT l.id, ?, p.price, p.discount, false FROM lesson l JOIN price p on p.lesson_type = l.lesson_type and p.skill_level = l.skill_level where l.id = ? "
+            + "ON CONFLICT (lesson_id, student_id) DO UPDATE SET canceled = false, price = EXCLUDED.price, discount = EXCLUDED.discount where booking.canceled is true";
+    private static final String TAKE_LESSON_SEAT =
+            "UPDATE lesson_seats SET booked = booked + 1 where lesson_id = ? and booked < capacity";
+    private static final String CANCEL_BOOKING =
+            "UPDATE booking SET canceled = true where lesson_id = ? and student_id = ? and canceled is not true";
+    private static final String RELEASE_LESSON_SEAT =
+            "UPDATE lesson_seats SET booked = booked - 1 where lesson_id = ? and booked > 0";
+    private static final String FIND_INSTRUCTORS =
+            "SELECT i.instructor_id, concat(p.first_name, ' ', p.last_name) as full_name, ins.name as instrument "
+            + "FROM instructor i JOIN person p on p.id = i.instructor_id "
+            + "LEFT JOIN instructor_instrument ii on ii.instructor_id = i.instructor_id LEFT JOIN instrument ins on ins.id = ii.instrument_id "
+            + "order by i.instructor_id";
+    private static final String FIND_WORK_TIMES =
+            "SELECT instructor_id, start_timestamp, end_timestamp FROM work_time where end_timestamp > ?";
+    private static final String FIND_INSTRUCTOR_LESSONS =
+            "SELECT j.instructor_id, l.id, l.start_timestamp, l.end_timestamp "
+            + "FROM job j JOIN lesson l on l.id = j.lesson_id where l.start_timestamp >= ?";
+    private static final String FIND_LESSON_TIME =
+            "SELECT id, start_timestamp, end_timestamp FROM lesson where id = ?";
+    private static final String CREATE_WORK_TIME =
+            "INSERT INTO work_time (instructor_id, title, start_timestamp, end_timestamp) VALUES (?, ?, ?, ?)";
+    private static final String CREATE_JOB =
+            "INSERT INTO job (lesson_id, instructor_id, salary) "
+            + "SELECT l.id, ?, p.salary FROM lesson l JOIN price p on p.lesson_type = l.lesson_type and p.skill_level = l.skill_level where l.id = ?";
+    private static final String DELETE_JOB =
+            "DELETE FROM job where lesson_id = ? and instructor_id = ?";
+    private static final String ENSURE_TIME_PARTITIONS = "SELECT ensure_time_partitions(?) as created";
+    private static final String CREATE_RENTAL_PARTITION = "SELECT create_year_partition('rental', ?) as created";
+    private static final String ARCHIVE_TIME_PARTITIONS = "SELECT archive_time_partitions(?) as archived";
+    private static final String FIND_TIME_PARTITIONS =
+            "SELECT c.relname as partition, pg_get_expr(c.relpartbound, c.oid) as bounds "
+            + "FROM pg_inherits i JOIN pg_class c on c.oid = i.inhrelid JOIN pg_class p on p.oid = i.inhparent "
+            + "where p.relname in ('rental', 'lesson') and p.relnamespace = 'public'::regnamespace order by p.relname, c.relname";
+    private static final String EXPORT_RENTALS =
+            "SELECT student_id, rental_instrument_id, start_date, end_date, delivery, price, notes, terminated, termination_date "
+            + "FROM rental where start_date < ? and start_date >= ? and end_date >= ?";
+    private static final String EXPORT_BOOKINGS =
+            "SELECT b.lesson_id, l.start_timestamp, l.end_timestamp, l.lesson_type, l.skill_level, b.student_id, b.price, b.discount, b.canceled "
+            + "FROM booking b JOIN lesson l on l.id = b.lesson_id where l.start_timestamp >= ? and l.start_timestamp < ?";
+
+    private static final int LISTING_FETCH_SIZE = 500;
+    private static final String EXCLUSION_VIOLATION = "23P01";
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private final ConnectionPool pool;
+    private final ReplicaRouter replicas;
+    private final Metrics metrics;
+    private final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<>();
+    private final Set<Integer> rentalPartitionYears = ConcurrentHashMap.newKeySet();
 
     /**
-     * Constructs a new DAO object connected to the sound good database.
+     * Receives the rentals read by {@link #findActiveRentals(LocalDate, RentalPeriodConsumer)}.
+     */
+    @FunctionalInterface
+    public interface RentalPeriodConsumer {
+        /**
+         * @param rentalInstrumentId The id of the rented instrument.
+         * @param studentId          The id of the student renting the instrument.
+         * @param startDate          The first day of the rental.
+         * @param endDate            The last day of the rental.
+         */
+        void accept(int rentalInstrumentId, int studentId, LocalDate startDate, LocalDate endDate);
+    }
+
+    /**
+     * Constructs a new DAO object connected to the sound good database, using the
+     * settings given as system properties.
      */
     public SoundGoodDAO() throws SGDBException {
+        this(SGDBConfig.fromSystemProperties());
+    }
+
+    /**
+     * Constructs a new DAO object connected to the specified sound good database.
+     *
+     * @param config The connection settings.
+     */
+    public SoundGoodDAO(SGDBConfig config) throws SGDBException {
+        this(config, new Metrics());
+    }
+
+    /**
+     * Constructs a new DAO object connected to the specified sound good database, recording
+     * the latency and row count of each statement in the specified metrics.
+     *
+     * @param config  The connection settings.
+     * @param metrics Where statement, commit and rollback statistics are recorded.
+     */
+    public SoundGoodDAO(SGDBConfig config, Metrics metrics) throws SGDBException {
+        this.metrics = metrics;
+        pool = new ConnectionPool(config, metrics);
+        replicas = new ReplicaRouter(pool, config, metrics);
         try {
-            connectToSGDB();
-            prepareStatements();
-        } catch (ClassNotFoundException | SQLException exception) {
+            connection();
+            commit();
+        } catch (SQLException exception) {
             throw new SGDBException("Could not connect to datasource.", exception);
         }
     }
 
     /**
-     * Retrieves the number of active rental instruments of the student specified by id.
+     * Starts a serializable transaction on the calling thread. Must be called before any
+     * other statement of the unit of work. Reads in the transaction take no locks, instead a
+     * concurrent transaction that would make the result differ from some serial order makes
+     * a later statement or the commit fail with {@link SGDBConflictException}.
+     * @throws SGDBException If failed to start the transaction.
+     */
+    public void startSerializableTransaction() throws SGDBException {
+        try {
+            statement(START_SERIALIZABLE_TRANSACTION).execute();
+        } catch (SQLException sqle) {
+            handleException("Could not start a serializable transaction.", sqle);
+        }
+    }
+
+    /**
+     * Starts a unit of work on the primary on the calling thread, so that the reads that
+     * follow see every committed change even if they would otherwise go to a replica. The
+     * unit of work ends as usual when a read commits.
+     * @throws SGDBException If failed to connect to the primary.
+     */
+    public void startReadOnPrimary() throws SGDBException {
+        try {
+            connection();
+        } catch (SQLException sqle) {
+            handleException("Could not connect to the primary database.", sqle);
+        }
+    }
+
+    /**
+     * Retrieves the number of active rental instruments of the student specified by id. Only
+     * the row of that student is locked for update, the transaction is left open so that a
+     * rental can be created for the student before another transaction counts the rentals.
+     * The rentals are counted after the lock is held, so rentals committed by the
+     * transaction that held the lock before are counted.
      * @param studentId The id of student.
      * @return The nr of active rentals.
-     * @throws SGDBException If failed to retrieve active rentals.
+     * @throws SGDBException If failed to retrieve active rentals, or if there is no approved
+     *                       student with the specified id.
      */
-    public int getStudentInstrumentCount(String studentId) throws SGDBException {
-        String failureMsg = "Could not get nr of active instrument rentals for student with id: " + studentId;
-        ResultSet result = null;
+    public int getStudentInstrumentCount(int studentId) throws SGDBException {
+        String failureMsg = "Could not lock student with id: " + studentId;
         try {
-            findStudentNrRentalInstrmentsLockingForUpdate.setInt(1, parseInt(studentId));
-            result = findStudentNrRentalInstrmentsLockingForUpdate.executeQuery();
+            if (!lockRow(LOCK_STUDENT, "dao.lock_student", studentId)) {
+                handleException(failureMsg, new Exception("No approved student with id " + studentId + " found."));
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return countStudentRentals(COUNT_STUDENT_RENTALS, "dao.count_student_rentals", studentId);
+    }
 
-            if (result.next()) {
-                return result.getInt("sum");
-            } else {
-                handleException(failureMsg, new Exception("No student with id " + studentId + " found."));
+    private boolean lockRow(String sql, String operation, int id) throws SGDBException, SQLException {
+        PreparedStatement lock = statement(sql);
+        lock.setInt(1, id);
+        long started = System.nanoTime();
+        try (ResultSet result = lock.executeQuery()) {
+            boolean found = result.next();
+            metrics.operation(operation).record(started, found ? 1 : 0);
+            return found;
+        }
+    }
+
+    /**
+     * Retrieves the number of active rental instruments of the student specified by id
+     * without locking anything. Used in serializable transactions, where a rental created
+     * concurrently for the same student makes the transaction fail instead.
+     * @param studentId The id of student.
+     * @return The nr of active rentals.
+     * @throws SGDBException If failed to retrieve active rentals, or if there is no approved
+     *                       student with the specified id.
+     */
+    public int findStudentInstrumentCount(int studentId) throws SGDBException {
+        return countStudentRentals(COUNT_STUDENT_RENTALS, "dao.count_student_rentals", studentId);
+    }
+
+    private int countStudentRentals(String sql, String operation, int studentId) throws SGDBException {
+        String failureMsg = "Could not get nr of active instrument rentals for student with id: " + studentId;
+        try {
+            PreparedStatement countRentals = statement(sql);
+            countRentals.setInt(1, studentId);
+            long started = System.nanoTime();
+            try (ResultSet result = countRentals.executeQuery()) {
+                boolean found = result.next();
+                metrics.operation(operation).record(started, found ? 1 : 0);
+                if (found) {
+                    return result.getInt("active_rentals");
+                }
             }
-            //connection.commit();
+            handleException(failureMsg, new Exception("No approved student with id " + studentId + " found."));
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         }
@@ -94,28 +369,282 @@ public class SoundGoodDAO {
      * @param notes The notes about the instrument or delivery.
      * @throws SGDBException If failed to create the rental.
      */
-    public void createRental(String studentId, String rentalInstrumentId, String startDate, String endDate, String delivery, double price, String notes) throws SGDBException {
+    public void createRental(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate, String delivery, BigDecimal price, String notes) throws SGDBException {
         String failureMsg = "Could not create the rental for student id " + studentId + " and instrument id " + rentalInstrumentId + ".";
         int updatedRows = 0;
 
         try {
-            createRental.setInt(1, parseInt(studentId));
-            createRental.setInt(2, parseInt(rentalInstrumentId));
-            createRental.setString(3, startDate);
-            createRental.setString(4, endDate);
+            PreparedStatement createRental = statement(CREATE_RENTAL);
+            createRental.setInt(1, studentId);
+            createRental.setInt(2, rentalInstrumentId);
+            createRental.setObject(3, startDate);
+            createRental.setObject(4, endDate);
             createRental.setString(5, delivery);
-            createRental.setDouble(6, price);
+            createRental.setBigDecimal(6, price);
             createRental.setString(7, notes);
 
+            long started = System.nanoTime();
             updatedRows = createRental.executeUpdate();
+            metrics.operation("dao.create_rental").record(started, updatedRows);
 
             if (updatedRows != 1) {
                 handleException(failureMsg, null);
             }
-            connection.commit();
+            commit();
+        } catch (SQLException sqle) {
+            if (EXCLUSION_VIOLATION.equals(sqle.getSQLState())) {
+                failureMsg = failureMsg + " The instrument is already rented during the period.";
+            }
+            handleException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Checks and creates an instrument rental with one call of the database function
+     * <code>create_rental</code>. The function locks the student and the instrument, checks
+     * that the student is approved and has fewer than the maximum number of active rentals
+     * and that the instrument is free during the period, and inserts the rental priced by
+     * the instrument's monthly price. The unit of work is committed whatever the outcome,
+     * which releases the locks.
+     * @param studentId The id of student.
+     * @param rentalInstrumentId The id of rental instrument to rent.
+     * @param startDate The start date of the rental.
+     * @param endDate The end date of the rental.
+     * @param delivery The delivery date of the instrument.
+     * @param notes The notes about the instrument or delivery.
+     * @param maxRentals The largest number of active rentals a student may have.
+     * @return Whether the rental was created, and if not, why.
+     * @throws SGDBException If failed to call the function.
+     */
+    public RentalOutcome createRentalIfAllowed(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate,
+                                               String delivery, String notes, int maxRentals) throws SGDBException {
+        String failureMsg = "Could not create the rental for student id " + studentId + " and instrument id " + rentalInstrumentId + ".";
+        try {
+            PreparedStatement createRental = statement(CREATE_RENTAL_IF_ALLOWED);
+            createRental.setInt(1, studentId);
+            createRental.setInt(2, rentalInstrumentId);
+            createRental.setObject(3, startDate);
+            createRental.setObject(4, endDate);
+            createRental.setString(5, delivery);
+            createRental.setString(6, notes);
+            createRental.setInt(7, maxRentals);
+
+            long started = System.nanoTime();
+            RentalOutcome outcome;
+            try (ResultSet result = createRental.executeQuery()) {
+                result.next();
+                outcome = RentalOutcome.valueOf(result.getString("outcome").toUpperCase());
+            }
+            metrics.operation("dao.create_rental_if_allowed").record(started, outcome == RentalOutcome.CREATED ? 1 : 0);
+            commit();
+            return outcome;
+        } catch (SQLException sqle) {
+            if (EXCLUSION_VIOLATION.equals(sqle.getSQLState())) {
+                failureMsg = failureMsg + " The instrument is already rented during the period.";
+            }
+            handleException(failureMsg, sqle);
+        }
+        return null;
+    }
+
+    /**
+     * Creates all the specified rentals with one batched insert and commits them. Either all
+     * rentals are created or none is.
+     * @param requests The rentals to create.
+     * @param prices The price of each rental, in the same order as the requests.
+     * @throws SGDBException If failed to create the rentals.
+     */
+    public void createRentals(List<RentalRequest> requests, BigDecimal[] prices) throws SGDBException {
+        String failureMsg = "Could not create a batch of " + requests.size() + " rentals.";
+        try {
+            PreparedStatement createRental = statement(CREATE_RENTAL);
+            for (int i = 0; i < requests.size(); i++) {
+                RentalRequest request = requests.get(i);
+                createRental.setInt(1, request.getStudentId());
+                createRental.setInt(2, request.getRentalInstrumentId());
+                createRental.setObject(3, request.getStartDate());
+                createRental.setObject(4, request.getEndDate());
+                createRental.setString(5, request.getDelivery());
+                createRental.setBigDecimal(6, prices[i]);
+                createRental.setString(7, request.getNotes());
+                createRental.addBatch();
+            }
+            long started = System.nanoTime();
+            int[] updatedRows = createRental.executeBatch();
+            metrics.operation("dao.create_rentals_batch").record(started, updatedRows.length);
+            for (int rows : updatedRows) {
+                if (rows != 1 && rows != PreparedStatement.SUCCESS_NO_INFO) {
+                    handleException(failureMsg, null);
+                }
+            }
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Locks the specified students for update and counts their active rentals. The
+     * transaction is left open. Students are locked in id order, so that concurrent
+     * batches can not deadlock. The rentals are counted by a statement of its own after the
+     * locks are held, so rentals committed while this transaction waited are counted.
+     * @param studentIds The ids of the students.
+     * @return The number of active rentals per student id. Students that do not exist or
+     *         are not approved are not included.
+     * @throws SGDBException If failed to lock the students.
+     */
+    public Map<Integer, Integer> findStudentInstrumentCountsLockingForUpdate(Collection<Integer> studentIds) throws SGDBException {
+        String failureMsg = "Could not get nr of active instrument rentals for " + studentIds.size() + " students.";
+        Map<Integer, Integer> counts = new HashMap<>();
+        try {
+            PreparedStatement lockStudents = statement(LOCK_STUDENTS);
+            lockStudents.setArray(1, intArray(studentIds));
+            long started = System.nanoTime();
+            try (ResultSet result = lockStudents.executeQuery()) {
+                while (result.next()) {
+                    counts.put(result.getInt("student_id"), 0);
+                }
+            }
+            metrics.operation("dao.lock_students").record(started, counts.size());
+            if (counts.isEmpty()) {
+                return counts;
+            }
+
+            PreparedStatement countRentals = statement(COUNT_RENTALS_OF_STUDENTS);
+            countRentals.setArray(1, intArray(counts.keySet()));
+            started = System.nanoTime();
+            try (ResultSet result = countRentals.executeQuery()) {
+                while (result.next()) {
+                    counts.put(result.getInt("student_id"), result.getInt("active_rentals"));
+                }
+            }
+            metrics.operation("dao.count_rentals_of_students").record(started, counts.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return counts;
+    }
+
+    /**
+     * Locks the specified rental instruments for update. The transaction is left open.
+     * Instruments are locked in id order, so that concurrent batches can not deadlock.
+     * @param rentalInstrumentIds The ids of the rental instruments.
+     * @return The instruments that exist, by id.
+     * @throws SGDBException If failed to lock the instruments.
+     */
+    public Map<Integer, CatalogInstrument> findRentalInstrumentsLockingForUpdate(Collection<Integer> rentalInstrumentIds) throws SGDBException {
+        String failureMsg = "Could not lock " + rentalInstrumentIds.size() + " rental instruments.";
+        Map<Integer, CatalogInstrument> instruments = new HashMap<>();
+        try {
+            PreparedStatement lockInstruments = statement(LOCK_RENTAL_INSTRUMENTS);
+            lockInstruments.setArray(1, intArray(rentalInstrumentIds));
+            long started = System.nanoTime();
+            try (ResultSet result = lockInstruments.executeQuery()) {
+                while (result.next()) {
+                    CatalogInstrument instrument = catalogInstrumentFrom(result);
+                    instruments.put(instrument.getId(), instrument);
+                }
+            }
+            metrics.operation("dao.lock_rental_instruments").record(started, instruments.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return instruments;
+    }
+
+    /**
+     * Finds the periods of the rentals of the specified instruments that are not terminated
+     * and end on or after the specified day. Since no rental lasts longer than
+     * {@link Model#MAX_RENTAL_MONTHS} months, only the partitions of rentals starting at most
+     * that long before the day are read. The transaction is left open.
+     * @param rentalInstrumentIds The ids of the rental instruments.
+     * @param endingFrom The first day a rental must end on or after, typically the earliest
+     *                   start of the periods to check.
+     * @return The periods of the active rentals of the instruments.
+     * @throws SGDBException If failed to get the rentals.
+     */
+    public List<RentalPeriod> findActiveRentalsOfInstruments(Collection<Integer> rentalInstrumentIds, LocalDate endingFrom) throws SGDBException {
+        String failureMsg = "Could not list active rentals of " + rentalInstrumentIds.size() + " rental instruments.";
+        List<RentalPeriod> rentals = new ArrayList<>();
+        try {
+            PreparedStatement findRentals = statement(FIND_ACTIVE_RENTALS_OF_INSTRUMENTS);
+            findRentals.setArray(1, intArray(rentalInstrumentIds));
+            findRentals.setObject(2, endingFrom);
+            findRentals.setObject(3, endingFrom.minusMonths(MAX_RENTAL_MONTHS));
+            long started = System.nanoTime();
+            try (ResultSet result = findRentals.executeQuery()) {
+                while (result.next()) {
+                    rentals.add(rentalPeriodFrom(result));
+                }
+            }
+            metrics.operation("dao.find_active_rentals_of_instruments").record(started, rentals.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return rentals;
+    }
+
+    /**
+     * Locks the specified rental instrument for update and checks that it is free during the
+     * specified period. Only the row of that instrument is locked, the transaction is left
+     * open so that the rental can be created before another transaction checks the instrument.
+     * The period is checked after the lock is held, so rentals committed by the transaction
+     * that held the lock before are seen.
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param startDate The start date of the period.
+     * @param endDate The end date of the period.
+     * @return The instrument priced for the period, or <code>null</code> if it is already
+     *         rented during the period.
+     * @throws SGDBException If failed to lock the instrument, or if there is no rental
+     *                       instrument with the specified id.
+     */
+    public RentalInstrument findRentalInstrumentIfAvailableLockingForUpdate(int rentalInstrumentId, LocalDate startDate, LocalDate endDate) throws SGDBException {
+        String failureMsg = "Could not lock rental instrument with id: " + rentalInstrumentId;
+        try {
+            if (!lockRow(LOCK_RENTAL_INSTRUMENT, "dao.lock_rental_instrument", rentalInstrumentId)) {
+                handleException(failureMsg, new Exception("No rental instrument with id " + rentalInstrumentId + " found."));
+            }
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         }
+        return findRentalInstrumentIfAvailable(FIND_RENTAL_INSTRUMENT_FOR_PERIOD, "dao.find_rental_instrument", rentalInstrumentId, startDate, endDate);
+    }
+
+    /**
+     * Retrieves the specified rental instrument, priced for the specified period, if no active
+     * rental of it overlaps the period. Nothing is locked, so this is only safe to base a
+     * rental on in a serializable transaction.
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param startDate The start date of the period.
+     * @param endDate The end date of the period.
+     * @return The instrument priced for the period, or <code>null</code> if it is already
+     *         rented during the period.
+     * @throws SGDBException If failed to read the instrument, or if there is no rental
+     *                       instrument with the specified id.
+     */
+    public RentalInstrument findRentalInstrumentIfAvailable(int rentalInstrumentId, LocalDate startDate, LocalDate endDate) throws SGDBException {
+        return findRentalInstrumentIfAvailable(FIND_RENTAL_INSTRUMENT_FOR_PERIOD, "dao.find_rental_instrument", rentalInstrumentId, startDate, endDate);
+    }
+
+    private RentalInstrument findRentalInstrumentIfAvailable(String sql, String operation, int rentalInstrumentId, LocalDate startDate, LocalDate endDate) throws SGDBException {
+        String failureMsg = "Could not check the availability of rental instrument with id: " + rentalInstrumentId;
+        try {
+            PreparedStatement findRentalInstrument = statement(sql);
+            int next = setPeriod(findRentalInstrument, 1, startDate, endDate);
+            findRentalInstrument.setInt(next, rentalInstrumentId);
+            long started = System.nanoTime();
+            try (ResultSet result = findRentalInstrument.executeQuery()) {
+                boolean found = result.next();
+                metrics.operation(operation).record(started, found ? 1 : 0);
+                if (found) {
+                    return result.getBoolean("booked") ? null : rentalInstrumentFrom(result, Model.rentalMonths(startDate, endDate));
+                }
+            }
+            handleException(failureMsg, new Exception("No rental instrument with id " + rentalInstrumentId + " found."));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return null;
     }
 
     /**
@@ -126,38 +655,26 @@ public class SoundGoodDAO {
      * @return List of instruments available for rent.
      * @throws SGDBException If failed to get rental instruments.
      */
-    public List<RentalInstrument> findAvailableRentalInstruments(String startDate, String endDate, String instrument) throws SGDBException {
+    public List<RentalInstrument> findAvailableRentalInstruments(LocalDate startDate, LocalDate endDate, String instrument) throws SGDBException {
         String failureMsg = "Could not list available rental instruments.";
-        ResultSet result = null;
         List<RentalInstrument> accounts = new ArrayList<>();
         try {
-            findAvaliableRentalInstruments.setString(1, startDate);
-            findAvaliableRentalInstruments.setString(2, endDate);
-            findAvaliableRentalInstruments.setString(3, startDate);
-            findAvaliableRentalInstruments.setString(4, endDate);
-            findAvaliableRentalInstruments.setString(5, startDate);
-            findAvaliableRentalInstruments.setString(6, endDate);
-            findAvaliableRentalInstruments.setString(7, instrument);
-
-            result = findAvaliableRentalInstruments.executeQuery();
+            PreparedStatement findAvaliableRentalInstruments = readStatement(FIND_AVAILABLE_RENTAL_INSTRUMENTS);
+            findAvaliableRentalInstruments.setFetchSize(LISTING_FETCH_SIZE);
+            findAvaliableRentalInstruments.setString(1, instrument);
+            setPeriod(findAvaliableRentalInstruments, 2, startDate, endDate);
 
-            while (result.next()) {
-                accounts.add(new RentalInstrument(
-                                result.getString("rental_instrument_id"),
-                                result.getString("name"),
-                                result.getString("model"),
-                                result.getString("cathegory"),
-                                result.getDouble("monthly_price"),
-                                result.getInt("nr_months"),
-                                result.getDouble("total_price")
-                        )
-                );
+            int months = Model.rentalMonths(startDate, endDate);
+            long started = System.nanoTime();
+            try (ResultSet result = findAvaliableRentalInstruments.executeQuery()) {
+                while (result.next()) {
+                    accounts.add(rentalInstrumentFrom(result, months));
+                }
             }
-            connection.commit();
+            metrics.operation("dao.find_available_rental_instruments").record(started, accounts.size());
+            commit();
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
-        }finally {
-            closeResultSet(failureMsg, result);
         }
         return accounts;
     }
@@ -169,48 +686,382 @@ public class SoundGoodDAO {
      * @return List of instruments available for rent.
      * @throws SGDBException If failed to get rental instruments.
      */
-    public List<RentalInstrument> findAllAvailableRentalInstruments(String startDate, String endDate, boolean lockExclusive) throws SGDBException {
-        PreparedStatement stmtToExecute;
-        if (lockExclusive) {
-            stmtToExecute = findAllAvaliableRentalInstrumentsLockingForUpdate;
-        } else {
-            stmtToExecute = findAllAvaliableRentalInstruments;
-        }
-
+    public List<RentalInstrument> findAllAvailableRentalInstruments(LocalDate startDate, LocalDate endDate) throws SGDBException {
         String failureMsg = "Could not list available rental instruments.";
-        ResultSet result = null;
         List<RentalInstrument> accounts = new ArrayList<>();
         try {
-            stmtToExecute.setString(1, startDate);
-            stmtToExecute.setString(2, endDate);
-            stmtToExecute.setString(3, startDate);
-            stmtToExecute.setString(4, endDate);
-            stmtToExecute.setString(5, startDate);
-            stmtToExecute.setString(6, endDate);
+            PreparedStatement stmtToExecute = readStatement(FIND_ALL_AVAILABLE_RENTAL_INSTRUMENTS);
+            stmtToExecute.setFetchSize(LISTING_FETCH_SIZE);
+            setPeriod(stmtToExecute, 1, startDate, endDate);
 
-            result = stmtToExecute.executeQuery();
+            int months = Model.rentalMonths(startDate, endDate);
+            long started = System.nanoTime();
+            try (ResultSet result = stmtToExecute.executeQuery()) {
+                while (result.next()) {
+                    accounts.add(rentalInstrumentFrom(result, months));
+                }
+            }
+            metrics.operation("dao.find_all_available_rental_instruments").record(started, accounts.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return accounts;
+    }
 
-            while (result.next()) {
-                accounts.add(new RentalInstrument(
-                                result.getString("rental_instrument_id"),
-                                result.getString("name"),
-                                result.getString("model"),
-                                result.getString("cathegory"),
-                                result.getDouble("monthly_price"),
-                                result.getInt("nr_months"),
-                                result.getDouble("total_price")
-                        )
-                );
+    /**
+     * Finds all rental instruments, regardless of whether they are rented or not.
+     * @return All rental instruments, ordered by id.
+     * @throws SGDBException If failed to get rental instruments.
+     */
+    public List<CatalogInstrument> findRentalInstrumentCatalog() throws SGDBException {
+        String failureMsg = "Could not list rental instruments.";
+        List<CatalogInstrument> instruments = new ArrayList<>();
+        try {
+            PreparedStatement findCatalog = statement(FIND_RENTAL_INSTRUMENT_CATALOG);
+            findCatalog.setFetchSize(LISTING_FETCH_SIZE);
+            long started = System.nanoTime();
+            try (ResultSet result = findCatalog.executeQuery()) {
+                while (result.next()) {
+                    instruments.add(catalogInstrumentFrom(result));
+                }
             }
-            if (!lockExclusive) {
-                connection.commit();
+            metrics.operation("dao.find_rental_instrument_catalog").record(started, instruments.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return instruments;
+    }
+
+    /**
+     * Retrieves the price list of lessons.
+     * @return The price, discount and salary of each lesson type and skill level.
+     * @throws SGDBException If failed to read the price list.
+     */
+    public List<LessonPrice> findLessonPrices() throws SGDBException {
+        String failureMsg = "Could not list the prices of lessons.";
+        List<LessonPrice> prices = new ArrayList<>();
+        try {
+            PreparedStatement findPrices = statement(FIND_LESSON_PRICES);
+            long started = System.nanoTime();
+            try (ResultSet result = findPrices.executeQuery()) {
+                while (result.next()) {
+                    prices.add(new LessonPrice(
+                            result.getString("lesson_type"),
+                            result.getString("skill_level"),
+                            result.getBigDecimal("price"),
+                            result.getBigDecimal("discount"),
+                            result.getBigDecimal("salary")));
+                }
             }
+            metrics.operation("dao.find_lesson_prices").record(started, prices.size());
+            commit();
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
-        }finally {
-            closeResultSet(failureMsg, result);
         }
-        return accounts;
+        return prices;
+    }
+
+    /**
+     * Passes the periods of the rentals that are not terminated and end on or after the
+     * specified day to the consumer, one row at a time, without collecting them first. The
+     * start date is bounded too, since no rental lasts longer than
+     * {@link Model#MAX_RENTAL_MONTHS}, so the partitions of older years are not read.
+     * @param endingFrom The first day a passed rental may end on.
+     * @param consumer Receives each rental.
+     * @return The number of rentals passed.
+     * @throws SGDBException If failed to get the rentals.
+     */
+    public int findActiveRentals(LocalDate endingFrom, RentalPeriodConsumer consumer) throws SGDBException {
+        String failureMsg = "Could not list active rentals.";
+        int rows = 0;
+        try {
+            PreparedStatement findActiveRentals = statement(FIND_ACTIVE_RENTALS);
+            findActiveRentals.setFetchSize(LISTING_FETCH_SIZE);
+            findActiveRentals.setObject(1, endingFrom);
+            findActiveRentals.setObject(2, endingFrom.minusMonths(MAX_RENTAL_MONTHS));
+            long started = System.nanoTime();
+            try (ResultSet result = findActiveRentals.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(result.getInt("rental_instrument_id"), result.getInt("student_id"),
+                            result.getObject("start_date", LocalDate.class), result.getObject("end_date", LocalDate.class));
+                    rows++;
+                }
+            }
+            metrics.operation("dao.find_active_rentals").record(started, rows);
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the number of lessons of each type given per month during the specified year.
+     * The counts are read from the statistics tables, so the cost does not depend on how
+     * many lessons are stored.
+     * @param year The year.
+     * @return One entry per month with lessons, ordered by month.
+     * @throws SGDBException If failed to get the statistics.
+     */
+    public List<LessonMonthStatistics> findLessonsPerMonth(int year) throws SGDBException {
+        String failureMsg = "Could not list the lessons per month of " + year + ".";
+        List<LessonMonthStatistics> statistics = new ArrayList<>();
+        try {
+            PreparedStatement findLessons = readStatement(FIND_LESSONS_PER_MONTH);
+            findLessons.setObject(1, LocalDate.of(year, 1, 1));
+            findLessons.setObject(2, LocalDate.of(year + 1, 1, 1));
+            long started = System.nanoTime();
+            try (ResultSet result = findLessons.executeQuery()) {
+                while (result.next()) {
+                    statistics.add(new LessonMonthStatistics(
+                            YearMonth.from(result.getObject("month", LocalDate.class)),
+                            result.getInt("individual_lessons"),
+                            result.getInt("group_lessons"),
+                            result.getInt("ensembles")));
+                }
+            }
+            metrics.operation("dao.find_lessons_per_month").record(started, statistics.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return statistics;
+    }
+
+    /**
+     * Finds the instructors giving at least the specified number of lessons during the
+     * specified month.
+     * @param month The month.
+     * @param minLessons The smallest number of lessons to include an instructor.
+     * @return The instructors, the one with most lessons first.
+     * @throws SGDBException If failed to get the statistics.
+     */
+    public List<InstructorLessonCount> findInstructorsWithLessonsInMonth(YearMonth month, int minLessons) throws SGDBException {
+        String failureMsg = "Could not list the instructors with at least " + minLessons + " lessons in " + month + ".";
+        List<InstructorLessonCount> instructors = new ArrayList<>();
+        try {
+            PreparedStatement findInstructors = readStatement(FIND_INSTRUCTORS_WITH_LESSONS_IN_MONTH);
+            findInstructors.setObject(1, month.atDay(1));
+            findInstructors.setInt(2, minLessons);
+            long started = System.nanoTime();
+            try (ResultSet result = findInstructors.executeQuery()) {
+                while (result.next()) {
+                    instructors.add(new InstructorLessonCount(
+                            result.getInt("instructor_id"),
+                            result.getString("full_name"),
+                            result.getInt("lessons")));
+                }
+            }
+            metrics.operation("dao.find_instructors_with_lessons_in_month").record(started, instructors.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return instructors;
+    }
+
+    /**
+     * Finds all instructors together with the instrument types they teach. The instructors
+     * are read from the primary, since the scheduling engine loaded from them is not
+     * reloaded.
+     * @return All instructors, ordered by id.
+     * @throws SGDBException If failed to get the instructors.
+     */
+    public List<Instructor> findInstructors() throws SGDBException {
+        String failureMsg = "Could not list the instructors.";
+        Map<Integer, String> names = new LinkedHashMap<>();
+        Map<Integer, Set<String>> instruments = new HashMap<>();
+        List<Instructor> instructors = new ArrayList<>();
+        try {
+            PreparedStatement findInstructors = statement(FIND_INSTRUCTORS);
+            findInstructors.setFetchSize(LISTING_FETCH_SIZE);
+            long started = System.nanoTime();
+            try (ResultSet result = findInstructors.executeQuery()) {
+                while (result.next()) {
+                    int instructorId = result.getInt("instructor_id");
+                    names.putIfAbsent(instructorId, result.getString("full_name"));
+                    Set<String> taught = instruments.computeIfAbsent(instructorId, id -> new HashSet<>());
+                    String instrument = result.getString("instrument");
+                    if (instrument != null) {
+                        taught.add(instrument);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, String> name : names.entrySet()) {
+                instructors.add(new Instructor(name.getKey(), name.getValue(), instruments.get(name.getKey())));
+            }
+            metrics.operation("dao.find_instructors").record(started, instructors.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return instructors;
+    }
+
+    /**
+     * Finds the work times of all instructors that end after the specified time.
+     * @param from The time.
+     * @return The work times, in no particular order.
+     * @throws SGDBException If failed to get the work times.
+     */
+    public List<WorkTime> findWorkTimes(LocalDateTime from) throws SGDBException {
+        String failureMsg = "Could not list the work times from " + from + ".";
+        List<WorkTime> workTimes = new ArrayList<>();
+        try {
+            PreparedStatement findWorkTimes = statement(FIND_WORK_TIMES);
+            findWorkTimes.setFetchSize(LISTING_FETCH_SIZE);
+            findWorkTimes.setObject(1, from);
+            long started = System.nanoTime();
+            try (ResultSet result = findWorkTimes.executeQuery()) {
+                while (result.next()) {
+                    workTimes.add(new WorkTime(
+                            result.getInt("instructor_id"),
+                            result.getObject("start_timestamp", LocalDateTime.class),
+                            result.getObject("end_timestamp", LocalDateTime.class)));
+                }
+            }
+            metrics.operation("dao.find_work_times").record(started, workTimes.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return workTimes;
+    }
+
+    /**
+     * Finds the jobs of all instructors, that is the lessons they give, starting at or after
+     * the specified time.
+     * @param from The time.
+     * @return The lessons, in no particular order.
+     * @throws SGDBException If failed to get the lessons.
+     */
+    public List<InstructorLesson> findInstructorLessons(LocalDateTime from) throws SGDBException {
+        String failureMsg = "Could not list the lessons of the instructors from " + from + ".";
+        List<InstructorLesson> lessons = new ArrayList<>();
+        try {
+            PreparedStatement findLessons = statement(FIND_INSTRUCTOR_LESSONS);
+            findLessons.setFetchSize(LISTING_FETCH_SIZE);
+            findLessons.setObject(1, from);
+            long started = System.nanoTime();
+            try (ResultSet result = findLessons.executeQuery()) {
+                while (result.next()) {
+                    lessons.add(new InstructorLesson(
+                            result.getInt("instructor_id"),
+                            result.getInt("id"),
+                            result.getObject("start_timestamp", LocalDateTime.class),
+                            result.getObject("end_timestamp", LocalDateTime.class)));
+                }
+            }
+            metrics.operation("dao.find_instructor_lessons").record(started, lessons.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return lessons;
+    }
+
+    /**
+     * Retrieves the time of the specified lesson, as it would be given by the specified
+     * instructor.
+     * @param instructorId The id of the instructor.
+     * @param lessonId The id of the lesson.
+     * @return The lesson.
+     * @throws SGDBException If failed to read the lesson, or if there is no such lesson.
+     */
+    public InstructorLesson findLesson(int instructorId, int lessonId) throws SGDBException {
+        String failureMsg = "Could not read lesson " + lessonId + ".";
+        try {
+            PreparedStatement findLesson = statement(FIND_LESSON_TIME);
+            findLesson.setInt(1, lessonId);
+            long started = System.nanoTime();
+            try (ResultSet result = findLesson.executeQuery()) {
+                boolean found = result.next();
+                metrics.operation("dao.find_lesson_time").record(started, found ? 1 : 0);
+                if (found) {
+                    InstructorLesson lesson = new InstructorLesson(instructorId, lessonId,
+                            result.getObject("start_timestamp", LocalDateTime.class),
+                            result.getObject("end_timestamp", LocalDateTime.class));
+                    commit();
+                    return lesson;
+                }
+            }
+            handleException(failureMsg, new Exception("No lesson with id " + lessonId + " found."));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return null;
+    }
+
+    /**
+     * Writes every rental that is active during some day of the specified month to a csv file.
+     * @param month The month.
+     * @param file The file to write, replaced if it exists.
+     * @param gzip <code>true</code> if the file is gzip compressed.
+     * @return The number of exported rentals.
+     * @throws SGDBException If failed to export the rentals.
+     */
+    public long exportRentals(YearMonth month, Path file, boolean gzip) throws SGDBException {
+        String query = CopyExporter.inline(EXPORT_RENTALS, month.plusMonths(1).atDay(1),
+                month.atDay(1).minusMonths(MAX_RENTAL_MONTHS), month.atDay(1));
+        return export(query, file, gzip, false, "dao.export_rentals", "Could not export the rentals of " + month + ".");
+    }
+
+    /**
+     * Writes every booking of a lesson starting during the specified month to a csv file,
+     * together with the time and type of the lesson.
+     * @param month The month.
+     * @param file The file to write, replaced if it exists.
+     * @param gzip <code>true</code> if the file is gzip compressed.
+     * @return The number of exported bookings.
+     * @throws SGDBException If failed to export the bookings.
+     */
+    public long exportBookings(YearMonth month, Path file, boolean gzip) throws SGDBException {
+        String query = CopyExporter.inline(EXPORT_BOOKINGS, month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+        return export(query, file, gzip, true, "dao.export_bookings", "Could not export the bookings of " + month + ".");
+    }
+
+    /**
+     * Writes the report of {@link #findLessonsPerMonth(int)} to a csv file.
+     * @param year The year.
+     * @param file The file to write, replaced if it exists.
+     * @param gzip <code>true</code> if the file is gzip compressed.
+     * @return The number of exported months.
+     * @throws SGDBException If failed to export the report.
+     */
+    public long exportLessonsPerMonth(int year, Path file, boolean gzip) throws SGDBException {
+        String query = CopyExporter.inline(FIND_LESSONS_PER_MONTH, LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1));
+        return export(query, file, gzip, true, "dao.export_lessons_per_month", "Could not export the lessons per month of " + year + ".");
+    }
+
+    /**
+     * Writes the report of {@link #findInstructorsWithLessonsInMonth(YearMonth, int)} to a csv file.
+     * @param month The month.
+     * @param minLessons The smallest number of lessons to include an instructor.
+     * @param file The file to write, replaced if it exists.
+     * @param gzip <code>true</code> if the file is gzip compressed.
+     * @return The number of exported instructors.
+     * @throws SGDBException If failed to export the report.
+     */
+    public long exportInstructorsWithLessonsInMonth(YearMonth month, int minLessons, Path file, boolean gzip) throws SGDBException {
+        String query = CopyExporter.inline(FIND_INSTRUCTORS_WITH_LESSONS_IN_MONTH, month.atDay(1), minLessons);
+        return export(query, file, gzip, true, "dao.export_instructors_with_lessons_in_month",
+                "Could not export the instructors with at least " + minLessons + " lessons in " + month + ".");
+    }
+
+    private long export(String query, Path file, boolean gzip, boolean fromReplica, String operation, String failureMsg) throws SGDBException {
+        long rows = 0;
+        try {
+            long started = System.nanoTime();
+            PooledConnection pooled = fromReplica ? readConnection() : connection();
+            rows = CopyExporter.export(pooled.getConnection(), query, file, gzip);
+            metrics.operation(operation).record(started, rows);
+            commit();
+        } catch (SQLException | IOException e) {
+            handleException(failureMsg, e);
+        }
+        return rows;
     }
 
     /**
@@ -220,93 +1071,720 @@ public class SoundGoodDAO {
      * @param startDate The start date of the rental.
      * @throws SGDBException If failed to terminate the rental.
      */
-    public void terminateRental(String studentId, String rentalInstrumentId, String startDate) throws SGDBException {
+    public void terminateRental(int studentId, int rentalInstrumentId, LocalDate startDate) throws SGDBException {
         String failureMsg = "Could not terminate the rental.";
         int updatedRows = 0;
         try {
-            terminateRental.setInt(1, parseInt(rentalInstrumentId));
-            terminateRental.setInt(2, parseInt(studentId));
-            terminateRental.setString(3, startDate);
+            PreparedStatement terminateRental = statement(TERMINATE_RENTAL);
+            terminateRental.setInt(1, rentalInstrumentId);
+            terminateRental.setInt(2, studentId);
+            terminateRental.setObject(3, startDate);
 
+            long started = System.nanoTime();
             updatedRows = terminateRental.executeUpdate();
+            metrics.operation("dao.terminate_rental").record(started, updatedRows);
 
             if (updatedRows != 1) {
                 handleException(failureMsg, null);
             }
-            connection.commit();
+            commit();
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         }
     }
 
-    private void connectToSGDB() throws ClassNotFoundException, SQLException {
-        connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/soundgood",
-                "postgres", "Nttl32121");
-        //connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/bankdb",
-        //                                         "postgres", "postgres");
-        // connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/bankdb",
-        //                                          "mysql", "mysql");
-        connection.setAutoCommit(false);
+    /**
+     * Retrieves the capacity and number of booked seats of the specified lesson. The seat
+     * counter of the lesson is created from its bookings if it does not exist yet.
+     * @param lessonId The id of the lesson.
+     * @return The seats of the lesson.
+     * @throws SGDBException If failed to read the seats, or if there is no such lesson.
+     */
+    public LessonSeatCount findLessonSeats(int lessonId) throws SGDBException {
+        String failureMsg = "Could not read the seats of lesson " + lessonId + ".";
+        try {
+            PreparedStatement createSeats = statement(CREATE_LESSON_SEATS);
+            createSeats.setInt(1, lessonId);
+            long started = System.nanoTime();
+            int created = createSeats.executeUpdate();
+            metrics.operation("dao.create_lesson_seats").record(started, created);
+
+            PreparedStatement findSeats = statement(FIND_LESSON_SEATS);
+            findSeats.setInt(1, lessonId);
+            started = System.nanoTime();
+            try (ResultSet result = findSeats.executeQuery()) {
+                boolean found = result.next();
+                metrics.operation("dao.find_lesson_seats").record(started, found ? 1 : 0);
+                if (found) {
+                    LessonSeatCount seats = new LessonSeatCount(result.getInt("lesson_id"), result.getInt("capacity"), result.getInt("booked"));
+                    commit();
+                    return seats;
+                }
+            }
+            handleException(failureMsg, new Exception("No lesson with id " + lessonId + " found."));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return null;
     }
 
-    private void prepareStatements() throws SQLException {
+    /**
+     * Books a seat of the specified lesson for the specified student, at the price of the
+     * lesson's type and skill level. The booking is inserted before the seat is taken, so
+     * the row lock on the lesson's seat counter, which all bookings of the lesson need, is
+     * held only from the seat update to the commit.
+     * @param studentId The id of student.
+     * @param lessonId The id of the lesson.
+     * @return <code>true</code> if the seat was booked, <code>false</code> if the lesson is full.
+     * @throws SGDBException If failed to book, or if the student already has a seat.
+     */
+    public boolean bookLessonSeat(int studentId, int lessonId) throws SGDBException {
+        String failureMsg = "Could not book lesson " + lessonId + " for student " + studentId + ".";
+        try {
+            PreparedStatement createBooking = statement(CREATE_BOOKING);
+            createBooking.setInt(1, studentId);
+            createBooking.setInt(2, lessonId);
+            long started = System.nanoTime();
+            int bookings = createBooking.executeUpdate();
+            metrics.operation("dao.create_booking").record(started, bookings);
+            if (bookings != 1) {
+                handleException(failureMsg + " The student already has a seat, or the lesson has no price.", null);
+            }
 
-        findAvaliableRentalInstruments = connection.prepareStatement(
-                "SELECT rental_instrument_id, name, model, cathegory, monthly_price, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 as nr_months, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 * monthly_price as total_price, image, description from ( SELECT id as rental_instrument_id, count(*) as occurrences, SUM(case when s.status_bool or ter then 0 else 1 end) as booked FROM ( SELECT *, r.terminated as ter, case when ((?)::date <= r.end_date) and ((?)::date >= r.start_date) then false else true end as status_bool FROM rental_instrument ri FULL JOIN rental r on ri.id = r.rental_instrument_id) s group by id order by id) avaliable JOIN rental_instrument ri on avaliable.rental_instrument_id = ri.id JOIN instrument i on i.id = ri.instrument_id where booked = 0 and i.name = ? order by rental_instrument_id");
+            PreparedStatement takeSeat = statement(TAKE_LESSON_SEAT);
+            takeSeat.setInt(1, lessonId);
+            started = System.nanoTime();
+            int seats = takeSeat.executeUpdate();
+            metrics.operation("dao.take_lesson_seat").record(started, seats);
+            if (seats != 1) {
+                rollback();
+                return false;
+            }
+            commit();
+            return true;
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return false;
+    }
 
-        findAllAvaliableRentalInstruments = connection.prepareStatement(
-                "SELECT rental_instrument_id, name, model, cathegory, monthly_price, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 as nr_months, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 * monthly_price as total_price, image, description from ( SELECT id as rental_instrument_id, count(*) as occurrences, SUM(case when s.status_bool or ter then 0 else 1 end) as booked FROM ( SELECT *, r.terminated as ter, case when ((?)::date <= r.end_date) and ((?)::date >= r.start_date) then false else true end as status_bool FROM rental_instrument ri FULL JOIN rental r on ri.id = r.rental_instrument_id) s group by id order by id) avaliable JOIN rental_instrument ri on avaliable.rental_instrument_id = ri.id JOIN instrument i on i.id = ri.instrument_id where booked = 0 order by rental_instrument_id");
+    /**
+     * Cancels the booking of the specified student on the specified lesson and gives back
+     * its seat.
+     * @param studentId The id of student.
+     * @param lessonId The id of the lesson.
+     * @throws SGDBException If failed to cancel, or if the student has no booking of the lesson.
+     */
+    public void cancelLessonSeat(int studentId, int lessonId) throws SGDBException {
+        String failureMsg = "Could not cancel the booking of lesson " + lessonId + " for student " + studentId + ".";
+        try {
+            PreparedStatement cancelBooking = statement(CANCEL_BOOKING);
+            cancelBooking.setInt(1, lessonId);
+            cancelBooking.setInt(2, studentId);
+            long started = System.nanoTime();
+            int canceled = cancelBooking.executeUpdate();
+            metrics.operation("dao.cancel_booking").record(started, canceled);
+            if (canceled != 1) {
+                handleException(failureMsg + " There is no such booking.", null);
+            }
 
-        findAllAvaliableRentalInstrumentsLockingForUpdate = connection.prepareStatement(
-                "SELECT rental_instrument_id, name, model, cathegory, monthly_price, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 as nr_months, EXTRACT(month FROM age((?)::date, (?)::date)) * -1 * monthly_price as total_price, image, description from (SELECT id as rental_instrument_id, count(*) as occurrences, SUM(case when s.status_bool or ter then 0 else 1 end) as booked FROM (SELECT *, r.terminated as ter, case when ((?)::date <= r.end_date) and ((?)::date >= r.start_date) then false else true end as status_bool FROM (SELECT * FROM rental_instrument FOR UPDATE) ri FULL JOIN (SELECT * FROM rental FOR UPDATE)  r on ri.id = r.rental_instrument_id) s group by id order by id) avaliable JOIN rental_instrument ri on avaliable.rental_instrument_id = ri.id JOIN instrument i on i.id = ri.instrument_id where booked = 0 order by rental_instrument_id;");
+            PreparedStatement releaseSeat = statement(RELEASE_LESSON_SEAT);
+            releaseSeat.setInt(1, lessonId);
+            started = System.nanoTime();
+            int released = releaseSeat.executeUpdate();
+            metrics.operation("dao.release_lesson_seat").record(started, released);
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
 
-        findStudentNrRentalInstrments = connection.prepareStatement(
-                "select sum(has_instrument) from (select s.student_id, end_date, r.terminated, case when s.student_id = r.student_id and r.terminated != true then 1 else 0 end as has_instrument from rental r FULL JOIN student s on r.student_id = s.student_id where approved = true and (end_date >= CURRENT_TIMESTAMP or start_date IS NULL) ) s where student_id = ? group by student_id");
+    /**
+     * Stores a new work time of the specified instructor.
+     * @param workTime The work time.
+     * @param title What the instructor works with, or <code>null</code>.
+     * @throws SGDBException If failed to store the work time, or if the instructor already
+     *                       has a work time starting at the same time.
+     */
+    public void createWorkTime(WorkTime workTime, String title) throws SGDBException {
+        String failureMsg = "Could not create the work time of instructor " + workTime.getInstructorId() + ".";
+        try {
+            PreparedStatement createWorkTime = statement(CREATE_WORK_TIME);
+            createWorkTime.setInt(1, workTime.getInstructorId());
+            createWorkTime.setString(2, title);
+            createWorkTime.setObject(3, workTime.getStart());
+            createWorkTime.setObject(4, workTime.getEnd());
+            long started = System.nanoTime();
+            int created = createWorkTime.executeUpdate();
+            metrics.operation("dao.create_work_time").record(started, created);
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
 
-        findStudentNrRentalInstrmentsLockingForUpdate = connection.prepareStatement(
-                "select sum(has_instrument) from (select s.student_id, end_date, r.terminated, s.approved, case when s.student_id = r.student_id and r.terminated != true then 1 else 0 end as has_instrument from (SELECT * FROM rental FOR UPDATE) r FULL JOIN (SELECT * FROM student FOR UPDATE) s on r.student_id = s.student_id where approved = true and (end_date >= CURRENT_TIMESTAMP or start_date IS NULL)) s where student_id = ? group by student_id;");
+    /**
+     * Assigns the specified lesson to the specified instructor, at the salary of the
+     * lesson's type and skill level.
+     * @param instructorId The id of the instructor.
+     * @param lessonId The id of the lesson.
+     * @throws SGDBException If failed to assign the lesson, or if it is already assigned to
+     *                       the instructor.
+     */
+    public void createJob(int instructorId, int lessonId) throws SGDBException {
+        String failureMsg = "Could not assign lesson " + lessonId + " to instructor " + instructorId + ".";
+        try {
+            PreparedStatement createJob = statement(CREATE_JOB);
+            createJob.setInt(1, instructorId);
+            createJob.setInt(2, lessonId);
+            long started = System.nanoTime();
+            int created = createJob.executeUpdate();
+            metrics.operation("dao.create_job").record(started, created);
+            if (created != 1) {
+                handleException(failureMsg + " The lesson has no price.", null);
+            }
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
 
-        createRental = connection.prepareStatement(
-                "INSERT INTO rental (student_id, rental_instrument_id, start_date, end_date, delivery, price, notes, terminated) VALUES (?, ?, (?)::date, (?)::date, ?::timestamp,?,?, false)");
+    /**
+     * Removes the specified lesson from the jobs of the specified instructor.
+     * @param instructorId The id of the instructor.
+     * @param lessonId The id of the lesson.
+     * @throws SGDBException If failed to remove the job, or if there is no such job.
+     */
+    public void deleteJob(int instructorId, int lessonId) throws SGDBException {
+        String failureMsg = "Could not unassign lesson " + lessonId + " from instructor " + instructorId + ".";
+        try {
+            PreparedStatement deleteJob = statement(DELETE_JOB);
+            deleteJob.setInt(1, lessonId);
+            deleteJob.setInt(2, instructorId);
+            long started = System.nanoTime();
+            int deleted = deleteJob.executeUpdate();
+            metrics.operation("dao.delete_job").record(started, deleted);
+            if (deleted != 1) {
+                handleException(failureMsg + " There is no such job.", null);
+            }
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Creates the yearly partitions of the rental and lesson tables for this year and the
+     * specified number of years ahead, unless they exist.
+     * @param yearsAhead The number of years after this year.
+     * @return The number of partitions created.
+     * @throws SGDBException If failed to create the partitions.
+     */
+    public int ensureTimePartitions(int yearsAhead) throws SGDBException {
+        return changeTimePartitions(ENSURE_TIME_PARTITIONS, yearsAhead, "dao.ensure_time_partitions",
+                "Could not create the partitions of the next " + yearsAhead + " years.");
+    }
 
-        terminateRental = connection.prepareStatement(
-                "UPDATE rental SET terminated = true, termination_date = CURRENT_DATE where rental_instrument_id = ? and student_id = ? and start_date = ?::date");
-   }
+    /**
+     * Creates the partition of the rental table for the specified year, unless it exists or
+     * has been archived. The years already checked are remembered, so only the first rental
+     * of a year asks the database. Creating a partition locks the whole rental table until
+     * the commit, so this must not be called while other rows are locked.
+     * @param year The year of the start date of a rental.
+     * @throws SGDBException If failed to create the partition.
+     */
+    public void ensureRentalPartition(int year) throws SGDBException {
+        if (rentalPartitionYears.contains(year)) {
+            return;
+        }
+        String failureMsg = "Could not create the rental partition of " + year + ".";
+        try {
+            PreparedStatement createPartition = statement(CREATE_RENTAL_PARTITION);
+            createPartition.setInt(1, year);
+            long started = System.nanoTime();
+            boolean created;
+            try (ResultSet result = createPartition.executeQuery()) {
+                result.next();
+                created = result.getBoolean(1);
+            }
+            metrics.operation("dao.create_rental_partition").record(started, created ? 1 : 0);
+            commit();
+            rentalPartitionYears.add(year);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
 
+    /**
+     * Detaches the yearly partitions of the rental and lesson tables before the specified
+     * year and moves them to the schema <code>archive</code>. Their rows are no longer read
+     * by any query of the application, but stay in the database.
+     * @param beforeYear The first year to keep, at most last year.
+     * @return The number of partitions archived.
+     * @throws SGDBException If failed to archive the partitions.
+     */
+    public int archiveTimePartitions(int beforeYear) throws SGDBException {
+        return changeTimePartitions(ARCHIVE_TIME_PARTITIONS, beforeYear, "dao.archive_time_partitions",
+                "Could not archive the partitions before " + beforeYear + ".");
+    }
+
+    private int changeTimePartitions(String sql, int year, String operation, String failureMsg) throws SGDBException {
+        int changed = 0;
+        try {
+            PreparedStatement change = statement(sql);
+            change.setInt(1, year);
+            long started = System.nanoTime();
+            try (ResultSet result = change.executeQuery()) {
+                result.next();
+                changed = result.getInt(1);
+            }
+            metrics.operation(operation).record(started, changed);
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the partitions of the rental and lesson tables that are not archived.
+     * @return The name and bounds of each partition, ordered by name.
+     * @throws SGDBException If failed to list the partitions.
+     */
+    public List<String> findTimePartitions() throws SGDBException {
+        String failureMsg = "Could not list the partitions.";
+        List<String> partitions = new ArrayList<>();
+        try {
+            PreparedStatement findPartitions = statement(FIND_TIME_PARTITIONS);
+            long started = System.nanoTime();
+            try (ResultSet result = findPartitions.executeQuery()) {
+                while (result.next()) {
+                    partitions.add(result.getString("partition") + " " + result.getString("bounds"));
+                }
+            }
+            metrics.operation("dao.find_time_partitions").record(started, partitions.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+        return partitions;
+    }
+
+    /**
+     * Replaces the notes of the rental specified.
+     * @param studentId The id of student.
+     * @param rentalInstrumentId The id of rental instrument.
+     * @param startDate The start date of the rental.
+     * @param notes The notes about the instrument or delivery.
+     * @throws SGDBException If failed to update the notes, or if there is no such rental.
+     */
+    public void updateRentalNotes(int studentId, int rentalInstrumentId, LocalDate startDate, String notes) throws SGDBException {
+        String failureMsg = "Could not update the notes of the rental.";
+        try {
+            PreparedStatement updateNotes = statement(UPDATE_RENTAL_NOTES);
+            updateNotes.setString(1, notes);
+            updateNotes.setInt(2, rentalInstrumentId);
+            updateNotes.setInt(3, studentId);
+            updateNotes.setObject(4, startDate);
+
+            long started = System.nanoTime();
+            int updatedRows = updateNotes.executeUpdate();
+            metrics.operation("dao.update_rental_notes").record(started, updatedRows);
+
+            if (updatedRows != 1) {
+                handleException(failureMsg, null);
+            }
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Writes journaled terminations and notes with one batched statement per kind of change,
+     * and commits them together. A change of a rental that does not exist, or that was
+     * already made, is ignored, so the same entries can be applied again after a crash.
+     * @param entries The journal entries, oldest first.
+     * @throws SGDBException If failed to write the changes, then none of them is written.
+     */
+    void applyJournalEntries(List<JournalEntry> entries) throws SGDBException {
+        String failureMsg = "Could not write " + entries.size() + " journaled rental changes.";
+        try {
+            PreparedStatement terminateRental = statement(TERMINATE_RENTAL_ON_DATE);
+            PreparedStatement updateNotes = statement(UPDATE_RENTAL_NOTES);
+            terminateRental.clearBatch();
+            updateNotes.clearBatch();
+            int terminations = 0;
+            int notes = 0;
+            for (JournalEntry entry : entries) {
+                PreparedStatement update;
+                if (entry.getType() == JournalEntry.TERMINATION) {
+                    update = terminateRental;
+                    update.setObject(1, entry.getTerminationDate());
+                    terminations++;
+                } else {
+                    update = updateNotes;
+                    update.setString(1, entry.getNotes());
+                    notes++;
+                }
+                update.setInt(2, entry.getRentalInstrumentId());
+                update.setInt(3, entry.getStudentId());
+                update.setObject(4, entry.getStartDate());
+                update.addBatch();
+            }
+            long started = System.nanoTime();
+            if (terminations > 0) {
+                terminateRental.executeBatch();
+            }
+            if (notes > 0) {
+                updateNotes.executeBatch();
+            }
+            metrics.operation("dao.apply_journal_batch").record(started, entries.size());
+            commit();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Executes every read statement the specified number of times on every connection of
+     * the pool, so that the first real command neither opens a connection nor plans a query.
+     * The driver prepares a statement on the server after five executions, and the server
+     * may switch to a generic plan after five more, so ten executions are enough for both.
+     * The rows are mapped like the rows of real results, which also lets the JIT compile
+     * the mapping loops. The statements are executed with ids that match no row, so no row
+     * is locked, and each connection is rolled back and returned to the pool when it is warm.
+     * If some connections are in use, only the others are warmed up. The calling thread must
+     * not have a unit of work open, since its connection would be replaced.
+     * @param executions How many times each statement is executed on each connection.
+     * @throws SGDBException If failed to execute a statement, or if the calling thread has a
+     *                       unit of work open.
+     */
+    public void warmUp(int executions) throws SGDBException {
+        if (currentConnection.get() != null) {
+            throw new SGDBException("Can not warm up the connections while this thread has a unit of work open.");
+        }
+        List<PooledConnection> connections = new ArrayList<>();
+        try {
+            try {
+                for (int i = 0; i < pool.getMetrics().getMaxSize(); i++) {
+                    connections.add(pool.checkout());
+                }
+            } catch (SGDBException allInUse) {
+                // Warms up the connections that were checked out.
+            }
+            LocalDate startDate = LocalDate.now();
+            LocalDate endDate = startDate.plusMonths(1);
+            while (!connections.isEmpty()) {
+                currentConnection.set(connections.remove(connections.size() - 1));
+                long started = System.nanoTime();
+                int rows = 0;
+                for (int i = 0; i < executions; i++) {
+                    rows += executeReadStatements(startDate, endDate);
+                }
+                metrics.operation("dao.warm_up_connection").record(started, rows);
+                rollback();
+            }
+        } catch (SQLException sqle) {
+            handleException("Could not warm up the database connections.", sqle);
+        } finally {
+            for (PooledConnection pooled : connections) {
+                try {
+                    pooled.rollback();
+                } catch (SQLException ignored) {
+                    // The pool closes a connection that is no longer usable.
+                }
+                pool.release(pooled);
+            }
+        }
+    }
+
+    private int executeReadStatements(LocalDate startDate, LocalDate endDate) throws SGDBException, SQLException {
+        int rows = 0;
+        int months = Model.rentalMonths(startDate, endDate);
+        PreparedStatement findAvailable = statement(FIND_AVAILABLE_RENTAL_INSTRUMENTS);
+        findAvailable.setFetchSize(LISTING_FETCH_SIZE);
+        findAvailable.setString(1, "guitar");
+        setPeriod(findAvailable, 2, startDate, endDate);
+        try (ResultSet result = findAvailable.executeQuery()) {
+            while (result.next()) {
+                rentalInstrumentFrom(result, months);
+                rows++;
+            }
+        }
+
+        PreparedStatement findAllAvailable = statement(FIND_ALL_AVAILABLE_RENTAL_INSTRUMENTS);
+        findAllAvailable.setFetchSize(LISTING_FETCH_SIZE);
+        setPeriod(findAllAvailable, 1, startDate, endDate);
+        try (ResultSet result = findAllAvailable.executeQuery()) {
+            while (result.next()) {
+                rentalInstrumentFrom(result, months);
+                rows++;
+            }
+        }
+
+        for (String sql : List.of(LOCK_STUDENT, LOCK_RENTAL_INSTRUMENT)) {
+            PreparedStatement lock = statement(sql);
+            lock.setInt(1, 0);
+            try (ResultSet result = lock.executeQuery()) {
+                while (result.next()) {
+                    rows++;
+                }
+            }
+        }
+
+        PreparedStatement countRentals = statement(COUNT_STUDENT_RENTALS);
+        countRentals.setInt(1, 0);
+        try (ResultSet result = countRentals.executeQuery()) {
+            while (result.next()) {
+                rows++;
+            }
+        }
+
+        PreparedStatement findRentalInstrument = statement(FIND_RENTAL_INSTRUMENT_FOR_PERIOD);
+        findRentalInstrument.setInt(setPeriod(findRentalInstrument, 1, startDate, endDate), 0);
+        try (ResultSet result = findRentalInstrument.executeQuery()) {
+            while (result.next()) {
+                rentalInstrumentFrom(result, months);
+                rows++;
+            }
+        }
+
+        PreparedStatement findLessons = statement(FIND_LESSONS_PER_MONTH);
+        findLessons.setObject(1, startDate.withDayOfYear(1));
+        findLessons.setObject(2, startDate.withDayOfYear(1).plusYears(1));
+        try (ResultSet result = findLessons.executeQuery()) {
+            while (result.next()) {
+                rows++;
+            }
+        }
+
+        PreparedStatement findInstructors = statement(FIND_INSTRUCTORS_WITH_LESSONS_IN_MONTH);
+        findInstructors.setObject(1, startDate.withDayOfMonth(1));
+        findInstructors.setInt(2, 1);
+        try (ResultSet result = findInstructors.executeQuery()) {
+            while (result.next()) {
+                rows++;
+            }
+        }
+
+        PreparedStatement findSeats = statement(FIND_LESSON_SEATS);
+        findSeats.setInt(1, 0);
+        try (ResultSet result = findSeats.executeQuery()) {
+            while (result.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Commits the current unit of work of the calling thread and returns its connection
+     * to the pool. Does nothing if the thread has no ongoing unit of work.
+     * @throws SGDBException If failed to commit.
+     */
     public void commit() throws SGDBException {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            return;
+        }
         try {
-            connection.commit();
+            long started = System.nanoTime();
+            pooled.commit();
+            metrics.operation("dao.commit").record(started, 0);
+            releaseConnection();
         } catch (SQLException e) {
             handleException("Failed to commit", e);
         }
     }
+
+    /**
+     * Rolls back the current unit of work of the calling thread and returns its connection
+     * to the pool, for a caller that fails with something else than an {@link SGDBException}.
+     * Does nothing if the thread has no ongoing unit of work. Never fails: a connection that
+     * can not be rolled back is closed instead of being reused.
+     */
+    public void abort() {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            return;
+        }
+        metrics.increment("dao.rollbacks");
+        try {
+            pooled.rollback();
+        } catch (SQLException | RuntimeException e) {
+            pooled.close();
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * @return The statement, commit and rollback statistics of this DAO.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The current state of the connection pool.
+     */
+    public ConnectionPoolMetrics getPoolMetrics() {
+        return pool.getMetrics();
+    }
+
+    /**
+     * @return The state of the read replicas.
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return replicas;
+    }
+
     /**
-     * Handles the exception and roll back all changes.
+     * Closes all idle connections of the pool and of the replica pools.
+     */
+    public void close() {
+        replicas.close();
+        pool.close();
+    }
+
+    private PooledConnection connection() throws SGDBException, SQLException {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            pooled = pool.checkout();
+            currentConnection.set(pooled);
+        }
+        return pooled;
+    }
+
+    private PreparedStatement statement(String sql) throws SGDBException, SQLException {
+        return connection().prepare(sql);
+    }
+
+    private PooledConnection readConnection() throws SGDBException, SQLException {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            pooled = replicas.checkoutForRead();
+            currentConnection.set(pooled);
+        }
+        return pooled;
+    }
+
+    private PreparedStatement readStatement(String sql) throws SGDBException, SQLException {
+        return readConnection().prepare(sql);
+    }
+
+    private void releaseConnection() {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled != null) {
+            currentConnection.remove();
+            pooled.getPool().release(pooled);
+        }
+    }
+
+    /**
+     * Rolls back the current unit of work of the calling thread and returns its connection
+     * to the pool, without reporting a failure.
+     */
+    private void rollback() throws SGDBException {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            return;
+        }
+        try {
+            pooled.rollback();
+            releaseConnection();
+        } catch (SQLException e) {
+            handleException("Failed to rollback", e);
+        }
+    }
+
+    /**
+     * Sets the parameters of {@link #OVERLAPPING_RENTAL} from the specified index on.
+     * @return The index of the next parameter.
+     */
+    private static int setPeriod(PreparedStatement statement, int index, LocalDate startDate, LocalDate endDate) throws SQLException {
+        statement.setObject(index, startDate.minusMonths(MAX_RENTAL_MONTHS));
+        statement.setObject(index + 1, endDate);
+        statement.setObject(index + 2, startDate);
+        statement.setObject(index + 3, endDate);
+        return index + 4;
+    }
+
+    private Array intArray(Collection<Integer> ids) throws SGDBException, SQLException {
+        return connection().getConnection().createArrayOf("integer", ids.toArray());
+    }
+
+    private CatalogInstrument catalogInstrumentFrom(ResultSet result) throws SQLException {
+        return new CatalogInstrument(
+                result.getInt("id"),
+                result.getString("name"),
+                result.getString("model"),
+                result.getString("cathegory"),
+                result.getBigDecimal("monthly_price"));
+    }
+
+    private RentalPeriod rentalPeriodFrom(ResultSet result) throws SQLException {
+        return new RentalPeriod(
+                result.getInt("rental_instrument_id"),
+                result.getInt("student_id"),
+                result.getObject("start_date", LocalDate.class),
+                result.getObject("end_date", LocalDate.class));
+    }
+
+    /**
+     * The months of the period are counted once per query, by the caller, instead of once per
+     * row by the database.
+     */
+    private RentalInstrument rentalInstrumentFrom(ResultSet result, int months) throws SQLException {
+        BigDecimal monthlyPrice = result.getBigDecimal("monthly_price");
+        return new RentalInstrument(
+                result.getInt("rental_instrument_id"),
+                result.getString("name"),
+                result.getString("model"),
+                result.getString("cathegory"),
+                monthlyPrice,
+                months,
+                monthlyPrice.multiply(BigDecimal.valueOf(months))
+        );
+    }
+
+    /**
+     * Handles the exception, roll back all changes and returns the connection to the pool.
      * @param failureMsg The message to throw with the exception.
      * @param cause The exception to handle.
+     * @throws SGDBConflictException If the cause is a serialization failure or a deadlock.
      * @throws SGDBException If failed to rollback.
      */
     private void handleException(String failureMsg, Exception cause) throws SGDBException {
         String completeFailureMsg = failureMsg;
-        try {
-            connection.rollback();
-        } catch (SQLException rollbackExc) {
-            completeFailureMsg = completeFailureMsg +
-                    ". Also failed to rollback transaction because of: " + rollbackExc.getMessage();
+        PooledConnection pooled = currentConnection.get();
+        if (pooled != null) {
+            metrics.increment("dao.rollbacks");
+            try {
+                pooled.rollback();
+            } catch (SQLException rollbackExc) {
+                completeFailureMsg = completeFailureMsg +
+                        ". Also failed to rollback transaction because of: " + rollbackExc.getMessage();
+            }
+            releaseConnection();
         }
 
-        if (cause != null) {
-            throw new SGDBException(failureMsg, cause);
+        if (isConflict(cause)) {
+            metrics.increment("dao.conflicts");
+            throw new SGDBConflictException(completeFailureMsg, cause);
+        } else if (cause != null) {
+            throw new SGDBException(completeFailureMsg, cause);
         } else {
-            throw new SGDBException(failureMsg);
+            throw new SGDBException(completeFailureMsg);
         }
     }
 
-    private void closeResultSet(String failureMsg, ResultSet result) throws SGDBException {
-        try {
-            result.close();
-        } catch (Exception e) {
-            throw new SGDBException(failureMsg + " Could not close result set.", e);
+    private static boolean isConflict(Exception cause) {
+        if (!(cause instanceof SQLException)) {
+            return false;
         }
+        String sqlState = ((SQLException) cause).getSQLState();
+        return SERIALIZATION_FAILURE.equals(sqlState) || DEADLOCK_DETECTED.equals(sqlState);
     }
 }
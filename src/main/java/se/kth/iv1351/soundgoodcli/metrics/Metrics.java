@@ -0,0 +1,104 @@
+package se.kth.iv1351.soundgoodcli.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named operation statistics and counters of one running application. Operations and
+ * counters are created the first time they are used, later lookups neither lock nor
+ * allocate. Names are dot separated, for example <code>dao.create_rental</code>.
+ */
+public class Metrics {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param name The name of the operation.
+     * @return The statistics of the operation.
+     */
+    public OperationStats operation(String name) {
+        OperationStats stats = operations.get(name);
+        return stats != null ? stats : operations.computeIfAbsent(name, created -> new OperationStats());
+    }
+
+    /**
+     * Adds one to the specified counter.
+     *
+     * @param name The name of the counter.
+     */
+    public void increment(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, created -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * @param name The name of a counter.
+     * @return The value of the counter, 0 if it was never incremented.
+     */
+    public long getCounter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return A table with one line per operation and counter, meant to be read by a person.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-40s %10s %10s %10s %10s %10s %10s %12s%n",
+                "operation", "count", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "rows"));
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operations).entrySet()) {
+            LatencyHistogram latency = entry.getValue().getLatency();
+            long count = latency.getCount();
+            text.append(String.format("%-40s %10d %10.3f %10.3f %10.3f %10.3f %10.3f %12d%n", entry.getKey(), count,
+                    count == 0 ? 0 : latency.getSumMicros() / 1000.0 / count,
+                    latency.getPercentileMicros(0.5) / 1000.0, latency.getPercentileMicros(0.99) / 1000.0,
+                    latency.getPercentileMicros(0.999) / 1000.0, latency.getMaxMicros() / 1000.0,
+                    entry.getValue().getRows()));
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            text.append(String.format("%-40s %10d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return All operations and counters in the Prometheus text exposition format.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP soundgood_operation_seconds Latency of operations.\n");
+        text.append("# TYPE soundgood_operation_seconds summary\n");
+        Map<String, OperationStats> sortedOperations = new TreeMap<>(operations);
+        for (Map.Entry<String, OperationStats> entry : sortedOperations.entrySet()) {
+            LatencyHistogram latency = entry.getValue().getLatency();
+            String label = "operation=\"" + entry.getKey() + "\"";
+            for (double percentile : PERCENTILES) {
+                text.append("soundgood_operation_seconds{").append(label).append(",quantile=\"").append(percentile)
+                        .append("\"} ").append(latency.getPercentileMicros(percentile) / 1e6).append('\n');
+            }
+            text.append("soundgood_operation_seconds_sum{").append(label).append("} ")
+                    .append(latency.getSumMicros() / 1e6).append('\n');
+            text.append("soundgood_operation_seconds_count{").append(label).append("} ")
+                    .append(latency.getCount()).append('\n');
+        }
+        text.append("# HELP soundgood_operation_rows_total Rows read or written by operations.\n");
+        text.append("# TYPE soundgood_operation_rows_total counter\n");
+        for (Map.Entry<String, OperationStats> entry : sortedOperations.entrySet()) {
+            text.append("soundgood_operation_rows_total{operation=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().getRows()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            String name = "soundgood_" + entry.getKey().replaceAll("[^a-zA-Z0-9_]", "_") + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        return text.toString();
+    }
+}
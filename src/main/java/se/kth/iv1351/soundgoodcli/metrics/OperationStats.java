@@ -0,0 +1,30 @@
+package se.kth.iv1351.soundgoodcli.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and row counts of one kind of operation, for example one SQL statement.
+ */
+public class OperationStats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+
+    /**
+     * Records one execution of the operation.
+     *
+     * @param startedNanos The value of <code>System.nanoTime()</code> when the operation started.
+     * @param rows         The number of rows read or written by the operation.
+     */
+    public void record(long startedNanos, long rows) {
+        latency.recordNanos(System.nanoTime() - startedNanos);
+        this.rows.add(rows);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+}
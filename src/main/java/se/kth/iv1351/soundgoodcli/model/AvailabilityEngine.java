@@ -0,0 +1,507 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Answers which rental instruments are free during a period without asking the database.
+ * The engine holds the instrument catalog and, per instrument, the periods of the rentals
+ * that are not terminated and end on or after the day it knows rentals from. It is loaded
+ * once and then kept up to date by calling {@link #addRental(RentalPeriod)} and
+ * {@link #removeRental(int, int, LocalDate)} each time a rental is created or terminated.
+ * Periods that start before that day, see {@link #covers(LocalDate)}, must be answered by
+ * the database, since the rentals that ended before it are not loaded.
+ * <p>
+ * The catalog is sorted by id, and an instrument is found by binary search over a plain
+ * <code>int</code> array of ids, so lookups neither box nor hash. The periods of an
+ * instrument are stored as sorted arrays of epoch days, in a slot with the same index as
+ * the instrument in the catalog. Since an instrument is booked during a period exactly when
+ * some rental starting on or before the end of the period ends on or after its start, one
+ * binary search plus a running maximum of end days decides availability in logarithmic
+ * time. Reads are lock free, writes replace the arrays of the affected instrument.
+ * <p>
+ * Instruments are priced from a {@link QuotationEngine} if one is given, so that listings
+ * show the prices it was last refreshed with, and from the catalog otherwise.
+ */
+public class AvailabilityEngine {
+    private final List<CatalogInstrument> catalog;
+    private final int[] catalogIds;
+    private final AtomicReferenceArray<Intervals> intervalsByIndex;
+    private final QuotationEngine prices;
+    private final LocalDate knownFrom;
+
+    /**
+     * Creates a new engine that knows all the specified rentals and prices instruments from
+     * the catalog. Rentals of instruments that are not in the catalog are ignored.
+     *
+     * @param catalog       All rental instruments.
+     * @param activeRentals All rentals that are not terminated.
+     */
+    public AvailabilityEngine(List<CatalogInstrument> catalog, List<RentalPeriod> activeRentals) {
+        this(catalog, null, LocalDate.MIN);
+        List<List<RentalPeriod>> grouped = new ArrayList<>(Collections.nCopies(this.catalog.size(), null));
+        for (RentalPeriod rental : activeRentals) {
+            int index = indexOf(rental.getRentalInstrumentId());
+            if (index < 0) {
+                continue;
+            }
+            if (grouped.get(index) == null) {
+                grouped.set(index, new ArrayList<>());
+            }
+            grouped.get(index).add(rental);
+        }
+        for (int i = 0; i < grouped.size(); i++) {
+            if (grouped.get(i) != null) {
+                intervalsByIndex.set(i, Intervals.of(grouped.get(i)));
+            }
+        }
+    }
+
+    private AvailabilityEngine(List<CatalogInstrument> catalog, QuotationEngine prices, LocalDate knownFrom) {
+        this.prices = prices;
+        this.knownFrom = knownFrom;
+        List<CatalogInstrument> sorted = new ArrayList<>(catalog);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        this.catalog = Collections.unmodifiableList(sorted);
+        this.catalogIds = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            catalogIds[i] = sorted.get(i).getId();
+        }
+        this.intervalsByIndex = new AtomicReferenceArray<>(sorted.size());
+    }
+
+    /**
+     * Starts loading an engine row by row, for rentals read from the database.
+     *
+     * @param catalog   All rental instruments.
+     * @param prices    The prices of the instruments, or <code>null</code> to use the
+     *                  prices of the catalog.
+     * @param knownFrom The day from which on the engine will know every rental. All rentals
+     *                  that are not terminated and end on or after it must be added.
+     * @return The builder to add the rentals to.
+     */
+    public static Builder builder(List<CatalogInstrument> catalog, QuotationEngine prices, LocalDate knownFrom) {
+        return new Builder(new AvailabilityEngine(catalog, prices, knownFrom));
+    }
+
+    /**
+     * @param startDate The first day of a period.
+     * @return <code>true</code> if the engine knows every rental that may overlap a period
+     *         starting on that day, <code>false</code> if the database must be asked.
+     */
+    public boolean covers(LocalDate startDate) {
+        return !startDate.isBefore(knownFrom);
+    }
+
+    /**
+     * @return The day from which on the engine knows every rental.
+     */
+    public LocalDate getKnownFrom() {
+        return knownFrom;
+    }
+
+    /**
+     * Finds the rental instruments that are free during the whole specified period.
+     *
+     * @param startDate  The first day of the period.
+     * @param endDate    The last day of the period.
+     * @param instrument The instrument type to search for, or <code>null</code> to search all types.
+     * @return The available instruments, priced for the period and ordered by id.
+     */
+    public List<RentalInstrument> findAvailable(LocalDate startDate, LocalDate endDate, String instrument) {
+        return findAvailable(startDate, endDate, instrument, 0, catalog.size());
+    }
+
+    /**
+     * Finds one page of the rental instruments that are free during the whole specified
+     * period. Pages are addressed by the last id of the previous page, so the cost of a
+     * page does not depend on how many pages come before it.
+     *
+     * @param startDate  The first day of the period.
+     * @param endDate    The last day of the period.
+     * @param instrument The instrument type to search for, or <code>null</code> to search all types.
+     * @param afterId    Only instruments with a greater id are included, 0 gives the first page.
+     * @param limit      The maximum number of instruments to return.
+     * @return The available instruments, priced for the period and ordered by id.
+     */
+    public List<RentalInstrument> findAvailablePage(LocalDate startDate, LocalDate endDate, String instrument, int afterId, int limit) {
+        int from = Arrays.binarySearch(catalogIds, afterId);
+        from = from >= 0 ? from + 1 : -from - 1;
+        return findAvailable(startDate, endDate, instrument, from, limit);
+    }
+
+    private List<RentalInstrument> findAvailable(LocalDate startDate, LocalDate endDate, String instrument, int from, int limit) {
+        int start = (int) startDate.toEpochDay();
+        int end = (int) endDate.toEpochDay();
+        int months = Model.rentalMonths(startDate, endDate);
+        List<RentalInstrument> available = new ArrayList<>();
+        for (int i = from; i < catalog.size() && available.size() < limit; i++) {
+            CatalogInstrument item = catalog.get(i);
+            if (instrument != null && !instrument.equals(item.getName())) {
+                continue;
+            }
+            Intervals intervals = intervalsByIndex.get(i);
+            if (intervals == null || !intervals.overlaps(start, end)) {
+                BigDecimal monthlyPrice = monthlyPriceOf(item);
+                available.add(new RentalInstrument(item.getId(), item.getName(), item.getModel(),
+                        item.getCategory(), monthlyPrice, months, monthlyPrice.multiply(BigDecimal.valueOf(months))));
+            }
+        }
+        return available;
+    }
+
+    private BigDecimal monthlyPriceOf(CatalogInstrument item) {
+        BigDecimal quoted = prices == null ? null : prices.findMonthlyPrice(item.getId());
+        return quoted == null ? item.getMonthlyPrice() : quoted;
+    }
+
+    /**
+     * Finds every period of at least the specified length during which an instrument is
+     * free, between two days. Each instrument is handled with one sweep over its rentals in
+     * order of start day, skipping those that end before the first day, so the cost is
+     * proportional to the number of rentals inside the searched days.
+     *
+     * @param instrument The instrument type to search for, or <code>null</code> to search all types.
+     * @param fromDate   The first day to search.
+     * @param toDate     The last day to search.
+     * @param minDays    The smallest number of consecutive free days to include a window.
+     * @return The windows, ordered by instrument id and then by start day. A window is cut
+     *         at the first and last day searched, even if the instrument is free beyond them.
+     */
+    public List<FreeWindow> findFreeWindows(String instrument, LocalDate fromDate, LocalDate toDate, int minDays) {
+        int from = (int) fromDate.toEpochDay();
+        int to = (int) toDate.toEpochDay();
+        List<FreeWindow> windows = new ArrayList<>();
+        for (int i = 0; i < catalog.size(); i++) {
+            CatalogInstrument item = catalog.get(i);
+            if (instrument != null && !instrument.equals(item.getName())) {
+                continue;
+            }
+            BigDecimal monthlyPrice = monthlyPriceOf(item);
+            GapConsumer addWindow = (start, end) -> windows.add(new FreeWindow(item.getId(), item.getName(),
+                    item.getModel(), monthlyPrice, LocalDate.ofEpochDay(start), LocalDate.ofEpochDay(end)));
+            Intervals intervals = intervalsByIndex.get(i);
+            if (intervals == null) {
+                if (to - from + 1 >= minDays) {
+                    addWindow.accept(from, to);
+                }
+            } else {
+                intervals.forEachFreeGap(from, to, minDays, addWindow);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * @param rentalInstrumentId The id of a rental instrument.
+     * @return The catalog entry of the instrument, or <code>null</code> if there is none.
+     */
+    public CatalogInstrument findCatalogInstrument(int rentalInstrumentId) {
+        int index = indexOf(rentalInstrumentId);
+        return index < 0 ? null : catalog.get(index);
+    }
+
+    /**
+     * Tells whether the specified instrument is free during the whole specified period.
+     *
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param startDate          The first day of the period.
+     * @param endDate            The last day of the period.
+     * @return <code>true</code> if no active rental of the instrument overlaps the period,
+     *         or if the instrument is not in the catalog. Only rentals the engine knows are
+     *         considered, see {@link #covers(LocalDate)}.
+     */
+    public boolean isAvailable(int rentalInstrumentId, LocalDate startDate, LocalDate endDate) {
+        int index = indexOf(rentalInstrumentId);
+        if (index < 0) {
+            return true;
+        }
+        Intervals intervals = intervalsByIndex.get(index);
+        return intervals == null || !intervals.overlaps((int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+
+    /**
+     * Registers a newly created rental. A rental of an instrument that is not in the
+     * catalog is ignored.
+     *
+     * @param rental The created rental.
+     */
+    public void addRental(RentalPeriod rental) {
+        int index = indexOf(rental.getRentalInstrumentId());
+        if (index < 0) {
+            return;
+        }
+        intervalsByIndex.updateAndGet(index, old -> old == null ? Intervals.of(List.of(rental)) : old.with(rental));
+    }
+
+    /**
+     * Removes a terminated rental.
+     *
+     * @param rentalInstrumentId The id of the rented instrument.
+     * @param studentId          The id of the student renting the instrument.
+     * @param startDate          The start date of the rental.
+     * @return The period of the removed rental, or <code>null</code> if the engine did not
+     *         know the rental.
+     */
+    public RentalPeriod removeRental(int rentalInstrumentId, int studentId, LocalDate startDate) {
+        int index = indexOf(rentalInstrumentId);
+        if (index < 0) {
+            return null;
+        }
+        int start = (int) startDate.toEpochDay();
+        while (true) {
+            Intervals old = intervalsByIndex.get(index);
+            int at = old == null ? -1 : old.indexOf(studentId, start);
+            if (at < 0) {
+                return null;
+            }
+            if (intervalsByIndex.compareAndSet(index, old, old.without(at))) {
+                return new RentalPeriod(rentalInstrumentId, studentId, startDate, LocalDate.ofEpochDay(old.ends[at]));
+            }
+        }
+    }
+
+    /**
+     * Replaces all rentals of one instrument, for example with those read from the database
+     * after rentals of the instrument were created or terminated by another process.
+     *
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param rentals            The active rentals of the instrument.
+     */
+    public void replaceRentals(int rentalInstrumentId, List<RentalPeriod> rentals) {
+        int index = indexOf(rentalInstrumentId);
+        if (index >= 0) {
+            intervalsByIndex.set(index, rentals.isEmpty() ? null : Intervals.of(rentals));
+        }
+    }
+
+    private int indexOf(int rentalInstrumentId) {
+        int index = Arrays.binarySearch(catalogIds, rentalInstrumentId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Adds the rentals of a new engine straight into growing arrays per instrument, so that
+     * loading does not create an object per rental.
+     */
+    public static final class Builder {
+        private final AvailabilityEngine engine;
+        private final int[][] starts;
+        private final int[][] ends;
+        private final int[][] students;
+        private final int[] counts;
+
+        private Builder(AvailabilityEngine engine) {
+            this.engine = engine;
+            int size = engine.catalogIds.length;
+            starts = new int[size][];
+            ends = new int[size][];
+            students = new int[size][];
+            counts = new int[size];
+        }
+
+        /**
+         * Adds one rental. A rental of an instrument that is not in the catalog is ignored.
+         *
+         * @param rentalInstrumentId The id of the rented instrument.
+         * @param studentId          The id of the student renting the instrument.
+         * @param startDate          The first day of the rental.
+         * @param endDate            The last day of the rental.
+         */
+        public void add(int rentalInstrumentId, int studentId, LocalDate startDate, LocalDate endDate) {
+            int index = engine.indexOf(rentalInstrumentId);
+            if (index < 0) {
+                return;
+            }
+            int count = counts[index];
+            if (starts[index] == null) {
+                starts[index] = new int[4];
+                ends[index] = new int[4];
+                students[index] = new int[4];
+            } else if (count == starts[index].length) {
+                starts[index] = Arrays.copyOf(starts[index], count * 2);
+                ends[index] = Arrays.copyOf(ends[index], count * 2);
+                students[index] = Arrays.copyOf(students[index], count * 2);
+            }
+            starts[index][count] = (int) startDate.toEpochDay();
+            ends[index][count] = (int) endDate.toEpochDay();
+            students[index][count] = studentId;
+            counts[index] = count + 1;
+        }
+
+        /**
+         * @return The engine holding all added rentals. The builder must not be used afterwards.
+         */
+        public AvailabilityEngine build() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    engine.intervalsByIndex.set(i, Intervals.of(starts[i], ends[i], students[i], counts[i]));
+                    starts[i] = null;
+                    ends[i] = null;
+                    students[i] = null;
+                }
+            }
+            return engine;
+        }
+    }
+
+    private interface GapConsumer {
+        void accept(int startDay, int endDay);
+    }
+
+    /**
+     * The rental periods of one instrument, sorted by start day.
+     */
+    private static final class Intervals {
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] maxEnds;
+        private final int[] students;
+
+        private Intervals(int[] starts, int[] ends, int[] students) {
+            this.starts = starts;
+            this.ends = ends;
+            this.students = students;
+            this.maxEnds = new int[ends.length];
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < ends.length; i++) {
+                max = Math.max(max, ends[i]);
+                maxEnds[i] = max;
+            }
+        }
+
+        static Intervals of(List<RentalPeriod> rentals) {
+            RentalPeriod[] sorted = rentals.toArray(new RentalPeriod[0]);
+            Arrays.sort(sorted, (a, b) -> a.getStartDate().compareTo(b.getStartDate()));
+            int[] starts = new int[sorted.length];
+            int[] ends = new int[sorted.length];
+            int[] students = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                starts[i] = (int) sorted[i].getStartDate().toEpochDay();
+                ends[i] = (int) sorted[i].getEndDate().toEpochDay();
+                students[i] = sorted[i].getStudentId();
+            }
+            return new Intervals(starts, ends, students);
+        }
+
+        /**
+         * Sorts the first <code>count</code> rentals of the arrays by start day. Each start
+         * day is packed with the position of its rental into one <code>long</code>, so the
+         * sort is a primitive sort.
+         */
+        static Intervals of(int[] starts, int[] ends, int[] students, int count) {
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) starts[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedStarts = new int[count];
+            int[] sortedEnds = new int[count];
+            int[] sortedStudents = new int[count];
+            for (int i = 0; i < count; i++) {
+                int from = (int) order[i];
+                sortedStarts[i] = starts[from];
+                sortedEnds[i] = ends[from];
+                sortedStudents[i] = students[from];
+            }
+            return new Intervals(sortedStarts, sortedEnds, sortedStudents);
+        }
+
+        boolean overlaps(int start, int end) {
+            int last = lastStartingOnOrBefore(end);
+            return last >= 0 && maxEnds[last] >= start;
+        }
+
+        /**
+         * Sweeps the rentals in order of start day, keeping the first day after all rentals
+         * seen so far. A rental starting after that day leaves a gap before it. Rentals
+         * ending before <code>from</code> are skipped with a binary search over the running
+         * maximum of end days, and the sweep stops at the last rental starting on or
+         * before <code>to</code>.
+         */
+        void forEachFreeGap(int from, int to, int minDays, GapConsumer consumer) {
+            int free = from;
+            int last = lastStartingOnOrBefore(to);
+            for (int i = firstEndingOnOrAfter(from); i <= last && free <= to; i++) {
+                if (starts[i] > free && starts[i] - free >= minDays) {
+                    consumer.accept(free, starts[i] - 1);
+                }
+                free = Math.max(free, ends[i] + 1);
+            }
+            if (free <= to && to - free + 1 >= minDays) {
+                consumer.accept(free, to);
+            }
+        }
+
+        private int firstEndingOnOrAfter(int day) {
+            int low = 0;
+            int high = maxEnds.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (maxEnds[mid] < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        Intervals with(RentalPeriod rental) {
+            int start = (int) rental.getStartDate().toEpochDay();
+            int at = lastStartingOnOrBefore(start) + 1;
+            return new Intervals(insert(starts, at, start), insert(ends, at, (int) rental.getEndDate().toEpochDay()),
+                    insert(students, at, rental.getStudentId()));
+        }
+
+        int indexOf(int studentId, int start) {
+            for (int i = lastStartingOnOrBefore(start); i >= 0 && starts[i] == start; i--) {
+                if (students[i] == studentId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Intervals without(int at) {
+            if (starts.length == 1) {
+                return null;
+            }
+            return new Intervals(remove(starts, at), remove(ends, at), remove(students, at));
+        }
+
+        private int lastStartingOnOrBefore(int day) {
+            int low = 0;
+            int high = starts.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= day) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        private static int[] insert(int[] source, int at, int value) {
+            int[] result = new int[source.length + 1];
+            System.arraycopy(source, 0, result, 0, at);
+            result[at] = value;
+            System.arraycopy(source, at, result, at + 1, source.length - at);
+            return result;
+        }
+
+        private static int[] remove(int[] source, int at) {
+            int[] result = new int[source.length - 1];
+            System.arraycopy(source, 0, result, 0, at);
+            System.arraycopy(source, at + 1, result, at, source.length - at - 1);
+            return result;
+        }
+    }
+}
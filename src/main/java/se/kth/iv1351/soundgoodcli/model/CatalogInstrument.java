@@ -0,0 +1,50 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+
+/**
+ * A rental instrument as it appears in the catalog, independent of any rental period.
+ */
+public class CatalogInstrument {
+    private final int id;
+    private final String name;
+    private final String model;
+    private final String cathegory;
+    private final BigDecimal monthlyPrice;
+
+    public CatalogInstrument(int id, String name, String model, String cathegory, BigDecimal monthlyPrice) {
+        this.id = id;
+        this.name = name;
+        this.model = model;
+        this.cathegory = cathegory;
+        this.monthlyPrice = monthlyPrice;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getModel() {
+        return this.model;
+    }
+
+    public String getCategory() {
+        return this.cathegory;
+    }
+
+    public BigDecimal getMonthlyPrice() {
+        return this.monthlyPrice;
+    }
+
+    /**
+     * @param months The number of months charged for.
+     * @return The price of renting this instrument for the specified number of months.
+     */
+    public BigDecimal priceFor(int months) {
+        return this.monthlyPrice.multiply(BigDecimal.valueOf(months));
+    }
+}
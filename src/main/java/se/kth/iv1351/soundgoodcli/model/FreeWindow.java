@@ -0,0 +1,58 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A period during which a rental instrument is not rented by anyone. Both the start and the
+ * end day are free.
+ */
+public class FreeWindow {
+    private final int rentalInstrumentId;
+    private final String name;
+    private final String model;
+    private final BigDecimal monthlyPrice;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public FreeWindow(int rentalInstrumentId, String name, String model, BigDecimal monthlyPrice, LocalDate startDate, LocalDate endDate) {
+        this.rentalInstrumentId = rentalInstrumentId;
+        this.name = name;
+        this.model = model;
+        this.monthlyPrice = monthlyPrice;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public int getRentalInstrumentId() {
+        return rentalInstrumentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public BigDecimal getMonthlyPrice() {
+        return monthlyPrice;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * @return The number of free days, counting both the start and the end day.
+     */
+    public long getDays() {
+        return ChronoUnit.DAYS.between(startDate, endDate) + 1;
+    }
+}
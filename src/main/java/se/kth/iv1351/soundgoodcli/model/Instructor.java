@@ -0,0 +1,38 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.util.Set;
+
+/**
+ * An instructor and the instrument types the instructor teaches.
+ */
+public class Instructor {
+    private final int instructorId;
+    private final String name;
+    private final Set<String> instruments;
+
+    public Instructor(int instructorId, String name, Set<String> instruments) {
+        this.instructorId = instructorId;
+        this.name = name;
+        this.instruments = Set.copyOf(instruments);
+    }
+
+    public int getInstructorId() {
+        return this.instructorId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Set<String> getInstruments() {
+        return this.instruments;
+    }
+
+    /**
+     * @param instrument An instrument type, for example guitar.
+     * @return <code>true</code> if the instructor teaches the instrument type.
+     */
+    public boolean teaches(String instrument) {
+        return instruments.contains(instrument);
+    }
+}
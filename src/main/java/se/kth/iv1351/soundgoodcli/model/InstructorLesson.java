@@ -0,0 +1,36 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A lesson given by an instructor, that is a job.
+ */
+public class InstructorLesson {
+    private final int instructorId;
+    private final int lessonId;
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+
+    public InstructorLesson(int instructorId, int lessonId, LocalDateTime start, LocalDateTime end) {
+        this.instructorId = instructorId;
+        this.lessonId = lessonId;
+        this.start = start;
+        this.end = end;
+    }
+
+    public int getInstructorId() {
+        return this.instructorId;
+    }
+
+    public int getLessonId() {
+        return this.lessonId;
+    }
+
+    public LocalDateTime getStart() {
+        return this.start;
+    }
+
+    public LocalDateTime getEnd() {
+        return this.end;
+    }
+}
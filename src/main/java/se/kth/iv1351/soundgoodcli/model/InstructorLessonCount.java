@@ -0,0 +1,28 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * The number of lessons an instructor gives during one month.
+ */
+public class InstructorLessonCount {
+    private final int instructorId;
+    private final String name;
+    private final int lessons;
+
+    public InstructorLessonCount(int instructorId, String name, int lessons) {
+        this.instructorId = instructorId;
+        this.name = name;
+        this.lessons = lessons;
+    }
+
+    public int getInstructorId() {
+        return this.instructorId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getLessons() {
+        return this.lessons;
+    }
+}
@@ -0,0 +1,40 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.YearMonth;
+
+/**
+ * The number of lessons of each type given during one month.
+ */
+public class LessonMonthStatistics {
+    private final YearMonth month;
+    private final int individualLessons;
+    private final int groupLessons;
+    private final int ensembles;
+
+    public LessonMonthStatistics(YearMonth month, int individualLessons, int groupLessons, int ensembles) {
+        this.month = month;
+        this.individualLessons = individualLessons;
+        this.groupLessons = groupLessons;
+        this.ensembles = ensembles;
+    }
+
+    public YearMonth getMonth() {
+        return this.month;
+    }
+
+    public int getIndividualLessons() {
+        return this.individualLessons;
+    }
+
+    public int getGroupLessons() {
+        return this.groupLessons;
+    }
+
+    public int getEnsembles() {
+        return this.ensembles;
+    }
+
+    public int getTotal() {
+        return this.individualLessons + this.groupLessons + this.ensembles;
+    }
+}
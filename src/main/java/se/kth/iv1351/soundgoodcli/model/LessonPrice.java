@@ -0,0 +1,43 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+
+/**
+ * One row of the price list of lessons: what a lesson of a type and skill level costs, the
+ * discount given on it and the salary of its instructor.
+ */
+public class LessonPrice {
+    private final String lessonType;
+    private final String skillLevel;
+    private final BigDecimal price;
+    private final BigDecimal discount;
+    private final BigDecimal salary;
+
+    public LessonPrice(String lessonType, String skillLevel, BigDecimal price, BigDecimal discount, BigDecimal salary) {
+        this.lessonType = lessonType;
+        this.skillLevel = skillLevel;
+        this.price = price;
+        this.discount = discount;
+        this.salary = salary;
+    }
+
+    public String getLessonType() {
+        return this.lessonType;
+    }
+
+    public String getSkillLevel() {
+        return this.skillLevel;
+    }
+
+    public BigDecimal getPrice() {
+        return this.price;
+    }
+
+    public BigDecimal getDiscount() {
+        return this.discount;
+    }
+
+    public BigDecimal getSalary() {
+        return this.salary;
+    }
+}
@@ -0,0 +1,32 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * The capacity of a lesson and the number of its seats that are booked.
+ */
+public class LessonSeatCount {
+    private final int lessonId;
+    private final int capacity;
+    private final int booked;
+
+    public LessonSeatCount(int lessonId, int capacity, int booked) {
+        this.lessonId = lessonId;
+        this.capacity = capacity;
+        this.booked = booked;
+    }
+
+    public int getLessonId() {
+        return this.lessonId;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getBooked() {
+        return this.booked;
+    }
+
+    public int getFree() {
+        return Math.max(0, capacity - booked);
+    }
+}
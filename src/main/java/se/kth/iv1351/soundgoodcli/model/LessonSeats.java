@@ -0,0 +1,110 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the free seats of each lesson in memory, so that a booking of a full lesson is
+ * rejected without asking the database. Every lesson has its own counter, which is
+ * changed with compare-and-set, so bookings of different lessons never wait for each
+ * other and bookings of the same lesson never block.
+ * <p>
+ * The counters only filter requests, the guarded update of the database decides. A seat
+ * is reserved here before the database is asked and given back if the database booking
+ * fails. When the database says that a lesson is full although its counter had a seat,
+ * the counter is dropped and loaded again from the database by the next booking. Seats
+ * freed by another process never reach a counter, so a counter that says a lesson is full
+ * is only trusted for a while after it was loaded, see {@link #isLoadedWithin(int, long)}.
+ */
+public class LessonSeats {
+    private final ConcurrentHashMap<Integer, Counter> freeSeats = new ConcurrentHashMap<>();
+
+    /**
+     * @param lessonId The id of a lesson.
+     * @return <code>true</code> if the lesson has a counter.
+     */
+    public boolean isKnown(int lessonId) {
+        return freeSeats.containsKey(lessonId);
+    }
+
+    /**
+     * @param lessonId  The id of a lesson.
+     * @param maxNanos  The longest time since the counter was loaded, in nanoseconds.
+     * @return <code>true</code> if the lesson has a counter that was loaded from the database
+     *         at most <code>maxNanos</code> ago.
+     */
+    public boolean isLoadedWithin(int lessonId, long maxNanos) {
+        Counter counter = freeSeats.get(lessonId);
+        return counter != null && System.nanoTime() - counter.loadedNanos <= maxNanos;
+    }
+
+    /**
+     * Sets the counter of a lesson, unless another thread already did.
+     *
+     * @param seats The seats of the lesson, as read from the database.
+     */
+    public void load(LessonSeatCount seats) {
+        freeSeats.putIfAbsent(seats.getLessonId(), new Counter(seats.getFree()));
+    }
+
+    /**
+     * Takes one free seat of the specified lesson.
+     *
+     * @param lessonId The id of the lesson, which must have a counter.
+     * @return <code>true</code> if a seat was taken, <code>false</code> if the lesson is full
+     *         or has no counter.
+     */
+    public boolean tryReserve(int lessonId) {
+        Counter counter = freeSeats.get(lessonId);
+        if (counter == null) {
+            return false;
+        }
+        int seats;
+        do {
+            seats = counter.free.get();
+            if (seats <= 0) {
+                return false;
+            }
+        } while (!counter.free.compareAndSet(seats, seats - 1));
+        return true;
+    }
+
+    /**
+     * Gives back one seat of the specified lesson, after a failed booking or a cancellation.
+     *
+     * @param lessonId The id of the lesson.
+     */
+    public void release(int lessonId) {
+        Counter counter = freeSeats.get(lessonId);
+        if (counter != null) {
+            counter.free.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the counter of the specified lesson, so that it is loaded again from the database.
+     *
+     * @param lessonId The id of the lesson.
+     */
+    public void forget(int lessonId) {
+        freeSeats.remove(lessonId);
+    }
+
+    /**
+     * @param lessonId The id of a lesson.
+     * @return The number of free seats, or -1 if the lesson has no counter.
+     */
+    public int getFreeSeats(int lessonId) {
+        Counter counter = freeSeats.get(lessonId);
+        return counter == null ? -1 : counter.free.get();
+    }
+
+    private static final class Counter {
+        private final AtomicInteger free;
+        private final long loadedNanos = System.nanoTime();
+
+        private Counter(int free) {
+            this.free = new AtomicInteger(free);
+        }
+    }
+}
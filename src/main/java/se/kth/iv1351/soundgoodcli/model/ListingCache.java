@@ -0,0 +1,174 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Caches listings of available rental instruments, keyed by period and instrument type.
+ * The cache holds at most a fixed number of listings, evicting the least recently used
+ * one when full, and a listing expires a fixed time after it was stored. When a rental is
+ * created or terminated, exactly the listings that could include the rented instrument
+ * and whose period overlaps the rental are removed. A listing computed while a rental
+ * changed is returned but not stored, so the cache never holds a listing older than the
+ * latest change.
+ */
+public class ListingCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Key, Listing> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+    private long generation;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param maxSize    The maximum number of listings to keep.
+     * @param ttlSeconds How long a listing may be used after it was stored.
+     */
+    public ListingCache(int maxSize, long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Listing> eldest) {
+                if (size() > ListingCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached listing for the specified period and instrument type, or computes
+     * and stores it if there is no valid listing in the cache.
+     *
+     * @param startDate  The first day of the period.
+     * @param endDate    The last day of the period.
+     * @param instrument The instrument type, or <code>null</code> for all types.
+     * @param listing    Computes the listing on a miss.
+     * @return The listing, which must not be modified.
+     */
+    public List<RentalInstrument> get(LocalDate startDate, LocalDate endDate, String instrument,
+                                      Supplier<List<RentalInstrument>> listing) {
+        Key key = new Key(startDate, endDate, instrument);
+        long generationAtMiss;
+        synchronized (this) {
+            Listing entry = entries.get(key);
+            if (entry != null && entry.expires - System.nanoTime() > 0) {
+                hits++;
+                return entry.instruments;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                expirations++;
+            }
+            misses++;
+            generationAtMiss = generation;
+        }
+        List<RentalInstrument> computed = Collections.unmodifiableList(listing.get());
+        synchronized (this) {
+            if (generation == generationAtMiss) {
+                entries.put(key, new Listing(computed, System.nanoTime() + ttlNanos));
+            }
+        }
+        return computed;
+    }
+
+    /**
+     * Removes all listings that may change because the specified instrument was rented or
+     * returned during the specified period.
+     *
+     * @param instrument The type of the rented instrument.
+     * @param startDate  The first day of the rental.
+     * @param endDate    The last day of the rental.
+     */
+    public synchronized void invalidate(String instrument, LocalDate startDate, LocalDate endDate) {
+        generation++;
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            boolean sameType = key.instrument == null || key.instrument.equals(instrument);
+            boolean overlaps = !key.startDate.isAfter(endDate) && !key.endDate.isBefore(startDate);
+            if (sameType && overlaps) {
+                keys.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Removes all listings.
+     */
+    public synchronized void clear() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d max=%d hits=%d misses=%d evictions=%d expirations=%d invalidations=%d",
+                entries.size(), maxSize, hits, misses, evictions, expirations, invalidations);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static final class Key {
+        private final LocalDate startDate;
+        private final LocalDate endDate;
+        private final String instrument;
+
+        private Key(LocalDate startDate, LocalDate endDate, String instrument) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.instrument = instrument;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return startDate.equals(key.startDate) && endDate.equals(key.endDate)
+                    && Objects.equals(instrument, key.instrument);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(startDate, endDate, instrument);
+        }
+    }
+
+    private static final class Listing {
+        private final List<RentalInstrument> instruments;
+        private final long expires;
+
+        private Listing(List<RentalInstrument> instruments, long expires) {
+            this.instruments = instruments;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,24 +1,53 @@
 package se.kth.iv1351.soundgoodcli.model;
 
-import java.util.List;
+import java.time.LocalDate;
+import java.time.Period;
 
 public class Model {
-    public static double getPriceById(List<RentalInstrument> instruments, String instrumentId) throws RentalException {
-        String errorMessage = "No rental instrument with id " + instrumentId + " found";
-        for(RentalInstrument instrument : instruments){
-            if(instrument.getId().equals(instrumentId)){
-                return instrument.getPrice();
-            }
-        }
-        throw new RentalException(errorMessage, null);
-    }
+    /**
+     * The longest a rental may last. The rental table is partitioned on the start date, and
+     * this bound lets a query for rentals overlapping a period skip the partitions of
+     * rentals that started earlier than this before the period.
+     */
+    public static final int MAX_RENTAL_MONTHS = 12;
+    /**
+     * The largest number of active rentals a student may have.
+     */
+    public static final int MAX_ACTIVE_RENTALS = 2;
+    /**
+     * The longest notes a rental may have, the size of the notes column.
+     */
+    public static final int MAX_NOTES_LENGTH = 2000;
+
     public static boolean canStudentRentMoreInstruments(int activeRentals) throws RentalException {
         String errorMessage = "The student already has " + activeRentals + " active rentals.";
 
-        if(activeRentals < 2)
+        if(activeRentals < MAX_ACTIVE_RENTALS)
             return true;
         else
             throw new RentalException(errorMessage, null);
 
     }
+
+    /**
+     * Computes the number of months a rental is charged for, the whole months between its
+     * start and end date. The same is computed by <code>create_rental</code> of migration
+     * V006, as <code>EXTRACT(year FROM age(end, start)) * 12 + EXTRACT(month FROM age(end, start))</code>.
+     *
+     * @param startDate The start date of the rental.
+     * @param endDate   The end date of the rental.
+     * @return The number of months to charge.
+     */
+    public static int rentalMonths(LocalDate startDate, LocalDate endDate) {
+        return (int) Period.between(startDate, endDate).toTotalMonths();
+    }
+
+    /**
+     * @param startDate The start date of a rental.
+     * @param endDate   The end date of the rental.
+     * @return <code>true</code> if the rental lasts longer than {@link #MAX_RENTAL_MONTHS}.
+     */
+    public static boolean isRentalTooLong(LocalDate startDate, LocalDate endDate) {
+        return endDate.isAfter(startDate.plusMonths(MAX_RENTAL_MONTHS));
+    }
 }
@@ -0,0 +1,174 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static se.kth.iv1351.soundgoodcli.model.Model.MAX_RENTAL_MONTHS;
+import static se.kth.iv1351.soundgoodcli.model.Model.isRentalTooLong;
+import static se.kth.iv1351.soundgoodcli.model.Model.rentalMonths;
+
+/**
+ * Prices rentals and lessons without asking the database. The engine holds the monthly
+ * price of every rental instrument and the price list of lessons, and computes prices,
+ * discounts and amounts with exact decimal arithmetic.
+ * <p>
+ * The prices are held in an immutable snapshot that {@link #refresh(List, List)} replaces
+ * as a whole, so readers never see a mix of old and new prices and need no locks. A batch
+ * passed to {@link #quote(List)} is priced from one snapshot, and the months of each
+ * distinct period in the batch are counted only once.
+ */
+public class QuotationEngine {
+    private volatile Prices prices;
+
+    /**
+     * Creates a new engine.
+     *
+     * @param catalog      All rental instruments.
+     * @param lessonPrices The price list of lessons.
+     */
+    public QuotationEngine(List<CatalogInstrument> catalog, List<LessonPrice> lessonPrices) {
+        refresh(catalog, lessonPrices);
+    }
+
+    /**
+     * Replaces all prices. Quotes already being computed use the old prices.
+     *
+     * @param catalog      All rental instruments.
+     * @param lessonPrices The price list of lessons.
+     */
+    public void refresh(List<CatalogInstrument> catalog, List<LessonPrice> lessonPrices) {
+        prices = new Prices(catalog, lessonPrices);
+    }
+
+    /**
+     * @param rentalInstrumentId The id of a rental instrument.
+     * @return The monthly price of the instrument, or <code>null</code> if there is no such instrument.
+     */
+    public BigDecimal findMonthlyPrice(int rentalInstrumentId) {
+        return prices.monthlyPrice(rentalInstrumentId);
+    }
+
+    /**
+     * @return The price list of lessons, ordered by lesson type and skill level.
+     */
+    public List<LessonPrice> getLessonPrices() {
+        return prices.lessonList;
+    }
+
+    /**
+     * @return When the prices were last replaced.
+     */
+    public LocalDateTime getRefreshedAt() {
+        return prices.refreshedAt;
+    }
+
+    /**
+     * Prices one request.
+     *
+     * @param request The rental or lesson to price.
+     * @return The price of the request, or why it could not be priced.
+     */
+    public Quote quote(QuoteRequest request) {
+        return quote(List.of(request)).get(0);
+    }
+
+    /**
+     * Prices a batch of requests from the same prices.
+     *
+     * @param requests The rentals and lessons to price.
+     * @return One quote per request, in the order of the requests.
+     */
+    public List<Quote> quote(List<QuoteRequest> requests) {
+        Prices current = prices;
+        Map<Long, Integer> monthsByPeriod = new HashMap<>();
+        List<Quote> quotes = new ArrayList<>(requests.size());
+        for (QuoteRequest request : requests) {
+            quotes.add(request.isRental() ? quoteRental(current, request, monthsByPeriod) : quoteLesson(current, request));
+        }
+        return quotes;
+    }
+
+    private static Quote quoteRental(Prices current, QuoteRequest request, Map<Long, Integer> monthsByPeriod) {
+        LocalDate startDate = request.getStartDate();
+        LocalDate endDate = request.getEndDate();
+        if (endDate.isBefore(startDate)) {
+            return Quote.failed(request, "The rental ends before it starts.");
+        }
+        if (isRentalTooLong(startDate, endDate)) {
+            return Quote.failed(request, "A rental lasts at most " + MAX_RENTAL_MONTHS + " months.");
+        }
+        BigDecimal monthlyPrice = current.monthlyPrice(request.getRentalInstrumentId());
+        if (monthlyPrice == null) {
+            return Quote.failed(request, "No rental instrument with id " + request.getRentalInstrumentId() + " found.");
+        }
+        long period = (startDate.toEpochDay() << 32) | (endDate.toEpochDay() & 0xFFFFFFFFL);
+        int months = monthsByPeriod.computeIfAbsent(period, key -> rentalMonths(startDate, endDate));
+        return Quote.priced(request, months, monthlyPrice, BigDecimal.ZERO);
+    }
+
+    private static Quote quoteLesson(Prices current, QuoteRequest request) {
+        LessonPrice lessonPrice = current.lessonPrices.get(lessonKey(request.getLessonType(), request.getSkillLevel()));
+        if (lessonPrice == null) {
+            return Quote.failed(request, "No price for " + request.getLessonType() + " lessons at skill level " + request.getSkillLevel() + ".");
+        }
+        return Quote.priced(request, 1, lessonPrice.getPrice(), lessonPrice.getDiscount());
+    }
+
+    private static String lessonKey(String lessonType, String skillLevel) {
+        return lessonType + '\n' + skillLevel;
+    }
+
+    /**
+     * @return The number of prices held and when they were loaded.
+     */
+    @Override
+    public String toString() {
+        Prices current = prices;
+        return current.ids.length + " rental instruments, " + current.lessonList.size()
+                + " lesson prices, refreshed " + current.refreshedAt.withNano(0);
+    }
+
+    /**
+     * The monthly prices are stored in an array in the order of a sorted array of ids, like
+     * the catalog of {@link AvailabilityEngine}, so a lookup neither boxes nor hashes.
+     */
+    private static final class Prices {
+        private final int[] ids;
+        private final BigDecimal[] monthlyPrices;
+        private final Map<String, LessonPrice> lessonPrices = new HashMap<>();
+        private final List<LessonPrice> lessonList;
+        private final LocalDateTime refreshedAt = LocalDateTime.now();
+
+        private Prices(List<CatalogInstrument> catalog, List<LessonPrice> lessons) {
+            List<CatalogInstrument> sorted = new ArrayList<>(catalog);
+            sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+            ids = new int[sorted.size()];
+            monthlyPrices = new BigDecimal[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                ids[i] = sorted.get(i).getId();
+                monthlyPrices[i] = sorted.get(i).getMonthlyPrice();
+            }
+            List<LessonPrice> ordered = new ArrayList<>(lessons);
+            ordered.sort((a, b) -> {
+                int byType = a.getLessonType().compareTo(b.getLessonType());
+                return byType != 0 ? byType : a.getSkillLevel().compareTo(b.getSkillLevel());
+            });
+            for (LessonPrice lessonPrice : ordered) {
+                lessonPrices.put(lessonKey(lessonPrice.getLessonType(), lessonPrice.getSkillLevel()), lessonPrice);
+            }
+            lessonList = Collections.unmodifiableList(ordered);
+        }
+
+        private BigDecimal monthlyPrice(int rentalInstrumentId) {
+            int index = Arrays.binarySearch(ids, rentalInstrumentId);
+            return index < 0 ? null : monthlyPrices[index];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.math.BigDecimal;
+
+/**
+ * The price of one {@link QuoteRequest}, or why it could not be priced. The amount to pay
+ * is the price less the discount. A rental is priced per month and has no discount, a
+ * lesson counts as one unit.
+ */
+public class Quote {
+    private final QuoteRequest request;
+    private final boolean priced;
+    private final int units;
+    private final BigDecimal unitPrice;
+    private final BigDecimal price;
+    private final BigDecimal discount;
+    private final String message;
+
+    private Quote(QuoteRequest request, boolean priced, int units, BigDecimal unitPrice, BigDecimal price, BigDecimal discount, String message) {
+        this.request = request;
+        this.priced = priced;
+        this.units = units;
+        this.unitPrice = unitPrice;
+        this.price = price;
+        this.discount = discount;
+        this.message = message;
+    }
+
+    /**
+     * @param request   The request that was priced.
+     * @param units     The number of months of a rental, or one for a lesson.
+     * @param unitPrice The price of one month or one lesson.
+     * @param discount  The discount given on the price.
+     * @return A quote telling the price of the request.
+     */
+    public static Quote priced(QuoteRequest request, int units, BigDecimal unitPrice, BigDecimal discount) {
+        return new Quote(request, true, units, unitPrice, unitPrice.multiply(BigDecimal.valueOf(units)), discount, "Priced");
+    }
+
+    /**
+     * @param request The request that could not be priced.
+     * @param reason  Why it could not be priced.
+     * @return A quote telling that the request has no price.
+     */
+    public static Quote failed(QuoteRequest request, String reason) {
+        return new Quote(request, false, 0, null, null, null, reason);
+    }
+
+    public QuoteRequest getRequest() {
+        return this.request;
+    }
+
+    public boolean isPriced() {
+        return this.priced;
+    }
+
+    public int getUnits() {
+        return this.units;
+    }
+
+    public BigDecimal getUnitPrice() {
+        return this.unitPrice;
+    }
+
+    public BigDecimal getPrice() {
+        return this.price;
+    }
+
+    public BigDecimal getDiscount() {
+        return this.discount;
+    }
+
+    /**
+     * @return The price less the discount, or <code>null</code> if the request has no price.
+     */
+    public BigDecimal getAmount() {
+        return priced ? price.subtract(discount) : null;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+}
@@ -0,0 +1,66 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDate;
+
+/**
+ * Something to put a price on, either the rental of an instrument during a period or a
+ * lesson of a type and skill level.
+ */
+public class QuoteRequest {
+    private final int rentalInstrumentId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final String lessonType;
+    private final String skillLevel;
+
+    private QuoteRequest(int rentalInstrumentId, LocalDate startDate, LocalDate endDate, String lessonType, String skillLevel) {
+        this.rentalInstrumentId = rentalInstrumentId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.lessonType = lessonType;
+        this.skillLevel = skillLevel;
+    }
+
+    /**
+     * @param rentalInstrumentId The id of the rental instrument.
+     * @param startDate          The first day of the rental.
+     * @param endDate            The last day of the rental.
+     * @return A request for the price of renting the instrument during the period.
+     */
+    public static QuoteRequest rental(int rentalInstrumentId, LocalDate startDate, LocalDate endDate) {
+        return new QuoteRequest(rentalInstrumentId, startDate, endDate, null, null);
+    }
+
+    /**
+     * @param lessonType The type of lesson, as in the price list.
+     * @param skillLevel The skill level of the lesson, as in the price list.
+     * @return A request for the price of one lesson.
+     */
+    public static QuoteRequest lesson(String lessonType, String skillLevel) {
+        return new QuoteRequest(0, null, null, lessonType, skillLevel);
+    }
+
+    public boolean isRental() {
+        return this.lessonType == null;
+    }
+
+    public int getRentalInstrumentId() {
+        return this.rentalInstrumentId;
+    }
+
+    public LocalDate getStartDate() {
+        return this.startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return this.endDate;
+    }
+
+    public String getLessonType() {
+        return this.lessonType;
+    }
+
+    public String getSkillLevel() {
+        return this.skillLevel;
+    }
+}
@@ -1,15 +1,17 @@
 package se.kth.iv1351.soundgoodcli.model;
 
+import java.math.BigDecimal;
+
 public class RentalInstrument {
-    private final String id;
+    private final int id;
     private final String name;
     private final String model;
     private final String cathegory;
-    private final double monthlyPrice;
+    private final BigDecimal monthlyPrice;
     private final int months;
-    private final double price;
+    private final BigDecimal price;
 
-    public RentalInstrument(String id, String name, String model, String cathegory, double monthlyPrice, int months, double price) {
+    public RentalInstrument(int id, String name, String model, String cathegory, BigDecimal monthlyPrice, int months, BigDecimal price) {
         this.id = id;
         this.name = name;
         this.model = model;
@@ -19,7 +21,7 @@ public class RentalInstrument {
         this.price = price;
     }
 
-    public String getId() {
+    public int getId() {
         return this.id;
     }
 
@@ -35,7 +37,7 @@ public class RentalInstrument {
         return this.cathegory;
     }
 
-    public double getMonthlyPrice() {
+    public BigDecimal getMonthlyPrice() {
         return this.monthlyPrice;
     }
 
@@ -43,7 +45,7 @@ public class RentalInstrument {
         return this.months;
     }
 
-    public double getPrice() {
+    public BigDecimal getPrice() {
         return this.price;
     }
 
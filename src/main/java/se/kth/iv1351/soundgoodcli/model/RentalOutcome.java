@@ -0,0 +1,27 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * What happened to a rental checked and created in the database in one call.
+ */
+public enum RentalOutcome {
+    /**
+     * The rental was created.
+     */
+    CREATED,
+    /**
+     * There is no approved student with the id.
+     */
+    STUDENT_NOT_APPROVED,
+    /**
+     * The student already has the maximum number of active rentals.
+     */
+    TOO_MANY_RENTALS,
+    /**
+     * There is no rental instrument with the id.
+     */
+    INSTRUMENT_NOT_FOUND,
+    /**
+     * An active rental of the instrument overlaps the period.
+     */
+    ALREADY_RENTED
+}
@@ -0,0 +1,36 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDate;
+
+/**
+ * The period during which a student rents a rental instrument.
+ */
+public class RentalPeriod {
+    private final int rentalInstrumentId;
+    private final int studentId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public RentalPeriod(int rentalInstrumentId, int studentId, LocalDate startDate, LocalDate endDate) {
+        this.rentalInstrumentId = rentalInstrumentId;
+        this.studentId = studentId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public int getRentalInstrumentId() {
+        return this.rentalInstrumentId;
+    }
+
+    public int getStudentId() {
+        return this.studentId;
+    }
+
+    public LocalDate getStartDate() {
+        return this.startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return this.endDate;
+    }
+}
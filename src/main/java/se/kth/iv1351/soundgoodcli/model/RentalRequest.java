@@ -0,0 +1,48 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDate;
+
+/**
+ * A request to rent an instrument, as given to a batch of rentals.
+ */
+public class RentalRequest {
+    private final int studentId;
+    private final int rentalInstrumentId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final String delivery;
+    private final String notes;
+
+    public RentalRequest(int studentId, int rentalInstrumentId, LocalDate startDate, LocalDate endDate, String delivery, String notes) {
+        this.studentId = studentId;
+        this.rentalInstrumentId = rentalInstrumentId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.delivery = delivery;
+        this.notes = notes;
+    }
+
+    public int getStudentId() {
+        return this.studentId;
+    }
+
+    public int getRentalInstrumentId() {
+        return this.rentalInstrumentId;
+    }
+
+    public LocalDate getStartDate() {
+        return this.startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return this.endDate;
+    }
+
+    public String getDelivery() {
+        return this.delivery;
+    }
+
+    public String getNotes() {
+        return this.notes;
+    }
+}
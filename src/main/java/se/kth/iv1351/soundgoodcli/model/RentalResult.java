@@ -0,0 +1,45 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * Tells whether one request of a batch of rentals was created, and if not, why.
+ */
+public class RentalResult {
+    private final RentalRequest request;
+    private final boolean created;
+    private final String message;
+
+    private RentalResult(RentalRequest request, boolean created, String message) {
+        this.request = request;
+        this.created = created;
+        this.message = message;
+    }
+
+    /**
+     * @param request The request that was created.
+     * @return A result telling that the rental was created.
+     */
+    public static RentalResult created(RentalRequest request) {
+        return new RentalResult(request, true, "Created");
+    }
+
+    /**
+     * @param request The request that was rejected.
+     * @param reason  Why the rental was not created.
+     * @return A result telling that the rental was not created.
+     */
+    public static RentalResult failed(RentalRequest request, String reason) {
+        return new RentalResult(request, false, reason);
+    }
+
+    public RentalRequest getRequest() {
+        return this.request;
+    }
+
+    public boolean isCreated() {
+        return this.created;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+}
@@ -0,0 +1,329 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers which instructors can give a lesson at a given time, and how many lessons each
+ * instructor gives during a month, without asking the database. The engine holds, per
+ * instructor, the work times and the lessons from some day on, and is kept up to date by
+ * calling {@link #addWorkTime(WorkTime)}, {@link #addLesson(InstructorLesson)} and
+ * {@link #removeLesson(int, int)} each time the schedule changes.
+ * <p>
+ * Work times are merged into sorted, disjoint windows, so whether an instructor works
+ * during a whole slot is decided by one binary search. Lessons are kept sorted by start
+ * together with a running maximum of their ends, so whether a slot overlaps a lesson is
+ * also one binary search, and the lessons of a month are counted with two. Times are
+ * stored as seconds, and a slot or lesson includes its start but not its end, so a lesson
+ * may start when the previous one ends. Reads are lock free, writes replace the schedule
+ * of the affected instructor.
+ */
+public class SchedulingEngine {
+    private final List<Instructor> instructors;
+    private final Map<Integer, Instructor> instructorsById = new HashMap<>();
+    private final ConcurrentHashMap<Integer, Schedule> schedules = new ConcurrentHashMap<>();
+    private final LocalDateTime coveredFrom;
+
+    /**
+     * Creates a new engine. Work times and lessons of unknown instructors are ignored.
+     *
+     * @param instructors All instructors.
+     * @param workTimes   The work times ending after <code>coveredFrom</code>.
+     * @param lessons     The lessons starting at or after <code>coveredFrom</code>.
+     * @param coveredFrom The first time the engine knows the schedules of.
+     */
+    public SchedulingEngine(List<Instructor> instructors, List<WorkTime> workTimes, List<InstructorLesson> lessons,
+                            LocalDateTime coveredFrom) {
+        List<Instructor> sorted = new ArrayList<>(instructors);
+        sorted.sort((a, b) -> Integer.compare(a.getInstructorId(), b.getInstructorId()));
+        this.instructors = Collections.unmodifiableList(sorted);
+        this.coveredFrom = coveredFrom;
+        Map<Integer, List<WorkTime>> workTimesById = new HashMap<>();
+        Map<Integer, List<InstructorLesson>> lessonsById = new HashMap<>();
+        for (Instructor instructor : sorted) {
+            instructorsById.put(instructor.getInstructorId(), instructor);
+            workTimesById.put(instructor.getInstructorId(), new ArrayList<>());
+            lessonsById.put(instructor.getInstructorId(), new ArrayList<>());
+        }
+        for (WorkTime workTime : workTimes) {
+            List<WorkTime> ofInstructor = workTimesById.get(workTime.getInstructorId());
+            if (ofInstructor != null) {
+                ofInstructor.add(workTime);
+            }
+        }
+        for (InstructorLesson lesson : lessons) {
+            List<InstructorLesson> ofInstructor = lessonsById.get(lesson.getInstructorId());
+            if (ofInstructor != null) {
+                ofInstructor.add(lesson);
+            }
+        }
+        for (Instructor instructor : sorted) {
+            int id = instructor.getInstructorId();
+            schedules.put(id, Schedule.of(workTimesById.get(id), lessonsById.get(id)));
+        }
+    }
+
+    /**
+     * Finds the instructors that teach the specified instrument type, work during the whole
+     * specified slot and give no lesson during any part of it.
+     *
+     * @param instrument The instrument type, or <code>null</code> for any type.
+     * @param start      The start of the slot.
+     * @param end        The end of the slot.
+     * @return The free instructors, ordered by id.
+     */
+    public List<Instructor> findFreeInstructors(String instrument, LocalDateTime start, LocalDateTime end) {
+        long from = seconds(start);
+        long to = seconds(end);
+        List<Instructor> free = new ArrayList<>();
+        for (Instructor instructor : instructors) {
+            if (instrument != null && !instructor.teaches(instrument)) {
+                continue;
+            }
+            if (schedules.get(instructor.getInstructorId()).isFree(from, to)) {
+                free.add(instructor);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * @param instructorId The id of an instructor.
+     * @param start        The start of a slot.
+     * @param end          The end of the slot.
+     * @return <code>true</code> if the instructor works during the whole slot and gives no
+     *         lesson during any part of it, <code>false</code> also for unknown instructors.
+     */
+    public boolean isFree(int instructorId, LocalDateTime start, LocalDateTime end) {
+        Schedule schedule = schedules.get(instructorId);
+        return schedule != null && schedule.isFree(seconds(start), seconds(end));
+    }
+
+    /**
+     * Finds the instructors giving more than the specified number of lessons during the
+     * specified month.
+     *
+     * @param month      The month, which must not start before {@link #getCoveredFrom()}.
+     * @param maxLessons The number of lessons an instructor may give during a month.
+     * @return The instructors over the limit, the one with most lessons first.
+     */
+    public List<InstructorLessonCount> findInstructorsOverLimit(YearMonth month, int maxLessons) {
+        long from = seconds(month.atDay(1).atStartOfDay());
+        long to = seconds(month.plusMonths(1).atDay(1).atStartOfDay());
+        List<InstructorLessonCount> overLimit = new ArrayList<>();
+        for (Instructor instructor : instructors) {
+            int lessons = schedules.get(instructor.getInstructorId()).countLessonsStarting(from, to);
+            if (lessons > maxLessons) {
+                overLimit.add(new InstructorLessonCount(instructor.getInstructorId(), instructor.getName(), lessons));
+            }
+        }
+        overLimit.sort((a, b) -> Integer.compare(b.getLessons(), a.getLessons()));
+        return overLimit;
+    }
+
+    /**
+     * @param instructorId The id of an instructor.
+     * @return The instructor, or <code>null</code> if there is none with the specified id.
+     */
+    public Instructor findInstructor(int instructorId) {
+        return instructorsById.get(instructorId);
+    }
+
+    /**
+     * @return The first time the engine knows the schedules of.
+     */
+    public LocalDateTime getCoveredFrom() {
+        return coveredFrom;
+    }
+
+    /**
+     * Registers a new work time. A work time of an unknown instructor is ignored.
+     *
+     * @param workTime The new work time.
+     */
+    public void addWorkTime(WorkTime workTime) {
+        schedules.computeIfPresent(workTime.getInstructorId(), (id, old) -> old.withWorkTime(workTime));
+    }
+
+    /**
+     * Registers a lesson assigned to an instructor. A lesson of an unknown instructor is ignored.
+     *
+     * @param lesson The assigned lesson.
+     */
+    public void addLesson(InstructorLesson lesson) {
+        schedules.computeIfPresent(lesson.getInstructorId(), (id, old) -> old.withLesson(lesson));
+    }
+
+    /**
+     * Removes a lesson from the schedule of an instructor.
+     *
+     * @param instructorId The id of the instructor.
+     * @param lessonId     The id of the lesson.
+     */
+    public void removeLesson(int instructorId, int lessonId) {
+        schedules.computeIfPresent(instructorId, (id, old) -> old.withoutLesson(lessonId));
+    }
+
+    private static long seconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * The work windows and lessons of one instructor.
+     */
+    private static final class Schedule {
+        private final long[] workStarts;
+        private final long[] workEnds;
+        private final long[] lessonStarts;
+        private final long[] lessonEnds;
+        private final long[] lessonMaxEnds;
+        private final int[] lessonIds;
+
+        private Schedule(long[] workStarts, long[] workEnds, long[] lessonStarts, long[] lessonEnds, int[] lessonIds) {
+            this.workStarts = workStarts;
+            this.workEnds = workEnds;
+            this.lessonStarts = lessonStarts;
+            this.lessonEnds = lessonEnds;
+            this.lessonIds = lessonIds;
+            this.lessonMaxEnds = new long[lessonEnds.length];
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < lessonEnds.length; i++) {
+                max = Math.max(max, lessonEnds[i]);
+                lessonMaxEnds[i] = max;
+            }
+        }
+
+        static Schedule of(List<WorkTime> workTimes, List<InstructorLesson> lessons) {
+            long[][] windows = new long[workTimes.size()][];
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = new long[]{seconds(workTimes.get(i).getStart()), seconds(workTimes.get(i).getEnd())};
+            }
+            InstructorLesson[] sorted = lessons.toArray(new InstructorLesson[0]);
+            Arrays.sort(sorted, (a, b) -> a.getStart().compareTo(b.getStart()));
+            long[] starts = new long[sorted.length];
+            long[] ends = new long[sorted.length];
+            int[] ids = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                starts[i] = seconds(sorted[i].getStart());
+                ends[i] = seconds(sorted[i].getEnd());
+                ids[i] = sorted[i].getLessonId();
+            }
+            return withMergedWindows(windows, starts, ends, ids);
+        }
+
+        /**
+         * Sorts the work windows and merges those that overlap or touch, so that a slot
+         * spanning two consecutive windows is inside one merged window.
+         */
+        private static Schedule withMergedWindows(long[][] windows, long[] lessonStarts, long[] lessonEnds, int[] lessonIds) {
+            Arrays.sort(windows, (a, b) -> Long.compare(a[0], b[0]));
+            long[] starts = new long[windows.length];
+            long[] ends = new long[windows.length];
+            int merged = 0;
+            for (long[] window : windows) {
+                if (merged > 0 && window[0] <= ends[merged - 1]) {
+                    ends[merged - 1] = Math.max(ends[merged - 1], window[1]);
+                } else {
+                    starts[merged] = window[0];
+                    ends[merged] = window[1];
+                    merged++;
+                }
+            }
+            return new Schedule(Arrays.copyOf(starts, merged), Arrays.copyOf(ends, merged), lessonStarts, lessonEnds, lessonIds);
+        }
+
+        boolean isFree(long start, long end) {
+            int window = lastStartingOnOrBefore(workStarts, start);
+            if (window < 0 || workEnds[window] < end) {
+                return false;
+            }
+            int lesson = firstStartingOnOrAfter(lessonStarts, end) - 1;
+            return lesson < 0 || lessonMaxEnds[lesson] <= start;
+        }
+
+        int countLessonsStarting(long from, long to) {
+            return firstStartingOnOrAfter(lessonStarts, to) - firstStartingOnOrAfter(lessonStarts, from);
+        }
+
+        Schedule withWorkTime(WorkTime workTime) {
+            long[][] windows = new long[workStarts.length + 1][];
+            for (int i = 0; i < workStarts.length; i++) {
+                windows[i] = new long[]{workStarts[i], workEnds[i]};
+            }
+            windows[workStarts.length] = new long[]{seconds(workTime.getStart()), seconds(workTime.getEnd())};
+            return withMergedWindows(windows, lessonStarts, lessonEnds, lessonIds);
+        }
+
+        Schedule withLesson(InstructorLesson lesson) {
+            long start = seconds(lesson.getStart());
+            int at = firstStartingOnOrAfter(lessonStarts, start);
+            return new Schedule(workStarts, workEnds, insert(lessonStarts, at, start),
+                    insert(lessonEnds, at, seconds(lesson.getEnd())), insert(lessonIds, at, lesson.getLessonId()));
+        }
+
+        Schedule withoutLesson(int lessonId) {
+            for (int at = 0; at < lessonIds.length; at++) {
+                if (lessonIds[at] == lessonId) {
+                    return new Schedule(workStarts, workEnds, remove(lessonStarts, at), remove(lessonEnds, at), remove(lessonIds, at));
+                }
+            }
+            return this;
+        }
+
+        private static int lastStartingOnOrBefore(long[] starts, long time) {
+            return firstStartingOnOrAfter(starts, time + 1) - 1;
+        }
+
+        private static int firstStartingOnOrAfter(long[] starts, long time) {
+            int low = 0;
+            int high = starts.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private static long[] insert(long[] source, int at, long value) {
+            long[] result = new long[source.length + 1];
+            System.arraycopy(source, 0, result, 0, at);
+            result[at] = value;
+            System.arraycopy(source, at, result, at + 1, source.length - at);
+            return result;
+        }
+
+        private static int[] insert(int[] source, int at, int value) {
+            int[] result = new int[source.length + 1];
+            System.arraycopy(source, 0, result, 0, at);
+            result[at] = value;
+            System.arraycopy(source, at, result, at + 1, source.length - at);
+            return result;
+        }
+
+        private static long[] remove(long[] source, int at) {
+            long[] result = new long[source.length - 1];
+            System.arraycopy(source, 0, result, 0, at);
+            System.arraycopy(source, at + 1, result, at, source.length - at - 1);
+            return result;
+        }
+
+        private static int[] remove(int[] source, int at) {
+            int[] result = new int[source.length - 1];
+            System.arraycopy(source, 0, result, 0, at);
+            System.arraycopy(source, at + 1, result, at, source.length - at - 1);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * Thrown when instructors can not be scheduled, or their schedules can not be searched.
+ */
+public class SchedulingException extends Exception {
+
+    /**
+     * Create a new instance thrown because of the specified reason.
+     *
+     * @param reason Why the exception was thrown.
+     */
+    public SchedulingException(String reason) {
+        super(reason);
+    }
+
+    /**
+     * Create a new instance thrown because of the specified reason and exception.
+     *
+     * @param reason    Why the exception was thrown.
+     * @param rootCause The exception that caused this exception to be thrown.
+     */
+    public SchedulingException(String reason, Throwable rootCause) {
+        super(reason, rootCause);
+    }
+}
@@ -0,0 +1,26 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+/**
+ * Thrown when lesson statistics can not be retrieved.
+ */
+public class StatisticsException extends Exception {
+
+    /**
+     * Create a new instance thrown because of the specified reason.
+     *
+     * @param reason Why the exception was thrown.
+     */
+    public StatisticsException(String reason) {
+        super(reason);
+    }
+
+    /**
+     * Create a new instance thrown because of the specified reason and exception.
+     *
+     * @param reason    Why the exception was thrown.
+     * @param rootCause The exception that caused this exception to be thrown.
+     */
+    public StatisticsException(String reason, Throwable rootCause) {
+        super(reason, rootCause);
+    }
+}
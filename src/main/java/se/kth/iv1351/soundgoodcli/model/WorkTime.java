@@ -0,0 +1,30 @@
+package se.kth.iv1351.soundgoodcli.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A period during which an instructor is at work and can give lessons.
+ */
+public class WorkTime {
+    private final int instructorId;
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+
+    public WorkTime(int instructorId, LocalDateTime start, LocalDateTime end) {
+        this.instructorId = instructorId;
+        this.start = start;
+        this.end = end;
+    }
+
+    public int getInstructorId() {
+        return this.instructorId;
+    }
+
+    public LocalDateTime getStart() {
+        return this.start;
+    }
+
+    public LocalDateTime getEnd() {
+        return this.end;
+    }
+}
@@ -0,0 +1,166 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+import se.kth.iv1351.soundgoodcli.model.RentalPeriod;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that concurrent rentals never break the rules, in the booking mode selected with
+ * <code>soundgood.booking.mode</code>. Many threads rent a few instruments for a few
+ * students during overlapping periods, so most attempts conflict. The threads are spread
+ * over <code>soundgood.stress.controllers</code> controllers, two by default, which share
+ * nothing but the database, like two processes would. Afterwards the created rentals are
+ * checked: no instrument may be rented twice during overlapping days and no student may
+ * have more than two rentals. With one controller, its availability engine must also match
+ * the database. All created rentals are then terminated. The program exits with status 1
+ * if a rule was broken. The rentals start on <code>soundgood.stress.firstRental</code>,
+ * 2200-01-01 by default, and the partition of that year is created by the first of them.
+ */
+public class BookingStress {
+    private static final LocalDate FIRST_RENTAL = LocalDate.parse(System.getProperty("soundgood.stress.firstRental", "2200-01-01"));
+    private static final int MAX_RENTALS_PER_STUDENT = 2;
+    private static final int CONTROLLERS = Integer.getInteger("soundgood.stress.controllers", 2);
+
+    /**
+     * @param args The number of threads, the number of rentals each thread attempts, and the
+     *             ids of approved students without active rentals.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: BookingStress <threads> <attempts-per-thread> <student-id>...");
+            return;
+        }
+        int threads = Integer.parseInt(args[0]);
+        int attemptsPerThread = Integer.parseInt(args[1]);
+        List<Integer> students = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            students.add(Integer.parseInt(args[i]));
+        }
+        List<Controller> ctrls = new ArrayList<>();
+        for (int i = 0; i < CONTROLLERS; i++) {
+            ctrls.add(new Controller());
+        }
+        Controller ctrl = ctrls.get(0);
+
+        LocalDate horizon = FIRST_RENTAL.plusMonths(3);
+        List<RentalInstrument> free = ctrl.getAllAvailableRentalInstruments(FIRST_RENTAL, horizon);
+        int nrOfInstruments = Math.max(1, Math.min(free.size(), students.size() / 2));
+        if (free.isEmpty()) {
+            System.out.println("No instrument is free from " + FIRST_RENTAL + " to " + horizon + ".");
+            return;
+        }
+        List<Integer> instruments = new ArrayList<>();
+        for (int i = 0; i < nrOfInstruments; i++) {
+            instruments.add(free.get(i).getId());
+        }
+
+        List<Queue<RentalPeriod>> createdBy = new ArrayList<>();
+        for (int i = 0; i < ctrls.size(); i++) {
+            createdBy.add(new ConcurrentLinkedQueue<>());
+        }
+        LongAdder rejected = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Controller threadCtrl = ctrls.get(t % ctrls.size());
+            Queue<RentalPeriod> created = createdBy.get(t % ctrls.size());
+            results.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < attemptsPerThread; n++) {
+                    int studentId = students.get(random.nextInt(students.size()));
+                    int instrumentId = instruments.get(random.nextInt(instruments.size()));
+                    LocalDate rentalStart = FIRST_RENTAL.plusDays(random.nextInt(60));
+                    LocalDate rentalEnd = rentalStart.plusDays(random.nextInt(1, 14));
+                    try {
+                        threadCtrl.createRental(studentId, instrumentId, rentalStart, rentalEnd, null, "Booking stress");
+                        created.add(new RentalPeriod(instrumentId, studentId, rentalStart, rentalEnd));
+                    } catch (RentalException expected) {
+                        rejected.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        executor.shutdown();
+
+        List<RentalPeriod> created = new ArrayList<>();
+        long retries = 0;
+        long conflicts = 0;
+        for (int i = 0; i < ctrls.size(); i++) {
+            created.addAll(createdBy.get(i));
+            retries += ctrls.get(i).getMetrics().getCounter("controller.booking_retries");
+            conflicts += ctrls.get(i).getMetrics().getCounter("dao.conflicts");
+        }
+        List<String> violations = findViolations(created);
+        if (ctrls.size() == 1) {
+            violations.addAll(ctrl.compareAvailabilityWithDatabase(FIRST_RENTAL, horizon));
+        }
+
+        System.out.printf("mode=%s controllers=%d threads=%d instruments=%d students=%d%n",
+                ctrl.getBookingMode(), ctrls.size(), threads, instruments.size(), students.size());
+        System.out.printf("created=%d rejected=%d retries=%d conflicts=%d attempts/s=%.1f%n",
+                created.size(), rejected.sum(), retries, conflicts, threads * attemptsPerThread / elapsedSeconds);
+        for (int i = 0; i < ctrls.size(); i++) {
+            for (RentalPeriod rental : createdBy.get(i)) {
+                ctrls.get(i).terminateRental(rental.getStudentId(), rental.getRentalInstrumentId(), rental.getStartDate());
+            }
+        }
+
+        if (violations.isEmpty()) {
+            System.out.println("No rule was broken.");
+        } else {
+            violations.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param created Rentals made during the run, all of them active.
+     * @return The rentals that overlap on one instrument and the students with too many
+     *         rentals, empty if no rule was broken.
+     */
+    static List<String> findViolations(List<RentalPeriod> created) {
+        List<String> violations = new ArrayList<>();
+        created.sort(Comparator.comparing(RentalPeriod::getRentalInstrumentId).thenComparing(RentalPeriod::getStartDate));
+        for (int i = 1; i < created.size(); i++) {
+            RentalPeriod previous = created.get(i - 1);
+            RentalPeriod current = created.get(i);
+            if (previous.getRentalInstrumentId() == current.getRentalInstrumentId()
+                    && !current.getStartDate().isAfter(previous.getEndDate())) {
+                violations.add("Instrument " + current.getRentalInstrumentId() + " is rented twice: "
+                        + previous.getStartDate() + " to " + previous.getEndDate() + " and "
+                        + current.getStartDate() + " to " + current.getEndDate() + ".");
+            }
+        }
+        Map<Integer, Integer> rentalsPerStudent = new HashMap<>();
+        for (RentalPeriod rental : created) {
+            rentalsPerStudent.merge(rental.getStudentId(), 1, Integer::sum);
+        }
+        rentalsPerStudent.forEach((student, rentals) -> {
+            if (rentals > MAX_RENTALS_PER_STUDENT) {
+                violations.add("Student " + student + " has " + rentals + " rentals.");
+            }
+        });
+        return violations;
+    }
+}
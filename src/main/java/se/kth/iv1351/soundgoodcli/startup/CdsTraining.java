@@ -0,0 +1,33 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.view.BlockingInterpreter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+/**
+ * The training run of the class-data-sharing archive built by the <code>appcds</code>
+ * profile. The client is started as by {@link Main} and given a few typical commands, so
+ * that every class loaded by a normal session is loaded once and written to the archive
+ * when the JVM exits. The database must be reachable.
+ */
+public class CdsTraining {
+    /**
+     * @param args There are no command line arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        LocalDate start = LocalDate.now();
+        String commands = "help\n"
+                + "list " + start + " " + start.plusMonths(3) + "\n"
+                + "list " + start + " " + start.plusMonths(3) + " guitar\n"
+                + "list " + start + " " + start.plusMonths(3) + " --page 1 --limit 20\n"
+                + "lessons " + start.getYear() + "\n"
+                + "instructors " + YearMonth.from(start) + " 1\n"
+                + "stats\n"
+                + "quit\n";
+        System.setIn(new ByteArrayInputStream(commands.getBytes(StandardCharsets.UTF_8)));
+        new BlockingInterpreter(Main.startController()).handleCmds();
+    }
+}
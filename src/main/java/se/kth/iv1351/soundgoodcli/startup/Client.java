@@ -0,0 +1,19 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.view.CommandClient;
+
+/**
+ * Starts a client of the command server.
+ */
+public class Client {
+    /**
+     * @param args Optionally the host and the port of the server.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4711;
+        try (CommandClient client = new CommandClient(host, port)) {
+            client.handleCmds();
+        }
+    }
+}
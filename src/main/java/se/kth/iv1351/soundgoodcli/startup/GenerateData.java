@@ -0,0 +1,43 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.integration.SGDBConfig;
+import se.kth.iv1351.soundgoodcli.integration.SGDBDataGenerator;
+import se.kth.iv1351.soundgoodcli.integration.SGDBException;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Replaces the content of the sound good database with synthetic data. The database is
+ * selected with the <code>soundgood.db.*</code> system properties and must already have
+ * the tables of <code>psql-sgdb-create-tables.sql</code>.
+ */
+public class GenerateData {
+    /**
+     * @param args The scale factor (1 gives 10M rentals and 10M lessons), the random seed
+     *             and optionally the date to regard as today, which defaults to the current
+     *             date. Runs with the same three values generate identical data.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: GenerateData <scale> <seed> [reference-date]");
+            return;
+        }
+        double scale = Double.parseDouble(args[0]);
+        long seed = Long.parseLong(args[1]);
+        LocalDate referenceDate = args.length > 2 ? LocalDate.parse(args[2]) : LocalDate.now();
+        System.out.println("Generating data at scale " + scale + " with seed " + seed + " and reference date " + referenceDate);
+
+        long start = System.nanoTime();
+        try {
+            Map<String, Long> rowsPerTable = new SGDBDataGenerator(SGDBConfig.fromSystemProperties(), scale, seed, referenceDate).generate();
+            for (Map.Entry<String, Long> table : rowsPerTable.entrySet()) {
+                System.out.printf("%-25s %12d rows%n", table.getKey(), table.getValue());
+            }
+            System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+        } catch (SGDBException sgdbe) {
+            System.out.println("Could not generate data.");
+            sgdbe.printStackTrace();
+        }
+    }
+}
@@ -4,19 +4,61 @@ import se.kth.iv1351.soundgoodcli.controller.Controller;
 import se.kth.iv1351.soundgoodcli.integration.SGDBException;
 import se.kth.iv1351.soundgoodcli.view.BlockingInterpreter;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Starts the bank client.
+ * Starts the bank client. With the system property <code>soundgood.startup</code> set to
+ * <code>background</code> the prompt is shown at once, while the controller connects to
+ * the database and loads the availability engine on another thread. By default it is
+ * <code>eager</code>, and the prompt is shown when the controller is started. If the system
+ * property <code>soundgood.warmup.executions</code> is set, the controller is warmed up
+ * with that many executions of each statement before it is used.
  */
 public class Main {
+    private static final String STARTUP_MODE = System.getProperty("soundgood.startup", "eager");
+    private static final int WARM_UP_EXECUTIONS = Integer.getInteger("soundgood.warmup.executions", 0);
+
     /**
      * @param args There are no command line arguments.
      */
     public static void main(String[] args) {
+        if ("background".equalsIgnoreCase(STARTUP_MODE)) {
+            CompletableFuture<Controller> ctrl = new CompletableFuture<>();
+            Thread starter = new Thread(() -> {
+                try {
+                    ctrl.complete(startController());
+                } catch (SGDBException | RuntimeException failed) {
+                    ctrl.completeExceptionally(failed);
+                }
+            }, "controller-startup");
+            starter.setDaemon(true);
+            starter.start();
+            new BlockingInterpreter(ctrl).handleCmds();
+            return;
+        }
         try {
-        new BlockingInterpreter(new Controller()).handleCmds();
+        new BlockingInterpreter(startController()).handleCmds();
         } catch(SGDBException bdbe) {
             System.out.println("Could not connect to Bank db.");
             bdbe.printStackTrace();
         }
     }
+
+    /**
+     * Creates the controller and warms it up if requested. The time from the start of the
+     * JVM until the controller is ready is recorded as the operation
+     * <code>startup.controller_ready</code>.
+     */
+    static Controller startController() throws SGDBException {
+        long jvmStarted = System.nanoTime()
+                - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+        Controller ctrl = new Controller();
+        if (WARM_UP_EXECUTIONS > 0) {
+            ctrl.warmUp(WARM_UP_EXECUTIONS);
+        }
+        ctrl.getMetrics().operation("startup.controller_ready").record(jvmStarted, 0);
+        return ctrl;
+    }
 }
@@ -0,0 +1,184 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+import se.kth.iv1351.soundgoodcli.model.RentalPeriod;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Measures how rental throughput scales when several terminals rent at the same time, and
+ * checks that the rules hold while they do. Rentals are made far in the future, so that
+ * they do not collide with real data, and the partitions of those years are created by the
+ * first rental of each year. Four runs are made:
+ * <ol>
+ *     <li>One thread rents and terminates its own instrument for its own student.</li>
+ *     <li>One thread per student does the same, each with its own instrument. The threads
+ *     are spread over two controllers, which share nothing but the database, so the row
+ *     locks and not the striped locks of one controller keep their rentals apart.</li>
+ *     <li>The same as the second run, but every rental holds one lock shared by all threads,
+ *     which serializes the rentals like the former table-wide <code>FOR UPDATE</code> did.</li>
+ *     <li>All threads rent random periods of the same few instruments for random students,
+ *     so most attempts conflict. Afterwards no instrument may be rented twice during
+ *     overlapping days and no student may have more than two rentals.</li>
+ * </ol>
+ * The throughput of each run is printed. The program exits with status 1 if a rule was broken.
+ */
+public class RentalContention {
+    private static final LocalDate FIRST_RENTAL = LocalDate.of(2100, 1, 1);
+    private static final int CONTENDED_DAYS = 60;
+    private static final Lock TABLE_LOCK = new ReentrantLock();
+
+    /**
+     * @param args The number of rentals per thread, followed by the ids of approved students
+     *             without active rentals, one per thread.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: RentalContention <rentals-per-thread> <student-id>...");
+            return;
+        }
+        int rentalsPerThread = Integer.parseInt(args[0]);
+        List<Integer> students = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            students.add(Integer.parseInt(args[i]));
+        }
+        Controller ctrl = new Controller();
+        List<Controller> ctrls = List.of(ctrl, new Controller());
+
+        LocalDate contendedStart = FIRST_RENTAL.plusMonths(6L * rentalsPerThread);
+        LocalDate horizon = contendedStart.plusDays(CONTENDED_DAYS + 14);
+        List<RentalInstrument> instruments = ctrl.getAllAvailableRentalInstruments(FIRST_RENTAL, horizon);
+        if (instruments.size() < students.size()) {
+            System.out.println("Only " + instruments.size() + " instruments are free, need " + students.size() + ".");
+            return;
+        }
+
+        double single = run(List.of(ctrl), students.subList(0, 1), instruments, rentalsPerThread, FIRST_RENTAL, false);
+        double parallel = run(ctrls, students, instruments, rentalsPerThread, FIRST_RENTAL.plusMonths(2L * rentalsPerThread), false);
+        double serialized = run(ctrls, students, instruments, rentalsPerThread, FIRST_RENTAL.plusMonths(4L * rentalsPerThread), true);
+        System.out.printf("1 thread:  %10.1f rentals/s%n", single);
+        System.out.printf("%d threads: %10.1f rentals/s (%.2fx)%n", students.size(), parallel, parallel / single);
+        System.out.printf("%d threads, one lock for all rentals: %10.1f rentals/s (%.2fx)%n",
+                students.size(), serialized, serialized / single);
+
+        List<Integer> contended = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, students.size() / 2); i++) {
+            contended.add(instruments.get(i).getId());
+        }
+        List<String> violations = runContended(ctrls, students, contended, rentalsPerThread, contendedStart);
+        System.out.println(ctrl.getConnectionPoolMetrics());
+        if (violations.isEmpty()) {
+            System.out.println("No rule was broken.");
+        } else {
+            violations.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    private static double run(List<Controller> ctrls, List<Integer> students, List<RentalInstrument> instruments,
+                              int rentalsPerThread, LocalDate firstStart, boolean serialized) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(students.size());
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < students.size(); i++) {
+            int studentId = students.get(i);
+            int instrumentId = instruments.get(i).getId();
+            Controller ctrl = ctrls.get(i % ctrls.size());
+            results.add(executor.submit(() -> {
+                for (int n = 0; n < rentalsPerThread; n++) {
+                    LocalDate rentalStart = firstStart.plusMonths(2L * n);
+                    if (serialized) {
+                        TABLE_LOCK.lock();
+                    }
+                    try {
+                        ctrl.createRental(studentId, instrumentId, rentalStart,
+                                rentalStart.plusMonths(1), null, "Contention run");
+                    } finally {
+                        if (serialized) {
+                            TABLE_LOCK.unlock();
+                        }
+                    }
+                    ctrl.terminateRental(studentId, instrumentId, rentalStart);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        return students.size() * rentalsPerThread / (elapsed / 1_000_000_000.0);
+    }
+
+    /**
+     * Lets every thread rent random periods of the specified instruments for random students,
+     * then checks the rentals that were made and terminates them.
+     *
+     * @return The broken rules, empty if none was broken.
+     */
+    private static List<String> runContended(List<Controller> ctrls, List<Integer> students, List<Integer> instruments,
+                                             int attemptsPerThread, LocalDate firstStart) throws Exception {
+        List<Queue<RentalPeriod>> createdBy = new ArrayList<>();
+        for (int i = 0; i < ctrls.size(); i++) {
+            createdBy.add(new ConcurrentLinkedQueue<>());
+        }
+        LongAdder rejected = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(students.size());
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < students.size(); t++) {
+            Controller ctrl = ctrls.get(t % ctrls.size());
+            Queue<RentalPeriod> created = createdBy.get(t % ctrls.size());
+            results.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < attemptsPerThread; n++) {
+                    int studentId = students.get(random.nextInt(students.size()));
+                    int instrumentId = instruments.get(random.nextInt(instruments.size()));
+                    LocalDate rentalStart = firstStart.plusDays(random.nextInt(CONTENDED_DAYS));
+                    LocalDate rentalEnd = rentalStart.plusDays(random.nextInt(1, 14));
+                    try {
+                        ctrl.createRental(studentId, instrumentId, rentalStart, rentalEnd, null, "Contention run");
+                        created.add(new RentalPeriod(instrumentId, studentId, rentalStart, rentalEnd));
+                    } catch (RentalException expected) {
+                        rejected.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        executor.shutdown();
+
+        List<RentalPeriod> created = new ArrayList<>();
+        for (Queue<RentalPeriod> queue : createdBy) {
+            created.addAll(queue);
+        }
+        List<String> violations = BookingStress.findViolations(created);
+        System.out.printf("%d threads on %d instruments: created=%d rejected=%d attempts/s=%.1f%n",
+                students.size(), instruments.size(), created.size(), rejected.sum(),
+                students.size() * attemptsPerThread / elapsedSeconds);
+        for (int i = 0; i < ctrls.size(); i++) {
+            for (RentalPeriod rental : createdBy.get(i)) {
+                ctrls.get(i).terminateRental(rental.getStudentId(), rental.getRentalInstrumentId(), rental.getStartDate());
+            }
+        }
+        return violations;
+    }
+}
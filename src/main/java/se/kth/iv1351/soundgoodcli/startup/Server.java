@@ -0,0 +1,26 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.view.CommandServer;
+
+/**
+ * Starts the command server, which lets many clients use the system at the same time.
+ */
+public class Server {
+    private static final int DEFAULT_PORT = 4711;
+    private static final int DEFAULT_WORKERS = 32;
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * @param args Optionally the port, the number of worker threads and the number of
+     *             commands that may wait for a worker, in that order.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WORKERS;
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_QUEUE_CAPACITY;
+        CommandServer server = new CommandServer(Main.startController(), port, workers, queueCapacity);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        System.out.println("Serving on port " + port + " with " + workers + " workers and a queue of " + queueCapacity);
+        server.serve();
+    }
+}
@@ -0,0 +1,74 @@
+package se.kth.iv1351.soundgoodcli.startup;
+
+import se.kth.iv1351.soundgoodcli.view.CommandClient;
+import se.kth.iv1351.soundgoodcli.view.CommandServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a running command server with many concurrent clients, each sending the same
+ * command a number of times, and prints the throughput, the latency percentiles and how
+ * many commands the server rejected as overloaded.
+ */
+public class ServerLoad {
+    /**
+     * @param args The host and port of the server, the number of clients, the number of
+     *             commands per client and the command, for example
+     *             <code>localhost 4711 200 50 list 2022-01-16 2022-05-16</code>.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.out.println("Usage: ServerLoad <host> <port> <clients> <commands-per-client> <command>...");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int clients = Integer.parseInt(args[2]);
+        int commandsPerClient = Integer.parseInt(args[3]);
+        String command = String.join(" ", Arrays.copyOfRange(args, 4, args.length));
+
+        long[] latencies = new long[clients * commandsPerClient];
+        AtomicLong busy = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            results.add(executor.submit(() -> {
+                try (CommandClient connection = new CommandClient(host, port)) {
+                    for (int n = 0; n < commandsPerClient; n++) {
+                        long sent = System.nanoTime();
+                        String response = connection.send(command);
+                        latencies[client * commandsPerClient + n] = System.nanoTime() - sent;
+                        if (response != null && response.startsWith(CommandServer.BUSY)) {
+                            busy.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d clients, %d commands in %.2f s: %.1f commands/s%n", clients, latencies.length,
+                elapsed / 1e9, latencies.length / (elapsed / 1e9));
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(latencies, 0.50),
+                percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        System.out.println("rejected as busy: " + busy.get());
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)))] / 1e6;
+    }
+}
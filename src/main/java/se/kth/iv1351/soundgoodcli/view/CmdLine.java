@@ -1,12 +1,20 @@
 package se.kth.iv1351.soundgoodcli.view;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * One line of user input, which should be a command and parameters associated
  * with that command (if any).
  */
 class CmdLine {
     private static final String PARAM_DELIMETER = " ";
+    private static final String OPTION_PREFIX = "--";
     private String[] params;
+    private final Map<String, String> options = new HashMap<>();
     private Command cmd;
     private final String enteredLine;
 
@@ -53,6 +61,32 @@ class CmdLine {
         return params[index];
     }
 
+    /**
+     * Returns the parameters from the specified index on, joined by single blanks. Used for
+     * free text that is the last parameter of a command.
+     *
+     * @param fromIndex The index of the first parameter to include.
+     * @return The joined parameters, or <code>null</code> if there is no parameter with
+     *         that index.
+     */
+    String getParametersFrom(int fromIndex) {
+        if (params == null || fromIndex >= params.length) {
+            return null;
+        }
+        return String.join(PARAM_DELIMETER, Arrays.copyOfRange(params, fromIndex, params.length));
+    }
+
+    /**
+     * Returns the value of the option with the specified name. Options are given as
+     * <code>--name value</code> anywhere after the command, and are not counted as parameters.
+     *
+     * @param name The name of the option, without the leading dashes.
+     * @return The value of the option, or <code>null</code> if the option was not given.
+     */
+    String getOption(String name) {
+        return options.get(name);
+    }
+
     private String removeExtraSpaces(String source) {
         if (source == null) {
             return source;
@@ -86,7 +120,16 @@ class CmdLine {
             params = null;
             return;
         }
-        params = paramPartOfCmd.split(PARAM_DELIMETER);
+        List<String> positional = new ArrayList<>();
+        String[] tokens = paramPartOfCmd.split(PARAM_DELIMETER);
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].startsWith(OPTION_PREFIX) && i + 1 < tokens.length) {
+                options.put(tokens[i].substring(OPTION_PREFIX.length()), tokens[++i]);
+            } else {
+                positional.add(tokens[i]);
+            }
+        }
+        params = positional.isEmpty() ? null : positional.toArray(new String[0]);
     }
 
     private String removeCmd(String enteredLine) {
@@ -8,16 +8,96 @@ public enum Command {
      *  Lists available instruments for specified time period, optionally filter by instrument
      */
     LIST,
+    /**
+     * Lists the periods during which instruments are free, until a horizon
+     */
+    WINDOWS,
+    /**
+     * Prices the rental of one or more instruments for a period, or lists the lesson prices
+     */
+    QUOTE,
     /**
      * Starts the procedure of registering a rental for student with specified id.
      */
     RENT,
     RENTAL,
+    /**
+     * Creates all rentals listed in a csv file
+     */
+    IMPORT,
 
     /**
      *  Terminates a specific rental
      */
     TERMINATE,
+    /**
+     * Replaces the notes of a specific rental
+     */
+    NOTES,
+    /**
+     * Books a seat of a lesson for a student
+     */
+    BOOK,
+    /**
+     * Cancels the booking of a lesson for a student
+     */
+    CANCEL,
+    /**
+     * Displays the capacity and booked seats of one or more lessons
+     */
+    SEATS,
+    /**
+     * Writes rentals, bookings or a report to a csv file
+     */
+    EXPORT,
+    /**
+     * Compares the availability engine with the database for a time period
+     */
+    VERIFY,
+    /**
+     * Displays the number of lessons of each type per month during a year
+     */
+    LESSONS,
+    /**
+     * Displays the instructors giving at least a number of lessons during a month
+     */
+    INSTRUCTORS,
+    /**
+     * Lists the instructors free to give a lesson during a slot, optionally filter by instrument
+     */
+    FREE,
+    /**
+     * Displays the instructors giving more than a number of lessons during a month
+     */
+    OVERLOADED,
+    /**
+     * Assigns a lesson to an instructor that is free during the lesson
+     */
+    ASSIGN,
+    /**
+     * Takes a lesson away from an instructor
+     */
+    UNASSIGN,
+    /**
+     * Adds a work time of an instructor
+     */
+    WORKTIME,
+    /**
+     * Lists, creates or archives the yearly partitions of rentals and lessons
+     */
+    PARTITIONS,
+    /**
+     * Displays the hit, miss and eviction counters of the listing cache
+     */
+    CACHE,
+    /**
+     * Displays the state of the database connection pool
+     */
+    POOL,
+    /**
+     * Displays latency and row statistics of operations, optionally in Prometheus format
+     */
+    STATS,
     /**
      * Displays some help to get started
      */
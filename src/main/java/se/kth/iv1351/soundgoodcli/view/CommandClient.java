@@ -0,0 +1,84 @@
+package se.kth.iv1351.soundgoodcli.view;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * Reads user commands and sends them to a {@link CommandServer}, printing the responses.
+ * The client accepts the same commands as {@link BlockingInterpreter}, but performs none
+ * of them itself.
+ */
+public class CommandClient implements AutoCloseable {
+    private static final String PROMPT = "> ";
+    private final Socket socket;
+    private final BufferedReader fromServer;
+    private final PrintWriter toServer;
+
+    /**
+     * Connects to a command server.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     * @throws IOException If the connection failed.
+     */
+    public CommandClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        fromServer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        toServer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * Sends one command and waits for the response.
+     *
+     * @param command The command line, as typed in the console.
+     * @return The output of the command, or <code>null</code> if the server closed the connection.
+     * @throws IOException If the server could not be reached.
+     */
+    public String send(String command) throws IOException {
+        toServer.println(command);
+        StringBuilder response = new StringBuilder();
+        String line;
+        while ((line = fromServer.readLine()) != null) {
+            if (line.equals(CommandServer.END_OF_RESPONSE)) {
+                return response.toString();
+            }
+            if (line.startsWith(".")) {
+                line = line.substring(1);
+            }
+            response.append(line).append('\n');
+        }
+        return response.length() > 0 ? response.toString() : null;
+    }
+
+    /**
+     * Reads commands from the console and sends them until the user quits or the server
+     * closes the connection.
+     *
+     * @throws IOException If the server could not be reached.
+     */
+    public void handleCmds() throws IOException {
+        Scanner console = new Scanner(System.in);
+        while (true) {
+            System.out.print(PROMPT);
+            if (!console.hasNextLine()) {
+                return;
+            }
+            String response = send(console.nextLine());
+            if (response == null) {
+                return;
+            }
+            System.out.print(response);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,578 @@
+package se.kth.iv1351.soundgoodcli.view;
+
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+import se.kth.iv1351.soundgoodcli.model.ExportException;
+import se.kth.iv1351.soundgoodcli.model.FreeWindow;
+import se.kth.iv1351.soundgoodcli.model.Instructor;
+import se.kth.iv1351.soundgoodcli.model.InstructorLessonCount;
+import se.kth.iv1351.soundgoodcli.model.LessonMonthStatistics;
+import se.kth.iv1351.soundgoodcli.model.LessonPrice;
+import se.kth.iv1351.soundgoodcli.model.LessonSeatCount;
+import se.kth.iv1351.soundgoodcli.model.Quote;
+import se.kth.iv1351.soundgoodcli.model.QuoteRequest;
+import se.kth.iv1351.soundgoodcli.model.RentalException;
+import se.kth.iv1351.soundgoodcli.model.RentalInstrument;
+import se.kth.iv1351.soundgoodcli.model.RentalRequest;
+import se.kth.iv1351.soundgoodcli.model.RentalResult;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Performs one command line at a time, writing the output to a specified writer. The same
+ * handler is used by the console interpreter and by the command server, so both accept
+ * exactly the same commands. A handler keeps no state between commands and may be used by
+ * several threads at the same time.
+ * <p>
+ * Ids, dates and numbers are parsed here, once, and the controller is called with typed
+ * values. A parameter that can not be parsed fails the command before it reaches the controller.
+ */
+class CommandHandler {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private final CompletableFuture<Controller> ctrl;
+
+    /**
+     * Creates a new instance that will use the specified controller for all operations.
+     *
+     * @param ctrl The controller used by this instance.
+     */
+    CommandHandler(Controller ctrl) {
+        this(CompletableFuture.completedFuture(ctrl));
+    }
+
+    /**
+     * Creates a new instance that will use the specified controller once it is started.
+     * Commands that need the controller wait until it is, <code>help</code> and
+     * <code>quit</code> do not.
+     *
+     * @param ctrl The controller used by this instance, completed when it is started.
+     */
+    CommandHandler(CompletableFuture<Controller> ctrl) {
+        this.ctrl = ctrl;
+    }
+
+    /**
+     * Performs the specified command. A failure is reported to <code>out</code>, it is not thrown.
+     *
+     * @param cmdLine The command to perform.
+     * @param out     Where the output of the command is written.
+     * @return <code>false</code> if the command was quit, otherwise <code>true</code>.
+     */
+    boolean execute(CmdLine cmdLine, PrintWriter out) {
+        try {
+            switch (cmdLine.getCmd()) {
+                case HELP:
+                    out.println("LIST:     Lists available instruments for specified time period, optionally filter by instrument");
+                    out.println("  list 2022-01-16 2022-05-16 (guitar)");
+                    out.println("  list start-date end-date   instrument");
+                    out.println("  list 2022-01-16 2022-05-16 --page 2 --limit 20");
+                    out.println("  list start-date end-date (instrument) (--page n) (--limit n) (--after id)\n");
+                    out.println("WINDOWS:  Lists periods of at least min-days free days, from today or --from until a horizon");
+                    out.println("  windows 14 2022-12-31 guitar");
+                    out.println("  windows min-days horizon (instrument) (--from date)\n");
+                    out.println("QUOTE:    Prices the rental of one or more instruments for a period, lists the lesson prices or reloads all prices");
+                    out.println("  quote 2022-01-16 2022-05-16 16 17 18");
+                    out.println("  quote start-date end-date instrument-id (instrument-id ...)");
+                    out.println("  quote lessons");
+                    out.println("  quote refresh\n");
+                    out.println("RENT:     Starts the procedure of registering a rental for student with specified id");
+                    out.println("  rent 18 16 2022-01-16 2022-05-16");
+                    out.println("  rent student-id instrument_id start-date end-date \n");
+                    out.println("IMPORT:   Creates all rentals in a csv file, committing chunk-size rentals at a time");
+                    out.println("  import rentals.csv 500");
+                    out.println("  import file (chunk-size), each line: student-id,instrument-id,start-date,end-date(,delivery,notes)\n");
+                    out.println("TERMINATE:     Starts terminates a specific rental");
+                    out.println("  terminate 18 16 2022-01-16");
+                    out.println("  rent student-id instrument-id start-date\n");
+                    out.println("NOTES:    Replaces the notes of a specific rental");
+                    out.println("  notes 18 16 2022-01-16 Delivered to the school");
+                    out.println("  notes student-id instrument-id start-date text\n");
+                    out.println("BOOK:     Books a seat of a lesson for a student");
+                    out.println("  book 13 7");
+                    out.println("  book student-id lesson-id\n");
+                    out.println("CANCEL:   Cancels the booking of a lesson for a student");
+                    out.println("  cancel student-id lesson-id\n");
+                    out.println("SEATS:    Shows the capacity and booked seats of one or more lessons");
+                    out.println("  seats lesson-id (lesson-id ...)\n");
+                    out.println("EXPORT:   Writes rentals, bookings or a report to a csv file, gzip compressed if the name ends with .gz");
+                    out.println("  export rentals 2022-01 rentals-2022-01.csv.gz");
+                    out.println("  export rentals|bookings month file");
+                    out.println("  export lessons year file");
+                    out.println("  export instructors month min-lessons file\n");
+                    out.println("VERIFY:   Compares the in-memory availability with the database for a time period");
+                    out.println("  verify 2022-01-16 2022-05-16\n");
+                    out.println("LESSONS:  Shows the number of lessons of each type per month during a year");
+                    out.println("  lessons 2022\n");
+                    out.println("INSTRUCTORS: Shows the instructors giving at least a number of lessons during a month");
+                    out.println("  instructors 2022-01 3\n");
+                    out.println("FREE:     Lists the instructors that work during a whole slot and give no lesson then, optionally filter by instrument");
+                    out.println("  free 2022-01-16T15:00 2022-01-16T16:00 (guitar)");
+                    out.println("  free start end (instrument)\n");
+                    out.println("OVERLOADED: Shows the instructors giving more than a number of lessons during a month");
+                    out.println("  overloaded 2022-01 20\n");
+                    out.println("ASSIGN:   Assigns a lesson to an instructor that is free during the whole lesson");
+                    out.println("  assign instructor-id lesson-id\n");
+                    out.println("UNASSIGN: Takes a lesson away from an instructor");
+                    out.println("  unassign instructor-id lesson-id\n");
+                    out.println("WORKTIME: Adds a period during which an instructor works");
+                    out.println("  worktime 4 2022-01-16T08:00 2022-01-16T17:00 Guitar lessons");
+                    out.println("  worktime instructor-id start end (title)\n");
+                    out.println("PARTITIONS: Lists the yearly partitions of rentals and lessons, creates the coming ones or archives old years");
+                    out.println("  partitions");
+                    out.println("  partitions create");
+                    out.println("  partitions archive before-year\n");
+                    out.println("CACHE:    Shows the size and hit, miss and eviction counters of the listing cache\n");
+                    out.println("POOL:     Shows active and idle database connections, wait time and checkout timeouts\n");
+                    out.println("STATS:    Shows latency percentiles and row counts of every operation and statement");
+                    out.println("  stats");
+                    out.println("  stats prometheus (file)\n");
+                    for (Command command : Command.values()) {
+                        if (command == Command.ILLEGAL_COMMAND) {
+                            continue;
+                        }
+                        out.println(command.toString().toLowerCase());
+                    }
+                    break;
+                case QUIT:
+                    return false;
+                case LIST:
+                    //LIST StartDate endDate instrument
+                    //list 2022-01-16 2022-05-16
+                    List<RentalInstrument> rentalInstrumentList = null;
+                    if (cmdLine.getOption("page") != null || cmdLine.getOption("limit") != null || cmdLine.getOption("after") != null) {
+                        displayInstrumentPages(out, cmdLine);
+                        break;
+                    }
+                    if (cmdLine.getParameter(2) != null) {
+                        rentalInstrumentList = ctrl().getAvailableRentalInstruments(dateParameter(cmdLine, 0), dateParameter(cmdLine, 1), cmdLine.getParameter(2));
+                    } else {
+                        rentalInstrumentList = ctrl().getAllAvailableRentalInstruments(dateParameter(cmdLine, 0), dateParameter(cmdLine, 1));
+                    }
+                    displayInstrumentList(out, rentalInstrumentList);
+                    break;
+                case WINDOWS:
+                    //WINDOWS minDays horizon instrument
+                    //windows 14 2022-12-31 guitar
+                    LocalDate from = cmdLine.getOption("from") != null ? LocalDate.parse(cmdLine.getOption("from")) : LocalDate.now();
+                    displayFreeWindows(out, ctrl().findFreeWindows(cmdLine.getParameter(2), intParameter(cmdLine, 0), from, dateParameter(cmdLine, 1)));
+                    break;
+                case QUOTE:
+                    //QUOTE start end instrument (instrument ...) | lessons | refresh
+                    //quote 2022-01-16 2022-05-16 16 17 18
+                    if ("lessons".equalsIgnoreCase(cmdLine.getParameter(0))) {
+                        displayLessonPrices(out, ctrl().getLessonPrices());
+                    } else if ("refresh".equalsIgnoreCase(cmdLine.getParameter(0))) {
+                        ctrl().refreshPrices();
+                        out.println("The prices were reloaded: " + ctrl().getQuotationEngine());
+                    } else {
+                        displayRentalQuotes(out, cmdLine);
+                    }
+                    break;
+                case RENT:
+                    //RENT student instrument start end
+                    //rent 18 16 2022-01-16 2022-05-16
+                    String rentalWarning = ctrl().createRental(intParameter(cmdLine, 0), intParameter(cmdLine, 1), dateParameter(cmdLine, 2), dateParameter(cmdLine, 3), cmdLine.getParameter(4), cmdLine.getParameter(5));
+                    out.println(rentalWarning == null ? "The rental was made" : rentalWarning);
+                    break;
+                case IMPORT:
+                    //IMPORT file chunkSize
+                    //import rentals.csv 500
+                    List<RentalRequest> requests = readRentalRequests(out, cmdLine.getParameter(0));
+                    List<RentalResult> results;
+                    if (cmdLine.getParameter(1) != null) {
+                        results = ctrl().createRentals(requests, intParameter(cmdLine, 1));
+                    } else {
+                        results = ctrl().createRentals(requests);
+                    }
+                    displayRentalResults(out, results);
+                    break;
+                case TERMINATE:
+                    //TERMINATE student instrument start
+                    //terminate 18 16 2022-01-16
+                    ctrl().terminateRental(intParameter(cmdLine, 0), intParameter(cmdLine, 1), dateParameter(cmdLine, 2));
+                    out.println("The rental was terminated");
+                    break;
+                case NOTES:
+                    //NOTES student instrument start text
+                    //notes 18 16 2022-01-16 Delivered to the school
+                    ctrl().updateRentalNotes(intParameter(cmdLine, 0), intParameter(cmdLine, 1), dateParameter(cmdLine, 2), cmdLine.getParametersFrom(3));
+                    out.println("The notes were saved");
+                    break;
+                case BOOK:
+                    //BOOK student lesson
+                    //book 13 7
+                    ctrl().bookLesson(intParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.println("The lesson was booked");
+                    break;
+                case CANCEL:
+                    //CANCEL student lesson
+                    //cancel 13 7
+                    ctrl().cancelLesson(intParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.println("The booking was canceled");
+                    break;
+                case SEATS:
+                    //SEATS lesson (lesson ...)
+                    //seats 7 8 9
+                    displayLessonSeats(out, cmdLine);
+                    break;
+                case EXPORT:
+                    //EXPORT what period (minLessons) file
+                    //export rentals 2022-01 rentals-2022-01.csv.gz
+                    export(out, cmdLine);
+                    break;
+                case VERIFY:
+                    List<String> differences = ctrl().compareAvailabilityWithDatabase(dateParameter(cmdLine, 0), dateParameter(cmdLine, 1));
+                    if (differences.isEmpty()) {
+                        out.println("The availability engine matches the database");
+                    }
+                    for (String difference : differences) {
+                        out.println(difference);
+                    }
+                    break;
+                case LESSONS:
+                    //LESSONS year
+                    //lessons 2022
+                    displayLessonsPerMonth(out, ctrl().getLessonsPerMonth(intParameter(cmdLine, 0)));
+                    break;
+                case INSTRUCTORS:
+                    //INSTRUCTORS month minLessons
+                    //instructors 2022-01 3
+                    List<InstructorLessonCount> instructors = ctrl().getInstructorsWithAtLeastLessons(monthParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.printf("%-5s | %-30s | %8s |\n", "ID", "Name", "Lessons");
+                    for (InstructorLessonCount instructor : instructors) {
+                        out.printf("%-5d | %-30s | %8d |\n", instructor.getInstructorId(), instructor.getName(), instructor.getLessons());
+                    }
+                    break;
+                case FREE:
+                    //FREE start end (instrument)
+                    //free 2022-01-16T15:00 2022-01-16T16:00 guitar
+                    List<Instructor> free = ctrl().findFreeInstructors(cmdLine.getParameter(2), timeParameter(cmdLine, 0), timeParameter(cmdLine, 1));
+                    out.printf("%-5s | %-30s | %s\n", "ID", "Name", "Instruments");
+                    for (Instructor instructor : free) {
+                        out.printf("%-5d | %-30s | %s\n", instructor.getInstructorId(), instructor.getName(),
+                                String.join(", ", new TreeSet<>(instructor.getInstruments())));
+                    }
+                    break;
+                case OVERLOADED:
+                    //OVERLOADED month maxLessons
+                    //overloaded 2022-01 20
+                    List<InstructorLessonCount> overloaded = ctrl().findInstructorsOverLimit(monthParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.printf("%-5s | %-30s | %8s |\n", "ID", "Name", "Lessons");
+                    for (InstructorLessonCount instructor : overloaded) {
+                        out.printf("%-5d | %-30s | %8d |\n", instructor.getInstructorId(), instructor.getName(), instructor.getLessons());
+                    }
+                    break;
+                case ASSIGN:
+                    //ASSIGN instructor lesson
+                    //assign 4 7
+                    ctrl().assignLesson(intParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.println("The lesson was assigned");
+                    break;
+                case UNASSIGN:
+                    //UNASSIGN instructor lesson
+                    //unassign 4 7
+                    ctrl().unassignLesson(intParameter(cmdLine, 0), intParameter(cmdLine, 1));
+                    out.println("The lesson was unassigned");
+                    break;
+                case WORKTIME:
+                    //WORKTIME instructor start end (title)
+                    //worktime 4 2022-01-16T08:00 2022-01-16T17:00 Guitar lessons
+                    ctrl().addWorkTime(intParameter(cmdLine, 0), timeParameter(cmdLine, 1), timeParameter(cmdLine, 2), cmdLine.getParametersFrom(3));
+                    out.println("The work time was added");
+                    break;
+                case PARTITIONS:
+                    //PARTITIONS (create | archive beforeYear)
+                    //partitions archive 2020
+                    if ("create".equalsIgnoreCase(cmdLine.getParameter(0))) {
+                        out.println(ctrl().createTimePartitions() + " partitions were created");
+                    } else if ("archive".equalsIgnoreCase(cmdLine.getParameter(0))) {
+                        out.println(ctrl().archiveTimePartitions(intParameter(cmdLine, 1)) + " partitions were archived");
+                    } else {
+                        for (String partition : ctrl().getTimePartitions()) {
+                            out.println(partition);
+                        }
+                        out.println("maintenance: " + ctrl().getPartitionMaintenance());
+                    }
+                    break;
+                case CACHE:
+                    out.println(ctrl().getListingCache());
+                    break;
+                case POOL:
+                    out.println(ctrl().getConnectionPoolMetrics());
+                    break;
+                case STATS:
+                    //STATS (prometheus (file))
+                    //stats prometheus metrics.prom
+                    if (!"prometheus".equalsIgnoreCase(cmdLine.getParameter(0))) {
+                        out.print(ctrl().getMetrics().toText());
+                        out.println("pool: " + ctrl().getConnectionPoolMetrics());
+                        out.println("listing cache: " + ctrl().getListingCache());
+                        out.println("replicas: " + ctrl().getReplicaRouter());
+                        out.println("async: " + ctrl().getAsyncDAO());
+                        out.println("prices: " + ctrl().getQuotationEngine());
+                        if (ctrl().getPartitionMaintenance() != null) {
+                            out.println("partitions: " + ctrl().getPartitionMaintenance());
+                        }
+                        if (ctrl().getJournal() != null) {
+                            out.println("journal: " + ctrl().getJournal());
+                        }
+                    } else if (cmdLine.getParameter(1) != null) {
+                        Files.writeString(Path.of(cmdLine.getParameter(1)), ctrl().getMetrics().toPrometheus());
+                        out.println("The statistics were written to " + cmdLine.getParameter(1));
+                    } else {
+                        out.print(ctrl().getMetrics().toPrometheus());
+                    }
+                    break;
+                default:
+                    out.println("illegal command");
+            }
+        } catch (Exception e) {
+            out.println("Operation failed");
+            out.println(e.getMessage());
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * Prints available instruments one page at a time, so that only one page is held in
+     * memory. With <code>--page</code> only that page is printed, otherwise all pages
+     * from <code>--after</code> on are printed as they are retrieved.
+     */
+    private void displayInstrumentPages(PrintWriter out, CmdLine cmdLine) throws RentalException {
+        int limit = cmdLine.getOption("limit") != null ? parseInt(cmdLine.getOption("limit")) : DEFAULT_PAGE_SIZE;
+        int page = cmdLine.getOption("page") != null ? parseInt(cmdLine.getOption("page")) : 0;
+        int afterId = cmdLine.getOption("after") != null ? parseInt(cmdLine.getOption("after")) : 0;
+        LocalDate startDate = dateParameter(cmdLine, 0);
+        LocalDate endDate = dateParameter(cmdLine, 1);
+        for (int skipped = 1; skipped < page; skipped++) {
+            List<RentalInstrument> skippedPage = ctrl().getAvailableRentalInstrumentsPage(startDate, endDate, cmdLine.getParameter(2), afterId, limit);
+            if (skippedPage.isEmpty()) {
+                out.println("There is no page " + page);
+                return;
+            }
+            afterId = skippedPage.get(skippedPage.size() - 1).getId();
+        }
+
+        displayInstrumentHeader(out);
+        List<RentalInstrument> instruments;
+        do {
+            instruments = ctrl().getAvailableRentalInstrumentsPage(startDate, endDate, cmdLine.getParameter(2), afterId, limit);
+            displayInstrumentRows(out, instruments);
+            if (!instruments.isEmpty()) {
+                afterId = instruments.get(instruments.size() - 1).getId();
+            }
+        } while (page == 0 && instruments.size() == limit);
+    }
+
+    private void export(PrintWriter out, CmdLine cmdLine) throws ExportException {
+        String what = requiredParameter(cmdLine, 0).toLowerCase();
+        long rows;
+        Path file;
+        switch (what) {
+            case "rentals":
+                file = Path.of(requiredParameter(cmdLine, 2));
+                rows = ctrl().exportRentals(monthParameter(cmdLine, 1), file, isGzip(file));
+                break;
+            case "bookings":
+                file = Path.of(requiredParameter(cmdLine, 2));
+                rows = ctrl().exportBookings(monthParameter(cmdLine, 1), file, isGzip(file));
+                break;
+            case "lessons":
+                file = Path.of(requiredParameter(cmdLine, 2));
+                rows = ctrl().exportLessonsPerMonth(intParameter(cmdLine, 1), file, isGzip(file));
+                break;
+            case "instructors":
+                file = Path.of(requiredParameter(cmdLine, 3));
+                rows = ctrl().exportInstructorsWithAtLeastLessons(monthParameter(cmdLine, 1), intParameter(cmdLine, 2), file, isGzip(file));
+                break;
+            default:
+                throw new IllegalArgumentException("Can not export " + what + ", type help for usage.");
+        }
+        out.println(rows + " rows were written to " + file);
+    }
+
+    private static boolean isGzip(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private void displayFreeWindows(PrintWriter out, List<FreeWindow> windows) {
+        out.printf("%-5s | %-15s | %-30s | %15s | %-10s | %-10s | %6s |\n", "ID", "Instrument", "Model", "Monthly Price", "From", "To", "Days");
+        for (FreeWindow window : windows) {
+            out.printf("%-5d | %-15.15s | %-30.30s | %15.2f | %-10s | %-10s | %6d |\n",
+                    window.getRentalInstrumentId(), window.getName(), window.getModel(), window.getMonthlyPrice(),
+                    window.getStartDate(), window.getEndDate(), window.getDays());
+        }
+    }
+
+    /**
+     * Prints the price of renting each instrument given as parameter during the period. All
+     * instruments are priced in one batch.
+     */
+    private void displayRentalQuotes(PrintWriter out, CmdLine cmdLine) {
+        LocalDate startDate = dateParameter(cmdLine, 0);
+        LocalDate endDate = dateParameter(cmdLine, 1);
+        List<QuoteRequest> requests = new ArrayList<>();
+        requests.add(QuoteRequest.rental(intParameter(cmdLine, 2), startDate, endDate));
+        for (int i = 3; cmdLine.getParameter(i) != null; i++) {
+            requests.add(QuoteRequest.rental(intParameter(cmdLine, i), startDate, endDate));
+        }
+        out.printf("%-5s | %15s | %6s | %15s |\n", "ID", "Monthly Price", "Months", "Total Price");
+        for (Quote quote : ctrl().quote(requests)) {
+            if (quote.isPriced()) {
+                out.printf("%-5d | %15.2f | %6d | %15.2f |\n", quote.getRequest().getRentalInstrumentId(),
+                        quote.getUnitPrice(), quote.getUnits(), quote.getAmount());
+            } else {
+                out.printf("%-5d | %s\n", quote.getRequest().getRentalInstrumentId(), quote.getMessage());
+            }
+        }
+    }
+
+    private void displayLessonPrices(PrintWriter out, List<LessonPrice> prices) {
+        out.printf("%-20s | %-20s | %10s | %10s | %10s |\n", "Lesson Type", "Skill Level", "Price", "Discount", "Salary");
+        for (LessonPrice price : prices) {
+            out.printf("%-20s | %-20s | %10.2f | %10.2f | %10.2f |\n", price.getLessonType(), price.getSkillLevel(),
+                    price.getPrice(), price.getDiscount(), price.getSalary());
+        }
+    }
+
+    /**
+     * Prints the seats of each lesson given as parameter. The lessons are read at the same
+     * time, so several lessons take about as long as one.
+     */
+    private void displayLessonSeats(PrintWriter out, CmdLine cmdLine) {
+        List<CompletableFuture<LessonSeatCount>> lessons = new ArrayList<>();
+        lessons.add(ctrl().getLessonSeatsAsync(intParameter(cmdLine, 0)));
+        for (int i = 1; cmdLine.getParameter(i) != null; i++) {
+            lessons.add(ctrl().getLessonSeatsAsync(intParameter(cmdLine, i)));
+        }
+        for (CompletableFuture<LessonSeatCount> lesson : lessons) {
+            try {
+                LessonSeatCount seats = lesson.join();
+                out.printf("Lesson %d: %d of %d seats booked, %d free\n", seats.getLessonId(),
+                        seats.getBooked(), seats.getCapacity(), seats.getFree());
+            } catch (CompletionException failed) {
+                out.println(failed.getCause().getMessage());
+            }
+        }
+    }
+
+    private void displayLessonsPerMonth(PrintWriter out, List<LessonMonthStatistics> months) {
+        out.printf("%-8s | %8s | %10s | %8s | %8s |\n", "Month", "Lessons", "Individual", "Group", "Ensemble");
+        int total = 0;
+        for (LessonMonthStatistics month : months) {
+            out.printf("%-8s | %8d | %10d | %8d | %8d |\n", month.getMonth(), month.getTotal(),
+                    month.getIndividualLessons(), month.getGroupLessons(), month.getEnsembles());
+            total += month.getTotal();
+        }
+        out.printf("Average number of lessons per month: %.2f\n", total / 12.0);
+    }
+
+    private void displayInstrumentList(PrintWriter out, List<RentalInstrument> avaliableRentalInstrumentList) {
+        displayInstrumentHeader(out);
+        displayInstrumentRows(out, avaliableRentalInstrumentList);
+    }
+
+    private void displayInstrumentHeader(PrintWriter out) {
+        out.printf("%-5s | %-15s | %-15s | %-30s | %15s | %15s | %15s |\n", "ID", "Instrument", "Category", "Model", "Monthly Price", "Months", "Price");
+    }
+
+    private void displayInstrumentRows(PrintWriter out, List<RentalInstrument> avaliableRentalInstrumentList) {
+        for (RentalInstrument instrument : avaliableRentalInstrumentList) {
+            out.printf("%-5d | %-15.15s | %-15.15s | %-30.30s | %15.2f | %15d | %15.2f |\n",
+                    instrument.getId(), instrument.getName(), instrument.getCategory(),
+                    instrument.getModel(), instrument.getMonthlyPrice(), instrument.getMonths(),
+                    instrument.getPrice());
+        }
+    }
+
+    /**
+     * Reads the rentals of an import file. A line that can not be parsed is reported to
+     * <code>out</code> and skipped, the other lines are still imported.
+     */
+    private List<RentalRequest> readRentalRequests(PrintWriter out, String file) throws IOException {
+        List<RentalRequest> requests = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Path.of(file));
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", 6);
+            try {
+                requests.add(new RentalRequest(parseInt(field(fields, 0)), parseInt(field(fields, 1)),
+                        LocalDate.parse(field(fields, 2)), LocalDate.parse(field(fields, 3)),
+                        field(fields, 4), field(fields, 5)));
+            } catch (NumberFormatException | DateTimeParseException | NullPointerException e) {
+                out.printf("Line %d is skipped, expected student-id,instrument-id,start-date,end-date: %s\n", i + 1, line);
+            }
+        }
+        return requests;
+    }
+
+    private Controller ctrl() {
+        try {
+            return ctrl.join();
+        } catch (CompletionException failed) {
+            throw new IllegalStateException("The application could not be started: " + failed.getCause().getMessage(), failed.getCause());
+        }
+    }
+
+    private static int intParameter(CmdLine cmdLine, int index) {
+        return parseInt(requiredParameter(cmdLine, index));
+    }
+
+    private static LocalDate dateParameter(CmdLine cmdLine, int index) {
+        return LocalDate.parse(requiredParameter(cmdLine, index));
+    }
+
+    private static LocalDateTime timeParameter(CmdLine cmdLine, int index) {
+        return LocalDateTime.parse(requiredParameter(cmdLine, index));
+    }
+
+    private static YearMonth monthParameter(CmdLine cmdLine, int index) {
+        return YearMonth.parse(requiredParameter(cmdLine, index));
+    }
+
+    private static String requiredParameter(CmdLine cmdLine, int index) {
+        String parameter = cmdLine.getParameter(index);
+        if (parameter == null) {
+            throw new IllegalArgumentException("Parameter " + (index + 1) + " is missing, type help for usage.");
+        }
+        return parameter;
+    }
+
+    private String field(String[] fields, int index) {
+        if (index >= fields.length || fields[index].isBlank()) {
+            return null;
+        }
+        return fields[index].trim();
+    }
+
+    private void displayRentalResults(PrintWriter out, List<RentalResult> results) {
+        int created = 0;
+        for (int i = 0; i < results.size(); i++) {
+            RentalResult result = results.get(i);
+            if (result.isCreated()) {
+                created++;
+            } else {
+                out.printf("Rental %d (student %d, instrument %d): %s\n", i + 1,
+                        result.getRequest().getStudentId(), result.getRequest().getRentalInstrumentId(), result.getMessage());
+            }
+        }
+        out.println(created + " of " + results.size() + " rentals were created");
+    }
+}
@@ -0,0 +1,299 @@
+package se.kth.iv1351.soundgoodcli.view;
+
+import se.kth.iv1351.soundgoodcli.controller.Controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the commands of the console interpreter to many network clients at the same time.
+ * <p>
+ * The protocol is line based. A client sends one command per line, in the same form as it
+ * is typed in the console. The server answers with the output of the command followed by a
+ * line containing only {@value #END_OF_RESPONSE}. Output lines starting with a dot are sent
+ * with an extra leading dot, which the client removes.
+ * <p>
+ * One selector thread reads and writes all connections, and commands are performed by a
+ * fixed number of worker threads taking commands from a bounded queue. A connection is not
+ * read while its command is performed, so a client sending faster than it is served is
+ * slowed down by TCP flow control. When the queue is full, the command is not performed and
+ * the client is answered with a line starting with {@value #BUSY}.
+ */
+public class CommandServer {
+    /**
+     * The line that ends each response.
+     */
+    public static final String END_OF_RESPONSE = ".";
+    /**
+     * The first word of the response to a command that was rejected because the server is overloaded.
+     */
+    public static final String BUSY = "BUSY";
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int READ_BUFFER_SIZE = 4096;
+    private final CommandHandler handler;
+    private final InetSocketAddress address;
+    private final ThreadPoolExecutor workers;
+    private final Queue<ClientConnection> readyToWrite = new ConcurrentLinkedQueue<>();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder performed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel listeningChannel;
+
+    /**
+     * Creates a new server, which does not listen until {@link #serve()} is called.
+     *
+     * @param ctrl          The controller used for all commands.
+     * @param port          The port to listen on, 0 to use any free port.
+     * @param workerThreads The number of commands performed at the same time.
+     * @param queueCapacity The number of commands that may wait for a worker thread.
+     */
+    public CommandServer(Controller ctrl, int port, int workerThreads, int queueCapacity) {
+        this.handler = new CommandHandler(ctrl);
+        this.address = new InetSocketAddress(port);
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Listens for clients and serves them. This method will not return until
+     * {@link #stop()} is called.
+     *
+     * @throws IOException If the server could not listen on its port.
+     */
+    public void serve() throws IOException {
+        selector = Selector.open();
+        listeningChannel = ServerSocketChannel.open();
+        listeningChannel.bind(address);
+        listeningChannel.configureBlocking(false);
+        listeningChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        try {
+            while (running) {
+                selector.select();
+                ClientConnection answered;
+                while ((answered = readyToWrite.poll()) != null) {
+                    answered.startWriting();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ClientConnection client = (ClientConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                client.read();
+                            } else if (key.isWritable()) {
+                                client.write();
+                            }
+                        } catch (IOException lostClient) {
+                            client.close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Stops the server and disconnects all clients. Commands being performed are completed.
+     */
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return The port the server listens on, which is only known after {@link #serve()} has started.
+     */
+    public int getPort() {
+        return listeningChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("clients=%d performed=%d rejected=%d queued=%d active=%d",
+                accepted.sum(), performed.sum(), rejected.sum(), workers.getQueue().size(), workers.getActiveCount());
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = listeningChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        ClientConnection client = new ClientConnection(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        accepted.increment();
+    }
+
+    private void closeAll() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof ClientConnection) {
+                ((ClientConnection) key.attachment()).close();
+            }
+        }
+        listeningChannel.close();
+        selector.close();
+        workers.shutdown();
+    }
+
+    private static String frame(String output) {
+        if (output.isEmpty()) {
+            return END_OF_RESPONSE + "\n";
+        }
+        StringBuilder framed = new StringBuilder(output.length() + 8);
+        for (String line : output.split("\r?\n", -1)) {
+            if (line.startsWith(".")) {
+                framed.append('.');
+            }
+            framed.append(line).append('\n');
+        }
+        if (output.endsWith("\n")) {
+            framed.setLength(framed.length() - 1);
+        }
+        return framed.append(END_OF_RESPONSE).append('\n').toString();
+    }
+
+    /**
+     * The state of one client. All fields except <code>response</code> and
+     * <code>closeAfterResponse</code> are only used by the selector thread, those two are
+     * set by a worker thread before the connection is handed back through
+     * <code>readyToWrite</code>.
+     */
+    private final class ClientConnection {
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private final Queue<String> receivedLines = new ArrayDeque<>();
+        private SelectionKey key;
+        private boolean performing;
+        private boolean endOfInput;
+        private ByteBuffer response;
+        private boolean closeAfterResponse;
+
+        private ClientConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                endOfInput = true;
+                if (!performing) {
+                    close();
+                }
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    receivedLines.add(partialLine.toString(StandardCharsets.UTF_8).replace("\r", ""));
+                    partialLine.reset();
+                } else if (partialLine.size() < MAX_LINE_LENGTH) {
+                    partialLine.write(b);
+                } else {
+                    answer("The command is longer than " + MAX_LINE_LENGTH + " characters.\n", true);
+                    return;
+                }
+            }
+            readBuffer.clear();
+            performNext();
+        }
+
+        private void performNext() {
+            String line = receivedLines.poll();
+            if (line == null) {
+                return;
+            }
+            performing = true;
+            key.interestOps(0);
+            try {
+                workers.execute(() -> perform(line));
+            } catch (RejectedExecutionException overloaded) {
+                rejected.increment();
+                answer(BUSY + " The server is overloaded, try again later.\n", false);
+            }
+        }
+
+        private void perform(String line) {
+            StringWriter output = new StringWriter();
+            boolean keepConnection;
+            try (PrintWriter out = new PrintWriter(output)) {
+                keepConnection = handler.execute(new CmdLine(line), out);
+            }
+            performed.increment();
+            response = ByteBuffer.wrap(frame(output.toString()).getBytes(StandardCharsets.UTF_8));
+            closeAfterResponse = !keepConnection;
+            readyToWrite.add(this);
+            selector.wakeup();
+        }
+
+        private void answer(String output, boolean close) {
+            performing = true;
+            response = ByteBuffer.wrap(frame(output).getBytes(StandardCharsets.UTF_8));
+            closeAfterResponse = close;
+            startWriting();
+        }
+
+        private void startWriting() {
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void write() throws IOException {
+            channel.write(response);
+            if (response.hasRemaining()) {
+                return;
+            }
+            response = null;
+            performing = false;
+            if (closeAfterResponse || (endOfInput && receivedLines.isEmpty())) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            performNext();
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The client is gone either way.
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+-- Migration 1: indexes for the availability and rental queries.
+--
+-- Apply after psql-sgdb-create-tables.sql with
+--   psql -d soundgood -f src/main/resources/migrations/V001__availability_indexes.sql
+-- The migration is recorded in schema_version and can safely be applied again.
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS schema_version (
+ version INT PRIMARY KEY,
+ description VARCHAR(200) NOT NULL,
+ applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Needed to combine the integer equality on rental_instrument_id with the range
+-- overlap in one GiST index.
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+-- An instrument can not be rented twice during overlapping periods. Both days of a
+-- rental are included, matching the overlap test in SoundGoodDAO. Terminated rentals
+-- no longer book the instrument. The GiST index behind the constraint answers the
+-- NOT EXISTS overlap probe of the availability queries for one instrument.
+ALTER TABLE rental DROP CONSTRAINT IF EXISTS rental_no_overlap;
+ALTER TABLE rental ADD CONSTRAINT rental_no_overlap
+ EXCLUDE USING gist (rental_instrument_id WITH =, daterange(start_date, end_date, '[]') WITH &&)
+ WHERE (terminated IS NOT TRUE);
+
+-- Counting the active rentals of a student. Only rentals that are not terminated are
+-- indexed, which is a small part of the table once rentals have been returned.
+CREATE INDEX IF NOT EXISTS rental_active_student_idx
+ ON rental (student_id, end_date)
+ WHERE terminated IS NOT TRUE;
+
+-- Filtering the catalog on instrument type before probing for rentals.
+CREATE INDEX IF NOT EXISTS instrument_name_idx ON instrument (name);
+CREATE INDEX IF NOT EXISTS rental_instrument_instrument_idx ON rental_instrument (instrument_id);
+
+INSERT INTO schema_version (version, description)
+VALUES (1, 'availability indexes')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
+
+ANALYZE rental;
+ANALYZE rental_instrument;
+ANALYZE instrument;
@@ -0,0 +1,167 @@
+-- Migration 2: lesson statistics per month, kept up to date by triggers.
+--
+-- Apply after V001 with
+--   psql -d soundgood -f src/main/resources/migrations/V002__lesson_statistics.sql
+--
+-- lesson_month_stats holds the number of lessons of each type per month and
+-- instructor_month_stats the number of lessons of each type each instructor gives per
+-- month. The
+-- reports read a handful of rows from these tables instead of scanning lesson and job.
+-- The triggers are statement level and read the changed rows from transition tables, so
+-- a COPY or a multi row insert updates each counter once.
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS lesson_month_stats (
+ month DATE NOT NULL,
+ lesson_type VARCHAR(20) NOT NULL,
+ lessons INT NOT NULL,
+ PRIMARY KEY (month, lesson_type)
+);
+
+-- An earlier version of this table counted the lessons of an instructor without their
+-- type. It is replaced, and filled again by rebuild_lesson_statistics below.
+DO $$
+BEGIN
+ IF to_regclass('instructor_month_stats') IS NOT NULL AND NOT EXISTS (
+     SELECT 1 FROM information_schema.columns
+     WHERE table_name = 'instructor_month_stats' and column_name = 'lesson_type') THEN
+  DROP TABLE instructor_month_stats;
+ END IF;
+END $$;
+
+CREATE TABLE IF NOT EXISTS instructor_month_stats (
+ month DATE NOT NULL,
+ instructor_id INT NOT NULL,
+ lesson_type VARCHAR(20) NOT NULL,
+ lessons INT NOT NULL,
+ PRIMARY KEY (month, instructor_id, lesson_type)
+);
+
+-- Recomputes both tables from lesson and job. Used to fill the tables when the
+-- migration is applied and to repair them if the triggers were ever disabled.
+CREATE OR REPLACE FUNCTION rebuild_lesson_statistics() RETURNS void LANGUAGE plpgsql AS $$
+BEGIN
+ TRUNCATE lesson_month_stats, instructor_month_stats;
+ INSERT INTO lesson_month_stats (month, lesson_type, lessons)
+ SELECT date_trunc('month', l.start_timestamp)::date, l.lesson_type, count(*)
+ FROM lesson l GROUP BY 1, 2;
+ INSERT INTO instructor_month_stats (month, instructor_id, lesson_type, lessons)
+ SELECT date_trunc('month', l.start_timestamp)::date, j.instructor_id, l.lesson_type, count(*)
+ FROM job j JOIN lesson l on l.id = j.lesson_id GROUP BY 1, 2, 3;
+END $$;
+
+CREATE OR REPLACE FUNCTION lesson_stats_after_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ INSERT INTO lesson_month_stats (month, lesson_type, lessons)
+ SELECT date_trunc('month', n.start_timestamp)::date, n.lesson_type, count(*)
+ FROM new_lessons n GROUP BY 1, 2
+ ON CONFLICT (month, lesson_type) DO UPDATE SET lessons = lesson_month_stats.lessons + EXCLUDED.lessons;
+ RETURN NULL;
+END $$;
+
+-- A lesson can not be deleted while it has a job, so only the lesson counts change.
+CREATE OR REPLACE FUNCTION lesson_stats_after_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ UPDATE lesson_month_stats s SET lessons = s.lessons - d.lessons
+ FROM (SELECT date_trunc('month', o.start_timestamp)::date as month, o.lesson_type, count(*) as lessons
+       FROM old_lessons o GROUP BY 1, 2) d
+ WHERE s.month = d.month and s.lesson_type = d.lesson_type;
+ RETURN NULL;
+END $$;
+
+CREATE OR REPLACE FUNCTION lesson_stats_after_update() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ UPDATE lesson_month_stats s SET lessons = s.lessons - d.lessons
+ FROM (SELECT date_trunc('month', o.start_timestamp)::date as month, o.lesson_type, count(*) as lessons
+       FROM old_lessons o GROUP BY 1, 2) d
+ WHERE s.month = d.month and s.lesson_type = d.lesson_type;
+ INSERT INTO lesson_month_stats (month, lesson_type, lessons)
+ SELECT date_trunc('month', n.start_timestamp)::date, n.lesson_type, count(*)
+ FROM new_lessons n GROUP BY 1, 2
+ ON CONFLICT (month, lesson_type) DO UPDATE SET lessons = lesson_month_stats.lessons + EXCLUDED.lessons;
+
+ UPDATE instructor_month_stats s SET lessons = s.lessons - d.lessons
+ FROM (SELECT date_trunc('month', o.start_timestamp)::date as month, j.instructor_id, o.lesson_type, count(*) as lessons
+       FROM old_lessons o JOIN job j on j.lesson_id = o.id GROUP BY 1, 2, 3) d
+ WHERE s.month = d.month and s.instructor_id = d.instructor_id and s.lesson_type = d.lesson_type;
+ INSERT INTO instructor_month_stats (month, instructor_id, lesson_type, lessons)
+ SELECT date_trunc('month', n.start_timestamp)::date, j.instructor_id, n.lesson_type, count(*)
+ FROM new_lessons n JOIN job j on j.lesson_id = n.id GROUP BY 1, 2, 3
+ ON CONFLICT (month, instructor_id, lesson_type) DO UPDATE SET lessons = instructor_month_stats.lessons + EXCLUDED.lessons;
+ RETURN NULL;
+END $$;
+
+CREATE OR REPLACE FUNCTION job_stats_after_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ INSERT INTO instructor_month_stats (month, instructor_id, lesson_type, lessons)
+ SELECT date_trunc('month', l.start_timestamp)::date, n.instructor_id, l.lesson_type, count(*)
+ FROM new_jobs n JOIN lesson l on l.id = n.lesson_id GROUP BY 1, 2, 3
+ ON CONFLICT (month, instructor_id, lesson_type) DO UPDATE SET lessons = instructor_month_stats.lessons + EXCLUDED.lessons;
+ RETURN NULL;
+END $$;
+
+CREATE OR REPLACE FUNCTION job_stats_after_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ UPDATE instructor_month_stats s SET lessons = s.lessons - d.lessons
+ FROM (SELECT date_trunc('month', l.start_timestamp)::date as month, o.instructor_id, l.lesson_type, count(*) as lessons
+       FROM old_jobs o JOIN lesson l on l.id = o.lesson_id GROUP BY 1, 2, 3) d
+ WHERE s.month = d.month and s.instructor_id = d.instructor_id and s.lesson_type = d.lesson_type;
+ RETURN NULL;
+END $$;
+
+CREATE OR REPLACE FUNCTION job_stats_after_update() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ UPDATE instructor_month_stats s SET lessons = s.lessons - d.lessons
+ FROM (SELECT date_trunc('month', l.start_timestamp)::date as month, o.instructor_id, l.lesson_type, count(*) as lessons
+       FROM old_jobs o JOIN lesson l on l.id = o.lesson_id GROUP BY 1, 2, 3) d
+ WHERE s.month = d.month and s.instructor_id = d.instructor_id and s.lesson_type = d.lesson_type;
+ INSERT INTO instructor_month_stats (month, instructor_id, lesson_type, lessons)
+ SELECT date_trunc('month', l.start_timestamp)::date, n.instructor_id, l.lesson_type, count(*)
+ FROM new_jobs n JOIN lesson l on l.id = n.lesson_id GROUP BY 1, 2, 3
+ ON CONFLICT (month, instructor_id, lesson_type) DO UPDATE SET lessons = instructor_month_stats.lessons + EXCLUDED.lessons;
+ RETURN NULL;
+END $$;
+
+CREATE OR REPLACE FUNCTION lesson_stats_after_truncate() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ IF TG_TABLE_NAME = 'lesson' THEN
+  TRUNCATE lesson_month_stats;
+ END IF;
+ TRUNCATE instructor_month_stats;
+ RETURN NULL;
+END $$;
+
+DROP TRIGGER IF EXISTS lesson_stats_insert ON lesson;
+DROP TRIGGER IF EXISTS lesson_stats_delete ON lesson;
+DROP TRIGGER IF EXISTS lesson_stats_update ON lesson;
+DROP TRIGGER IF EXISTS lesson_stats_truncate ON lesson;
+DROP TRIGGER IF EXISTS job_stats_insert ON job;
+DROP TRIGGER IF EXISTS job_stats_delete ON job;
+DROP TRIGGER IF EXISTS job_stats_update ON job;
+DROP TRIGGER IF EXISTS job_stats_truncate ON job;
+
+CREATE TRIGGER lesson_stats_insert AFTER INSERT ON lesson
+ REFERENCING NEW TABLE AS new_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_insert();
+CREATE TRIGGER lesson_stats_delete AFTER DELETE ON lesson
+ REFERENCING OLD TABLE AS old_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_delete();
+CREATE TRIGGER lesson_stats_update AFTER UPDATE ON lesson
+ REFERENCING OLD TABLE AS old_lessons NEW TABLE AS new_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_update();
+CREATE TRIGGER lesson_stats_truncate AFTER TRUNCATE ON lesson
+ FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_truncate();
+CREATE TRIGGER job_stats_insert AFTER INSERT ON job
+ REFERENCING NEW TABLE AS new_jobs FOR EACH STATEMENT EXECUTE FUNCTION job_stats_after_insert();
+CREATE TRIGGER job_stats_delete AFTER DELETE ON job
+ REFERENCING OLD TABLE AS old_jobs FOR EACH STATEMENT EXECUTE FUNCTION job_stats_after_delete();
+CREATE TRIGGER job_stats_update AFTER UPDATE ON job
+ REFERENCING OLD TABLE AS old_jobs NEW TABLE AS new_jobs FOR EACH STATEMENT EXECUTE FUNCTION job_stats_after_update();
+CREATE TRIGGER job_stats_truncate AFTER TRUNCATE ON job
+ FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_truncate();
+
+SELECT rebuild_lesson_statistics();
+
+INSERT INTO schema_version (version, description)
+VALUES (2, 'lesson statistics')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
@@ -0,0 +1,55 @@
+-- Migration 3: one seat counter per lesson, used when lessons are booked and canceled.
+--
+-- Apply after V002 with
+--   psql -d soundgood -f src/main/resources/migrations/V003__lesson_seats.sql
+--
+-- lesson_seats holds the capacity of each lesson and the number of seats booked. A booking
+-- takes a seat with a single guarded update, booked = booked + 1 where booked < capacity,
+-- so no booking has to count the bookings of its lesson or lock anything but one counter
+-- row. The capacity is max_cap of the ensemble or group lesson, and 1 for other lessons.
+-- The application keeps booked up to date. Bookings inserted or canceled with plain SQL
+-- are only counted after SELECT rebuild_lesson_seats();
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS lesson_seats (
+ lesson_id INT PRIMARY KEY REFERENCES lesson (id),
+ capacity INT NOT NULL,
+ booked INT NOT NULL DEFAULT 0 CHECK (booked >= 0)
+);
+
+CREATE OR REPLACE FUNCTION rebuild_lesson_seats() RETURNS void LANGUAGE plpgsql AS $$
+BEGIN
+ INSERT INTO lesson_seats (lesson_id, capacity, booked)
+ SELECT l.id, coalesce(el.max_cap, gl.max_cap, 1), count(b.student_id)
+ FROM lesson l
+          LEFT JOIN ensamble_lesson el on el.lesson_id = l.id
+          LEFT JOIN group_lesson gl on gl.lesson_id = l.id
+          LEFT JOIN booking b on b.lesson_id = l.id and b.canceled is not true
+ GROUP BY l.id, el.max_cap, gl.max_cap
+ ON CONFLICT (lesson_id) DO UPDATE SET capacity = EXCLUDED.capacity, booked = EXCLUDED.booked;
+END $$;
+
+-- Keeps the capacity in step with max_cap. A counter row that does not exist yet is
+-- created by the application when the lesson is first booked.
+CREATE OR REPLACE FUNCTION lesson_seats_capacity_changed() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ UPDATE lesson_seats SET capacity = NEW.max_cap WHERE lesson_id = NEW.lesson_id;
+ RETURN NULL;
+END $$;
+
+DROP TRIGGER IF EXISTS ensamble_lesson_seats ON ensamble_lesson;
+DROP TRIGGER IF EXISTS group_lesson_seats ON group_lesson;
+
+CREATE TRIGGER ensamble_lesson_seats AFTER INSERT OR UPDATE OF max_cap ON ensamble_lesson
+ FOR EACH ROW EXECUTE FUNCTION lesson_seats_capacity_changed();
+CREATE TRIGGER group_lesson_seats AFTER INSERT OR UPDATE OF max_cap ON group_lesson
+ FOR EACH ROW EXECUTE FUNCTION lesson_seats_capacity_changed();
+
+SELECT rebuild_lesson_seats();
+
+INSERT INTO schema_version (version, description)
+VALUES (3, 'lesson seats')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
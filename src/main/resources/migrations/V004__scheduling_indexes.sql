@@ -0,0 +1,25 @@
+-- Migration 4: indexes for loading and keeping the instructor schedules.
+--
+-- Apply after V003 with
+--   psql -d soundgood -f src/main/resources/migrations/V004__scheduling_indexes.sql
+--
+-- The application loads the work times and lessons of all instructors from some month on
+-- into its scheduling engine, and afterwards only reads single lessons and writes single
+-- work times and jobs. Both loads are range scans on time instead of full table scans.
+
+BEGIN;
+
+-- Loading the lessons from a month on, and the month ranges of the daily workload query.
+CREATE INDEX IF NOT EXISTS lesson_start_idx ON lesson (start_timestamp);
+
+-- Loading the work times that end after a month has started.
+CREATE INDEX IF NOT EXISTS work_time_end_idx ON work_time (end_timestamp);
+
+-- Joining the jobs of the loaded lessons, and the jobs of one instructor.
+CREATE INDEX IF NOT EXISTS job_instructor_idx ON job (instructor_id, lesson_id);
+
+INSERT INTO schema_version (version, description)
+VALUES (4, 'scheduling indexes')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
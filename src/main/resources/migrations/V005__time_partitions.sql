@@ -0,0 +1,274 @@
+-- Migration 5: rental and lesson partitioned by year.
+--
+-- Apply after V004 with
+--   psql -d soundgood -f src/main/resources/migrations/V005__time_partitions.sql
+-- Apply it to a copy of the populated database first and check the plans of the copy with
+-- src/main/resources/psql-sgdb-explain-partitions.sql, whose header tells how.
+--
+-- rental is partitioned on start_date and lesson on start_timestamp, one partition per
+-- year, named rental_y2022, lesson_y2022 and so on. Queries that bound the partition key
+-- only read the partitions of the years they ask for, so their cost stays the same as
+-- history grows. The application creates the partitions of the coming years with
+-- SELECT ensure_time_partitions(1); and old years are moved to the schema archive with
+-- SELECT archive_time_partitions(2020); which detaches every partition before 2020.
+-- There is no default partition, since a new year could not be partitioned while the default
+-- partition holds rows of it. Instead the partition of a rental starting further ahead is
+-- created on demand by the application and by create_rental of V006, with
+-- SELECT create_year_partition('rental', 2100);
+--
+-- A rental may last at most 12 months. That bound is what lets the availability queries
+-- skip the partitions of rentals that started more than 12 months before the period they
+-- check. Rentals longer than that must be split before this migration is applied.
+--
+-- PostgreSQL can neither enforce a unique constraint nor an exclusion constraint across
+-- partitions unless it includes the partition key. Therefore:
+--   * The exclusion constraint of V001 exists on each rental partition. Overlapping rentals
+--     of one instrument in different partitions are kept out by the trigger
+--     rental_cross_partition_overlap, which locks the instrument row and then looks for
+--     overlapping rentals in the partitions of the neighbouring years. Row triggers on a
+--     partitioned table need PostgreSQL 13 or later.
+--   * The primary key of lesson is (id, start_timestamp). Rows referring to a lesson are
+--     checked by triggers instead of foreign keys: a row can only refer to an existing lesson
+--     and a lesson can not be deleted while a row refers to it. Rows referring to archived
+--     lessons are left as they are.
+--
+-- The migration rewrites both tables and holds an exclusive lock on them until it commits.
+
+BEGIN;
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Creates the partition of the specified year, unless it exists or has been archived.
+-- Returns false also when another transaction created it at the same time.
+CREATE OR REPLACE FUNCTION create_year_partition(parent TEXT, year INT) RETURNS boolean LANGUAGE plpgsql AS $$
+DECLARE
+ partition_name TEXT := parent || '_y' || year;
+BEGIN
+ IF to_regclass(partition_name) IS NOT NULL OR to_regclass('archive.' || partition_name) IS NOT NULL THEN
+  RETURN false;
+ END IF;
+ EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                partition_name, parent, make_date(year, 1, 1), make_date(year + 1, 1, 1));
+ IF parent = 'rental' THEN
+  EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I EXCLUDE USING gist '
+                 '(rental_instrument_id WITH =, daterange(start_date, end_date, ''[]'') WITH &&) '
+                 'WHERE (terminated IS NOT TRUE)', partition_name, partition_name || '_no_overlap');
+ END IF;
+ RETURN true;
+EXCEPTION WHEN duplicate_table OR unique_violation THEN
+ RETURN false;
+END $$;
+
+-- Creates the rental and lesson partitions of this year and the specified number of
+-- years ahead. Returns the number of partitions created.
+CREATE OR REPLACE FUNCTION ensure_time_partitions(years_ahead INT) RETURNS INT LANGUAGE plpgsql AS $$
+DECLARE
+ this_year INT := EXTRACT(year FROM CURRENT_DATE);
+ created INT := 0;
+BEGIN
+ FOR year IN this_year .. this_year + years_ahead LOOP
+  IF create_year_partition('rental', year) THEN
+   created := created + 1;
+  END IF;
+  IF create_year_partition('lesson', year) THEN
+   created := created + 1;
+  END IF;
+ END LOOP;
+ RETURN created;
+END $$;
+
+-- Detaches the rental and lesson partitions of the years before the specified year and
+-- moves them to the schema archive. Rentals of last year may still be active, so only
+-- years before that can be archived. Returns the number of partitions archived.
+CREATE OR REPLACE FUNCTION archive_time_partitions(before_year INT) RETURNS INT LANGUAGE plpgsql AS $$
+DECLARE
+ last_year INT := EXTRACT(year FROM CURRENT_DATE) - 1;
+ detached RECORD;
+ archived INT := 0;
+BEGIN
+ IF before_year > last_year THEN
+  RAISE EXCEPTION 'Partitions from % on may hold active rentals and can not be archived.', last_year;
+ END IF;
+ FOR detached IN
+  SELECT p.relname as parent, c.relname as child
+  FROM pg_inherits i JOIN pg_class c on c.oid = i.inhrelid JOIN pg_class p on p.oid = i.inhparent
+  WHERE p.relname IN ('rental', 'lesson') and p.relnamespace = 'public'::regnamespace
+    and c.relname ~ '_y[0-9]{4}$' and right(c.relname, 4)::int < before_year
+  ORDER BY c.relname
+ LOOP
+  EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', detached.parent, detached.child);
+  EXECUTE format('ALTER TABLE %I SET SCHEMA archive', detached.child);
+  archived := archived + 1;
+ END LOOP;
+ RETURN archived;
+END $$;
+
+-- Takes the place of the foreign keys to lesson (id), which can not reference a
+-- partitioned table by a key without its partition key. The lesson is locked like a
+-- foreign key would, so it can not be deleted before the referring row is committed.
+CREATE OR REPLACE FUNCTION check_lesson_reference() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+ PERFORM 1 FROM lesson WHERE id = NEW.lesson_id FOR KEY SHARE;
+ IF NOT FOUND THEN
+  RAISE foreign_key_violation USING MESSAGE = format('Lesson %s does not exist, referenced from %s.', NEW.lesson_id, TG_TABLE_NAME);
+ END IF;
+ RETURN NEW;
+END $$;
+
+-- The other half of the foreign keys to lesson (id): a delete fails if a row still refers
+-- to a deleted lesson, so neither the statistics of V002 nor the referring rows are left
+-- behind. It runs once per statement, since an update moving a lesson to the partition of
+-- another year fires the row triggers of a delete but not the statement triggers.
+CREATE OR REPLACE FUNCTION check_deleted_lessons() RETURNS trigger LANGUAGE plpgsql AS $$
+DECLARE
+ referencing TEXT;
+ referenced INT;
+BEGIN
+ FOREACH referencing IN ARRAY ARRAY['booking', 'job', 'ensamble_lesson', 'group_lesson', 'individual_lesson', 'lesson_seats'] LOOP
+  EXECUTE format('SELECT min(o.id) FROM old_lessons o JOIN %I r on r.lesson_id = o.id '
+                 'WHERE NOT EXISTS (SELECT 1 FROM lesson l WHERE l.id = o.id)', referencing) INTO referenced;
+  IF referenced IS NOT NULL THEN
+   RAISE foreign_key_violation USING MESSAGE = format('Lesson %s is still referenced from %s.', referenced, referencing);
+  END IF;
+ END LOOP;
+ RETURN NULL;
+END $$;
+
+-- Keeps an active rental from overlapping an active rental of the same instrument in the
+-- partition of another year, which the exclusion constraint of a partition can not see.
+-- The instrument row is locked first and the rentals are looked for by a statement of its
+-- own, so it sees the rentals committed while the lock was awaited. Same-year overlaps are
+-- left to the exclusion constraint.
+CREATE OR REPLACE FUNCTION check_rental_overlap() RETURNS trigger LANGUAGE plpgsql AS $$
+DECLARE
+ year_start DATE := date_trunc('year', NEW.start_date)::date;
+BEGIN
+ IF NEW.terminated IS TRUE THEN
+  RETURN NEW;
+ END IF;
+ PERFORM 1 FROM rental_instrument ri WHERE ri.id = NEW.rental_instrument_id FOR UPDATE OF ri;
+ IF EXISTS (SELECT 1 FROM rental r
+            WHERE r.rental_instrument_id = NEW.rental_instrument_id and r.terminated is not true
+              and r.start_date >= (NEW.start_date - interval '12 months')::date and r.start_date <= NEW.end_date
+              and (r.start_date < year_start or r.start_date >= (year_start + interval '1 year')::date)
+              and daterange(r.start_date, r.end_date, '[]') && daterange(NEW.start_date, NEW.end_date, '[]')
+              and NOT (TG_OP = 'UPDATE' and r.rental_instrument_id = OLD.rental_instrument_id
+                       and r.student_id = OLD.student_id and r.start_date = OLD.start_date)) THEN
+  RAISE exclusion_violation USING MESSAGE = format('Instrument %s is already rented during %s to %s.',
+                                                   NEW.rental_instrument_id, NEW.start_date, NEW.end_date);
+ END IF;
+ RETURN NEW;
+END $$;
+
+-- rental, converted only if it is not partitioned yet.
+DO $$
+BEGIN
+ IF (SELECT relkind FROM pg_class WHERE oid = 'rental'::regclass) = 'p' THEN
+  RETURN;
+ END IF;
+
+ ALTER TABLE rental RENAME TO rental_unpartitioned;
+ ALTER TABLE rental_unpartitioned DROP CONSTRAINT pk_rental;
+ ALTER TABLE rental_unpartitioned DROP CONSTRAINT IF EXISTS rental_no_overlap;
+ DROP INDEX IF EXISTS rental_active_student_idx;
+
+ CREATE TABLE rental (
+  rental_instrument_id INT NOT NULL,
+  student_id INT NOT NULL,
+  start_date DATE NOT NULL,
+  end_date DATE NOT NULL,
+  delivery TIMESTAMP(13),
+  price DOUBLE PRECISION,
+  notes VARCHAR(2000),
+  terminated bool,
+  termination_date DATE,
+  CONSTRAINT PK_rental PRIMARY KEY (rental_instrument_id, student_id, start_date),
+  CONSTRAINT rental_max_12_months CHECK (end_date <= start_date + interval '12 months')
+ ) PARTITION BY RANGE (start_date);
+
+ ALTER TABLE rental ADD CONSTRAINT FK_rental_0 FOREIGN KEY (rental_instrument_id) REFERENCES rental_instrument (id);
+ ALTER TABLE rental ADD CONSTRAINT FK_rental_1 FOREIGN KEY (student_id) REFERENCES student (student_id);
+
+ PERFORM create_year_partition('rental', year)
+ FROM (SELECT DISTINCT EXTRACT(year FROM start_date)::int as year FROM rental_unpartitioned) y;
+
+ INSERT INTO rental SELECT * FROM rental_unpartitioned;
+ DROP TABLE rental_unpartitioned;
+
+ CREATE INDEX rental_active_student_idx ON rental (student_id, end_date) WHERE terminated IS NOT TRUE;
+END $$;
+
+-- lesson, converted only if it is not partitioned yet.
+DO $$
+BEGIN
+ IF (SELECT relkind FROM pg_class WHERE oid = 'lesson'::regclass) = 'p' THEN
+  RETURN;
+ END IF;
+
+ ALTER TABLE lesson RENAME TO lesson_unpartitioned;
+ ALTER TABLE lesson_unpartitioned DROP CONSTRAINT lesson_pkey CASCADE;
+ ALTER TABLE lesson_unpartitioned ALTER COLUMN id DROP DEFAULT;
+ ALTER SEQUENCE lesson_id_seq OWNED BY NONE;
+ DROP INDEX IF EXISTS lesson_start_idx;
+
+ CREATE TABLE lesson (
+  id INT NOT NULL DEFAULT nextval('lesson_id_seq'),
+  start_timestamp TIMESTAMP(13) NOT NULL,
+  end_timestamp TIMESTAMP(13) NOT NULL,
+  room VARCHAR(50),
+  skill_level VARCHAR(20) NOT NULL,
+  lesson_type VARCHAR(20) NOT NULL,
+  CONSTRAINT lesson_pkey PRIMARY KEY (id, start_timestamp)
+ ) PARTITION BY RANGE (start_timestamp);
+
+ ALTER SEQUENCE lesson_id_seq OWNED BY lesson.id;
+ ALTER TABLE lesson ADD CONSTRAINT FK_lesson_0 FOREIGN KEY (skill_level,lesson_type) REFERENCES price (skill_level,lesson_type);
+
+ PERFORM create_year_partition('lesson', year)
+ FROM (SELECT DISTINCT EXTRACT(year FROM start_timestamp)::int as year FROM lesson_unpartitioned) y;
+
+ -- The statistics of V002 already count these lessons, and the triggers that keep them
+ -- up to date are created on the new table after the copy.
+ INSERT INTO lesson SELECT * FROM lesson_unpartitioned;
+ DROP TABLE lesson_unpartitioned;
+
+ CREATE INDEX lesson_id_idx ON lesson (id);
+ CREATE INDEX lesson_start_idx ON lesson (start_timestamp);
+
+ CREATE TRIGGER lesson_stats_insert AFTER INSERT ON lesson
+  REFERENCING NEW TABLE AS new_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_insert();
+ CREATE TRIGGER lesson_stats_delete AFTER DELETE ON lesson
+  REFERENCING OLD TABLE AS old_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_delete();
+ CREATE TRIGGER lesson_stats_update AFTER UPDATE ON lesson
+  REFERENCING OLD TABLE AS old_lessons NEW TABLE AS new_lessons FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_update();
+ CREATE TRIGGER lesson_stats_truncate AFTER TRUNCATE ON lesson
+  FOR EACH STATEMENT EXECUTE FUNCTION lesson_stats_after_truncate();
+END $$;
+
+DROP TRIGGER IF EXISTS lesson_references_delete ON lesson;
+CREATE TRIGGER lesson_references_delete AFTER DELETE ON lesson
+ REFERENCING OLD TABLE AS old_lessons FOR EACH STATEMENT EXECUTE FUNCTION check_deleted_lessons();
+
+DROP TRIGGER IF EXISTS rental_cross_partition_overlap ON rental;
+CREATE TRIGGER rental_cross_partition_overlap
+ BEFORE INSERT OR UPDATE OF rental_instrument_id, start_date, end_date, terminated ON rental
+ FOR EACH ROW EXECUTE FUNCTION check_rental_overlap();
+
+DO $$
+DECLARE
+ referencing TEXT;
+BEGIN
+ FOREACH referencing IN ARRAY ARRAY['booking', 'job', 'ensamble_lesson', 'group_lesson', 'individual_lesson', 'lesson_seats'] LOOP
+  EXECUTE format('DROP TRIGGER IF EXISTS %I ON %I', referencing || '_lesson_reference', referencing);
+  EXECUTE format('CREATE TRIGGER %I BEFORE INSERT OR UPDATE OF lesson_id ON %I '
+                 'FOR EACH ROW EXECUTE FUNCTION check_lesson_reference()', referencing || '_lesson_reference', referencing);
+ END LOOP;
+END $$;
+
+SELECT ensure_time_partitions(1);
+
+INSERT INTO schema_version (version, description)
+VALUES (5, 'time partitions')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
@@ -0,0 +1,71 @@
+-- Migration 6: rentals checked and created by one call of a database function.
+--
+-- Apply after V005 with
+--   psql -d soundgood -f src/main/resources/migrations/V006__create_rental_function.sql
+--
+-- create_rental does what the application does in the locking booking mode, in one statement
+-- instead of five. It locks the student row, counts the student's active rentals,
+-- locks the instrument row, checks that no active rental of the instrument overlaps the
+-- period and inserts the rental priced by the instrument's monthly price. The rows are
+-- locked in the same order as by the application, so the two can be used side by side.
+--
+-- A function is used instead of a single INSERT ... SELECT because in read committed
+-- isolation every statement of a function sees the rentals committed while it waited for a
+-- lock, whereas a single statement only sees those committed before it started.
+--
+-- The partition of the year the rental starts is created first if it is missing, before any
+-- row is locked, see V005.
+--
+-- The function returns what happened, one of 'created', 'student_not_approved',
+-- 'too_many_rentals', 'instrument_not_found' and 'already_rented'. Nothing is changed
+-- unless it returns 'created'. The caller commits in all cases, to release the locks.
+
+BEGIN;
+
+CREATE OR REPLACE FUNCTION create_rental(for_student INT, of_instrument INT, first_day DATE, last_day DATE,
+                                         delivery_time TIMESTAMP, rental_notes VARCHAR, max_rentals INT)
+RETURNS TEXT LANGUAGE plpgsql AS $$
+DECLARE
+ active_rentals INT;
+ monthly DOUBLE PRECISION;
+BEGIN
+ PERFORM create_year_partition('rental', EXTRACT(year FROM first_day)::int);
+
+ PERFORM 1 FROM student s WHERE s.student_id = for_student and s.approved = true FOR UPDATE OF s;
+ IF NOT FOUND THEN
+  RETURN 'student_not_approved';
+ END IF;
+
+ SELECT count(*) INTO active_rentals FROM rental r
+ WHERE r.student_id = for_student and r.terminated is not true and r.end_date >= CURRENT_DATE
+   and r.start_date >= (CURRENT_DATE - interval '12 months')::date;
+ IF active_rentals >= max_rentals THEN
+  RETURN 'too_many_rentals';
+ END IF;
+
+ SELECT ri.monthly_price INTO monthly FROM rental_instrument ri WHERE ri.id = of_instrument FOR UPDATE OF ri;
+ IF NOT FOUND THEN
+  RETURN 'instrument_not_found';
+ END IF;
+
+ -- The bounds on start_date let the partitions of other years be skipped, no rental lasts
+ -- longer than 12 months.
+ IF EXISTS (SELECT 1 FROM rental r
+            WHERE r.rental_instrument_id = of_instrument and r.terminated is not true
+              and r.start_date >= (first_day - interval '12 months')::date and r.start_date <= last_day
+              and daterange(r.start_date, r.end_date, '[]') && daterange(first_day, last_day, '[]')) THEN
+  RETURN 'already_rented';
+ END IF;
+
+ INSERT INTO rental (student_id, rental_instrument_id, start_date, end_date, delivery, price, notes, terminated)
+ VALUES (for_student, of_instrument, first_day, last_day, delivery_time,
+         (EXTRACT(year FROM age(last_day, first_day)) * 12 + EXTRACT(month FROM age(last_day, first_day))) * monthly,
+         rental_notes, false);
+ RETURN 'created';
+END $$;
+
+INSERT INTO schema_version (version, description)
+VALUES (6, 'create rental function')
+ON CONFLICT (version) DO NOTHING;
+
+COMMIT;
@@ -0,0 +1,132 @@
+-- Query plans of the availability queries in SoundGoodDAO, for checking that the
+-- indexes of migrations/V001__availability_indexes.sql are used. Run against a database
+-- filled by GenerateData (scale 0.1 gives 1M rentals) with
+--   psql -d soundgood -v ON_ERROR_STOP=1 -f src/main/resources/psql-sgdb-explain-availability.sql
+--
+-- The plans are printed with EXPLAIN ANALYZE and then checked, and the script stops with an
+-- error if a check fails:
+--   * The rental table holds at least 1M rows, so the plans are those of a realistic size.
+--   * The listings and the locking lookup probe rental_no_overlap, or the rental_yYYYY_no_overlap
+--     index of each partition once V005 has partitioned rental, and neither aggregate nor hash
+--     rental rows.
+--   * The student count uses rental_active_student_idx and reads no rental row sequentially.
+-- The plans depend on the data and the server settings, so they are not kept in this file;
+-- run the script on the database they are to be checked for.
+
+\set start_date '''2022-03-01'''
+\set end_date '''2022-06-30'''
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price
+FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where i.name = 'Guitar'
+and NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (:start_date::date - interval '12 months')::date and r.start_date <= :end_date::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(:start_date::date, :end_date::date, '[]'))
+order by ri.id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price
+FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (:start_date::date - interval '12 months')::date and r.start_date <= :end_date::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(:start_date::date, :end_date::date, '[]'))
+order by ri.id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ri.id, EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (:start_date::date - interval '12 months')::date and r.start_date <= :end_date::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(:start_date::date, :end_date::date, '[]')) as booked
+FROM rental_instrument ri where ri.id = 42;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM rental r where r.student_id = 42 and r.terminated IS NOT TRUE and r.end_date >= CURRENT_DATE
+ and r.start_date >= (CURRENT_DATE - interval '12 months')::date;
+
+-- Whether the plan node or a node below it reads rental or one of its partitions.
+CREATE FUNCTION pg_temp.reads_rental(node JSON) RETURNS boolean LANGUAGE plpgsql AS $$
+DECLARE
+ child JSON;
+BEGIN
+ IF node->>'Relation Name' ~ '^rental(_y[0-9]{4})?$' THEN
+  RETURN true;
+ END IF;
+ FOR child IN SELECT json_array_elements(coalesce(node->'Plans', '[]'::json)) LOOP
+  IF pg_temp.reads_rental(child) THEN
+   RETURN true;
+  END IF;
+ END LOOP;
+ RETURN false;
+END $$;
+
+-- The type of the first node of one of the specified types that reads rental, or null.
+CREATE FUNCTION pg_temp.node_over_rental(node JSON, node_types TEXT[]) RETURNS TEXT LANGUAGE plpgsql AS $$
+DECLARE
+ child JSON;
+ found TEXT;
+BEGIN
+ IF node->>'Node Type' = ANY (node_types) AND pg_temp.reads_rental(node) THEN
+  RETURN node->>'Node Type';
+ END IF;
+ FOR child IN SELECT json_array_elements(coalesce(node->'Plans', '[]'::json)) LOOP
+  found := pg_temp.node_over_rental(child, node_types);
+  IF found IS NOT NULL THEN
+   RETURN found;
+  END IF;
+ END LOOP;
+ RETURN NULL;
+END $$;
+
+-- Raises an error unless the plan of the query uses an index matching required_index and
+-- has none of the specified node types over rental.
+CREATE FUNCTION pg_temp.check_plan(label TEXT, query TEXT, required_index TEXT, forbidden TEXT[]) RETURNS TEXT LANGUAGE plpgsql AS $$
+DECLARE
+ plan JSON;
+ found TEXT;
+BEGIN
+ EXECUTE 'EXPLAIN (ANALYZE, FORMAT JSON) ' || query INTO plan;
+ IF NOT EXISTS (SELECT 1 FROM regexp_matches(plan::text, '"Index Name": "' || required_index || '"')) THEN
+  RAISE EXCEPTION '%: the plan does not use %.', label, required_index;
+ END IF;
+ found := pg_temp.node_over_rental(plan->0->'Plan', forbidden);
+ IF found IS NOT NULL THEN
+  RAISE EXCEPTION '%: the plan has a % over rental.', label, found;
+ END IF;
+ RETURN label || ': ok';
+END $$;
+
+DO $$
+DECLARE
+ rentals BIGINT := (SELECT count(*) FROM rental);
+BEGIN
+ IF rentals < 1000000 THEN
+  RAISE EXCEPTION 'rental holds % rows, the plans are only checked with at least 1M.', rentals;
+ END IF;
+END $$;
+
+SELECT pg_temp.check_plan('listing of one instrument', format($q$
+SELECT ri.id FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where i.name = 'Guitar'
+and NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (%1$L::date - interval '12 months')::date and r.start_date <= %2$L::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(%1$L::date, %2$L::date, '[]'))$q$, :start_date, :end_date),
+ 'rental(_y[0-9]{4})?_no_overlap', ARRAY['Aggregate', 'Hash', 'Seq Scan']);
+
+SELECT pg_temp.check_plan('listing of all instruments', format($q$
+SELECT ri.id FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (%1$L::date - interval '12 months')::date and r.start_date <= %2$L::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(%1$L::date, %2$L::date, '[]'))$q$, :start_date, :end_date),
+ 'rental(_y[0-9]{4})?_no_overlap', ARRAY['Aggregate', 'Hash', 'Seq Scan']);
+
+SELECT pg_temp.check_plan('locking lookup', format($q$
+SELECT ri.id, EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (%1$L::date - interval '12 months')::date and r.start_date <= %2$L::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(%1$L::date, %2$L::date, '[]'))
+FROM rental_instrument ri where ri.id = 42$q$, :start_date, :end_date),
+ 'rental(_y[0-9]{4})?_no_overlap', ARRAY['Aggregate', 'Hash', 'Seq Scan']);
+
+SELECT pg_temp.check_plan('student count', $q$
+SELECT count(*) FROM rental r where r.student_id = 42 and r.terminated IS NOT TRUE and r.end_date >= CURRENT_DATE
+ and r.start_date >= (CURRENT_DATE - interval '12 months')::date$q$,
+ 'rental(_y[0-9]{4})?_(active_student_idx|student_id_end_date_idx)', ARRAY['Hash', 'Seq Scan']);
@@ -0,0 +1,143 @@
+-- Query plans of the availability, count and report queries once migrations/V005__time_partitions.sql
+-- has partitioned rental and lesson, for checking that only the partitions of the years asked for
+-- are read. Apply V005 to a copy of a populated database first and run this script on the copy:
+--   createdb -T soundgood soundgood_v005
+--   psql -d soundgood_v005 -v ON_ERROR_STOP=1 -f src/main/resources/migrations/V005__time_partitions.sql
+--   psql -d soundgood_v005 -v ON_ERROR_STOP=1 -f src/main/resources/psql-sgdb-explain-partitions.sql
+-- createdb -T needs that no one is connected to soundgood while the copy is made.
+--
+-- The rows of each partition are listed, the plans are printed with EXPLAIN ANALYZE and then
+-- checked, and the script stops with an error if a check fails:
+--   * rental and lesson are partitioned and rental holds at least 1M rows.
+--   * Each query reads at least one partition and no partition of a year outside those it asks
+--     for, neither is the parent table read as if it was not partitioned.
+-- The plans depend on the data and the server settings, so they are not kept in this file;
+-- run the script on the database they are to be checked for.
+
+\set start_date '''2022-03-01'''
+\set end_date '''2022-06-30'''
+\set sel_year 2022
+\set max_jobs_per_month 3
+
+SELECT c.relname as partition, c.reltuples::bigint as estimated_rows
+FROM pg_inherits i JOIN pg_class c on c.oid = i.inhrelid JOIN pg_class p on p.oid = i.inhparent
+where p.relname in ('rental', 'lesson')
+order by c.relname;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ri.id as rental_instrument_id, i.name, ri.model, i.cathegory, ri.monthly_price
+FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (:start_date::date - interval '12 months')::date and r.start_date <= :end_date::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(:start_date::date, :end_date::date, '[]'))
+order by ri.id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM rental r where r.student_id = 42 and r.terminated IS NOT TRUE and r.end_date >= CURRENT_DATE
+ and r.start_date >= (CURRENT_DATE - interval '12 months')::date;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT EXTRACT('MONTH' from start_timestamp) as month_id, lesson_type, count(*)
+FROM lesson
+where start_timestamp >= make_date(:sel_year, 1, 1) and start_timestamp < make_date(:sel_year + 1, 1, 1)
+group by month_id, lesson_type;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT j.instructor_id, count(*) as nr_of_jobs
+from lesson l JOIN job j on l.id = j.lesson_id
+where l.start_timestamp >= date_trunc('month', CURRENT_DATE)
+  and l.start_timestamp < date_trunc('month', CURRENT_DATE) + interval '1 month'
+group by j.instructor_id
+having count(*) >= :max_jobs_per_month;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT l.id, count(*) as bookings
+from lesson as l JOIN booking b on b.lesson_id = l.id
+where l.start_timestamp >= date_trunc('week', CURRENT_DATE) and l.start_timestamp < date_trunc('week', CURRENT_DATE) + interval '1 week'
+group by l.id;
+
+-- The years of the partitions of parent that the plan node or a node below it reads. The year
+-- 0 stands for the parent table itself, which is only read if it is not partitioned.
+CREATE FUNCTION pg_temp.years_read(node JSON, parent TEXT) RETURNS INT[] LANGUAGE plpgsql AS $$
+DECLARE
+ child JSON;
+ years INT[] := '{}';
+ relation TEXT := node->>'Relation Name';
+BEGIN
+ IF relation = parent THEN
+  years := years || 0;
+ ELSIF relation ~ ('^' || parent || '_y[0-9]{4}$') THEN
+  years := years || right(relation, 4)::int;
+ END IF;
+ FOR child IN SELECT json_array_elements(coalesce(node->'Plans', '[]'::json)) LOOP
+  years := years || pg_temp.years_read(child, parent);
+ END LOOP;
+ RETURN years;
+END $$;
+
+-- Raises an error unless the plan of the query reads at least one partition of parent and only
+-- partitions of the years from first_year to last_year. A null last_year has no upper bound.
+CREATE FUNCTION pg_temp.check_pruning(label TEXT, query TEXT, parent TEXT, first_year INT, last_year INT) RETURNS TEXT LANGUAGE plpgsql AS $$
+DECLARE
+ plan JSON;
+ years INT[];
+ outside INT;
+BEGIN
+ EXECUTE 'EXPLAIN (ANALYZE, FORMAT JSON) ' || query INTO plan;
+ years := pg_temp.years_read(plan->0->'Plan', parent);
+ IF 0 = ANY (years) THEN
+  RAISE EXCEPTION '%: the plan reads % as a plain table.', label, parent;
+ END IF;
+ IF cardinality(years) = 0 THEN
+  RAISE EXCEPTION '%: the plan reads no partition of %.', label, parent;
+ END IF;
+ SELECT y INTO outside FROM unnest(years) y where y < first_year or y > last_year LIMIT 1;
+ IF outside IS NOT NULL THEN
+  RAISE EXCEPTION '%: the plan reads %_y%, outside % to %.', label, parent, outside, first_year, coalesce(last_year::text, 'any later year');
+ END IF;
+ RETURN format('%s: ok, reads %s_y%s', label, parent, array_to_string(ARRAY(SELECT DISTINCT unnest(years) ORDER BY 1), ', _y'));
+END $$;
+
+DO $$
+DECLARE
+ rentals BIGINT := (SELECT count(*) FROM rental);
+BEGIN
+ IF (SELECT count(*) FROM pg_class where relname in ('rental', 'lesson') and relkind = 'p') < 2 THEN
+  RAISE EXCEPTION 'rental and lesson are not partitioned, apply migrations/V005__time_partitions.sql first.';
+ END IF;
+ IF rentals < 1000000 THEN
+  RAISE EXCEPTION 'rental holds % rows, the plans are only checked with at least 1M.', rentals;
+ END IF;
+END $$;
+
+SELECT pg_temp.check_pruning('listing of all instruments', format($q$
+SELECT ri.id FROM rental_instrument ri JOIN instrument i on i.id = ri.instrument_id
+where NOT EXISTS (SELECT 1 FROM rental r where r.rental_instrument_id = ri.id and r.terminated IS NOT TRUE
+ and r.start_date >= (%1$L::date - interval '12 months')::date and r.start_date <= %2$L::date
+ and daterange(r.start_date, r.end_date, '[]') && daterange(%1$L::date, %2$L::date, '[]'))$q$, :start_date, :end_date),
+ 'rental', extract(year from :start_date::date - interval '12 months')::int, extract(year from :end_date::date)::int);
+
+SELECT pg_temp.check_pruning('student count', $q$
+SELECT count(*) FROM rental r where r.student_id = 42 and r.terminated IS NOT TRUE and r.end_date >= CURRENT_DATE
+ and r.start_date >= (CURRENT_DATE - interval '12 months')::date$q$,
+ 'rental', extract(year from CURRENT_DATE - interval '12 months')::int, NULL);
+
+SELECT pg_temp.check_pruning('lessons per month', format($q$
+SELECT EXTRACT('MONTH' from start_timestamp), lesson_type, count(*) FROM lesson
+where start_timestamp >= make_date(%1$s, 1, 1) and start_timestamp < make_date(%1$s + 1, 1, 1)
+group by 1, 2$q$, :sel_year),
+ 'lesson', :sel_year, :sel_year);
+
+SELECT pg_temp.check_pruning('lessons of each instructor this month', format($q$
+SELECT j.instructor_id, count(*) from lesson l JOIN job j on l.id = j.lesson_id
+where l.start_timestamp >= date_trunc('month', CURRENT_DATE)
+  and l.start_timestamp < date_trunc('month', CURRENT_DATE) + interval '1 month'
+group by j.instructor_id having count(*) >= %1$s$q$, :max_jobs_per_month),
+ 'lesson', extract(year from CURRENT_DATE)::int, extract(year from CURRENT_DATE)::int);
+
+SELECT pg_temp.check_pruning('ensembles next week', $q$
+SELECT l.id, count(*) from lesson as l JOIN booking b on b.lesson_id = l.id
+where l.start_timestamp >= date_trunc('week', CURRENT_DATE) and l.start_timestamp < date_trunc('week', CURRENT_DATE) + interval '1 week'
+group by l.id$q$,
+ 'lesson', extract(year from date_trunc('week', CURRENT_DATE))::int,
+ extract(year from date_trunc('week', CURRENT_DATE) + interval '6 days')::int);
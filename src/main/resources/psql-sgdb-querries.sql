@@ -2,6 +2,7 @@
 -- It shall be possible to retrieve the total number of lessons per month (just one number per month) and the specific
 -- number of individual lessons, group lessons and ensembles (thrgroup by ee numbers per month).
 -- This query is expected to be performed a few times per week.
+-- The year is a range on start_timestamp, so only the partition of that year is read, see migrations/V005.
 
 select month                                                              as month,
        count(*)                                                           as lessons,
@@ -13,7 +14,7 @@ From (
                 TO_CHAR(start_timestamp, 'Month')     as month,
                 lesson_type
          FROM lesson
-         where EXTRACT('YEAR' from start_timestamp) = :sel_year
+         where start_timestamp >= make_date(:sel_year, 1, 1) and start_timestamp < make_date(:sel_year + 1, 1, 1)
      ) s
 group by month, month_id
 order by month_id;
@@ -25,7 +26,7 @@ SELECT SUM(count) / 12 as average_nr_lessons_:sel_year
 from (
          SELECT count(*) as count
          FROM lesson
-         where EXTRACT('YEAR' from start_timestamp) = :sel_year
+         where start_timestamp >= make_date(:sel_year, 1, 1) and start_timestamp < make_date(:sel_year + 1, 1, 1)
          GROUP BY start_timestamp
          order by EXTRACT('MONTH' from start_timestamp)) s;
 
@@ -33,6 +34,7 @@ from (
  -- List all instructors who has given more than a specific number of lessons during the current month.
  -- Sum all lessons, independent of type, and sort the result by the number of given lessons.
  -- This query will be used to find instructors risking to work too much, and will be executed daily.
+ -- The month is a range on start_timestamp, so only the lessons of this month and year are read.
 
 Select *
 from (
@@ -42,7 +44,8 @@ from (
                   JOIN job j on l.id = j.lesson_id
                   JOIN instructor inst on inst.instructor_id = j.instructor_id
                   JOIN person p on inst.instructor_id = p.id
-         where EXTRACT('MONTH' from l.start_timestamp) = EXTRACT('MONTH' from CURRENT_TIMESTAMP)
+         where l.start_timestamp >= date_trunc('month', CURRENT_DATE)
+           and l.start_timestamp < date_trunc('month', CURRENT_DATE) + interval '1 month'
          group by inst.instructor_id, p.first_name, p.last_name) s
 where nr_of_jobs >= :max_jobs_per_month;
 
@@ -64,5 +67,62 @@ SELECT l.lesson_type,
 from lesson as l
          JOIN ensamble_lesson el on l.id = el.lesson_id
          JOIN booking b on b.lesson_id = el.lesson_id
-where EXTRACT('WEEK' from l.start_timestamp) = EXTRACT('WEEK' from CURRENT_TIMESTAMP) and EXTRACT('year' from l.start_timestamp) = EXTRACT('year' from CURRENT_TIMESTAMP)
+where l.start_timestamp >= date_trunc('week', CURRENT_DATE) and l.start_timestamp < date_trunc('week', CURRENT_DATE) + interval '1 week'
 group by b.lesson_id, el.max_cap, l.start_timestamp, l.end_timestamp, l.lesson_type;
+
+
+ -- The first three reports read from the statistics tables of migrations/V002__lesson_statistics.sql,
+ -- which the database keeps up to date. They read at most a few hundred rows however many lessons are stored.
+
+SELECT TO_CHAR(month, 'Month')                                                       as month,
+       SUM(lessons)                                                                  as lessons,
+       SUM(case when lesson_type = 'individual lesson' THEN lessons ELSE 0 END)      as individual_lesson,
+       SUM(case when lesson_type = 'group lesson' THEN lessons ELSE 0 END)           as group_lesson,
+       SUM(case when lesson_type = 'ensemble' THEN lessons ELSE 0 END)               as ensemble
+FROM lesson_month_stats
+where month >= make_date(:sel_year, 1, 1) and month < make_date(:sel_year + 1, 1, 1)
+group by month
+order by month;
+
+SELECT SUM(lessons) / 12.0 as average_nr_lessons
+FROM lesson_month_stats
+where month >= make_date(:sel_year, 1, 1) and month < make_date(:sel_year + 1, 1, 1);
+
+SELECT concat(p.first_name, ' ', p.last_name) as full_name,
+       sum(s.lessons)                         as nr_of_jobs
+FROM instructor_month_stats s
+         JOIN person p on p.id = s.instructor_id
+where s.month = date_trunc('month', CURRENT_DATE)::date
+group by s.instructor_id, p.first_name, p.last_name
+having sum(s.lessons) >= :max_jobs_per_month
+order by nr_of_jobs desc;
+
+-- The lessons of each type every instructor gives this month.
+SELECT concat(p.first_name, ' ', p.last_name) as full_name,
+       s.lesson_type,
+       s.lessons
+FROM instructor_month_stats s
+         JOIN person p on p.id = s.instructor_id
+where s.month = date_trunc('month', CURRENT_DATE)::date
+order by full_name, s.lesson_type;
+
+-- The same ensemble report read from the seat counters of migration V003, one row per
+-- lesson instead of a count over its bookings.
+SELECT l.start_timestamp,
+       l.end_timestamp,
+       el.genre,
+       case
+           when s.capacity - s.booked <= 0 THEN 'Fully booked.'
+           when s.capacity - s.booked = 1 THEN 'Only one spot left!'
+           when s.capacity - s.booked = 2 THEN 'Two spots left.'
+           ELSE ''
+           END              as status,
+       s.booked             as bookings,
+       s.capacity           as max_cap,
+       s.capacity - s.booked as pax_left
+FROM ensamble_lesson el
+         JOIN lesson l on l.id = el.lesson_id
+         JOIN lesson_seats s on s.lesson_id = el.lesson_id
+where l.start_timestamp >= date_trunc('week', CURRENT_DATE) + interval '1 week'
+  and l.start_timestamp < date_trunc('week', CURRENT_DATE) + interval '2 weeks'
+order by el.genre, l.start_timestamp;